@@ -27,6 +27,29 @@ public class AllTests {
 		suite.addTestSuite(SimpleTest.class);
 		suite.addTestSuite(LoadBalanceTest.class);
 		suite.addTestSuite(SimpleRmiHttpServerTest.class);
+		suite.addTestSuite(RequisitionChannelTest.class);
+		suite.addTestSuite(NodeLoadIndexTest.class);
+		suite.addTestSuite(ShardedDispatcherTest.class);
+		suite.addTestSuite(WorkerPoolTest.class);
+		suite.addTestSuite(JobTest.class);
+		suite.addTestSuite(SubmitTest.class);
+		suite.addTestSuite(BatchTest.class);
+		suite.addTestSuite(PullModeTest.class);
+		suite.addTestSuite(DeliveryBatchTest.class);
+		suite.addTestSuite(NioTransportTest.class);
+		suite.addTestSuite(CodecRegistryTest.class);
+		suite.addTestSuite(CompressionTest.class);
+		suite.addTestSuite(TunedSocketFactoryTest.class);
+		suite.addTestSuite(StreamingTest.class);
+		suite.addTestSuite(SharedDataTest.class);
+		suite.addTestSuite(MappedFrameTest.class);
+		suite.addTestSuite(LocalNodeTest.class);
+		suite.addTestSuite(ResultCacheTest.class);
+		suite.addTestSuite(ReductionTest.class);
+		suite.addTestSuite(SplitTest.class);
+		suite.addTestSuite(TreeReduceTest.class);
+		suite.addTestSuite(ForkJoinTest.class);
+		suite.addTestSuite(SpeculationTest.class);
 		//$JUnit-END$
 		return suite;
 	}
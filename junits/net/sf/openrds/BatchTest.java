@@ -0,0 +1,152 @@
+/**
+ * BatchTest.java
+ */
+
+package net.sf.openrds;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * junits for batch submission of requisitions
+ */
+public class BatchTest extends OpenRDSTestCase {
+
+	/**
+	 * @throws Exception on any error
+	 */
+	public void testSubmitRequisitions() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final Requisition[] reqs = new Requisition[300];
+		for (int i = 0; i < reqs.length; i++) {
+			reqs[i] = new NumberRequisition(i);
+		}
+		final JobHandle job = main.createJob();
+		final RequisitionTicket[] tickets = main.submitRequisitions(reqs, job);
+		assertEquals(reqs.length, tickets.length);
+		main.waitIdle(job);
+		final RequisitionResult[] results = main.pollResults(tickets);
+		for (int i = 0; i < results.length; i++) {
+			assertSame(tickets[i], results[i].getTicket());
+			assertEquals(new Integer(i), results[i].getResult());
+		}
+		main.closeJob(job);
+	}
+
+	/**
+	 * Requisitions must be sent when the batch is full, and when the linger time elapses
+	 * @throws Exception on any error
+	 */
+	public void testBatcher() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final JobHandle job = main.createJob();
+		final RequisitionBatcher batcher = new RequisitionBatcher(main, job, 50, 20);
+		for (int i = 0; i < 1234; i++) {
+			batcher.add(new NumberRequisition(i));
+		}
+		assertTrue(batcher.getSubmitted() >= 1200);
+		// The remaining ones must be sent after the linger time, even without flush()
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (batcher.getSubmitted() < 1234 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1234, batcher.getSubmitted());
+		batcher.add(new NumberRequisition(1234));
+		batcher.close();
+		assertEquals(1235, batcher.getSubmitted());
+		main.waitIdle(job);
+		final Set numbers = new HashSet();
+		final RequisitionResult[] results = main.fetchResults(job, 2000, 0);
+		for (int i = 0; i < results.length; i++) {
+			numbers.add(results[i].getResult());
+		}
+		assertEquals(1235, numbers.size());
+		try {
+			batcher.add(new NumberRequisition(0));
+			fail("The batcher has been closed");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+		main.closeJob(job);
+	}
+
+	/**
+	 * Requisitions of a group that could not be sent must be kept and sent again
+	 * @throws Exception on any error
+	 */
+	public void testBatcherFailure() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final JobHandle job = main.createJob();
+		final boolean[] failing = {true};
+		final IMainNode unreliable = (IMainNode) Proxy.newProxyInstance(IMainNode.class.getClassLoader(),
+				new Class[] {IMainNode.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (failing[0] && method.getName().equals("submitRequisitions")) {
+					throw new RemoteException("Connection lost");
+				}
+				try {
+					return method.invoke(main, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+			}
+		});
+		final RequisitionBatcher batcher = new RequisitionBatcher(unreliable, job, 5, 60000);
+		for (int i = 0; i < 4; i++) {
+			batcher.add(new NumberRequisition(i));
+		}
+		try {
+			batcher.add(new NumberRequisition(4));
+			fail("Should throw RemoteException");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+		assertEquals(0, batcher.getSubmitted());
+		assertEquals(5, batcher.getPending().length);
+		try {
+			batcher.close();
+			fail("Should throw RemoteException");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+		failing[0] = false;
+		batcher.add(new NumberRequisition(5));
+		batcher.close();
+		assertEquals(6, batcher.getSubmitted());
+		assertEquals(0, batcher.getPending().length);
+		main.waitIdle(job);
+		final Set numbers = new HashSet();
+		final RequisitionResult[] results = main.fetchResults(job, 100, 0);
+		for (int i = 0; i < results.length; i++) {
+			numbers.add(results[i].getResult());
+		}
+		assertEquals(6, numbers.size());
+		main.closeJob(job);
+	}
+
+	/**
+	 * Returns its own number
+	 */
+	private static final class NumberRequisition extends IndivisibleRequisition {
+		private final int number;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 */
+		private NumberRequisition(int number) {
+			this.number = number;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			return new Integer(number);
+		}
+	}
+}
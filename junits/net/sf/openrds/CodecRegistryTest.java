@@ -0,0 +1,271 @@
+/**
+ * CodecRegistryTest.java
+ */
+
+package net.sf.openrds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for CodecRegistry
+ */
+public class CodecRegistryTest extends TestCase {
+	private static int encoded = 0;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.BASE_IP, "127.0.0.1");
+		CodecRegistry.getInstance().register(TestRequisition.class, new TestCodec(true));
+		CodecRegistry.getInstance().register(TestValue.class, new TestCodec(false));
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		CodecRegistry.getInstance().unregister(TestRequisition.class);
+		CodecRegistry.getInstance().unregister(TestValue.class);
+		super.tearDown();
+	}
+
+	/**
+	 * Requisitions that define writeReplace() must use their codec on any stream
+	 * @throws Exception on any error
+	 */
+	public void testRequisitions() throws Exception {
+		final TestRequisition req = new TestRequisition(42, "Some text");
+		final int before = encoded;
+		final byte[] withCodec = serialize(req);
+		assertEquals(before + 1, encoded);
+		final TestRequisition copy = (TestRequisition) deserialize(withCodec);
+		assertEquals(42, copy.number);
+		assertEquals("Some text", copy.text);
+		CodecRegistry.getInstance().unregister(TestRequisition.class);
+		final byte[] withoutCodec = serialize(req);
+		assertEquals(before + 1, encoded);
+		assertTrue(withCodec.length < withoutCodec.length);
+		assertEquals("Some text", ((TestRequisition) deserialize(withoutCodec)).text);
+	}
+
+	/**
+	 * Requisitions must be free to define their own writeReplace(), and must not use a codec
+	 * on other streams unless they ask for it
+	 * @throws Exception on any error
+	 */
+	public void testOwnWriteReplace() throws Exception {
+		CodecRegistry.getInstance().register(PlainRequisition.class, new TestCodec(true));
+		try {
+			final int before = encoded;
+			final PlainRequisition copy = (PlainRequisition) deserialize(serialize(new PlainRequisition(7)));
+			assertEquals(before, encoded);
+			assertEquals(8, copy.number);
+		} finally {
+			CodecRegistry.getInstance().unregister(PlainRequisition.class);
+		}
+	}
+
+	/**
+	 * Other objects must use their codec only on the "nio" transport, and concurrent
+	 * calls must always find the class ids that they use
+	 * @throws Exception on any error
+	 */
+	public void testNioTransport() throws Exception {
+		assertSame(CodecRegistry.getInstance().replace(this), this);
+		final ServerSocket socket = new ServerSocket(0);
+		final int port = socket.getLocalPort();
+		socket.close();
+		final NioTransport transport = new NioTransport();
+		final Registry local = transport.createLocalRegistry(port);
+		local.rebind("CodecEcho", new Echo());
+		final NioTransportTest.IEcho echo = (NioTransportTest.IEcho) transport.createRemoteRegistry("127.0.0.1", port).lookup("CodecEcho");
+		final int before = encoded;
+		final Throwable[] errors = new Throwable[1];
+		final Thread[] threads = new Thread[20];
+		for (int i = 0; i < threads.length; i++) {
+			final int number = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 20; j++) {
+							final TestValue value = (TestValue) echo.echo(new TestValue(number, "Value " + j));
+							assertEquals(number, value.number);
+							assertEquals("Value " + j, value.text);
+						}
+					} catch (Throwable t) {
+						errors[0] = t;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		assertNull(errors[0]);
+		// Each value is encoded on the call and on the response
+		assertEquals(before + 800, encoded);
+	}
+
+	/**
+	 * Serializes an object
+	 * @param obj object
+	 * @return serialized object
+	 * @throws IOException on any error
+	 */
+	private static byte[] serialize(Object obj) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(obj);
+		out.close();
+		return bytes.toByteArray();
+	}
+	/**
+	 * Deserializes an object
+	 * @param data serialized object
+	 * @return object
+	 * @throws Exception on any error
+	 */
+	private static Object deserialize(byte[] data) throws Exception {
+		return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+	}
+
+	/**
+	 * Requisition for test
+	 */
+	private static final class TestRequisition extends IndivisibleRequisition {
+		private final int number;
+		private final String text;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 * @param text text
+		 */
+		private TestRequisition(int number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			return null;
+		}
+		/**
+		 * Uses the registered codec with any stream
+		 * @return object to be written
+		 */
+		private Object writeReplace() {
+			return CodecRegistry.getInstance().replace(this);
+		}
+	}
+	/**
+	 * Requisition for test, which replaces itself by a copy with the next number
+	 */
+	private static final class PlainRequisition extends IndivisibleRequisition {
+		private final int number;
+		private final boolean copy;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 */
+		private PlainRequisition(int number) {
+			this(number, false);
+		}
+		/**
+		 * Constructor.
+		 * @param number number
+		 * @param copy true if this is the replacement
+		 */
+		private PlainRequisition(int number, boolean copy) {
+			this.number = number;
+			this.copy = copy;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			return null;
+		}
+		/**
+		 * Replaces this requisition by a copy with the next number
+		 * @return object to be written
+		 */
+		private Object writeReplace() {
+			return copy ? this : new PlainRequisition(number + 1, true);
+		}
+	}
+	/**
+	 * Value for test, which is not a requisition
+	 */
+	private static final class TestValue implements Serializable {
+		private final int number;
+		private final String text;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 * @param text text
+		 */
+		private TestValue(int number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+	}
+	/**
+	 * Codec for both test classes
+	 */
+	private static final class TestCodec implements ICodec {
+		private final boolean requisitions;
+		/**
+		 * Default Constructor.
+		 * @param requisitions true to decode requisitions, false to decode values
+		 */
+		private TestCodec(boolean requisitions) {
+			this.requisitions = requisitions;
+		}
+		/** {@inheritDoc} */
+		public void encode(Object obj, ObjectOutput out) throws IOException {
+			synchronized (CodecRegistryTest.class) {
+				encoded++;
+			}
+			if (obj instanceof TestRequisition) {
+				out.writeInt(((TestRequisition) obj).number);
+				out.writeUTF(((TestRequisition) obj).text);
+			} else {
+				out.writeInt(((TestValue) obj).number);
+				out.writeUTF(((TestValue) obj).text);
+			}
+		}
+		/** {@inheritDoc} */
+		public Object decode(ObjectInput in) throws IOException {
+			final int number = in.readInt();
+			final String text = in.readUTF();
+			if (requisitions) {
+				return new TestRequisition(number, text);
+			}
+			return new TestValue(number, text);
+		}
+	}
+	/**
+	 * Echo implementation
+	 */
+	private static final class Echo implements NioTransportTest.IEcho {
+		/** {@inheritDoc} */
+		public Object echo(Object obj) {
+			return obj;
+		}
+		/** {@inheritDoc} */
+		public Object callBack(NioTransportTest.IEcho other, Object obj) throws RemoteException {
+			return other.echo(obj);
+		}
+		/** {@inheritDoc} */
+		public void fail(String message) throws ProcessingException {
+			throw new ProcessingException(message);
+		}
+	}
+}
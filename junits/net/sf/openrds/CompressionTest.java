@@ -0,0 +1,118 @@
+/**
+ * CompressionTest.java
+ */
+
+package net.sf.openrds;
+
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for the compression done by the "nio" transport
+ */
+public class CompressionTest extends TestCase {
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.BASE_IP, "127.0.0.1");
+		System.setProperty(ISystemProperties.COMPRESSION_THRESHOLD, "1024");
+		// Both sides are on this machine, large frames would be memory-mapped instead
+		System.setProperty(ISystemProperties.MAPPED_THRESHOLD, "0");
+		NioEndpoint.getInstance().closeConnections();
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.COMPRESSION_THRESHOLD);
+		System.getProperties().remove(ISystemProperties.MAPPED_THRESHOLD);
+		NioEndpoint.getInstance().closeConnections();
+		super.tearDown();
+	}
+
+	/**
+	 * Only large and compressible frames must be compressed
+	 * @throws Exception on any error
+	 */
+	public void testThreshold() throws Exception {
+		final NioTransportTest.IEcho echo = startEcho();
+		final CompressionCounters counters = CompressionCounters.getInstance();
+		// Lets both sides know that the other one accepts compression
+		assertEquals("Hello", echo.echo("Hello"));
+		long frames = counters.getCompressedFrames();
+		long saved = counters.getSavedBytes();
+		assertEquals("Small", echo.echo("Small"));
+		assertEquals(frames, counters.getCompressedFrames());
+
+		final byte[] text = new byte[1024 * 1024];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) ('a' + (i % 7));
+		}
+		assertTrue(Arrays.equals(text, (byte[]) echo.echo(text)));
+		// Both the call and its response
+		assertEquals(frames + 2, counters.getCompressedFrames());
+		assertTrue(counters.getSavedBytes() - saved > 2 * 900 * 1024);
+		assertTrue(counters.getCompressionTime() > 0);
+		assertTrue(counters.getDecompressionTime() > 0);
+
+		final byte[] noise = new byte[64 * 1024];
+		new Random(17).nextBytes(noise);
+		frames = counters.getCompressedFrames();
+		final long rejected = counters.getRejectedFrames();
+		assertTrue(Arrays.equals(noise, (byte[]) echo.echo(noise)));
+		assertEquals(frames, counters.getCompressedFrames());
+		assertEquals(rejected + 2, counters.getRejectedFrames());
+	}
+
+	/**
+	 * Connections opened while compression is disabled must never compress
+	 * @throws Exception on any error
+	 */
+	public void testDisabled() throws Exception {
+		System.setProperty(ISystemProperties.COMPRESSION_THRESHOLD, "0");
+		NioEndpoint.getInstance().closeConnections();
+		final NioTransportTest.IEcho echo = startEcho();
+		final long frames = CompressionCounters.getInstance().getCompressedFrames();
+		final byte[] zeros = new byte[256 * 1024];
+		assertEquals("Hello", echo.echo("Hello"));
+		assertTrue(Arrays.equals(zeros, (byte[]) echo.echo(zeros)));
+		assertEquals(frames, CompressionCounters.getInstance().getCompressedFrames());
+	}
+
+	/**
+	 * Starts an echo object
+	 * @return proxy for the echo object
+	 * @throws Exception on any error
+	 */
+	static NioTransportTest.IEcho startEcho() throws Exception {
+		final ServerSocket socket = new ServerSocket(0);
+		final int port = socket.getLocalPort();
+		socket.close();
+		final NioTransport transport = new NioTransport();
+		final Registry local = transport.createLocalRegistry(port);
+		local.rebind("Echo", new Echo());
+		return (NioTransportTest.IEcho) transport.createRemoteRegistry("127.0.0.1", port).lookup("Echo");
+	}
+
+	/**
+	 * Echo implementation
+	 */
+	private static final class Echo implements NioTransportTest.IEcho {
+		/** {@inheritDoc} */
+		public Object echo(Object obj) {
+			return obj;
+		}
+		/** {@inheritDoc} */
+		public Object callBack(NioTransportTest.IEcho other, Object obj) throws RemoteException {
+			return other.echo(obj);
+		}
+		/** {@inheritDoc} */
+		public void fail(String message) throws ProcessingException {
+			throw new ProcessingException(message);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * DeliveryBatchTest.java
+ */
+
+package net.sf.openrds;
+
+/**
+ * junits for requisitions delivered in batches to process nodes
+ */
+public class DeliveryBatchTest extends OpenRDSTestCase {
+	private static final Object MUTEX = new Object();
+	private static int batched = 0;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.DELIVERY_BATCH, "32");
+		synchronized (MUTEX) {
+			batched = 0;
+		}
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.DELIVERY_BATCH);
+		super.tearDown();
+	}
+
+	/**
+	 * Small requisitions must be grouped, keeping results and errors of each one
+	 * @throws Exception on any error
+	 */
+	public void testBatchedDelivery() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final Requisition[] reqs = new Requisition[2000];
+		for (int i = 0; i < reqs.length; i++) {
+			reqs[i] = new TinyRequisition(i);
+		}
+		final JobHandle job = main.createJob();
+		final RequisitionTicket[] tickets = main.submitRequisitions(reqs, job);
+		main.waitIdle(job);
+		final RequisitionResult[] results = main.pollResults(tickets);
+		for (int i = 0; i < results.length; i++) {
+			if (i % 10 == 0) {
+				assertTrue(results[i].getError() instanceof ProcessingException);
+			} else {
+				assertEquals(new Integer(i), results[i].getResult());
+			}
+		}
+		synchronized (MUTEX) {
+			assertTrue("Requisitions have not been batched", batched > 0);
+		}
+		main.closeJob(job);
+	}
+
+	/**
+	 * Process nodes that can not process batches must receive requisitions one by one
+	 * @throws Exception on any error
+	 */
+	public void testPerItemFallback() throws Exception {
+		final MainNode main = startMainNode();
+		main.addToControl(new NodeLoadIndexTest.TestNode("legacy", 1000, 1000));
+		final Requisition[] reqs = new Requisition[500];
+		for (int i = 0; i < reqs.length; i++) {
+			reqs[i] = new TinyRequisition(i);
+		}
+		final JobHandle job = main.createJob();
+		final RequisitionTicket[] tickets = main.submitRequisitions(reqs, job);
+		main.waitIdle(job);
+		final RequisitionResult[] results = main.pollResults(tickets);
+		for (int i = 0; i < results.length; i++) {
+			if (i % 10 == 0) {
+				assertTrue(results[i].getError() instanceof ProcessingException);
+			} else {
+				assertEquals(new Integer(i), results[i].getResult());
+			}
+		}
+		synchronized (MUTEX) {
+			assertEquals(0, batched);
+		}
+		main.closeJob(job);
+	}
+
+		/**
+	 * Requisition that returns its own number, failing for multiples of 10
+	 */
+	private static final class TinyRequisition extends IndivisibleRequisition {
+		private final int number;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 */
+		private TinyRequisition(int number) {
+			this.number = number;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			final StackTraceElement[] stack = new Throwable().getStackTrace();
+			for (int i = 0; i < stack.length; i++) {
+				if ("processRequisitions".equals(stack[i].getMethodName())) {
+					synchronized (MUTEX) {
+						batched++;
+					}
+					break;
+				}
+			}
+			if (number % 10 == 0) {
+				throw new ProcessingException("Multiple of 10");
+			}
+			return new Integer(number);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * ForkJoinTest.java
+ */
+
+package net.sf.openrds;
+
+/**
+ * junits for ForkJoinRequisition
+ */
+public class ForkJoinTest extends OpenRDSTestCase {
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.MAX_WORKERS);
+		super.tearDown();
+	}
+
+	/**
+	 * Recursive requisitions must not hold a worker while their children are pending
+	 * @throws Exception on any error
+	 */
+	public void testRecursion() throws Exception {
+		System.setProperty(ISystemProperties.MAX_WORKERS, "2");
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		assertEquals(new Integer(610), main.processRequisition(new FibonacciRequisition(15)));
+		assertEquals(new Integer(1), main.processRequisition(new FibonacciRequisition(1)));
+		final RequisitionTicket ticket = main.submitRequisition(new FibonacciRequisition(12), null);
+		main.waitIdle();
+		assertEquals(new Integer(144), main.pollResult(ticket).getResult());
+	}
+
+	/**
+	 * Children may be plain requisitions, and join() may fork again
+	 * @throws Exception on any error
+	 */
+	public void testJoinForksAgain() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		// Doubles 1..4 (20), then doubles the sum (40)
+		assertEquals(new Integer(40), main.processRequisition(new TwoPhaseRequisition()));
+	}
+
+	/**
+	 * Errors of any child must be reported by the root requisition
+	 * @throws Exception on any error
+	 */
+	public void testErrors() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		try {
+			main.processRequisition(new FibonacciRequisition(-10));
+			fail("Should throw ProcessingException");
+		} catch (ProcessingException good) {
+			// This is expected to happen
+		}
+		final RequisitionTicket ticket = main.submitRequisition(new FibonacciRequisition(-10), null);
+		main.waitIdle();
+		assertTrue(main.pollResult(ticket).isError());
+	}
+
+	/**
+	 * Calculates a Fibonacci number, forking one child per term.
+	 * Negative numbers fail when they reach -1.
+	 */
+	private static final class FibonacciRequisition extends ForkJoinRequisition {
+		private final int n;
+		/**
+		 * Default Constructor.
+		 * @param n term
+		 */
+		private FibonacciRequisition(int n) {
+			this.n = n;
+		}
+		/** {@inheritDoc} */
+		public Object compute() throws ProcessingException {
+			if (n == -1) {
+				throw new ProcessingException("Negative term");
+			}
+			if (n >= 0 && n < 2) {
+				return new Integer(n);
+			}
+			final int step = (n < 0) ? 1 : -1;
+			return fork(new IndivisibleRequisition[] {new FibonacciRequisition(n + step), new FibonacciRequisition(n + 2 * step)});
+		}
+		/** {@inheritDoc} */
+		public Object join(Object[] childResults) {
+			return new Integer(((Integer) childResults[0]).intValue() + ((Integer) childResults[1]).intValue());
+		}
+	}
+	/**
+	 * Forks plain requisitions, then forks again from join()
+	 */
+	private static final class TwoPhaseRequisition extends ForkJoinRequisition {
+		private boolean second = false;
+		/** {@inheritDoc} */
+		public Object compute() {
+			return fork(new IndivisibleRequisition[] {new DoubleRequisition(1), new DoubleRequisition(2),
+				new DoubleRequisition(3), new DoubleRequisition(4)});
+		}
+		/** {@inheritDoc} */
+		public Object join(Object[] childResults) {
+			int sum = 0;
+			for (int i = 0; i < childResults.length; i++) {
+				sum += ((Integer) childResults[i]).intValue();
+			}
+			if (second) {
+				return new Integer(sum);
+			}
+			second = true;
+			return fork(new IndivisibleRequisition[] {new DoubleRequisition(sum)});
+		}
+	}
+	/**
+	 * Returns the double of a number
+	 */
+	private static final class DoubleRequisition extends IndivisibleRequisition {
+		private final int number;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 */
+		private DoubleRequisition(int number) {
+			this.number = number;
+		}
+		/** {@inheritDoc} */
+		public Object process() {
+			return new Integer(number * 2);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * JobTest.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+
+/**
+ * junits for jobs on the main node
+ */
+public class JobTest extends OpenRDSTestCase {
+	private static final Object MUTEX = new Object();
+	private static boolean released = false;
+	private static int processed = 0;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		synchronized (MUTEX) {
+			released = false;
+			processed = 0;
+		}
+	}
+
+	/**
+	 * Waiting a job must not wait requisitions of other jobs
+	 * @throws Exception on any error
+	 */
+	public void testIndependentJobs() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final JobHandle slowJob = main.createJob();
+		final JobHandle fastJob = main.createJob();
+		assertFalse(slowJob.equals(fastJob));
+		main.processAsyncRequisition(new JobRequisition(true), slowJob);
+		for (int i = 0; i < 10; i++) {
+			main.processAsyncRequisition(new JobRequisition(false), fastJob);
+		}
+		main.waitIdle(fastJob); // Must not wait for the slow job
+		synchronized (MUTEX) {
+			assertEquals(10, processed);
+			released = true;
+			MUTEX.notifyAll();
+		}
+		main.waitIdle(slowJob);
+		main.waitIdle();
+		synchronized (MUTEX) {
+			assertEquals(11, processed);
+		}
+		main.closeJob(slowJob);
+		main.closeJob(fastJob);
+		try {
+			main.processAsyncRequisition(new JobRequisition(false), fastJob);
+			fail("The job has been closed");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+		try {
+			main.waitIdle(new JobHandle(Long.MAX_VALUE));
+			fail("The job does not exist");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * Waiting a job must not return while a divisible requisition of the job is still
+	 * creating its sub-requisitions
+	 * @throws Exception on any error
+	 */
+	public void testSplitInProgress() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final JobHandle job = main.createJob();
+		final Throwable[] errors = new Throwable[1];
+		final Thread submitter = new Thread() {
+			public void run() {
+				try {
+					main.processAsyncRequisition(new SlowSplitRequisition(), job);
+				} catch (Throwable t) {
+					errors[0] = t;
+				}
+			}
+		};
+		submitter.start();
+		synchronized (MUTEX) {
+			// Waits the first sub-requisition to be done, while the second one is beeing created
+			for (int i = 0; i < 100 && processed < 1; i++) {
+				MUTEX.wait(100);
+			}
+			assertEquals(1, processed);
+			released = true;
+			MUTEX.notifyAll();
+		}
+		main.waitIdle(job);
+		synchronized (MUTEX) {
+			assertEquals(2, processed);
+		}
+		submitter.join();
+		assertNull(errors[0]);
+		main.closeJob(job);
+	}
+
+	/**
+	 * Divisible requisition whose second sub-requisition is only dispatched after the test
+	 * starts waiting for the job
+	 */
+	private static final class SlowSplitRequisition extends DivisibleRequisition {
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			return new SubRequisition[] {new SlowSubRequisition(false), new SlowSubRequisition(true)};
+		}
+		/** {@inheritDoc} */
+		public Object getResponse(Object[] subResults) {
+			return null;
+		}
+	}
+	/**
+	 * Sub-requisition that may hold its dispatching until the test releases it
+	 */
+	private static final class SlowSubRequisition extends SubRequisition {
+		private boolean hold;
+		/**
+		 * Default Constructor.
+		 * @param hold true to hold its dispatching until released by the test
+		 */
+		private SlowSubRequisition(boolean hold) {
+			this.hold = hold;
+		}
+		/** {@inheritDoc} */
+		public int getPriority() {
+			if (hold) {
+				hold = false;
+				synchronized (MUTEX) {
+					for (int i = 0; i < 100 && !released; i++) {
+						try {
+							MUTEX.wait(100);
+						} catch (InterruptedException ignored) {
+						}
+					}
+				}
+				try {
+					// Gives the test some time to start waiting for the job
+					Thread.sleep(500);
+				} catch (InterruptedException ignored) {
+				}
+			}
+			return super.getPriority();
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			synchronized (MUTEX) {
+				processed++;
+				MUTEX.notifyAll();
+			}
+			return null;
+		}
+	}
+	/**
+	 * Requisition that may be held until the test releases it
+	 */
+	private static final class JobRequisition extends IndivisibleRequisition {
+		private final boolean hold;
+		/**
+		 * Default Constructor.
+		 * @param hold true to hold the requisition until released by the test
+		 */
+		private JobRequisition(boolean hold) {
+			this.hold = hold;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			synchronized (MUTEX) {
+				while (hold && !released) {
+					try {
+						MUTEX.wait();
+					} catch (InterruptedException e) {
+						throw new ProcessingException("Interrupted", e);
+					}
+				}
+				processed++;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * LocalNodeTest.java
+ */
+
+package net.sf.openrds;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.server.RemoteObject;
+
+/**
+ * junits for process nodes that live on the JVM of the main node
+ */
+public class LocalNodeTest extends OpenRDSTestCase {
+	/** Last requisition processed */
+	private static volatile Object processed;
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.LOCAL_COPY);
+		processed = null;
+		super.tearDown();
+	}
+
+	/**
+	 * Local nodes must be called directly
+	 * @throws Exception on any error
+	 */
+	public void testDirect() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final CountRequisition req = new CountRequisition();
+		final Object result = main.processRequisition(req);
+		assertSame(req, processed);
+		assertSame(req.result, result);
+		assertEquals(1, req.count);
+	}
+
+	/**
+	 * A stub of a local node must be replaced by the node itself
+	 * @throws Exception on any error
+	 */
+	public void testStubReplaced() throws Exception {
+		final MainNode main = startMainNode();
+		final ProcessNode node = startProcessNode();
+		main.addToControl((IProcessNode) RemoteObject.toStub(node));
+		IProcessNode[] nodes = main.getControlledNodes();
+		assertEquals(1, nodes.length);
+		assertSame(node, nodes[0]);
+		// The same with a proxy of the "nio" transport
+		final NioEndpoint endpoint = NioEndpoint.getInstance();
+		main.addToControl((IProcessNode) endpoint.newProxy(endpoint.export(node)));
+		nodes = main.getControlledNodes();
+		assertEquals(1, nodes.length);
+		assertSame(node, nodes[0]);
+	}
+
+	/**
+	 * A node that only has the name of a local node must not be replaced by it
+	 * @throws Exception on any error
+	 */
+	public void testOtherNodeKept() throws Exception {
+		final MainNode main = startMainNode();
+		final ProcessNode node = startProcessNode();
+		final IProcessNode other = (IProcessNode) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {IProcessNode.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				try {
+					return method.invoke(node, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+		main.addToControl(other);
+		final IProcessNode[] nodes = main.getControlledNodes();
+		assertEquals(1, nodes.length);
+		assertSame(other, nodes[0]);
+	}
+
+	/**
+	 * Requisitions sent to local nodes must be copied when ISystemProperties.LOCAL_COPY is set
+	 * @throws Exception on any error
+	 */
+	public void testCopy() throws Exception {
+		System.setProperty(ISystemProperties.LOCAL_COPY, "true");
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final CountRequisition req = new CountRequisition();
+		assertEquals(new Integer(1), main.processRequisition(req));
+		assertNotSame(req, processed);
+		assertEquals(0, req.count);
+		assertEquals(1, ((CountRequisition) processed).count);
+	}
+
+	/**
+	 * Requisition that changes its own state
+	 */
+	private static final class CountRequisition extends IndivisibleRequisition {
+		private static final long serialVersionUID = 1L;
+		private int count = 0;
+		private Object result;
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			processed = this;
+			result = new Integer(++count);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * MappedFrameTest.java
+ */
+
+package net.sf.openrds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for the memory-mapped frames of the "nio" transport
+ */
+public class MappedFrameTest extends TestCase {
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.BASE_IP, "127.0.0.1");
+		System.setProperty(ISystemProperties.MAPPED_THRESHOLD, "65536");
+		NioEndpoint.getInstance().closeConnections();
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.MAPPED_THRESHOLD);
+		NioEndpoint.getInstance().closeConnections();
+		super.tearDown();
+	}
+
+	/**
+	 * Large frames between end-points on the same machine must be memory-mapped, and
+	 * their files deleted
+	 * @throws Exception on any error
+	 */
+	public void testMapped() throws Exception {
+		final NioTransportTest.IEcho echo = CompressionTest.startEcho();
+		final NioEndpoint endpoint = NioEndpoint.getInstance();
+		// Lets both sides know that the other one accepts memory-mapped frames
+		assertEquals("Hello", echo.echo("Hello"));
+		final int files = countFiles();
+		long frames = endpoint.getMappedFrames();
+		assertEquals("Small", echo.echo("Small"));
+		assertEquals(frames, endpoint.getMappedFrames());
+
+		final byte[] data = new byte[4 * 1024 * 1024];
+		new Random(17).nextBytes(data);
+		assertTrue(Arrays.equals(data, (byte[]) echo.echo(data)));
+		// Both the call and its response
+		assertEquals(frames + 2, endpoint.getMappedFrames());
+		assertEquals(files, countFiles());
+	}
+
+	/**
+	 * Connections opened while memory-mapped frames are disabled must never use them
+	 * @throws Exception on any error
+	 */
+	public void testDisabled() throws Exception {
+		System.setProperty(ISystemProperties.MAPPED_THRESHOLD, "0");
+		NioEndpoint.getInstance().closeConnections();
+		final NioTransportTest.IEcho echo = CompressionTest.startEcho();
+		final long frames = NioEndpoint.getInstance().getMappedFrames();
+		final byte[] data = new byte[256 * 1024];
+		assertEquals("Hello", echo.echo("Hello"));
+		assertTrue(Arrays.equals(data, (byte[]) echo.echo(data)));
+		assertEquals(frames, NioEndpoint.getInstance().getMappedFrames());
+	}
+
+	/**
+	 * Memory-mapped frames must be rejected for files out of the mapped directory, or if
+	 * the receiver has not announced them, and the files must never be deleted
+	 * @throws Exception on any error
+	 */
+	public void testRejected() throws Exception {
+		final NioRemoteRef ref = (NioRemoteRef) Proxy.getInvocationHandler(CompressionTest.startEcho());
+		final File dir = NioEndpoint.getMappedDirectory();
+		dir.mkdirs();
+		final File outside = File.createTempFile("openrds", ".map");
+		final File inside = File.createTempFile("openrds", ".map", dir);
+		try {
+			assertEquals(3, sendMapped(ref, outside.getPath()));
+			assertEquals(3, sendMapped(ref, new File(dir, ".." + File.separator + outside.getName()).getPath()));
+			assertTrue(outside.exists());
+			// This side has not announced memory-mapped frames on the new connection
+			System.setProperty(ISystemProperties.MAPPED_THRESHOLD, "0");
+			assertEquals(3, sendMapped(ref, inside.getPath()));
+			assertTrue(inside.exists());
+		} finally {
+			outside.delete();
+			inside.delete();
+		}
+	}
+
+	/**
+	 * Sends a memory-mapped request frame on a new connection, without the HELLO frame
+	 * @param ref reference to an exported object
+	 * @param path file path
+	 * @return type of the response frame
+	 * @throws Exception on any error
+	 */
+	private static int sendMapped(NioRemoteRef ref, String path) throws Exception {
+		final Socket socket = new Socket(ref.host, ref.port);
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream frame = new DataOutputStream(bytes);
+			frame.writeByte(1 | 0x20); // Memory-mapped request
+			frame.writeLong(1); // Call id
+			frame.writeInt(0); // No class ids
+			frame.writeInt(1024);
+			frame.writeUTF(path);
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+			out.flush();
+			final DataInputStream in = new DataInputStream(socket.getInputStream());
+			final byte[] response = new byte[in.readInt()];
+			in.readFully(response);
+			return response[0] & 0x0F;
+		} finally {
+			socket.close();
+		}
+	}
+	/**
+	 * Counts the files created for memory-mapped frames
+	 * @return number of files
+	 */
+	private static int countFiles() {
+		final String[] names = NioEndpoint.getMappedDirectory().list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("openrds") && name.endsWith(".map");
+			}
+		});
+		return (names != null) ? names.length : 0;
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * NioTransportTest.java
+ */
+
+package net.sf.openrds;
+
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for the "nio" transport
+ */
+public class NioTransportTest extends TestCase {
+	private static Registry local;
+	private static Registry remote;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.BASE_IP, "127.0.0.1");
+		if (local == null) {
+			final ServerSocket socket = new ServerSocket(0);
+			final int port = socket.getLocalPort();
+			socket.close();
+			final NioTransport transport = new NioTransport();
+			local = transport.createLocalRegistry(port);
+			local.rebind("Echo", new EchoImpl());
+			remote = transport.createRemoteRegistry("127.0.0.1", port);
+		}
+	}
+
+	/**
+	 * Many concurrent calls must share the same connection
+	 * @throws Exception on any error
+	 */
+	public void testConcurrentCalls() throws Exception {
+		final IEcho echo = (IEcho) remote.lookup("Echo");
+		assertTrue(Proxy.isProxyClass(echo.getClass()));
+		// Other junits may have the end-point listening on another port already
+		assertEquals(new Integer(0), echo.echo(new Integer(0)));
+		final int connections = NioEndpoint.getInstance().getConnectionCount();
+		final Throwable[] errors = new Throwable[1];
+		final Thread[] threads = new Thread[100];
+		for (int i = 0; i < threads.length; i++) {
+			final int base = i * 1000;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++) {
+							assertEquals(new Integer(base + j), echo.echo(new Integer(base + j)));
+						}
+					} catch (Throwable t) {
+						errors[0] = t;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		assertNull(errors[0]);
+		// No connection has been opened besides the one used by the first call
+		assertEquals(connections, NioEndpoint.getInstance().getConnectionCount());
+	}
+
+	/**
+	 * Frames larger than the socket buffers
+	 * @throws Exception on any error
+	 */
+	public void testLargeFrames() throws Exception {
+		final IEcho echo = (IEcho) remote.lookup("Echo");
+		final byte[] data = new byte[4 * 1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		assertTrue(Arrays.equals(data, (byte[]) echo.echo(data)));
+	}
+
+	/**
+	 * Exceptions must reach the caller
+	 * @throws Exception on any error
+	 */
+	public void testExceptions() throws Exception {
+		final IEcho echo = (IEcho) remote.lookup("Echo");
+		try {
+			echo.fail("Failed");
+			fail("Exception expected");
+		} catch (ProcessingException e) {
+			assertEquals("Failed", e.getMessage());
+		}
+		try {
+			remote.lookup("Nothing");
+			fail("Exception expected");
+		} catch (NotBoundException expected) {
+		}
+	}
+
+	/**
+	 * Remote objects sent as arguments must be called back, not copied
+	 * @throws Exception on any error
+	 */
+	public void testRemoteArguments() throws Exception {
+		final IEcho echo = (IEcho) remote.lookup("Echo");
+		final EchoImpl callBack = new EchoImpl();
+		assertEquals("Hello", echo.callBack(callBack, "Hello"));
+		assertEquals(1, callBack.calls);
+	}
+
+	/**
+	 * Unexported objects must not be reachable anymore
+	 * @throws Exception on any error
+	 */
+	public void testUnexport() throws Exception {
+		final EchoImpl obj = new EchoImpl();
+		final NioEndpoint endpoint = NioEndpoint.getInstance();
+		final IEcho echo = (IEcho) endpoint.newProxy(endpoint.export(obj));
+		assertEquals("Hello", echo.echo("Hello"));
+		assertTrue(NioEndpoint.unexportObject(obj));
+		assertFalse(NioEndpoint.unexportObject(obj));
+		try {
+			echo.echo("Hello");
+			fail("Exception expected");
+		} catch (NoSuchObjectException expected) {
+		}
+	}
+
+		/**
+	 * Remote interface for test
+	 */
+	public interface IEcho extends Remote {
+		/**
+		 * Returns the given object
+		 * @param obj object
+		 * @return obj
+		 * @throws RemoteException on communication error
+		 */
+		Object echo(Object obj) throws RemoteException;
+		/**
+		 * Calls echo() on another object
+		 * @param other other object
+		 * @param obj object
+		 * @return result of other.echo(obj)
+		 * @throws RemoteException on communication error
+		 */
+		Object callBack(IEcho other, Object obj) throws RemoteException;
+		/**
+		 * Always fails
+		 * @param message error message
+		 * @throws ProcessingException always
+		 * @throws RemoteException on communication error
+		 */
+		void fail(String message) throws ProcessingException, RemoteException;
+	}
+
+	/**
+	 * IEcho implementation
+	 */
+	private static final class EchoImpl implements IEcho {
+		private int calls = 0;
+		/** {@inheritDoc} */
+		public synchronized Object echo(Object obj) {
+			calls++;
+			return obj;
+		}
+		/** {@inheritDoc} */
+		public Object callBack(IEcho other, Object obj) throws RemoteException {
+			assertTrue(Proxy.isProxyClass(other.getClass()));
+			return other.echo(obj);
+		}
+		/** {@inheritDoc} */
+		public void fail(String message) throws ProcessingException {
+			throw new ProcessingException(message);
+		}
+	}
+}
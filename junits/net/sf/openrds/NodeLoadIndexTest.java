@@ -0,0 +1,320 @@
+/**
+ * NodeLoadIndexTest.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+import java.util.LinkedList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for NodeLoadIndex.<BR>
+ * The index must choose exactly the same nodes that the former linear scan used to choose.
+ */
+public class NodeLoadIndexTest extends TestCase {
+	private static final int[] CAPACITIES = {-1, 50, 100, 100, 200, 300};
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testNoNodes() throws Exception {
+		try {
+			new NodeLoadIndex().chooseBestNodeFor(new TestRequisition(-1, -1));
+			fail("There are no nodes available");
+		} catch (NoNodesAvailableException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testSameChoicesAsLinearScan() throws Exception {
+		final Random random = new Random(4715);
+		final NodeLoadIndex index = new NodeLoadIndex();
+		final RemoteNodeRef[] refs = new RemoteNodeRef[40];
+		for (int i = 0; i < refs.length; i++) {
+			final int clock = CAPACITIES[random.nextInt(CAPACITIES.length)];
+			final int mem = CAPACITIES[random.nextInt(CAPACITIES.length)];
+			refs[i] = new RemoteNodeRef(new TestNode("node" + (char) ('A' + i), clock, mem));
+			index.add(refs[i]);
+		}
+		final LinkedList[] reserved = new LinkedList[refs.length];
+		for (int i = 0; i < reserved.length; i++) {
+			reserved[i] = new LinkedList();
+		}
+		for (int step = 0; step < 20000; step++) {
+			final IndivisibleRequisition req = new TestRequisition(randomFactor(random), randomFactor(random));
+			final RemoteNodeRef expected = linearScan(refs, req);
+			final RemoteNodeRef chosen = index.chooseBestNodeFor(req);
+			assertSame("Wrong choice at step " + step, expected, chosen);
+			// Randomly reserves the chosen node or releases a reserved one
+			if (chosen != null && random.nextInt(5) < 3) {
+				final int[] factors = new int[] {Math.max(0, req.getProcessingFactor()), Math.max(0, req.getMemoryFactor())};
+				reserved[indexOf(refs, chosen)].add(factors);
+				index.reserve(chosen, factors[0], factors[1]);
+			} else {
+				final int i = random.nextInt(refs.length);
+				if (!reserved[i].isEmpty()) {
+					final int[] factors = (int[]) reserved[i].removeFirst();
+					index.release(refs[i], factors[0], factors[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A million requisitions are reserved and released by concurrent threads, while another
+	 * thread keeps choosing nodes. All loads must return to zero.
+	 * @throws Exception on any error
+	 */
+	public void testConcurrentLedger() throws Exception {
+		final NodeLoadIndex index = new NodeLoadIndex();
+		final RemoteNodeRef[] refs = new RemoteNodeRef[8];
+		for (int i = 0; i < refs.length; i++) {
+			refs[i] = new RemoteNodeRef(new TestNode("node" + i, 100, 100));
+			index.add(refs[i]);
+		}
+		final int threadCount = 4;
+		final int perThread = 1000000 / threadCount;
+		final boolean[] done = new boolean[1];
+		final Throwable[] error = new Throwable[1];
+		final Thread chooser = new Thread() {
+			public void run() {
+				final IndivisibleRequisition req = new TestRequisition(10, 10);
+				try {
+					while (!done[0]) {
+						index.chooseBestNodeFor(req);
+					}
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		};
+		final Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threads.length; i++) {
+			final long seed = i;
+			threads[i] = new Thread() {
+				public void run() {
+					final Random random = new Random(seed);
+					final int[] pending = new int[16 * 3];
+					int qtyPending = 0;
+					for (int j = 0; j < perThread; j++) {
+						// Reserves a requisition, keeping up to 16 of them before releasing
+						final RemoteNodeRef ref = refs[random.nextInt(refs.length)];
+						final int clock = random.nextInt(50);
+						final int mem = random.nextInt(50);
+						index.reserve(ref, clock, mem);
+						pending[qtyPending * 3] = indexOf(refs, ref);
+						pending[qtyPending * 3 + 1] = clock;
+						pending[qtyPending * 3 + 2] = mem;
+						qtyPending++;
+						if (qtyPending == 16 || j == perThread - 1) {
+							while (qtyPending > 0) {
+								qtyPending--;
+								index.release(refs[pending[qtyPending * 3]], pending[qtyPending * 3 + 1], pending[qtyPending * 3 + 2]);
+							}
+						}
+					}
+				}
+			};
+		}
+		chooser.start();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		done[0] = true;
+		chooser.join();
+		assertNull("Chooser failed: " + error[0], error[0]);
+		for (int i = 0; i < refs.length; i++) {
+			final NodeLoad load = refs[i].getLoad();
+			assertEquals(refs[i] + " " + load, 0, load.qtyReqs);
+			assertEquals(refs[i] + " " + load, 0, load.usedClockFactor);
+			assertEquals(refs[i] + " " + load, 0, load.usedMemFactor);
+		}
+		// The index must have caught up with all changes
+		final IndivisibleRequisition req = new TestRequisition(10, 10);
+		assertSame(linearScan(refs, req), index.chooseBestNodeFor(req));
+		for (int i = 0; i < refs.length; i++) {
+			assertSame(NodeLoad.IDLE, refs[i].indexed);
+		}
+	}
+
+	/**
+	 * Copy of the original linear scan algorithm. Nodes are scanned in name order, which is
+	 * the order used by the index to break ties.
+	 * @param refs nodes (in name order)
+	 * @param req requisition
+	 * @return best node
+	 */
+	private static RemoteNodeRef linearScan(RemoteNodeRef[] refs, IndivisibleRequisition req) {
+		final boolean considerClock		= (req.getProcessingFactor() > 0);
+		final boolean considerMem		= (req.getMemoryFactor() > 0);
+		RemoteNodeRef lowestQtyReq		= null;
+		RemoteNodeRef lowestClockUse	= null;
+		RemoteNodeRef lowestMemUse		= null;
+		for (int i = 0; i < refs.length; i++) {
+			final RemoteNodeRef ref = refs[i];
+			final boolean valid = (ref.getLoad().qtyReqs == 0)
+				|| ((!considerClock || ref.getLoad().usedClockFactor < ref.clock) && (!considerMem || ref.getLoad().usedMemFactor < ref.mem));
+			if (valid) {
+				if (lowestQtyReq == null || isBetterQtyOption(ref, lowestQtyReq)) {
+					lowestQtyReq = ref;
+				}
+				if (lowestClockUse == null || isBetterOption(ref.getLoad().usedClockFactor, lowestClockUse.getLoad().usedClockFactor, ref.clock, lowestClockUse.clock)) {
+					lowestClockUse = ref;
+				}
+				if (lowestMemUse == null || isBetterOption(ref.getLoad().usedMemFactor, lowestMemUse.getLoad().usedMemFactor, ref.mem, lowestMemUse.mem)) {
+					lowestMemUse = ref;
+				}
+			}
+		}
+		if (lowestQtyReq == null) {
+			return null;
+		}
+		if (considerClock && considerMem) {
+			return (lowestClockUse.getLoad().qtyReqs <= lowestMemUse.getLoad().qtyReqs) ? lowestClockUse : lowestMemUse;
+		} else if (considerClock) {
+			if ((lowestQtyReq != lowestClockUse) && (lowestQtyReq.getLoad().usedClockFactor - lowestClockUse.getLoad().usedClockFactor) < (req.getProcessingFactor() / 10D)) {
+				return lowestQtyReq;
+			}
+			return lowestClockUse;
+		} else if (considerMem) {
+			if ((lowestQtyReq != lowestMemUse) && (lowestQtyReq.getLoad().usedMemFactor - lowestMemUse.getLoad().usedMemFactor) < (req.getMemoryFactor() / 10D)) {
+				return lowestQtyReq;
+			}
+			return lowestMemUse;
+		}
+		return lowestQtyReq;
+	}
+	/**
+	 * See linearScan()
+	 * @param candidate candidate
+	 * @param bestNode best node
+	 * @return boolean
+	 */
+	private static boolean isBetterQtyOption(RemoteNodeRef candidate, RemoteNodeRef bestNode) {
+		if (candidate.getLoad().qtyReqs != bestNode.getLoad().qtyReqs) {
+			return candidate.getLoad().qtyReqs < bestNode.getLoad().qtyReqs;
+		} else if (candidate.clock != bestNode.clock) {
+			return candidate.clock > bestNode.clock;
+		} else if (candidate.mem != bestNode.mem) {
+			return candidate.mem > bestNode.mem;
+		} else if (candidate.getLoad().usedClockFactor != bestNode.getLoad().usedClockFactor) {
+			return candidate.getLoad().usedClockFactor < bestNode.getLoad().usedClockFactor;
+		}
+		return candidate.getLoad().usedMemFactor < bestNode.getLoad().usedMemFactor;
+	}
+	/**
+	 * See linearScan()
+	 * @param candidateUsedFactor candidateUsedFactor
+	 * @param bestUsedFactor bestUsedFactor
+	 * @param candidateFactor candidateFactor
+	 * @param bestFactor bestFactor
+	 * @return boolean
+	 */
+	private static boolean isBetterOption(int candidateUsedFactor, int bestUsedFactor, int candidateFactor, int bestFactor) {
+		return (candidateUsedFactor < bestUsedFactor || (candidateUsedFactor == bestUsedFactor && candidateFactor > bestFactor));
+	}
+	/**
+	 * @param random random
+	 * @return a random requisition factor
+	 */
+	private static int randomFactor(Random random) {
+		return random.nextInt(3) == 0 ? -1 : random.nextInt(120);
+	}
+	/**
+	 * @param refs refs
+	 * @param ref ref
+	 * @return index of ref
+	 */
+	private static int indexOf(RemoteNodeRef[] refs, RemoteNodeRef ref) {
+		for (int i = 0; i < refs.length; i++) {
+			if (refs[i] == ref) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Requisition with fixed factors
+	 */
+	private static final class TestRequisition extends IndivisibleRequisition {
+		private final int clockFactor;
+		private final int memFactor;
+		/**
+		 * Default Constructor.
+		 * @param clockFactor clock factor
+		 * @param memFactor mem factor
+		 */
+		private TestRequisition(int clockFactor, int memFactor) {
+			this.clockFactor = clockFactor;
+			this.memFactor = memFactor;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			return null;
+		}
+		/** {@inheritDoc} */
+		public int getProcessingFactor() {
+			return clockFactor;
+		}
+		/** {@inheritDoc} */
+		public int getMemoryFactor() {
+			return memFactor;
+		}
+	}
+	/**
+	 * Process node that is never exported, just used to create references
+	 */
+	static final class TestNode implements IProcessNode {
+		private final String name;
+		private final int clock;
+		private final int mem;
+		/**
+		 * Default Constructor.
+		 * @param name name
+		 * @param clock clock
+		 * @param mem memory
+		 */
+		TestNode(String name, int clock, int mem) {
+			this.name = name;
+			this.clock = clock;
+			this.mem = mem;
+		}
+		/** {@inheritDoc} */
+		public int getClockAmount() throws RemoteException {
+			return clock;
+		}
+		/** {@inheritDoc} */
+		public int getMemoryAmount() throws RemoteException {
+			return mem;
+		}
+		/** {@inheritDoc} */
+		public String getNodeName() throws RemoteException {
+			return name;
+		}
+		/** {@inheritDoc} */
+		public Object processRequisition(Requisition requisition) throws RemoteException {
+			return requisition.process();
+		}
+		/** {@inheritDoc} */
+		public void finish() throws RemoteException {
+		}
+		/** {@inheritDoc} */
+		public void addNodeEventListener(INodeEventListener listener) throws RemoteException {
+		}
+		/** {@inheritDoc} */
+		public void removeNodeEventListener(INodeEventListener listener) throws RemoteException {
+		}
+	}
+}
@@ -22,7 +22,8 @@ import junit.framework.TestCase;
  */
 public class OpenRDSTestCase extends TestCase {
 	private MainNode startedMainNode;
-	private List startedProcessNodes = new Vector();
+	/** Process nodes started by the current test, that must be finished when it ends */
+	private static final List STARTED_PROCESS_NODES = new Vector();
 	
 	/** {@inheritDoc} */
 	protected void setUp() throws Exception {
@@ -37,9 +38,13 @@ public class OpenRDSTestCase extends TestCase {
 		if (startedMainNode != null) {
 			startedMainNode.finish();
 		}
-		for (final Iterator it = this.startedProcessNodes.iterator(); it.hasNext();) {
-			final IProcessNode node = (IProcessNode) it.next();
-			node.finish();
+		// Otherwise their integrity handlers would register them again for the next tests
+		synchronized (STARTED_PROCESS_NODES) {
+			for (final Iterator it = STARTED_PROCESS_NODES.iterator(); it.hasNext();) {
+				final IProcessNode node = (IProcessNode) it.next();
+				node.finish();
+			}
+			STARTED_PROCESS_NODES.clear();
 		}
 		RegistryHandler.getInstance().finish();
 	}
@@ -73,7 +78,9 @@ public class OpenRDSTestCase extends TestCase {
 	protected static ProcessNode startProcessNode() {
 		MachineInformation.reset();
 		try {
-			return (ProcessNode) NodeFactory.getInstance().startProcessNode("127.0.0.1", true);
+			final ProcessNode node = (ProcessNode) NodeFactory.getInstance().startProcessNode("127.0.0.1", true);
+			STARTED_PROCESS_NODES.add(node);
+			return node;
 		} catch (Exception e) {
 			e.printStackTrace();
 			fail("Could not start process node. Cause: " + e.toString());
@@ -0,0 +1,160 @@
+/**
+ * PullModeTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * junits for process nodes in pull mode
+ */
+public class PullModeTest extends OpenRDSTestCase {
+	private static final Object MUTEX = new Object();
+	private static boolean released = false;
+	private static int holding = 0;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.PULL_MODE, "true");
+		System.setProperty(ISystemProperties.PULL_THREADS, "2");
+		System.setProperty(ISystemProperties.PULL_BATCH, "2");
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.PULL_MODE);
+		System.getProperties().remove(ISystemProperties.PULL_THREADS);
+		System.getProperties().remove(ISystemProperties.PULL_BATCH);
+		super.tearDown();
+	}
+
+	/**
+	 * Faster nodes must take more requisitions
+	 * @throws Exception on any error
+	 */
+	public void testFasterNodeTakesMore() throws Exception {
+		final MainNode main = startMainNode();
+		final ProcessNode slow = startProcessNode("100");
+		final ProcessNode fast = startProcessNode("1000");
+		try {
+			final Requisition[] reqs = new Requisition[200];
+			for (int i = 0; i < reqs.length; i++) {
+				reqs[i] = new SpeedRequisition();
+			}
+			final JobHandle job = main.createJob();
+			final RequisitionTicket[] tickets = main.submitRequisitions(reqs, job);
+			main.waitIdle(job);
+			final Map counts = new HashMap();
+			final RequisitionResult[] results = main.pollResults(tickets);
+			for (int i = 0; i < results.length; i++) {
+				final Object name = results[i].getResult();
+				final Integer count = (Integer) counts.get(name);
+				counts.put(name, new Integer((count == null) ? 1 : count.intValue() + 1));
+			}
+			final Integer slowCount = (Integer) counts.get(slow.getNodeName());
+			final Integer fastCount = (Integer) counts.get(fast.getNodeName());
+			assertNotNull(fastCount);
+			assertTrue("Fast: " + fastCount + ", slow: " + slowCount, slowCount == null || fastCount.intValue() > slowCount.intValue());
+			main.closeJob(job);
+		} finally {
+			slow.finish();
+			fast.finish();
+		}
+	}
+
+	/**
+	 * Requisitions taken by a node that is lost must be processed by another node
+	 * @throws Exception on any error
+	 */
+	public void testNodeLoss() throws Exception {
+		final MainNode main = startMainNode();
+		final ProcessNode lost = startProcessNode("100");
+		ProcessNode other = null;
+		try {
+			// Lets the pullers take the node out of the dispatcher, so it does not get the
+			// requisition pushed before it starts pulling
+			Thread.sleep(300);
+			final JobHandle job = main.createJob();
+			final RequisitionTicket ticket = main.submitRequisition(new HoldRequisition(lost.getNodeName()), job);
+			synchronized (MUTEX) {
+				while (holding == 0) {
+					MUTEX.wait();
+				}
+			}
+			// The requisition is held by the node, which is lost now. The other node is
+			// started first, otherwise there would be no node to take it back.
+			other = startProcessNode("200");
+			lost.finish();
+			main.waitIdle(job);
+			assertEquals(other.getNodeName(), main.pollResult(ticket).getResult());
+			main.closeJob(job);
+		} finally {
+			synchronized (MUTEX) {
+				released = true;
+				MUTEX.notifyAll();
+			}
+			lost.finish();
+			if (other != null) {
+				other.finish();
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the node, taking longer on slower nodes
+	 */
+	private static final class SpeedRequisition extends IndivisibleRequisition {
+		private transient IProcessNode node;
+		/** {@inheritDoc} */
+		public void onBeforeProcess(IProcessNode processNode) throws Exception {
+			this.node = processNode;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			try {
+				Thread.sleep(1000 / node.getClockAmount());
+				return node.getNodeName();
+			} catch (Exception e) {
+				throw new ProcessingException("Error", e);
+			}
+		}
+	}
+	/**
+	 * Holds processing on a given node until the test releases it
+	 */
+	private static final class HoldRequisition extends IndivisibleRequisition {
+		private final String holdOn;
+		private transient IProcessNode node;
+		/**
+		 * Default Constructor.
+		 * @param holdOn name of the node that must hold the requisition
+		 */
+		private HoldRequisition(String holdOn) {
+			this.holdOn = holdOn;
+		}
+		/** {@inheritDoc} */
+		public void onBeforeProcess(IProcessNode processNode) throws Exception {
+			this.node = processNode;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			try {
+				final String name = node.getNodeName();
+				if (name.equals(holdOn)) {
+					synchronized (MUTEX) {
+						holding++;
+						MUTEX.notifyAll();
+						while (!released) {
+							MUTEX.wait();
+						}
+					}
+				}
+				return name;
+			} catch (Exception e) {
+				throw new ProcessingException("Error", e);
+			}
+		}
+	}
+}
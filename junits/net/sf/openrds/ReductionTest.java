@@ -0,0 +1,176 @@
+/**
+ * ReductionTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * junits for ReducibleRequisition
+ */
+public class ReductionTest extends OpenRDSTestCase {
+	/** Gate that holds the first sub-requisition of SumRequisition */
+	private static volatile CountDownLatch gate;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		gate = new CountDownLatch(0);
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		gate.countDown();
+		super.tearDown();
+	}
+
+	/**
+	 * Sub-results must be folded by processRequisition() and submitRequisition()
+	 * @throws Exception on any error
+	 */
+	public void testReduce() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		assertEquals(new Integer(9900), main.processRequisition(new SumRequisition(100, -1)));
+		final RequisitionTicket ticket = main.submitRequisition(new SumRequisition(100, -1), null);
+		assertEquals(new Integer(9900), waitResult(main, ticket).getResult());
+		assertEquals(new Integer(0), main.processRequisition(new SumRequisition(0, -1)));
+		// Without a main node, all sub-results are folded at once
+		assertEquals(new Integer(20), new SumRequisition(5, -1).getResponse(new Object[] {new Integer(2), new Integer(8), new Integer(10)}));
+	}
+
+	/**
+	 * Sub-results must be folded as soon as they are available, not after the slowest one
+	 * @throws Exception on any error
+	 */
+	public void testCompletionOrder() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		gate = new CountDownLatch(1);
+		final SumRequisition req = new SumRequisition(10, -1);
+		final RequisitionTicket ticket = main.submitRequisition(req, null);
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (req.folded.size() < 9 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(9, req.folded.size());
+		assertFalse(req.folded.contains(new Integer(0)));
+		gate.countDown();
+		assertEquals(new Integer(90), waitResult(main, ticket).getResult());
+		assertEquals(new Integer(0), req.folded.get(9));
+	}
+
+	/**
+	 * The first error must be reported, by processRequisition() and submitRequisition()
+	 * @throws Exception on any error
+	 */
+	public void testErrors() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		try {
+			main.processRequisition(new SumRequisition(10, 3));
+			fail("Should throw ProcessingException");
+		} catch (ProcessingException good) {
+			// This is expected to happen
+		}
+		final RequisitionTicket ticket = main.submitRequisition(new SumRequisition(10, 3), null);
+		assertTrue(waitResult(main, ticket).isError());
+		// Errors of accumulate() are reported too
+		final RequisitionTicket accumulate = main.submitRequisition(new SumRequisition(10, 20), null);
+		assertTrue(waitResult(main, accumulate).isError());
+	}
+
+	/**
+	 * Completion listeners must run without holding the lock of the wrapper, after it is done
+	 * @throws Exception on any error
+	 */
+	public void testListenerOutsideLock() throws Exception {
+		final RequisitionWrapper wrapper = new RequisitionWrapper(new SumRequisition(1, -1).getSubRequisitions(1)[0]);
+		final List checks = new Vector();
+		wrapper.setListener(new RequisitionWrapper.CompletionListener() {
+			public void completed(RequisitionWrapper w, Object result, Throwable error) {
+				checks.add(Boolean.valueOf(!Thread.holdsLock(w) && w.isDone()));
+			}
+		});
+		wrapper.setResult(new Integer(1));
+		wrapper.setResult(new Integer(2));
+		assertEquals(1, checks.size());
+		assertEquals(Boolean.TRUE, checks.get(0));
+		assertEquals(new Integer(1), wrapper.waitProcessing());
+	}
+
+	/**
+	 * Waits for the result of a submitted requisition
+	 * @param main main node
+	 * @param ticket ticket of the requisition
+	 * @return result
+	 * @throws Exception on any error
+	 */
+	private static RequisitionResult waitResult(MainNode main, RequisitionTicket ticket) throws Exception {
+		main.waitIdle();
+		return main.pollResult(ticket);
+	}
+
+	/**
+	 * Sums the double of all numbers from zero up to a limit, one sub-requisition per number
+	 */
+	private static final class SumRequisition extends ReducibleRequisition {
+		private final int limit;
+		private final int failAt;
+		/** Sub-results, in the order they have been folded */
+		private final List folded = new Vector();
+		/**
+		 * Default Constructor.
+		 * @param limit limit (exclusive)
+		 * @param failAt number whose sub-requisition fails (or that fails to be accumulated,
+		 * if it is beyond the limit), -1 to never fail
+		 */
+		private SumRequisition(int limit, int failAt) {
+			this.limit = limit;
+			this.failAt = failAt;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			final SubRequisition[] subs = new SubRequisition[limit];
+			for (int i = 0; i < subs.length; i++) {
+				final int number = i;
+				subs[i] = new SubRequisition() {
+					public Object process() throws ProcessingException {
+						if (number == failAt) {
+							throw new ProcessingException("Failed at " + number);
+						}
+						if (number == 0) {
+							try {
+								gate.await();
+							} catch (InterruptedException e) {
+								throw new ProcessingException("Interrupted", e);
+							}
+						}
+						return new Integer(number * 2);
+					}
+				};
+			}
+			return subs;
+		}
+		/** {@inheritDoc} */
+		public Object createAccumulator() {
+			return new int[1];
+		}
+		/** {@inheritDoc} */
+		public Object accumulate(Object accumulator, Object subResult) throws ProcessingException {
+			if (failAt >= limit) {
+				throw new ProcessingException("Can not accumulate");
+			}
+			folded.add(new Integer(((Integer) subResult).intValue() / 2));
+			((int[]) accumulator)[0] += ((Integer) subResult).intValue();
+			return accumulator;
+		}
+		/** {@inheritDoc} */
+		public Object finish(Object accumulator) {
+			return new Integer(((int[]) accumulator)[0]);
+		}
+	}
+}
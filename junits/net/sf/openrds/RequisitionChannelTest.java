@@ -0,0 +1,184 @@
+/**
+ * RequisitionChannelTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for RequisitionChannel
+ */
+public class RequisitionChannelTest extends TestCase {
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testOrdering() throws Exception {
+		final RequisitionChannel channel = new RequisitionChannel();
+		final RequisitionWrapper first = newWrapper();
+		final RequisitionWrapper second = newWrapper();
+		final RequisitionWrapper top = newWrapper();
+		channel.put(first);
+		channel.put(second);
+		channel.putOnTop(top);
+		assertEquals(3, channel.size());
+		assertSame(top, channel.getNext());
+		assertSame(first, channel.getNext());
+		assertSame(second, channel.getNext());
+		assertEquals(0, channel.size());
+		assertFalse(channel.hasNext());
+		assertNull(channel.getNext(10));
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testPriorities() throws Exception {
+		final RequisitionChannel channel = new RequisitionChannel(Integer.MAX_VALUE, 0);
+		final RequisitionWrapper low = newWrapper(IndivisibleRequisition.PRIORITY_LOW);
+		final RequisitionWrapper normal = newWrapper();
+		final RequisitionWrapper high = newWrapper(IndivisibleRequisition.PRIORITY_HIGH);
+		final RequisitionWrapper tooHigh = newWrapper(100);
+		channel.put(low);
+		channel.put(normal);
+		channel.put(high);
+		channel.put(tooHigh);
+		assertEquals(4, channel.size());
+		assertEquals(1, channel.size(IndivisibleRequisition.PRIORITY_LOW));
+		assertEquals(1, channel.size(IndivisibleRequisition.PRIORITY_NORMAL));
+		assertEquals(2, channel.size(IndivisibleRequisition.PRIORITY_HIGH));
+		assertSame(high, channel.getNext());
+		assertSame(tooHigh, channel.getNext());
+		assertEquals(0, channel.size(IndivisibleRequisition.PRIORITY_HIGH));
+		assertSame(normal, channel.getNext());
+		assertSame(low, channel.getNext());
+		assertEquals(0, channel.size(IndivisibleRequisition.PRIORITY_LOW));
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testAging() throws Exception {
+		final RequisitionChannel channel = new RequisitionChannel(Integer.MAX_VALUE, 50);
+		final RequisitionWrapper low = newWrapper(IndivisibleRequisition.PRIORITY_LOW);
+		final RequisitionWrapper high1 = newWrapper(IndivisibleRequisition.PRIORITY_HIGH);
+		final RequisitionWrapper high2 = newWrapper(IndivisibleRequisition.PRIORITY_HIGH);
+		channel.put(low);
+		channel.put(high1);
+		// Nobody has waited long enough, priority wins
+		assertSame(high1, channel.getNext());
+		// Waits for more than two aging intervals (two levels of difference)
+		Thread.sleep(200);
+		channel.put(high2);
+		assertSame(low, channel.getNext());
+		assertSame(high2, channel.getNext());
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testManyProducersAndConsumers() throws Exception {
+		final int producers = 8;
+		final int consumers = 3;
+		final int perProducer = 2000;
+		final RequisitionChannel channel = new RequisitionChannel(64);
+		final RequisitionWrapper[] wrappers = new RequisitionWrapper[producers * perProducer];
+		for (int i = 0; i < wrappers.length; i++) {
+			wrappers[i] = newWrapper();
+		}
+		final Set consumed = new HashSet();
+		final Thread[] threads = new Thread[producers + consumers];
+		for (int i = 0; i < producers; i++) {
+			final int base = i * perProducer;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < perProducer; j++) {
+						channel.put(wrappers[base + j]);
+					}
+				}
+			};
+		}
+		for (int i = producers; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						RequisitionWrapper req;
+						while ((req = channel.getNext(500)) != null) {
+							synchronized (consumed) {
+								assertTrue("Consumed twice", consumed.add(req));
+							}
+						}
+					} catch (InterruptedException ignored) {
+					}
+				}
+			};
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		assertEquals(wrappers.length, consumed.size());
+		assertEquals(0, channel.size());
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testBoundedPutBlocks() throws Exception {
+		final RequisitionChannel channel = new RequisitionChannel(1);
+		final RequisitionWrapper first = newWrapper();
+		final RequisitionWrapper second = newWrapper();
+		channel.put(first);
+		final Thread producer = new Thread() {
+			public void run() {
+				channel.put(second);
+			}
+		};
+		producer.start();
+		producer.join(200);
+		assertTrue("put() should block on a full channel", producer.isAlive());
+		assertEquals(1, channel.size());
+		// putOnTop() must never block
+		final RequisitionWrapper top = newWrapper();
+		channel.putOnTop(top);
+		assertSame(top, channel.getNext());
+		assertSame(first, channel.getNext());
+		producer.join(5000);
+		assertFalse(producer.isAlive());
+		assertSame(second, channel.getNext());
+	}
+
+	/**
+	 * Creates a new wrapper for test
+	 * @return wrapper
+	 */
+	private static RequisitionWrapper newWrapper() {
+		return newWrapper(IndivisibleRequisition.PRIORITY_NORMAL);
+	}
+	/**
+	 * Creates a new wrapper for test
+	 * @param priority requisition priority
+	 * @return wrapper
+	 */
+	private static RequisitionWrapper newWrapper(final int priority) {
+		return new RequisitionWrapper(new IndivisibleRequisition() {
+			public Object process() throws ProcessingException {
+				return null;
+			}
+			public int getPriority() {
+				return priority;
+			}
+		});
+	}
+}
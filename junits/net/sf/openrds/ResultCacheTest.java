@@ -0,0 +1,193 @@
+/**
+ * ResultCacheTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * junits for the result cache of the main node
+ */
+public class ResultCacheTest extends OpenRDSTestCase {
+	/** Number of requisitions really processed */
+	private static final AtomicInteger processed = new AtomicInteger();
+	/** Gate that holds the processing of GatedRequisition */
+	private static volatile CountDownLatch gate;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		processed.set(0);
+		gate = new CountDownLatch(0);
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.RESULT_CACHE_SIZE);
+		System.getProperties().remove(ISystemProperties.RESULT_CACHE_TTL);
+		gate.countDown();
+		super.tearDown();
+	}
+
+	/**
+	 * Requisitions with the same key must be processed only once
+	 * @throws Exception on any error
+	 */
+	public void testHitsAndMisses() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		assertEquals(new Integer(4), main.processRequisition(new GatedRequisition(2)));
+		assertEquals(new Integer(4), main.processRequisition(new GatedRequisition(2)));
+		assertEquals(new Integer(9), main.processRequisition(new GatedRequisition(3)));
+		assertEquals(new Integer(4), main.processRequisition(new GatedRequisition(2)));
+		assertEquals(2, processed.get());
+		final ResultCacheStatistics stats = main.getResultCacheStatistics();
+		assertEquals(2, stats.getHits());
+		assertEquals(2, stats.getMisses());
+		assertEquals(2, stats.getSize());
+		// Requisitions without a key are never cached
+		main.processRequisition(new GatedRequisition(null));
+		main.processRequisition(new GatedRequisition(null));
+		assertEquals(4, processed.get());
+		assertEquals(2, main.getResultCacheStatistics().getMisses());
+	}
+
+	/**
+	 * Identical requisitions submitted at the same time must wait for the first one
+	 * @throws Exception on any error
+	 */
+	public void testCoalescing() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		gate = new CountDownLatch(1);
+		final Object[] results = new Object[5];
+		final Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						results[index] = main.processRequisition(new GatedRequisition(7));
+					} catch (Exception e) {
+						results[index] = e;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (main.getResultCacheStatistics().getCoalesced() < threads.length - 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		gate.countDown();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join(5000);
+			assertEquals(new Integer(49), results[i]);
+		}
+		assertEquals(1, processed.get());
+		final ResultCacheStatistics stats = main.getResultCacheStatistics();
+		assertEquals(1, stats.getMisses());
+		assertEquals(threads.length - 1, stats.getCoalesced());
+	}
+
+	/**
+	 * Results must be discarded by the size limit and the time-to-live
+	 * @throws Exception on any error
+	 */
+	public void testEviction() throws Exception {
+		System.setProperty(ISystemProperties.RESULT_CACHE_SIZE, "2");
+		System.setProperty(ISystemProperties.RESULT_CACHE_TTL, "200");
+		final MainNode main = startMainNode();
+		startProcessNode();
+		main.processRequisition(new GatedRequisition(1));
+		main.processRequisition(new GatedRequisition(2));
+		main.processRequisition(new GatedRequisition(1)); // Hit, 2 is now the eldest
+		main.processRequisition(new GatedRequisition(3));
+		assertEquals(2, main.getResultCacheStatistics().getSize());
+		assertEquals(1, main.getResultCacheStatistics().getEvictions());
+		main.processRequisition(new GatedRequisition(1));
+		assertEquals(3, processed.get());
+		main.processRequisition(new GatedRequisition(2));
+		assertEquals(4, processed.get());
+		Thread.sleep(300);
+		main.processRequisition(new GatedRequisition(2));
+		assertEquals(5, processed.get());
+	}
+
+	/**
+	 * Errors must never be cached
+	 * @throws Exception on any error
+	 */
+	public void testErrors() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		for (int i = 0; i < 2; i++) {
+			try {
+				main.processRequisition(new GatedRequisition(-1));
+				fail("Should throw ProcessingException");
+			} catch (ProcessingException e) {
+				// Expected
+			}
+		}
+		assertEquals(2, processed.get());
+		assertEquals(0, main.getResultCacheStatistics().getSize());
+	}
+
+	/**
+	 * The cache must be disabled when its size is zero
+	 * @throws Exception on any error
+	 */
+	public void testDisabled() throws Exception {
+		System.setProperty(ISystemProperties.RESULT_CACHE_SIZE, "0");
+		final MainNode main = startMainNode();
+		startProcessNode();
+		main.processRequisition(new GatedRequisition(5));
+		main.processRequisition(new GatedRequisition(5));
+		assertEquals(2, processed.get());
+		assertEquals(0, main.getResultCacheStatistics().getMisses());
+	}
+
+	/**
+	 * Requisition that squares a number, after passing the gate
+	 */
+	private static final class GatedRequisition extends IndivisibleRequisition {
+		/** serialVersionUID */
+		private static final long serialVersionUID = 1L;
+		private final Integer value;
+		/**
+		 * Default Constructor.
+		 * @param value value to square, negative to fail, null to be not cacheable
+		 */
+		private GatedRequisition(int value) {
+			this(new Integer(value));
+		}
+		/**
+		 * Default Constructor.
+		 * @param value value to square, negative to fail, null to be not cacheable
+		 */
+		private GatedRequisition(Integer value) {
+			this.value = value;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			processed.incrementAndGet();
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new ProcessingException("Interrupted", e);
+			}
+			if (value == null) {
+				return null;
+			}
+			if (value.intValue() < 0) {
+				throw new ProcessingException("Negative value");
+			}
+			return new Integer(value.intValue() * value.intValue());
+		}
+		/** {@inheritDoc} */
+		public Object getCacheKey() {
+			return value;
+		}
+	}
+}
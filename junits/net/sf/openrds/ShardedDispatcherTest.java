@@ -0,0 +1,156 @@
+/**
+ * ShardedDispatcherTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * junits for a main node with more than one requisition dispatcher
+ */
+public class ShardedDispatcherTest extends OpenRDSTestCase {
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.DISPATCHER_SHARDS, "2");
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.DISPATCHER_SHARDS);
+		super.tearDown();
+	}
+
+	/**
+	 * All requisitions must be processed, using the nodes of every dispatcher
+	 * @throws Exception on any error
+	 */
+	public void testAllProcessed() throws Exception {
+		final MainNode main = startMainNode();
+		for (int i = 1; i <= 4; i++) {
+			startProcessNode(i + "00");
+		}
+		final List resultList = new LinkedList();
+		final Thread threads[] = new Thread[40];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = processAsync(main, new NodeNameRequisition(), resultList);
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		assertEquals(threads.length, resultList.size());
+		final HashSet usedNodes = new HashSet();
+		for (int i = 0; i < threads.length; i++) {
+			final Object result = resultList.get(i);
+			assertTrue("Unexpected result: " + result, result instanceof String);
+			usedNodes.add(result);
+		}
+		assertEquals(4, usedNodes.size());
+		main.waitIdle();
+	}
+
+	/**
+	 * An idle dispatcher must steal requisitions from a dispatcher whose nodes are busy
+	 * @throws Exception on any error
+	 */
+	public void testWorkStealing() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100", "100");
+		startProcessNode("100", "200");
+		// Each node accepts a single requisition with full processing factor
+		final HoldableRequisition first = new BusyRequisition();
+		final HoldableRequisition second = new BusyRequisition();
+		final HoldableRequisition third = new BusyRequisition();
+		final Thread t1 = processAsync(main, first, null);
+		first.waitProcessingToStart();
+		// Both go to the same dispatcher, which is now saturated
+		final Thread t2 = processAsync(main, second, null);
+		Thread.sleep(100);
+		final Thread t3 = processAsync(main, third, null);
+		// One of them must be stolen by the other dispatcher
+		boolean stolen = false;
+		for (int i = 0; i < 100 && !stolen; i++) {
+			stolen = (second.getNodeBeeingProcessed() != null) || (third.getNodeBeeingProcessed() != null);
+			Thread.sleep(50);
+		}
+		first.release();
+		second.release();
+		third.release();
+		t1.join();
+		t2.join();
+		t3.join();
+		assertTrue("Requisition has not been stolen", stolen);
+		main.waitIdle();
+	}
+
+	/**
+	 * A requisition waiting for the last node of its dispatcher must go to another
+	 * dispatcher when that node is removed
+	 * @throws Exception on any error
+	 */
+	public void testNodeLostWhileWaiting() throws Exception {
+		final MainNode main = startMainNode();
+		final ProcessNode lost = startProcessNode("100", "100");
+		final ProcessNode other = startProcessNode("100", "200");
+		final HoldableRequisition first = new BusyRequisition();
+		final HoldableRequisition second = new BusyRequisition();
+		final List resultList = new LinkedList();
+		final Thread t1 = processAsync(main, first, null);
+		first.waitProcessingToStart();
+		assertEquals(lost.getNodeName(), first.getNodeBeeingProcessed().getNodeName());
+		// Goes to the same dispatcher, which waits for its only node
+		final Thread t2 = processAsync(main, second, resultList);
+		Thread.sleep(200);
+		main.removeFromControl(lost);
+		for (int i = 0; i < 100 && second.getNodeBeeingProcessed() == null && t2.isAlive(); i++) {
+			Thread.sleep(50);
+		}
+		first.release();
+		second.release();
+		t1.join();
+		t2.join();
+		assertEquals(1, resultList.size());
+		assertNull(resultList.get(0));
+		assertEquals(other.getNodeName(), second.getNodeBeeingProcessed().getNodeName());
+		main.waitIdle();
+	}
+
+	/**
+	 * Requisition that returns the name of the node that processed it
+	 */
+	private static final class NodeNameRequisition extends IndivisibleRequisition {
+		private String nodeName;
+		/** {@inheritDoc} */
+		public void onBeforeProcess(IProcessNode node) throws Exception {
+			nodeName = node.getNodeName();
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException ignored) {
+			}
+			return nodeName;
+		}
+		/** {@inheritDoc} */
+		public int getProcessingFactor() {
+			return 100;
+		}
+	}
+	/**
+	 * Requisition that uses a whole node of 100 MHz
+	 */
+	private static final class BusyRequisition extends HoldableRequisition {
+		/** {@inheritDoc} */
+		public Object processImpl() throws Exception {
+			return null;
+		}
+		/** {@inheritDoc} */
+		public int getProcessingFactor() {
+			return 100;
+		}
+	}
+}
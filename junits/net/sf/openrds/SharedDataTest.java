@@ -0,0 +1,228 @@
+/**
+ * SharedDataTest.java
+ */
+
+package net.sf.openrds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.RemoteException;
+
+/**
+ * junits for shared data
+ */
+public class SharedDataTest extends OpenRDSTestCase {
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		SharedDataCache.getInstance().clear();
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.SHARED_DATA_CACHE);
+		System.getProperties().remove(ISystemProperties.SHARED_DATA_LIMIT);
+		SharedDataCache.getInstance().clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Shared data must be fetched only once by each process node, even by other jobs
+	 * @throws Exception on any error
+	 */
+	public void testFetchedOnce() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final SharedData table = new SharedData(newTable(10000, 1));
+		table.publish(main);
+		assertTrue(main.hasData(table.getKey()));
+		final SharedDataCache cache = SharedDataCache.getInstance();
+		assertEquals(new Integer(20), main.processRequisition(new LookupRequisition(table, 20)));
+		assertEquals(1, cache.getMisses());
+		assertEquals(table.getSize(), cache.getSize());
+		// Another job using the same data
+		final long hits = cache.getHits();
+		assertEquals(new Integer(20), main.processRequisition(new LookupRequisition(table, 20)));
+		assertEquals(1, cache.getMisses());
+		assertTrue(cache.getHits() > hits);
+		// Publishing again does not send anything
+		table.publish(main);
+		main.unpublishData(table.getKey());
+		assertFalse(main.hasData(table.getKey()));
+		try {
+			main.fetchData(table.getKey());
+			fail("The data has been unpublished");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+		try {
+			main.publishData(table.getKey(), new byte[10]);
+			fail("The key is not the hash of the data");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * The data used less recently must be discarded when the cache is full
+	 * @throws Exception on any error
+	 */
+	public void testEviction() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final SharedData first = new SharedData(newTable(10000, 1));
+		final SharedData second = new SharedData(newTable(10000, 2));
+		assertFalse(first.equals(second));
+		System.setProperty(ISystemProperties.SHARED_DATA_CACHE, String.valueOf(first.getSize() * 3 / 2));
+		final SharedDataCache cache = SharedDataCache.getInstance();
+		cache.clear();
+		first.publish(main);
+		second.publish(main);
+		assertEquals(new Integer(5), main.processRequisition(new LookupRequisition(first, 5)));
+		assertEquals(new Integer(10), main.processRequisition(new LookupRequisition(second, 5)));
+		assertEquals(2, cache.getMisses());
+		assertFalse(cache.contains(first.getKey()));
+		assertTrue(cache.contains(second.getKey()));
+		assertEquals(new Integer(5), main.processRequisition(new LookupRequisition(first, 5)));
+		assertEquals(3, cache.getMisses());
+		assertTrue(cache.getSize() <= first.getSize() * 3 / 2);
+	}
+
+	/**
+	 * Data larger than the cache must not be counted on its size, nor fetched again while
+	 * the process node has memory for it
+	 * @throws Exception on any error
+	 */
+	public void testOversized() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final SharedData table = new SharedData(newTable(10000, 1));
+		System.setProperty(ISystemProperties.SHARED_DATA_CACHE, String.valueOf(table.getSize() / 2));
+		final SharedDataCache cache = SharedDataCache.getInstance();
+		cache.clear();
+		table.publish(main);
+		assertEquals(new Integer(20), main.processRequisition(new LookupRequisition(table, 20)));
+		assertEquals(new Integer(20), main.processRequisition(new LookupRequisition(table, 20)));
+		assertEquals(1, cache.getMisses());
+		assertFalse(cache.contains(table.getKey()));
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * The main node must discard the data used less recently when its limit is reached
+	 * @throws Exception on any error
+	 */
+	public void testPublishedLimit() throws Exception {
+		final SharedData first = new SharedData(newTable(10000, 1));
+		final SharedData second = new SharedData(newTable(10000, 2));
+		final SharedData third = new SharedData(newTable(10000, 3));
+		System.setProperty(ISystemProperties.SHARED_DATA_LIMIT, String.valueOf(first.getSize() * 2));
+		final MainNode main = startMainNode();
+		first.publish(main);
+		second.publish(main);
+		// Uses the first one, so the second is discarded
+		first.publish(main);
+		third.publish(main);
+		assertTrue(main.hasData(first.getKey()));
+		assertFalse(main.hasData(second.getKey()));
+		assertTrue(main.hasData(third.getKey()));
+		final byte[] big = new byte[first.getSize() * 3];
+		try {
+			main.publishData(SharedData.hash(big), big);
+			fail("The data is larger than the limit");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * Creates a table for test
+	 * @param size table size
+	 * @param value value of all elements
+	 * @return table
+	 */
+	private static int[] newTable(int size, int value) {
+		final int[] table = new int[size];
+		for (int i = 0; i < size; i++) {
+			table[i] = value;
+		}
+		return table;
+	}
+
+	/**
+	 * Serializes and deserializes an object
+	 * @param obj object
+	 * @return copy
+	 * @throws Exception on any error
+	 */
+	private static Object copy(Object obj) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(obj);
+		out.close();
+		return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+
+	/**
+	 * Sums elements of a shared table, one sub-requisition for each element
+	 */
+	private static final class LookupRequisition extends DivisibleRequisition {
+		private static final long serialVersionUID = 1L;
+		private final SharedData table;
+		private final int count;
+		/**
+		 * Default Constructor.
+		 * @param table shared table
+		 * @param count number of elements
+		 */
+		private LookupRequisition(SharedData table, int count) {
+			this.table = table;
+			this.count = count;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			final SubRequisition[] subs = new SubRequisition[count];
+			try {
+				// Nodes on this JVM do not serialize requisitions, so they get a copy like remote nodes would
+				final SharedData remote = (SharedData) copy(table);
+				for (int i = 0; i < subs.length; i++) {
+					subs[i] = new Lookup(remote, i);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			return subs;
+		}
+		/** {@inheritDoc} */
+		public Object getResponse(Object[] subResults) {
+			int sum = 0;
+			for (int i = 0; i < subResults.length; i++) {
+				sum += ((Integer) subResults[i]).intValue();
+			}
+			return new Integer(sum);
+		}
+	}
+	/**
+	 * Looks up an element of a shared table
+	 */
+	private static final class Lookup extends SubRequisition {
+		private static final long serialVersionUID = 1L;
+		private final SharedData table;
+		private final int index;
+		/**
+		 * Default Constructor.
+		 * @param table shared table
+		 * @param index index of the element
+		 */
+		private Lookup(SharedData table, int index) {
+			this.table = table;
+			this.index = index;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			return new Integer(((int[]) table.getValue())[index]);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * SpeculationTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * junits for speculative execution of straggling sub-requisitions
+ */
+public class SpeculationTest extends OpenRDSTestCase {
+	/** Time (in millis) taken by the first attempt of the straggler */
+	private static final long STRAGGLER_TIME = 1500;
+	/** Number of attempts to process the straggler */
+	private static final AtomicInteger attempts = new AtomicInteger();
+	/** Instances that have processed the straggler */
+	private static final List instances = new Vector();
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		attempts.set(0);
+		instances.clear();
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.SPECULATION);
+		super.tearDown();
+	}
+
+	/**
+	 * A backup of the straggler must be processed by the idle node, and its result used
+	 * @throws Exception on any error
+	 */
+	public void testBackup() throws Exception {
+		System.setProperty(ISystemProperties.SPECULATION, "true");
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		long start = System.currentTimeMillis();
+		assertEquals(new Integer(10), main.processRequisition(new StragglingRequisition(true)));
+		assertTrue("Backup has not been used", System.currentTimeMillis() - start < STRAGGLER_TIME);
+		assertEquals(2, attempts.get());
+		// The backup must be a copy, since both nodes live on this JVM
+		assertEquals(2, instances.size());
+		assertNotSame(instances.get(0), instances.get(1));
+		attempts.set(0);
+		start = System.currentTimeMillis();
+		final RequisitionTicket ticket = main.submitRequisition(new StragglingRequisition(true), null);
+		main.waitIdle();
+		assertEquals(new Integer(10), main.pollResult(ticket).getResult());
+		assertTrue("Backup has not been used", System.currentTimeMillis() - start < STRAGGLER_TIME);
+	}
+
+	/**
+	 * Requisitions that are not speculative must never get a backup
+	 * @throws Exception on any error
+	 */
+	public void testOptOut() throws Exception {
+		System.setProperty(ISystemProperties.SPECULATION, "true");
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		final long start = System.currentTimeMillis();
+		assertEquals(new Integer(10), main.processRequisition(new StragglingRequisition(false)));
+		assertTrue(System.currentTimeMillis() - start >= STRAGGLER_TIME);
+		assertEquals(1, attempts.get());
+	}
+
+	/**
+	 * Speculation must be disabled unless the system property enables it
+	 * @throws Exception on any error
+	 */
+	public void testDisabled() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		final long start = System.currentTimeMillis();
+		assertEquals(new Integer(10), main.processRequisition(new StragglingRequisition(true)));
+		assertTrue(System.currentTimeMillis() - start >= STRAGGLER_TIME);
+		assertEquals(1, attempts.get());
+	}
+
+	/**
+	 * A backup still waiting on a channel must never be processed once the original
+	 * requisition is done
+	 * @throws Exception on any error
+	 */
+	public void testBackupCancelled() throws Exception {
+		final RequisitionWrapper straggler = new RequisitionWrapper(new NumberRequisition(2, true));
+		final RequisitionWrapper backup = new RequisitionWrapper(new NumberRequisition(2, true));
+		assertTrue(straggler.setBackup(backup));
+		final RequisitionChannel channel = new RequisitionChannel();
+		channel.putOnTop(backup);
+		straggler.setResult(new Integer(2));
+		assertTrue(backup.isDone());
+		assertNull("The backup has not been skipped", channel.poll());
+		// The backup of a wrapper already done is not dispatched at all
+		assertFalse(straggler.setBackup(new RequisitionWrapper(new NumberRequisition(2, true))));
+		// A backup done first does not cancel the original
+		final RequisitionWrapper other = new RequisitionWrapper(new NumberRequisition(2, true));
+		final RequisitionWrapper winner = new RequisitionWrapper(new NumberRequisition(2, true));
+		assertTrue(other.setBackup(winner));
+		winner.setResult(new Integer(2));
+		assertFalse(other.isDone());
+	}
+
+		/**
+	 * Sums 1..4, the sub-requisition of the number 1 is a straggler
+	 */
+	private static final class StragglingRequisition extends DivisibleRequisition {
+		private final boolean speculative;
+		/**
+		 * Default Constructor.
+		 * @param speculative if the sub-requisitions may get a backup
+		 */
+		private StragglingRequisition(boolean speculative) {
+			this.speculative = speculative;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			final SubRequisition[] subs = new SubRequisition[4];
+			for (int i = 0; i < subs.length; i++) {
+				subs[i] = new NumberRequisition(i + 1, speculative);
+			}
+			return subs;
+		}
+		/** {@inheritDoc} */
+		public Object getResponse(Object[] subResults) {
+			int sum = 0;
+			for (int i = 0; i < subResults.length; i++) {
+				sum += ((Integer) subResults[i]).intValue();
+			}
+			return new Integer(sum);
+		}
+	}
+	/**
+	 * Returns a number. The first attempt for the number 1 is slow.
+	 */
+	private static final class NumberRequisition extends SubRequisition {
+		private final int number;
+		private final boolean speculative;
+		/**
+		 * Default Constructor.
+		 * @param number number
+		 * @param speculative if this requisition may get a backup
+		 */
+		private NumberRequisition(int number, boolean speculative) {
+			this.number = number;
+			this.speculative = speculative;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			try {
+				if (number == 1) {
+					instances.add(this);
+				}
+				if (number == 1 && attempts.incrementAndGet() == 1) {
+					Thread.sleep(STRAGGLER_TIME);
+				} else {
+					Thread.sleep(20);
+				}
+			} catch (InterruptedException e) {
+				throw new ProcessingException("Interrupted", e);
+			}
+			return new Integer(number);
+		}
+		/** {@inheritDoc} */
+		public boolean isSpeculative() {
+			return speculative;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * SplitTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * junits for SplitContext and AdaptiveRequisition
+ */
+public class SplitTest extends OpenRDSTestCase {
+	/** Ranges ({offset, length}) processed by RangeRequisition, in completion order */
+	private static final List ranges = new Vector();
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		ranges.clear();
+		System.setProperty(ISystemProperties.SPLIT_CHUNK_TIME, "20");
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.SPLIT_CHUNK_TIME);
+		super.tearDown();
+	}
+
+	/**
+	 * Divisible requisitions must receive the capacity of the nodes and the throughput of
+	 * previous runs
+	 * @throws Exception on any error
+	 */
+	public void testContext() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100", "10");
+		startProcessNode("200", "20");
+		final ContextRequisition first = new ContextRequisition();
+		assertEquals(new Integer(8), main.processRequisition(first));
+		assertEquals(2, first.context.getAvailableNodes());
+		assertEquals(300, first.context.getTotalClock());
+		assertEquals(30, first.context.getTotalMemory());
+		assertEquals(0, first.context.getQueueDepth());
+		assertEquals(0, first.context.getMeasuredThroughput(), 0);
+		final ContextRequisition second = new ContextRequisition();
+		final RequisitionTicket ticket = main.submitRequisition(second, null);
+		main.waitIdle();
+		assertEquals(new Integer(8), main.pollResult(ticket).getResult());
+		assertTrue(second.context.getMeasuredThroughput() > 0);
+	}
+
+	/**
+	 * Adaptive requisitions must be splitted in waves, sized by the measured work rate
+	 * @throws Exception on any error
+	 */
+	public void testAdaptive() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		final RangeRequisition req = new RangeRequisition(20000);
+		assertEquals(new Long(20000), main.processRequisition(req));
+		assertContiguous(20000);
+		final long probe = Math.max(1, 20000 / 64 / 2);
+		assertEquals(probe, ((long[]) ranges.get(0))[1]);
+		long biggest = 0;
+		for (int i = 0; i < ranges.size(); i++) {
+			biggest = Math.max(biggest, ((long[]) ranges.get(i))[1]);
+		}
+		assertTrue("Chunks have not grown: " + biggest, biggest > probe * 2);
+		assertTrue("Too many chunks: " + ranges.size(), ranges.size() < 200);
+		// The next run skips the probe, since the work rate is already known
+		ranges.clear();
+		final RequisitionTicket ticket = main.submitRequisition(new RangeRequisition(20000), null);
+		main.waitIdle();
+		assertEquals(new Long(20000), main.pollResult(ticket).getResult());
+		assertContiguous(20000);
+		assertTrue(((long[]) ranges.get(0))[1] > probe);
+	}
+
+	/**
+	 * waitIdle() must not return between two waves, and errors must stop the waves
+	 * @throws Exception on any error
+	 */
+	public void testAsyncAndErrors() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		main.processAsyncRequisition(new RangeRequisition(5000));
+		main.waitIdle();
+		assertContiguous(5000);
+		ranges.clear();
+		try {
+			main.processRequisition(new RangeRequisition(-1));
+			fail("Should throw ProcessingException");
+		} catch (ProcessingException good) {
+			// This is expected to happen
+		}
+		// Empty work is reduced at once
+		assertEquals(new Long(0), main.processRequisition(new RangeRequisition(0)));
+	}
+
+	/**
+	 * Asserts that the processed ranges cover all work units exactly once
+	 * @param work number of work units
+	 */
+	private static void assertContiguous(long work) {
+		final List sorted = new Vector(ranges);
+		Collections.sort(sorted, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				final long diff = ((long[]) o1)[0] - ((long[]) o2)[0];
+				return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+			}
+		});
+		long offset = 0;
+		for (int i = 0; i < sorted.size(); i++) {
+			final long[] range = (long[]) sorted.get(i);
+			assertEquals(offset, range[0]);
+			offset += range[1];
+		}
+		assertEquals(work, offset);
+	}
+
+	/**
+	 * Requisition that records the split context
+	 */
+	private static final class ContextRequisition extends DivisibleRequisition {
+		private SplitContext context;
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(SplitContext context) {
+			this.context = context;
+			return super.getSubRequisitions(context);
+		}
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			final SubRequisition[] subs = new SubRequisition[availableNodes * 4];
+			for (int i = 0; i < subs.length; i++) {
+				subs[i] = new SubRequisition() {
+					public Object process() throws ProcessingException {
+						return new Integer(1);
+					}
+				};
+			}
+			return subs;
+		}
+		/** {@inheritDoc} */
+		public Object getResponse(Object[] subResults) {
+			return new Integer(subResults.length);
+		}
+	}
+	/**
+	 * Requisition that counts its work units, taking about 10 microseconds for each one.
+	 * A negative work size makes the last sub-requisition fail.
+	 */
+	private static final class RangeRequisition extends AdaptiveRequisition {
+		private final long work;
+		/**
+		 * Default Constructor.
+		 * @param work number of work units
+		 */
+		private RangeRequisition(long work) {
+			this.work = work;
+		}
+		/** {@inheritDoc} */
+		public long getWorkSize() {
+			return (work < 0) ? 1000 : work;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition createSubRequisition(final long offset, final long length) {
+			return new SubRequisition() {
+				public Object process() throws ProcessingException {
+					if (work < 0 && offset + length == getWorkSize()) {
+						throw new ProcessingException("Failed at " + offset);
+					}
+					try {
+						Thread.sleep(length / 100);
+					} catch (InterruptedException e) {
+						throw new ProcessingException("Interrupted", e);
+					}
+					ranges.add(new long[] {offset, length});
+					return new Long(length);
+				}
+			};
+		}
+		/** {@inheritDoc} */
+		public Object createAccumulator() {
+			return new long[1];
+		}
+		/** {@inheritDoc} */
+		public Object accumulate(Object accumulator, Object subResult) {
+			((long[]) accumulator)[0] += ((Long) subResult).longValue();
+			return accumulator;
+		}
+		/** {@inheritDoc} */
+		public Object finish(Object accumulator) {
+			return new Long(((long[]) accumulator)[0]);
+		}
+	}
+}
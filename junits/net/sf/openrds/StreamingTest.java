@@ -0,0 +1,156 @@
+/**
+ * StreamingTest.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * junits for streaming requisitions
+ */
+public class StreamingTest extends OpenRDSTestCase {
+	/** Number of chunks emitted by the requisitions of this test */
+	private static final AtomicInteger EMITTED = new AtomicInteger();
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.STREAM_WINDOW, "8");
+		EMITTED.set(0);
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.STREAM_WINDOW);
+		System.getProperties().remove(ISystemProperties.STREAM_TIMEOUT);
+		super.tearDown();
+	}
+
+	/**
+	 * Chunks must arrive in order, and the requisition must be blocked while they are
+	 * not fetched
+	 * @throws Exception on any error
+	 */
+	public void testStream() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final RequisitionTicket ticket = main.submitRequisition(new CountRequisition(1000), null);
+		Thread.sleep(500);
+		// 8 chunks held by the main node, plus a group of 4 waiting to be taken
+		assertEquals(12, EMITTED.get());
+		int expected = 0;
+		Object[] chunks;
+		while ((chunks = main.fetchChunks(ticket, 10, 5000)) != null) {
+			assertTrue("No chunks", chunks.length > 0);
+			assertTrue(chunks.length <= 10);
+			for (int i = 0; i < chunks.length; i++) {
+				assertEquals(new Integer(expected++), chunks[i]);
+			}
+		}
+		assertEquals(1000, expected);
+		main.waitIdle();
+		assertEquals(new Integer(1000), main.pollResult(ticket).getResult());
+		try {
+			main.fetchChunks(ticket, 10, 0);
+			fail("The stream has already ended");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * Streaming requisitions can only be submitted
+	 * @throws Exception on any error
+	 */
+	public void testNotSubmitted() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		try {
+			main.processRequisition(new CountRequisition(10));
+			fail("Streaming requisitions must be submitted");
+		} catch (ProcessingException good) {
+			// This is expected to happen
+		}
+		final RequisitionTicket ticket = main.submitRequisition(new CountRequisition(0), null);
+		assertNull(main.fetchChunks(ticket, 10, 5000));
+		assertEquals(new Integer(0), main.pollResult(ticket).getResult());
+	}
+
+	/**
+	 * A stream whose chunks are never fetched must be abandoned, failing the requisition
+	 * @throws Exception on any error
+	 */
+	public void testAbandoned() throws Exception {
+		System.setProperty(ISystemProperties.STREAM_TIMEOUT, "500");
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final RequisitionTicket ticket = main.submitRequisition(new CountRequisition(1000), null);
+		main.waitIdle();
+		final RequisitionResult result = main.pollResult(ticket);
+		assertTrue(result.isError());
+		try {
+			main.fetchChunks(ticket, 10, 0);
+			fail("The stream has been abandoned");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * Closing the job of a streaming requisition must release the process node
+	 * @throws Exception on any error
+	 */
+	public void testJobClosed() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final JobHandle job = main.createJob();
+		main.submitRequisition(new CountRequisition(1000), job);
+		Thread.sleep(500);
+		assertEquals(12, EMITTED.get());
+		main.closeJob(job);
+		main.waitIdle(); // Would wait for the stream timeout if the process node was blocked
+		assertTrue(EMITTED.get() < 1000);
+	}
+
+	/**
+	 * Chunks not fetched must be discarded when the result is retrieved
+	 * @throws Exception on any error
+	 */
+	public void testResultPolled() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final RequisitionTicket ticket = main.submitRequisition(new CountRequisition(5), null);
+		main.waitIdle();
+		assertEquals(new Integer(5), main.pollResult(ticket).getResult());
+		try {
+			main.fetchChunks(ticket, 10, 0);
+			fail("The stream must be discarded with the result");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * Emits sequential integers
+	 */
+	private static final class CountRequisition extends StreamingRequisition {
+		private static final long serialVersionUID = 1L;
+		private final int count;
+		/**
+		 * Default Constructor.
+		 * @param count number of chunks
+		 */
+		private CountRequisition(int count) {
+			this.count = count;
+		}
+		/** {@inheritDoc} */
+		public Object process(IResultSink sink) throws ProcessingException {
+			for (int i = 0; i < count; i++) {
+				EMITTED.incrementAndGet();
+				sink.emit(new Integer(i));
+			}
+			return new Integer(count);
+		}
+	}
+}
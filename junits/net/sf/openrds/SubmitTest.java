@@ -0,0 +1,128 @@
+/**
+ * SubmitTest.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * junits for requisitions submitted with tickets
+ */
+public class SubmitTest extends OpenRDSTestCase {
+
+	/**
+	 * Many requisitions can be in flight, and their results are fetched in batches
+	 * @throws Exception on any error
+	 */
+	public void testFetchResults() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		final Map expected = new HashMap();
+		for (int i = 0; i < 200; i++) {
+			final RequisitionTicket ticket = main.submitRequisition(new DoubleRequisition(i), null);
+			expected.put(ticket, new Integer(i * 2));
+		}
+		int collected = 0;
+		while (collected < expected.size()) {
+			final RequisitionResult[] results = main.fetchResults(null, 64, 5000);
+			assertTrue("No results", results.length > 0);
+			assertTrue(results.length <= 64);
+			for (int i = 0; i < results.length; i++) {
+				assertEquals(expected.get(results[i].getTicket()), results[i].getResult());
+				collected++;
+			}
+		}
+		// Nothing pending, so it must not wait
+		assertEquals(0, main.fetchResults(null, 64, 60000).length);
+		try {
+			main.pollResult((RequisitionTicket) expected.keySet().iterator().next());
+			fail("The result has already been retrieved");
+		} catch (RemoteException good) {
+			// This is expected to happen
+		}
+	}
+
+	/**
+	 * Divisible requisitions and errors must be reported on the result
+	 * @throws Exception on any error
+	 */
+	public void testPollResult() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final JobHandle job = main.createJob();
+		final RequisitionTicket sum = main.submitRequisition(new SumRequisition(10), job);
+		final RequisitionTicket failure = main.submitRequisition(new DoubleRequisition(-1), job);
+		main.waitIdle(job);
+		final RequisitionResult sumResult = main.pollResult(sum);
+		assertFalse(sumResult.isError());
+		assertEquals(new Integer(90), sumResult.getResult());
+		final RequisitionResult failureResult = main.pollResult(failure);
+		assertTrue(failureResult.isError());
+		try {
+			failureResult.getResult();
+			fail("The requisition has failed");
+		} catch (ProcessingException good) {
+			// This is expected to happen
+		}
+		main.closeJob(job);
+	}
+
+	/**
+	 * Returns the double of a number
+	 */
+	private static final class DoubleRequisition extends IndivisibleRequisition {
+		private final int number;
+		/**
+		 * Default Constructor.
+		 * @param number number (negative to fail)
+		 */
+		private DoubleRequisition(int number) {
+			this.number = number;
+		}
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			if (number < 0) {
+				throw new ProcessingException("Negative number");
+			}
+			return new Integer(number * 2);
+		}
+	}
+	/**
+	 * Sums the double of all numbers from zero up to a limit, one sub-requisition per number
+	 */
+	private static final class SumRequisition extends DivisibleRequisition {
+		private final int limit;
+		/**
+		 * Default Constructor.
+		 * @param limit limit (exclusive)
+		 */
+		private SumRequisition(int limit) {
+			this.limit = limit;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			final SubRequisition[] subs = new SubRequisition[limit];
+			for (int i = 0; i < subs.length; i++) {
+				final int number = i;
+				subs[i] = new SubRequisition() {
+					public Object process() throws ProcessingException {
+						return new Integer(number * 2);
+					}
+				};
+			}
+			return subs;
+		}
+		/** {@inheritDoc} */
+		public Object getResponse(Object[] subResults) {
+			int sum = 0;
+			for (int i = 0; i < subResults.length; i++) {
+				sum += ((Integer) subResults[i]).intValue();
+			}
+			return new Integer(sum);
+		}
+	}
+}
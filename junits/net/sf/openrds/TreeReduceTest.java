@@ -0,0 +1,200 @@
+/**
+ * TreeReduceTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * junits for the tree reduction of divisible requisitions
+ */
+public class TreeReduceTest extends OpenRDSTestCase {
+	/** Number of sub-requisitions beeing processed */
+	private static final AtomicInteger RUNNING = new AtomicInteger();
+	/** Biggest number of sub-requisitions processed at the same time */
+	private static final AtomicInteger MAX_RUNNING = new AtomicInteger();
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.CHANNEL_CAPACITY);
+		System.getProperties().remove(ISystemProperties.MAX_WORKERS);
+		super.tearDown();
+	}
+
+	/**
+	 * Sub-results must be joined as a tree, keeping their order
+	 * @throws Exception on any error
+	 */
+	public void testTree() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		final SequenceRequisition req = new SequenceRequisition(1000, 8, -1);
+		assertSequence(1000, (List) main.processRequisition(req));
+		// 125 groups of sub-results, then 16 and 2 groups of partial results, then the main node
+		assertEquals(125 + 16 + 2 + 1, req.joins.get());
+		assertEquals(8, req.widest.get());
+		final SequenceRequisition submitted = new SequenceRequisition(100, 10, -1);
+		final RequisitionTicket ticket = main.submitRequisition(submitted, null);
+		main.waitIdle();
+		assertSequence(100, (List) main.pollResult(ticket).getResult());
+		assertEquals(10 + 1, submitted.joins.get());
+	}
+
+	/**
+	 * Sub-requisitions must be dispatched one by one, not only one per group
+	 * @throws Exception on any error
+	 */
+	public void testParallelSubRequisitions() throws Exception {
+		RUNNING.set(0);
+		MAX_RUNNING.set(0);
+		final MainNode main = startMainNode();
+		startProcessNode("100");
+		startProcessNode("200");
+		final SequenceRequisition req = new SequenceRequisition(12, 6, -1);
+		req.sleep = 300;
+		assertSequence(12, (List) main.processRequisition(req));
+		assertEquals(2 + 1, req.joins.get());
+		assertTrue("Sub-requisitions have not been processed at the same time", MAX_RUNNING.get() > 2);
+	}
+
+	/**
+	 * Without a fan-in, or with few sub-requisitions, the main node joins all sub-results
+	 * @throws Exception on any error
+	 */
+	public void testFlat() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final SequenceRequisition flat = new SequenceRequisition(50, 0, -1);
+		assertSequence(50, (List) main.processRequisition(flat));
+		assertEquals(1, flat.joins.get());
+		assertEquals(50, flat.widest.get());
+		final SequenceRequisition few = new SequenceRequisition(8, 8, -1);
+		assertSequence(8, (List) main.processRequisition(few));
+		assertEquals(1, few.joins.get());
+	}
+
+	/**
+	 * Groups are dispatched by the workers, so they must never block on a full channel
+	 * @throws Exception on any error
+	 */
+	public void testBoundedChannel() throws Exception {
+		System.setProperty(ISystemProperties.CHANNEL_CAPACITY, "2");
+		System.setProperty(ISystemProperties.MAX_WORKERS, "1");
+		final MainNode main = startMainNode();
+		startProcessNode();
+		assertSequence(300, (List) main.processRequisition(new SequenceRequisition(300, 4, -1)));
+		final RequisitionTicket ticket = main.submitRequisition(new SequenceRequisition(300, 4, -1), null);
+		main.waitIdle();
+		assertSequence(300, (List) main.pollResult(ticket).getResult());
+	}
+
+	/**
+	 * The first error must be reported
+	 * @throws Exception on any error
+	 */
+	public void testErrors() throws Exception {
+		final MainNode main = startMainNode();
+		startProcessNode();
+		try {
+			main.processRequisition(new SequenceRequisition(100, 4, 77));
+			fail("Should throw ProcessingException");
+		} catch (ProcessingException good) {
+			// This is expected to happen
+		}
+		final RequisitionTicket ticket = main.submitRequisition(new SequenceRequisition(100, 4, 3), null);
+		main.waitIdle();
+		assertTrue(main.pollResult(ticket).isError());
+	}
+
+	/**
+	 * Asserts that a list has all numbers from zero up to a limit, in order
+	 * @param limit limit (exclusive)
+	 * @param list list
+	 */
+	private static void assertSequence(int limit, List list) {
+		assertEquals(limit, list.size());
+		for (int i = 0; i < limit; i++) {
+			assertEquals(new Integer(i), list.get(i));
+		}
+	}
+
+	/**
+	 * Lists all numbers from zero up to a limit, one sub-requisition per number
+	 */
+	private static final class SequenceRequisition extends DivisibleRequisition {
+		private final int limit;
+		private final int fanIn;
+		private final int failAt;
+		/** Time that each sub-requisition takes to be processed, in milliseconds */
+		private long sleep = 0;
+		/** Number of calls to getResponse() */
+		private final AtomicInteger joins = new AtomicInteger();
+		/** Biggest array received by getResponse() */
+		private final AtomicInteger widest = new AtomicInteger();
+		/**
+		 * Default Constructor.
+		 * @param limit limit (exclusive)
+		 * @param fanIn fan-in of the tree
+		 * @param failAt number whose sub-requisition fails, -1 to never fail
+		 */
+		private SequenceRequisition(int limit, int fanIn, int failAt) {
+			this.limit = limit;
+			this.fanIn = fanIn;
+			this.failAt = failAt;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition[] getSubRequisitions(int availableNodes) {
+			final SubRequisition[] subs = new SubRequisition[limit];
+			final long time = sleep;
+			for (int i = 0; i < subs.length; i++) {
+				final int number = i;
+				subs[i] = new SubRequisition() {
+					public Object process() throws ProcessingException {
+						if (number == failAt) {
+							throw new ProcessingException("Failed at " + number);
+						}
+						if (time > 0) {
+							final int running = RUNNING.incrementAndGet();
+							synchronized (MAX_RUNNING) {
+								MAX_RUNNING.set(Math.max(MAX_RUNNING.get(), running));
+							}
+							try {
+								Thread.sleep(time);
+							} catch (InterruptedException e) {
+								throw new ProcessingException("Interrupted", e);
+							} finally {
+								RUNNING.decrementAndGet();
+							}
+						}
+						return new Integer(number);
+					}
+				};
+			}
+			return subs;
+		}
+		/** {@inheritDoc} */
+		public Object getResponse(Object[] subResults) {
+			joins.incrementAndGet();
+			synchronized (widest) {
+				widest.set(Math.max(widest.get(), subResults.length));
+			}
+			final List list = new ArrayList();
+			for (int i = 0; i < subResults.length; i++) {
+				if (subResults[i] instanceof List) {
+					list.addAll((List) subResults[i]);
+				} else {
+					list.add(subResults[i]);
+				}
+			}
+			return list;
+		}
+		/** {@inheritDoc} */
+		public int getReduceFanIn() {
+			return fanIn;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * TunedSocketFactoryTest.java
+ */
+
+package net.sf.openrds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+/**
+ * junit tests for TunedSocketFactory
+ */
+public class TunedSocketFactoryTest extends TestCase {
+	/** Properties changed by the tests */
+	private static final String[] PROPERTIES = {
+		ISystemProperties.SOCKET_NODELAY, ISystemProperties.SOCKET_KEEPALIVE,
+		ISystemProperties.SOCKET_TIMEOUT, ISystemProperties.SOCKET_SEND_BUFFER,
+		ISystemProperties.SOCKET_RECEIVE_BUFFER, ISystemProperties.SOCKET_BACKLOG,
+	};
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < PROPERTIES.length; i++) {
+			System.getProperties().remove(PROPERTIES[i]);
+		}
+		super.tearDown();
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testDefaults() throws Exception {
+		final TunedSocketFactory factory = new TunedSocketFactory();
+		final ServerSocket server = factory.createServerSocket(0);
+		try {
+			final Socket client = factory.createSocket("127.0.0.1", server.getLocalPort());
+			final Socket accepted = server.accept();
+			assertTrue(client.getTcpNoDelay());
+			assertTrue(accepted.getTcpNoDelay());
+			assertFalse(client.getKeepAlive());
+			assertEquals(0, client.getSoTimeout());
+			client.close();
+			accepted.close();
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * junit
+	 * @throws Exception on any error
+	 */
+	public void testOptions() throws Exception {
+		System.setProperty(ISystemProperties.SOCKET_NODELAY, "false");
+		System.setProperty(ISystemProperties.SOCKET_KEEPALIVE, "true");
+		System.setProperty(ISystemProperties.SOCKET_TIMEOUT, "1234");
+		System.setProperty(ISystemProperties.SOCKET_SEND_BUFFER, "32768");
+		System.setProperty(ISystemProperties.SOCKET_RECEIVE_BUFFER, "32768");
+		System.setProperty(ISystemProperties.SOCKET_BACKLOG, "10");
+		final TunedSocketFactory factory = new TunedSocketFactory();
+		final ServerSocket server = factory.createServerSocket(0);
+		try {
+			final Socket client = factory.createSocket("127.0.0.1", server.getLocalPort());
+			final Socket accepted = server.accept();
+			assertFalse(client.getTcpNoDelay());
+			assertFalse(accepted.getTcpNoDelay());
+			assertTrue(client.getKeepAlive());
+			assertTrue(accepted.getKeepAlive());
+			assertEquals(1234, client.getSoTimeout());
+			assertEquals(1234, accepted.getSoTimeout());
+			// The operating system may round the buffer sizes
+			assertTrue(client.getSendBufferSize() > 0);
+			assertTrue(server.getReceiveBufferSize() > 0);
+			client.close();
+			accepted.close();
+		} finally {
+			server.close();
+		}
+		// Stubs only share connections when their factories are equal
+		assertEquals(factory, new TunedSocketFactory());
+		assertEquals(factory.hashCode(), new TunedSocketFactory().hashCode());
+		assertEquals(factory, clone(factory));
+		System.getProperties().remove(ISystemProperties.SOCKET_NODELAY);
+		assertFalse(factory.equals(new TunedSocketFactory()));
+	}
+
+	/**
+	 * Serializes and deserializes an object, as it happens to client socket factories
+	 * @param obj object
+	 * @return copy
+	 * @throws Exception on any error
+	 */
+	private static Object clone(Object obj) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(obj);
+		out.close();
+		return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * WorkerPoolTest.java
+ */
+
+package net.sf.openrds;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * junits for the limit of worker threads on the main node
+ */
+public class WorkerPoolTest extends OpenRDSTestCase {
+	private static final Object MUTEX = new Object();
+	private static int running = 0;
+	private static int maxRunning = 0;
+	/** Main node called by nested requisitions */
+	private static MainNode nestedMain;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(ISystemProperties.MAX_WORKERS, "2");
+		synchronized (MUTEX) {
+			running = 0;
+			maxRunning = 0;
+		}
+	}
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(ISystemProperties.MAX_WORKERS);
+		super.tearDown();
+	}
+
+	/**
+	 * No more than the maximum number of requisitions can be processed at the same time,
+	 * and the number of worker threads must not grow with the pending requisitions
+	 * @throws Exception on any error
+	 */
+	public void testBoundedWorkers() throws Exception {
+		// Other junits may leave workers of their main nodes behind
+		final int previousWorkers = countWorkers();
+		final MainNode main = startMainNode();
+		startProcessNode();
+		final List resultList = new LinkedList();
+		final Thread threads[] = new Thread[30];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = processAsync(main, new SleepRequisition(), resultList);
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		assertEquals(threads.length, resultList.size());
+		for (int i = 0; i < threads.length; i++) {
+			assertEquals("done", resultList.get(i));
+		}
+		assertEquals(2, maxRunning);
+		assertTrue("Too many workers", countWorkers() - previousWorkers <= 2);
+		main.waitIdle();
+	}
+
+	/**
+	 * Requisitions that wait for nested requisitions must not dead-lock the main node,
+	 * even when they hold all workers
+	 * @throws Exception on any error
+	 */
+	public void testNestedRequisitions() throws Exception {
+		System.setProperty(ISystemProperties.MAX_WORKERS, "1");
+		nestedMain = startMainNode();
+		startProcessNode();
+		final long start = System.currentTimeMillis();
+		assertEquals("done", nestedMain.processRequisition(new NestedRequisition()));
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		nestedMain.waitIdle();
+		nestedMain = null;
+	}
+
+	/**
+	 * Nodes reached thru the "nio" transport must be called without holding a worker
+	 * thread, so many requisitions are processed at the same time without any worker
+	 * @throws Exception on any error
+	 */
+	public void testAsyncDelivery() throws Exception {
+		System.setProperty(ISystemProperties.BASE_IP, "127.0.0.1");
+		final int previousWorkers = countWorkers();
+		final MainNode main = startMainNode();
+		final NioEndpoint endpoint = NioEndpoint.getInstance();
+		final IProcessNode node = new NodeLoadIndexTest.TestNode("AsyncNode", 1000, 1000);
+		final IProcessNode proxy = (IProcessNode) endpoint.newProxy(endpoint.export(node));
+		try {
+			main.addToControl(proxy);
+			final Requisition[] reqs = new Requisition[20];
+			for (int i = 0; i < reqs.length; i++) {
+				reqs[i] = new SleepRequisition();
+			}
+			final JobHandle job = main.createJob();
+			final RequisitionTicket[] tickets = main.submitRequisitions(reqs, job);
+			main.waitIdle(job);
+			final RequisitionResult[] results = main.pollResults(tickets);
+			for (int i = 0; i < results.length; i++) {
+				assertEquals("done", results[i].getResult());
+			}
+			assertEquals(0, countWorkers() - previousWorkers);
+			assertTrue("Requisitions have not been processed at the same time", maxRunning > 2);
+			main.closeJob(job);
+		} finally {
+			main.removeFromControl(proxy);
+			NioEndpoint.unexportObject(node);
+			endpoint.closeConnections();
+		}
+	}
+
+	/**
+	 * Counts the living worker threads
+	 * @return integer
+	 */
+	private static int countWorkers() {
+		final Thread[] all = new Thread[Thread.activeCount() * 2];
+		final int count = Thread.enumerate(all);
+		int workers = 0;
+		for (int i = 0; i < count; i++) {
+			if ("Requisition worker".equals(all[i].getName())) {
+				workers++;
+			}
+		}
+		return workers;
+	}
+
+	/**
+	 * Requisition that processes another one thru the main node, and waits for it
+	 */
+	private static final class NestedRequisition extends IndivisibleRequisition {
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			try {
+				return nestedMain.processRequisition(new SleepRequisition());
+			} catch (ProcessingException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ProcessingException("Nested requisition failed", e);
+			}
+		}
+	}
+	/**
+	 * Requisition that takes some time, registering how many are processed at the same time
+	 */
+	private static final class SleepRequisition extends IndivisibleRequisition {
+		/** {@inheritDoc} */
+		public Object process() throws ProcessingException {
+			synchronized (MUTEX) {
+				running++;
+				maxRunning = Math.max(maxRunning, running);
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException ignored) {
+			} finally {
+				synchronized (MUTEX) {
+					running--;
+				}
+			}
+			return "done";
+		}
+	}
+}
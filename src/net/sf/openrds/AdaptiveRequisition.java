@@ -0,0 +1,75 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * AdaptiveRequisition.java
+ */
+
+package net.sf.openrds;
+
+
+/**
+ * Represents a reducible requisition made of a number of uniform work units (like a range
+ * of numbers to be checked), that the main node splits lazily, in waves.<BR>
+ * The first wave has one small sub-requisition per node. Each following wave is created
+ * only when the previous one is almost done, and its sub-requisitions are sized by the work
+ * rate measured so far, so each one takes about ISystemProperties.SPLIT_CHUNK_TIME. The rate
+ * of previous runs of the same class is used for the first wave, when it is known.<BR>
+ * Sub-results are folded by accumulate() as they complete, like any ReducibleRequisition.
+ * @since OpenRDS 1.3
+ */
+public abstract class AdaptiveRequisition extends ReducibleRequisition {
+	/** Number of sub-requisitions per node created by getSubRequisitions(int) */
+	private static final int STATIC_CHUNKS_PER_NODE = 4;
+	/** Fraction of the work used by the first wave, when the work rate is unknown */
+	private static final int PROBE_DIVISOR = 64;
+
+	/**
+	 * Retrieves the number of work units of this requisition
+	 * @return number of work units
+	 */
+	public abstract long getWorkSize();
+	/**
+	 * Creates a sub-requisition that processes a range of work units
+	 * @param offset first work unit (from zero to getWorkSize() - 1)
+	 * @param length number of work units (at least one)
+	 * @return sub-requisition
+	 */
+	public abstract SubRequisition createSubRequisition(long offset, long length);
+	/**
+	 * Retrieves the number of work units of each sub-requisition of the first wave, when
+	 * the work rate is unknown.
+	 * The default behavior is to use 1/64 of the work, divided by the number of nodes.
+	 * @param context information about the available nodes
+	 * @return number of work units
+	 */
+	public long getProbeSize(SplitContext context) {
+		return Math.max(1, getWorkSize() / PROBE_DIVISOR / Math.max(1, context.getAvailableNodes()));
+	}
+	/**
+	 * Splits all work at once, in four sub-requisitions per node. This is only used when
+	 * the requisition is not splitted in waves by a main node.
+	 * @param availableNodes number of nodes available for processing sub-requisitions
+	 * @return a number of sub-requisitions to be processed.
+	 */
+	public SubRequisition[] getSubRequisitions(int availableNodes) {
+		final long work = getWorkSize();
+		final int count = (int) Math.max(0, Math.min(work, (long) Math.max(1, availableNodes) * STATIC_CHUNKS_PER_NODE));
+		final SubRequisition[] subs = new SubRequisition[count];
+		long offset = 0;
+		for (int i = 0; i < count; i++) {
+			final long length = (work - offset) / (count - i);
+			subs[i] = createSubRequisition(offset, length);
+			offset += length;
+		}
+		return subs;
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * AnnotatedInputStream.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.rmi.server.RMIClassLoader;
+
+/**
+ * Object input stream that loads classes from the codebase written by an
+ * AnnotatedOutputStream, thru RMIClassLoader.
+ */
+class AnnotatedInputStream extends ObjectInputStream {
+	/** Class loader used first, and when a class has no codebase */
+	private final ClassLoader loader;
+	/**
+	 * Creates a stream that uses the context class loader of the current thread
+	 * @param in underlying stream
+	 * @throws IOException on any error
+	 */
+	AnnotatedInputStream(InputStream in) throws IOException {
+		this(in, null);
+	}
+	/**
+	 * Creates a stream that uses a given class loader
+	 * @param in underlying stream
+	 * @param loader class loader used first, and when a class has no codebase (may be null
+	 * to use the context class loader of the current thread)
+	 * @throws IOException on any error
+	 */
+	AnnotatedInputStream(InputStream in, ClassLoader loader) throws IOException {
+		super(in);
+		this.loader = loader;
+	}
+	/** {@inheritDoc} */
+	protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		final String codebase = (String) readObject();
+		try {
+			return RMIClassLoader.loadClass(codebase, desc.getName(), getDefaultLoader());
+		} catch (ClassNotFoundException e) {
+			return super.resolveClass(desc); // Primitive types
+		}
+	}
+	/** {@inheritDoc} */
+	protected Class resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+		final String codebase = (String) readObject();
+		return RMIClassLoader.loadProxyClass(codebase, interfaces, getDefaultLoader());
+	}
+	/** @return class loader used when a class has no codebase */
+	private ClassLoader getDefaultLoader() {
+		if (loader != null) {
+			return loader;
+		}
+		final ClassLoader context = Thread.currentThread().getContextClassLoader();
+		return (context != null) ? context : AnnotatedInputStream.class.getClassLoader();
+	}
+}
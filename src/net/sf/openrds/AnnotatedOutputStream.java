@@ -0,0 +1,44 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * AnnotatedOutputStream.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.rmi.server.RMIClassLoader;
+
+/**
+ * Object output stream that annotates classes with their codebase, like RMI does, so the
+ * other side may download them (see AnnotatedInputStream).
+ */
+class AnnotatedOutputStream extends ObjectOutputStream {
+	/**
+	 * Default constructor
+	 * @param out underlying stream
+	 * @throws IOException on any error
+	 */
+	AnnotatedOutputStream(OutputStream out) throws IOException {
+		super(out);
+	}
+	/** {@inheritDoc} */
+	protected void annotateClass(Class cl) throws IOException {
+		writeObject(RMIClassLoader.getClassAnnotation(cl));
+	}
+	/** {@inheritDoc} */
+	protected void annotateProxyClass(Class cl) throws IOException {
+		annotateClass(cl);
+	}
+}
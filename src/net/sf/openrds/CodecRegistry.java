@@ -0,0 +1,130 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * CodecRegistry.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.rmi.server.RMIClassLoader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the codecs used to serialize requisitions and results in a compact form.<BR>
+ * Objects whose class has a registered codec are written as a small envelope holding the
+ * class name and whatever the codec writes, instead of the class descriptors and fields
+ * written by Java serialization. Objects of other classes are still serialized as usual.<BR>
+ * Codecs are used for:
+ * <ul>
+ * <li>Any object sent by the "nio" transport (see ISystemProperties.TRANSPORT);</li>
+ * <li>Any object (including requisitions) whose class defines a <code>writeReplace()</code>
+ * method that returns <code>CodecRegistry.getInstance().replace(this)</code>, with any
+ * transport. This is the way to use codecs with the "rmi" transport.</li>
+ * </ul>
+ * Streaming requisitions are never encoded, since the ticket of their stream must be kept.<BR>
+ * The codec must be registered on every JVM that reads or writes the class. The simplest way
+ * is to register it on a static initializer of the class itself, since the class is always
+ * loaded before a codec is searched for it.<BR>
+ * The codec of a class is not used for its subclasses.
+ * @since OpenRDS 1.3
+ */
+public final class CodecRegistry {
+	/** Singleton instance */
+	private static final CodecRegistry INSTANCE = new CodecRegistry();
+	/** Codecs by class */
+	private final Map byClass = new ConcurrentHashMap();
+	/** Codecs by class name */
+	private final Map byName = new ConcurrentHashMap();
+
+	/** Private constructor to ensure singleton instance */
+	private CodecRegistry() {
+	}
+	/**
+	 * Retrieves the singleton instance of this class
+	 * @return CodecRegistry singleton
+	 */
+	public static CodecRegistry getInstance() {
+		return INSTANCE;
+	}
+	/**
+	 * Registers the codec of a class, replacing any codec previously registered for it
+	 * @param type class
+	 * @param codec codec
+	 */
+	public void register(Class type, ICodec codec) {
+		if (type == null || codec == null) {
+			throw new IllegalArgumentException("Class and codec must not be null");
+		}
+		byClass.put(type, codec);
+		byName.put(type.getName(), codec);
+	}
+	/**
+	 * Removes the codec of a class, so its objects are serialized as usual
+	 * @param type class
+	 */
+	public void unregister(Class type) {
+		byClass.remove(type);
+		byName.remove(type.getName());
+	}
+	/**
+	 * Retrieves the codec registered for a class
+	 * @param type class
+	 * @return codec, or null if there is none
+	 */
+	public ICodec getCodec(Class type) {
+		return (ICodec) byClass.get(type);
+	}
+	/**
+	 * Retrieves the object that must be serialized in place of the given one, which is its
+	 * compact encoding if there is a codec for its class, or the object itself otherwise.
+	 * @param obj object being serialized
+	 * @return object to serialize
+	 */
+	public Object replace(Object obj) {
+		if (obj == null || obj instanceof StreamingRequisition) {
+			return obj;
+		}
+		final ICodec codec = (ICodec) byClass.get(obj.getClass());
+		return (codec != null) ? new EncodedObject(obj, codec) : obj;
+	}
+	/**
+	 * Retrieves the codec registered for a class name, loading the class if the codec is not
+	 * registered yet (so static initializers have the chance to register it). The class is
+	 * loaded thru RMIClassLoader, so it may be downloaded from its codebase.
+	 * @param name class name
+	 * @param codebase codebase annotation of the class (may be null)
+	 * @return codec
+	 * @throws IOException if there is no codec for the class
+	 */
+	ICodec getCodec(String name, String codebase) throws IOException {
+		ICodec codec = (ICodec) byName.get(name);
+		if (codec == null) {
+			try {
+				final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+				final Class type = RMIClassLoader.loadClass(codebase, name, (loader != null) ? loader : CodecRegistry.class.getClassLoader());
+				Class.forName(type.getName(), true, type.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				final InvalidClassException error = new InvalidClassException(name, "Class not found");
+				error.initCause(e);
+				throw error;
+			}
+			codec = (ICodec) byName.get(name);
+			if (codec == null) {
+				throw new InvalidClassException(name, "No codec registered");
+			}
+		}
+		return codec;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * CodecTypes.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Names of the classes encoded by codecs on a connection, so each name is sent only once.<BR>
+ * The sender assigns an id to each name. Ids are sent with their names (in the frame header
+ * of the "nio" transport) until a frame that defines them has been sent, and then only the
+ * id is sent. Since frames are received in the order they are sent, the receiver always knows
+ * an id before it is used alone.
+ */
+final class CodecTypes {
+	/** Ids assigned by this side, by name */
+	private final Map ids = new HashMap();
+	/** Ids that have already been sent with their names */
+	private final Set sent = new HashSet();
+	/** Names of the ids assigned by the other side */
+	private final Map names = new ConcurrentHashMap();
+	private int lastId = 0;
+
+	/**
+	 * Retrieves the id of a class name
+	 * @param name class name
+	 * @param defined list where the id and name are added if the other side does not know
+	 * the id yet (as an Object[] {Integer, String})
+	 * @return id
+	 */
+	synchronized int getId(String name, List defined) {
+		Integer id = (Integer) ids.get(name);
+		if (id == null) {
+			id = new Integer(++lastId);
+			ids.put(name, id);
+		}
+		if (!sent.contains(id)) {
+			defined.add(new Object[] {id, name});
+		}
+		return id.intValue();
+	}
+	/**
+	 * Registers that a frame has been sent with these definitions
+	 * @param defined definitions, as returned by getId()
+	 */
+	synchronized void confirm(List defined) {
+		for (int i = 0; i < defined.size(); i++) {
+			sent.add(((Object[]) defined.get(i))[0]);
+		}
+	}
+	/**
+	 * Registers an id defined by the other side
+	 * @param id id
+	 * @param name class name
+	 */
+	void define(int id, String name) {
+		names.put(new Integer(id), name);
+	}
+	/**
+	 * Retrieves the name of an id defined by the other side
+	 * @param id id
+	 * @return class name
+	 * @throws StreamCorruptedException if the id is unknown
+	 */
+	String getName(int id) throws StreamCorruptedException {
+		final String name = (String) names.get(new Integer(id));
+		if (name == null) {
+			throw new StreamCorruptedException("Unknown class id: " + id);
+		}
+		return name;
+	}
+
+	/**
+	 * Object output stream that assigns class ids
+	 */
+	interface Output {
+		/**
+		 * Retrieves the id of a class name
+		 * @param name class name
+		 * @return id
+		 */
+		int getTypeId(String name);
+	}
+	/**
+	 * Object input stream that resolves class ids
+	 */
+	interface Input {
+		/**
+		 * Retrieves the name of a class id
+		 * @param id id
+		 * @return class name
+		 * @throws IOException if the id is unknown
+		 */
+		String getTypeName(int id) throws IOException;
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * CompletionLatch.java
+ */
+
+package net.sf.openrds;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts pending requisitions and lets threads wait until there is none.<BR>
+ * Unlike a count-down latch, it may be reused: requisitions can be registered again
+ * after the count has reached zero.
+ */
+final class CompletionLatch {
+	/** Number of pending requisitions */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * Registers a new pending requisition
+	 */
+	void register() {
+		pending.incrementAndGet();
+	}
+	/**
+	 * Registers that a pending requisition has been completed, waking up waiting
+	 * threads if it was the last one
+	 */
+	void arrive() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+	/**
+	 * Checks how many requisitions are pending
+	 * @return integer
+	 */
+	int getPending() {
+		return pending.get();
+	}
+	/**
+	 * Waits until there are no pending requisitions
+	 * @throws InterruptedException if the current thread is interrupted
+	 */
+	void await() throws InterruptedException {
+		if (pending.get() > 0) {
+			synchronized (this) {
+				while (pending.get() > 0) {
+					wait();
+				}
+			}
+		}
+	}
+}
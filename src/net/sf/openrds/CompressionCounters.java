@@ -0,0 +1,109 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * CompressionCounters.java
+ */
+
+package net.sf.openrds;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the compression done by the "nio" transport on this JVM (see
+ * ISystemProperties.COMPRESSION_THRESHOLD).<BR>
+ * They show how many bytes compression has saved and how much processor time it has cost,
+ * on both the sending and the receiving sides, so the threshold can be tuned.
+ * @since OpenRDS 1.3
+ */
+public final class CompressionCounters {
+	/** Singleton instance */
+	private static final CompressionCounters INSTANCE = new CompressionCounters();
+	private final AtomicLong compressedFrames	= new AtomicLong();
+	private final AtomicLong rejectedFrames		= new AtomicLong();
+	private final AtomicLong originalBytes		= new AtomicLong();
+	private final AtomicLong compressedBytes	= new AtomicLong();
+	private final AtomicLong compressionTime	= new AtomicLong();
+	private final AtomicLong decompressionTime	= new AtomicLong();
+
+	/** Private constructor to ensure singleton instance */
+	private CompressionCounters() {
+	}
+	/**
+	 * Retrieves the singleton instance of this class
+	 * @return CompressionCounters singleton
+	 */
+	public static CompressionCounters getInstance() {
+		return INSTANCE;
+	}
+	/**
+	 * Registers a frame that has been sent compressed
+	 * @param original original size
+	 * @param compressed compressed size
+	 * @param nanos time spent compressing
+	 */
+	void compressed(int original, int compressed, long nanos) {
+		compressedFrames.incrementAndGet();
+		originalBytes.addAndGet(original);
+		compressedBytes.addAndGet(compressed);
+		compressionTime.addAndGet(nanos);
+	}
+	/**
+	 * Registers a frame that has been sent as is, because compressing it did not reduce its size
+	 * @param nanos time spent compressing
+	 */
+	void rejected(long nanos) {
+		rejectedFrames.incrementAndGet();
+		compressionTime.addAndGet(nanos);
+	}
+	/**
+	 * Registers a frame that has been decompressed
+	 * @param nanos time spent decompressing
+	 */
+	void decompressed(long nanos) {
+		decompressionTime.addAndGet(nanos);
+	}
+	/** @return number of frames sent compressed */
+	public long getCompressedFrames() {
+		return compressedFrames.get();
+	}
+	/** @return number of frames above the threshold that were sent as is, since compression did not reduce their size */
+	public long getRejectedFrames() {
+		return rejectedFrames.get();
+	}
+	/** @return original size (in bytes) of the frames sent compressed */
+	public long getOriginalBytes() {
+		return originalBytes.get();
+	}
+	/** @return compressed size (in bytes) of the frames sent compressed */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+	/** @return number of bytes that compression has saved */
+	public long getSavedBytes() {
+		return originalBytes.get() - compressedBytes.get();
+	}
+	/** @return time (in nanos) spent compressing, including the rejected frames */
+	public long getCompressionTime() {
+		return compressionTime.get();
+	}
+	/** @return time (in nanos) spent decompressing */
+	public long getDecompressionTime() {
+		return decompressionTime.get();
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "Compressed frames: " + getCompressedFrames() + ", rejected frames: " + getRejectedFrames()
+			+ ", saved bytes: " + getSavedBytes() + " of " + getOriginalBytes()
+			+ ", compression time: " + (getCompressionTime() / 1000000) + "ms"
+			+ ", decompression time: " + (getDecompressionTime() / 1000000) + "ms";
+	}
+}
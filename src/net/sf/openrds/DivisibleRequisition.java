@@ -51,6 +51,20 @@ public abstract class DivisibleRequisition extends Requisition {
 	 */
 	public abstract SubRequisition[] getSubRequisitions(int availableNodes);
 	
+	/**
+	 * Splits this requisition into many sub-requisitions, given the capacity of the
+	 * available nodes and the throughput measured on previous runs. This is the method
+	 * called by the main node.<BR>
+	 * The default behavior of this method is to call
+	 * <code><b>getSubRequisitions(context.getAvailableNodes())</b><code>
+	 * @param context information about the available nodes
+	 * @return a number of sub-requisitions to be processed.
+	 * @since OpenRDS 1.3
+	 */
+	public SubRequisition[] getSubRequisitions(SplitContext context) {
+		return getSubRequisitions(context.getAvailableNodes());
+	}
+	
 	/**
 	 * This method will be called when all sub-requisitions have been processed, to
 	 * join all sub-results in a single result. The array received will have results
@@ -60,4 +74,25 @@ public abstract class DivisibleRequisition extends Requisition {
 	 * @return consolidated result (this will be the result returned by the MainNode)
 	 */
 	public abstract Object getResponse(Object[] subResults);
+	
+	/**
+	 * This method may enable the partial reduction of sub-results on the process nodes,
+	 * as a tree with the returned fan-in.<BR>
+	 * Sub-requisitions are dispatched one by one, as usual. As soon as the results of (up to)
+	 * fan-in consecutive sub-requisitions are available, they are sent together with this
+	 * requisition to a process node, that calls getResponse() to join them into a partial
+	 * result. Partial results are joined the same way, until no more than fan-in are left,
+	 * which are joined by the main node.<BR>
+	 * Therefore getResponse() must also accept an array of partial results (of consecutive
+	 * sub-requisitions, in order). The tree spreads the joins over the process nodes, while
+	 * other sub-requisitions are still beeing processed, instead of joining all sub-results
+	 * on the main node at the end. It does not reduce the network traffic, since every
+	 * result goes back to the main node before beeing joined.<BR>
+	 * The default behavior is to return 0 (all sub-results are joined by the main node).
+	 * @return fan-in (at least 2), or any lower value to join all sub-results on the main node
+	 * @since OpenRDS 1.3
+	 */
+	public int getReduceFanIn() {
+		return 0;
+	}
 }
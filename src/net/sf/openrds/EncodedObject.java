@@ -0,0 +1,89 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * EncodedObject.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.rmi.server.RMIClassLoader;
+
+/**
+ * Envelope serialized in place of an object that has a codec (see CodecRegistry).<BR>
+ * It writes the class of the object (with its codebase annotation, like RMI does for
+ * serialized classes) and then lets the codec write the object itself. When
+ * read, it is resolved to the decoded object, so the envelope is never seen by the code
+ * that reads the stream.
+ */
+final class EncodedObject implements Serializable {
+	private static final long serialVersionUID = -2904615781264309458L;
+	private transient Object value;
+	private transient ICodec codec;
+
+	/**
+	 * Creates a new envelope
+	 * @param value object to encode
+	 * @param codec codec of the object class
+	 */
+	EncodedObject(Object value, ICodec codec) {
+		this.value = value;
+		this.codec = codec;
+	}
+	/**
+	 * Writes the class name (or its id, if the stream caches class names), the codebase of
+	 * the class and the encoded object
+	 * @param out stream
+	 * @throws IOException on any error
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		final String name = value.getClass().getName();
+		if (out instanceof CodecTypes.Output) {
+			out.writeInt(((CodecTypes.Output) out).getTypeId(name));
+		} else {
+			out.writeInt(0);
+			out.writeUTF(name);
+		}
+		out.writeObject(RMIClassLoader.getClassAnnotation(value.getClass()));
+		codec.encode(value, out);
+	}
+	/**
+	 * Reads the class name and its codebase, and decodes the object
+	 * @param in stream
+	 * @throws IOException on any error
+	 * @throws ClassNotFoundException if the class of a nested object is not found
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		final int id = in.readInt();
+		final String name;
+		if (id == 0) {
+			name = in.readUTF();
+		} else if (in instanceof CodecTypes.Input) {
+			name = ((CodecTypes.Input) in).getTypeName(id);
+		} else {
+			throw new StreamCorruptedException("Class id " + id + " found on a stream without class ids");
+		}
+		codec = CodecRegistry.getInstance().getCodec(name, (String) in.readObject());
+		value = codec.decode(in);
+	}
+	/**
+	 * Replaces this envelope by the decoded object
+	 * @return decoded object
+	 */
+	private Object readResolve() {
+		return value;
+	}
+}
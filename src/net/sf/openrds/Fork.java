@@ -0,0 +1,41 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * Fork.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+
+/**
+ * Returned by a fork/join requisition that forks child requisitions. It goes back to the
+ * main node as the result of the requisition, holding its state and its children.
+ */
+final class Fork implements Serializable {
+	/** serialVersionUID */
+	private static final long serialVersionUID = 7410327652093157341L;
+	/** Requisition that must join the results */
+	final ForkJoinRequisition parent;
+	/** Children to be dispatched */
+	final IndivisibleRequisition[] children;
+
+	/**
+	 * Default Constructor.
+	 * @param parent requisition that must join the results
+	 * @param children children to be dispatched
+	 */
+	Fork(ForkJoinRequisition parent, IndivisibleRequisition[] children) {
+		this.parent = parent;
+		this.children = children;
+	}
+}
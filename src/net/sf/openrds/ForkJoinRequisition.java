@@ -0,0 +1,63 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ForkJoinRequisition.java
+ */
+
+package net.sf.openrds;
+
+
+/**
+ * Represents a requisition that may fork child requisitions into the cluster and join on
+ * their results, recursively (like divide-and-conquer algorithms).<BR>
+ * compute() either returns the result at once, or returns fork(children). In the second
+ * case, the process node is released and the main node dispatches the children, on the top
+ * of their queues, so the most recently forked work is processed first. When all of them
+ * are done, join() is called on a process node with their results. No thread is blocked
+ * while children are pending, so the recursion may be as deep as needed.<BR>
+ * Children may be any indivisible requisition, including other fork/join requisitions.
+ * Since join() is called on a copy of this requisition (when it is serialized), its state
+ * must be kept in serializable fields. A fork/join requisition must be processed by a main
+ * node: process() returns an internal object when the requisition forks.
+ * @since OpenRDS 1.3
+ */
+public abstract class ForkJoinRequisition extends IndivisibleRequisition {
+	/**
+	 * Computes the result of this requisition, or forks it
+	 * @return the result, or the object returned by fork()
+	 * @throws ProcessingException on any error processing the requisition
+	 */
+	public abstract Object compute() throws ProcessingException;
+	/**
+	 * Joins the results of the children forked by compute(). This method may fork again.
+	 * @param childResults results of the children, in the order they have been forked
+	 * @return the result, or the object returned by fork()
+	 * @throws ProcessingException on any error joining the results
+	 */
+	public abstract Object join(Object[] childResults) throws ProcessingException;
+	/**
+	 * Forks child requisitions. The returned object must be returned by compute() or join().
+	 * @param children child requisitions
+	 * @return object to be returned
+	 */
+	protected final Object fork(IndivisibleRequisition[] children) {
+		return new Fork(this, children);
+	}
+	/**
+	 * Calls compute()
+	 * @return the result, or an internal object if this requisition forks
+	 * @throws ProcessingException on any error processing the requisition
+	 */
+	public final Object process() throws ProcessingException {
+		return compute();
+	}
+}
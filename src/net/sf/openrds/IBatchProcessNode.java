@@ -0,0 +1,38 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * IBatchProcessNode.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+
+/**
+ * Represents a process node that is able to process many requisitions in a single call.<BR>
+ * The main node sends batches of small requisitions to nodes implementing this interface,
+ * and sends them one by one to any other process node.
+ * @since OpenRDS 1.3
+ */
+public interface IBatchProcessNode extends IProcessNode {
+	/**
+	 * Processes many requisitions in a single call, one after the other.<BR>
+	 * Processing errors are reported individually, on the result of each requisition,
+	 * and never thrown by this method.<BR>
+	 * Client applications should never call this method directly, since
+	 * it is only used by the main node.
+	 * @param requisitions requisitions to be processed
+	 * @return results, in the same order (results have no ticket)
+	 * @throws RemoteException on any communication error
+	 */
+	RequisitionResult[] processRequisitions(Requisition[] requisitions) throws RemoteException;
+}
@@ -0,0 +1,46 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ICodec.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Compact encoder for objects of a given class, used in place of Java serialization
+ * (see CodecRegistry).<BR>
+ * A codec usually writes the fields of the object with the primitive methods of the stream,
+ * and may use writeObject() for nested objects. It must never call writeObject() for the
+ * object that it is encoding.
+ * @since OpenRDS 1.3
+ */
+public interface ICodec {
+	/**
+	 * Writes an object
+	 * @param obj object to write
+	 * @param out stream to write to
+	 * @throws IOException on any error
+	 */
+	void encode(Object obj, ObjectOutput out) throws IOException;
+	/**
+	 * Reads an object written by encode()
+	 * @param in stream to read from
+	 * @return object read
+	 * @throws IOException on any error
+	 * @throws ClassNotFoundException if the class of a nested object is not found
+	 */
+	Object decode(ObjectInput in) throws IOException, ClassNotFoundException;
+}
@@ -83,4 +83,216 @@ public interface IMainNode extends INode {
 	 * @since OpenRDS 0.3
 	 */
 	void waitIdle() throws RemoteException;
+	/**
+	 * Retrieves the number of requisitions of the given priority that are waiting to be
+	 * dispatched to a process node.
+	 * @param priority requisition priority (see IndivisibleRequisition.PRIORITY_*)
+	 * @return number of requisitions waiting to be dispatched
+	 * @throws RemoteException on any communication or runtime error
+	 * @since OpenRDS 1.3
+	 */
+	int getQueueDepth(int priority) throws RemoteException;
+	/**
+	 * Retrieves the statistics of the cache of requisition results (see
+	 * IndivisibleRequisition.getCacheKey()).
+	 * @return statistics (all zeros if the cache is disabled)
+	 * @throws RemoteException on any communication or runtime error
+	 * @since OpenRDS 1.3
+	 */
+	ResultCacheStatistics getResultCacheStatistics() throws RemoteException;
+	/**
+	 * Creates a new job on this main node.<BR>
+	 * A job groups requisitions, so they can be waited for without waiting for all other
+	 * requisitions beeing processed by this main node (see waitIdle(JobHandle)).<BR>
+	 * Jobs must always be closed by closeJob() when they are not needed anymore: the main
+	 * node keeps each job (and the results not fetched yet) until then, even if it is idle.
+	 * @return job handle
+	 * @throws RemoteException on any communication or runtime error
+	 * @since OpenRDS 1.3
+	 */
+	JobHandle createJob() throws RemoteException;
+	/**
+	 * Adds the given requisition to be processed asynchronously, as part of a job.<BR>
+	 * If the requisition is divisible, all its sub-requisitions are part of the job.<BR>
+	 * The same warnings of processAsyncRequisition(Requisition) apply here.
+	 * @param requisition requisition to be processed asynchronously
+	 * @param job job (may be null for no job)
+	 * @throws RemoteException on any communication error, or if the job is unknown
+	 * @since OpenRDS 1.3
+	 */
+	void processAsyncRequisition(final Requisition requisition, JobHandle job) throws RemoteException;
+	/**
+	 * Waits all requisitions of the given job to be processed.<BR>
+	 * Requisitions of other jobs (or of no job) are not waited for.
+	 * @param job job
+	 * @throws RemoteException on any communication or runtime error, or if the job is unknown
+	 * @since OpenRDS 1.3
+	 */
+	void waitIdle(JobHandle job) throws RemoteException;
+	/**
+	 * Closes a job. Requisitions of the job that are still pending will be processed
+	 * normally, but the job can't be used anymore.<BR>
+	 * Every job created by createJob() must be closed, since it is never dropped otherwise.
+	 * @param job job
+	 * @throws RemoteException on any communication or runtime error, or if the job is unknown
+	 * @since OpenRDS 1.3
+	 */
+	void closeJob(JobHandle job) throws RemoteException;
+	/**
+	 * Submits the given requisition to be processed asynchronously, returning a ticket
+	 * that can be used to collect its result later, by pollResult() or fetchResults().<BR>
+	 * Unlike processRequisition(), no thread is held while the requisition is beeing
+	 * processed, so a single client thread can keep many requisitions in flight.<BR>
+	 * Results are kept by the main node until they are collected (or until the job is
+	 * closed), so they must always be collected.
+	 * @param requisition requisition to be processed asynchronously
+	 * @param job job (may be null for no job)
+	 * @return ticket of the requisition
+	 * @throws RemoteException on any communication error, or if the job is unknown
+	 * @since OpenRDS 1.3
+	 */
+	RequisitionTicket submitRequisition(final Requisition requisition, JobHandle job) throws RemoteException;
+	/**
+	 * Retrieves the result of a submitted requisition, without blocking.<BR>
+	 * Once retrieved, a result is forgotten by the main node.
+	 * @param ticket ticket of the requisition
+	 * @return result, or null if the requisition has not been processed yet
+	 * @throws RemoteException on any communication error, or if the ticket is unknown
+	 * (or its result has already been retrieved)
+	 * @since OpenRDS 1.3
+	 */
+	RequisitionResult pollResult(RequisitionTicket ticket) throws RemoteException;
+	/**
+	 * Retrieves the results of submitted requisitions of a job, in the order they have
+	 * been processed. If no result is available, waits for one until the timeout
+	 * is reached.<BR>
+	 * Once retrieved, results are forgotten by the main node.
+	 * @param job job (may be null to retrieve results of requisitions without a job)
+	 * @param maxResults maximum number of results to retrieve
+	 * @param timeout maximum time to wait (in millis), or zero to never wait
+	 * @return results (empty if none is available, or if there is nothing pending)
+	 * @throws RemoteException on any communication error, or if the job is unknown
+	 * @since OpenRDS 1.3
+	 */
+	RequisitionResult[] fetchResults(JobHandle job, int maxResults, long timeout) throws RemoteException;
+	/**
+	 * Submits many requisitions in a single call. This is the same as calling
+	 * submitRequisition() for each one, but much faster for small requisitions,
+	 * since they are sent to the main node at once.<BR>
+	 * See also RequisitionBatcher, which groups requisitions automatically.
+	 * @param requisitions requisitions to be processed asynchronously
+	 * @param job job (may be null for no job)
+	 * @return tickets of the requisitions, in the same order
+	 * @throws RemoteException on any communication error, or if the job is unknown
+	 * @since OpenRDS 1.3
+	 */
+	RequisitionTicket[] submitRequisitions(final Requisition[] requisitions, JobHandle job) throws RemoteException;
+	/**
+	 * Retrieves the results of many submitted requisitions in a single call, without blocking.
+	 * The same rules of pollResult() apply to each ticket.
+	 * @param tickets tickets of the requisitions
+	 * @return results, in the same order (null for requisitions that have not been
+	 * processed yet)
+	 * @throws RemoteException on any communication error, or if any ticket is unknown
+	 * @since OpenRDS 1.3
+	 */
+	RequisitionResult[] pollResults(RequisitionTicket[] tickets) throws RemoteException;
+	/**
+	 * Takes requisitions to be processed by a process node that works in pull mode
+	 * (see ISystemProperties.PULL_MODE). If no requisition is available, waits for one
+	 * until the timeout is reached.<BR>
+	 * Once a process node pulls requisitions, the main node stops sending requisitions to it.
+	 * Requisitions taken by a process node are put back to be processed by other nodes if
+	 * the process node is lost.<BR>
+	 * Client applications should never call this method directly, since
+	 * it is only used by the process node itself.
+	 * @param nodeName name of the process node
+	 * @param maxRequisitions maximum number of requisitions to take
+	 * @param timeout maximum time to wait (in millis), or zero to never wait
+	 * @return requisitions (empty if none is available)
+	 * @throws RemoteException on any communication error, or if the node is not controlled
+	 * by this main node
+	 * @since OpenRDS 1.3
+	 */
+	PulledRequisition[] pullRequisitions(String nodeName, int maxRequisitions, long timeout) throws RemoteException;
+	/**
+	 * Sends back the results of requisitions taken by pullRequisitions().<BR>
+	 * Client applications should never call this method directly, since
+	 * it is only used by the process node itself.
+	 * @param nodeName name of the process node
+	 * @param results results (the ticket of each result is the ticket of the pulled requisition)
+	 * @throws RemoteException on any communication error
+	 * @since OpenRDS 1.3
+	 */
+	void pushResults(String nodeName, RequisitionResult[] results) throws RemoteException;
+	/**
+	 * Retrieves the result chunks emitted by a streaming requisition (see
+	 * StreamingRequisition), in the order they have been emitted. If no chunk is available,
+	 * waits for one until the timeout is reached.<BR>
+	 * Once retrieved, chunks are forgotten by the main node. The requisition is blocked while
+	 * the main node holds too many chunks, so they must always be fetched (see
+	 * ISystemProperties.STREAM_TIMEOUT). After the last chunk, the final result of the
+	 * requisition is available by pollResult(). Chunks not fetched when the result is
+	 * retrieved (or when the job of the requisition is closed) are discarded.
+	 * @param ticket ticket of the streaming requisition
+	 * @param maxChunks maximum number of chunks to retrieve
+	 * @param timeout maximum time to wait (in millis), or zero to never wait
+	 * @return chunks (empty if none is available yet), or null after the requisition has
+	 * been completed and all its chunks have been retrieved
+	 * @throws RemoteException on any communication error, or if the ticket is not of a
+	 * streaming requisition (or its stream has already ended)
+	 * @since OpenRDS 1.3
+	 */
+	Object[] fetchChunks(RequisitionTicket ticket, int maxChunks, long timeout) throws RemoteException;
+	/**
+	 * Sends result chunks emitted by a streaming requisition. Blocks while the main node
+	 * holds too many chunks of the requisition.<BR>
+	 * Client applications should never call this method directly, since
+	 * it is only used by the process node itself.
+	 * @param ticket ticket of the streaming requisition
+	 * @param first sequence number of the first chunk (the number of chunks emitted before it)
+	 * @param chunks chunks
+	 * @throws RemoteException on any communication error, or if the ticket is not of a
+	 * streaming requisition (or its stream has already ended)
+	 * @since OpenRDS 1.3
+	 */
+	void pushChunks(RequisitionTicket ticket, long first, Object[] chunks) throws RemoteException;
+	/**
+	 * Checks if this main node has the shared data with the given key (see SharedData).
+	 * @param key key of the data
+	 * @return true if the data has been published
+	 * @throws RemoteException on any communication error
+	 * @since OpenRDS 1.3
+	 */
+	boolean hasData(String key) throws RemoteException;
+	/**
+	 * Publishes shared data, so process nodes can fetch it. Client applications should
+	 * use SharedData.publish() instead of calling this method directly.<BR>
+	 * The main node discards the data used less recently when the size limit of the
+	 * published data is reached (see ISystemProperties.SHARED_DATA_LIMIT).
+	 * @param key key of the data (the hash of its content)
+	 * @param data serialized data
+	 * @throws RemoteException on any communication error, if the key is not the hash
+	 * of the data, or if the data is larger than ISystemProperties.SHARED_DATA_LIMIT
+	 * @since OpenRDS 1.3
+	 */
+	void publishData(String key, byte[] data) throws RemoteException;
+	/**
+	 * Discards published shared data. Process nodes that have it in cache can still use it,
+	 * but it can't be fetched anymore.
+	 * @param key key of the data
+	 * @throws RemoteException on any communication error
+	 * @since OpenRDS 1.3
+	 */
+	void unpublishData(String key) throws RemoteException;
+	/**
+	 * Retrieves published shared data.<BR>
+	 * Client applications should never call this method directly, since
+	 * it is only used by the process node itself.
+	 * @param key key of the data
+	 * @return serialized data
+	 * @throws RemoteException on any communication error, or if the data is unknown
+	 * @since OpenRDS 1.3
+	 */
+	byte[] fetchData(String key) throws RemoteException;
 }
@@ -38,7 +38,8 @@ public interface INodeEventListener {
 	/**
 	 * Called when a node finishs processing a requisition with success.<BR>
 	 * IMPORTANT: On IMainNode this works only when calling <code>IMainNode.processRequisition()</code>
-	 * and not when calling <code>IMainNode.processAsyncRequisition()</code>
+	 * or <code>IMainNode.submitRequisition()</code>, and not when calling
+	 * <code>IMainNode.processAsyncRequisition()</code>
 	 * @param node node that generated this event
 	 * @param requisition requisition that has been processed
 	 * @param result requisition result
@@ -47,7 +48,8 @@ public interface INodeEventListener {
 	/**
 	 * Called when a node fails to process a requisition.<BR>
 	 * IMPORTANT: On IMainNode this works only when calling <code>IMainNode.processRequisition()</code>
-	 * and not when calling <code>IMainNode.processAsyncRequisition()</code>
+	 * or <code>IMainNode.submitRequisition()</code>, and not when calling
+	 * <code>IMainNode.processAsyncRequisition()</code>
 	 * @param node node that generated this event
 	 * @param requisition requisition that has been processed
 	 * @param error error detected during processing
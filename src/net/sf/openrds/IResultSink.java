@@ -0,0 +1,34 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * IResultSink.java
+ */
+
+package net.sf.openrds;
+
+/**
+ * Receives the result chunks emitted by a streaming requisition while it is processed
+ * (see StreamingRequisition).<BR>
+ * Chunks are delivered to the client in the order they are emitted.
+ * @since OpenRDS 1.3
+ */
+public interface IResultSink {
+	/**
+	 * Emits a result chunk.<BR>
+	 * This method blocks while the chunks already emitted have not been taken by the main
+	 * node, and the main node only takes them while the client keeps fetching chunks. This
+	 * way, no node ever holds more than a few chunks (see ISystemProperties.STREAM_WINDOW).
+	 * @param chunk result chunk (must be serializable)
+	 * @throws ProcessingException if the chunk could not be delivered to the main node
+	 */
+	void emit(Object chunk) throws ProcessingException;
+}
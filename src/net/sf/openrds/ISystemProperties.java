@@ -88,4 +88,351 @@ public interface ISystemProperties {
 	 * @since OpenRDS 1.1-beta
 	 */
 	String CONNECT_TIMEOUT = "openrds.connect.timeout";
+	/**
+	 * This property can be used to enable or disable TCP_NODELAY on the sockets used by
+	 * remote method calls.<BR>
+	 * With TCP_NODELAY disabled (Nagle's algorithm), small calls may be delayed until the
+	 * other side acknowledges the previous packet, which may take tens of milliseconds.<BR>
+	 * The default value is "true".
+	 * @value "openrds.socket.nodelay"
+	 * @since OpenRDS 1.3
+	 */
+	String SOCKET_NODELAY = "openrds.socket.nodelay";
+	/**
+	 * This property can be used to set the size (in bytes) of the send buffer of the sockets
+	 * used by remote method calls.<BR>
+	 * By default, the operating system default is used.
+	 * @value "openrds.socket.sendbuffer"
+	 * @since OpenRDS 1.3
+	 */
+	String SOCKET_SEND_BUFFER = "openrds.socket.sendbuffer";
+	/**
+	 * This property can be used to set the size (in bytes) of the receive buffer of the
+	 * sockets used by remote method calls.<BR>
+	 * By default, the operating system default is used.
+	 * @value "openrds.socket.receivebuffer"
+	 * @since OpenRDS 1.3
+	 */
+	String SOCKET_RECEIVE_BUFFER = "openrds.socket.receivebuffer";
+	/**
+	 * This property can be used to enable SO_KEEPALIVE on the sockets used by remote method
+	 * calls, so connections to machines that have crashed are eventually detected, even
+	 * when they are idle.<BR>
+	 * The default value is "false".
+	 * @value "openrds.socket.keepalive"
+	 * @since OpenRDS 1.3
+	 */
+	String SOCKET_KEEPALIVE = "openrds.socket.keepalive";
+	/**
+	 * This property can be used to set the read timeout (in milliseconds) of the sockets used
+	 * by remote method calls.<BR>
+	 * A call fails if no data is received for this long, so it must be longer than the time
+	 * taken by the slowest remote call, including the processing of requisitions.<BR>
+	 * By default there is no read timeout.
+	 * @value "openrds.socket.timeout"
+	 * @since OpenRDS 1.3
+	 */
+	String SOCKET_TIMEOUT = "openrds.socket.timeout";
+	/**
+	 * This property can be used to set the maximum number of incoming connections waiting to
+	 * be accepted by each server socket.<BR>
+	 * The default backlog is 50.
+	 * @value "openrds.socket.backlog"
+	 * @since OpenRDS 1.3
+	 */
+	String SOCKET_BACKLOG = "openrds.socket.backlog";
+	
+	/**
+	 * This property can be used to limit the number of requisitions waiting to be dispatched
+	 * by the main node.<BR>
+	 * When the limit is reached, calls that submit new requisitions will block until the main
+	 * node is able to dispatch some of the pending ones. Requisitions that are put back on the
+	 * queue after a node failure, and the ones created by the main node itself (sub-requisitions
+	 * of divisible requisitions, reduction groups and fork/join steps), are never blocked.<BR>
+	 * By default there is no limit.
+	 * @value "openrds.channel.capacity"
+	 * @since OpenRDS 1.3
+	 */
+	String CHANNEL_CAPACITY = "openrds.channel.capacity";
+	
+	/**
+	 * This property can be used to override the default priority aging interval (in
+	 * milliseconds) used by the main node.<BR>
+	 * Requisitions are dispatched by priority, but every aging interval that a requisition
+	 * waits to be dispatched is worth one priority level. This way, a low priority requisition
+	 * is dispatched before newer requisitions of higher priority once it has been waiting for
+	 * long enough. Set it to zero to always dispatch in strict priority order.<BR>
+	 * The default aging interval is 2000 (2 seconds).
+	 * @value "openrds.priority.aging"
+	 * @since OpenRDS 1.3
+	 */
+	String PRIORITY_AGING_INTERVAL = "openrds.priority.aging";
+	
+	/**
+	 * This property can be used to set the number of dispatcher threads of the main node.<BR>
+	 * Each dispatcher owns part of the process nodes and its own queue of requisitions, so
+	 * requisitions can be dispatched in parallel. A dispatcher whose queue is empty steals
+	 * requisitions from dispatchers whose nodes are all busy.<BR>
+	 * Note that the load balance is done among the nodes of each dispatcher, so it is only
+	 * worth using more than one dispatcher when there are many nodes and the main node
+	 * machine has more than one processor.<BR>
+	 * The default number of dispatchers is 1.
+	 * @value "openrds.dispatcher.shards"
+	 * @since OpenRDS 1.3
+	 */
+	String DISPATCHER_SHARDS = "openrds.dispatcher.shards";
+	
+	/**
+	 * This property can be used to limit the number of worker threads of the main node.<BR>
+	 * With the "nio" transport (see TRANSPORT), requisitions are sent to remote process
+	 * nodes without blocking and completed when the answer arrives, so they never hold a
+	 * thread of the main node. With RMI (and for process nodes of the main node's JVM),
+	 * each call holds a worker thread until the node answers. When this limit is reached,
+	 * requisitions wait on the main node queue until a worker is released, so the number of
+	 * threads does not grow with the number of pending requisitions.<BR>
+	 * Requisitions that send other requisitions to the main node (and wait for them) may hold
+	 * all workers. If no worker is released for two seconds, the main node starts an extra
+	 * worker, which stops as soon as its requisitions are done, so it never dead-locks.<BR>
+	 * By default, there is no limit.
+	 * @value "openrds.workers.max"
+	 * @since OpenRDS 1.3
+	 */
+	String MAX_WORKERS = "openrds.workers.max";
+	
+	/**
+	 * This property can be used to make a process node work in pull mode.<BR>
+	 * In pull mode, instead of waiting the main node to send requisitions, the process node
+	 * takes requisitions from the main node whenever it has free capacity, and sends results
+	 * back when they are processed. So faster nodes naturally take more work, no matter the
+	 * clock and memory amounts they declare.<BR>
+	 * Set it to "true" on the process node JVM to enable pull mode.
+	 * @value "openrds.pull.mode"
+	 * @since OpenRDS 1.3
+	 */
+	String PULL_MODE = "openrds.pull.mode";
+	/**
+	 * This property can be used to set how many requisitions a process node in pull mode
+	 * processes at the same time (see PULL_MODE).<BR>
+	 * The default is the number of processors available to the process node JVM.
+	 * @value "openrds.pull.threads"
+	 * @since OpenRDS 1.3
+	 */
+	String PULL_THREADS = "openrds.pull.threads";
+	/**
+	 * This property can be used to set the maximum number of requisitions that a process node
+	 * in pull mode takes from the main node at once, for each requisition it processes at the
+	 * same time (see PULL_MODE and PULL_THREADS).<BR>
+	 * The default batch size is 4.
+	 * @value "openrds.pull.batch"
+	 * @since OpenRDS 1.3
+	 */
+	String PULL_BATCH = "openrds.pull.batch";
+	
+	/**
+	 * This property can be used to set the maximum number of requisitions that the main node
+	 * sends to a process node in a single call.<BR>
+	 * When it is greater than one, requisitions waiting to be dispatched are grouped and sent
+	 * together to the same node. The size of each group depends on how long requisitions
+	 * have been taking on that node, so only small requisitions are grouped, saving the cost
+	 * of a remote call for each one.<BR>
+	 * The default is 1 (requisitions are always sent one by one).
+	 * @value "openrds.delivery.batch"
+	 * @since OpenRDS 1.3
+	 */
+	String DELIVERY_BATCH = "openrds.delivery.batch";
+	
+	/**
+	 * This property can be used to make the main node copy the requisitions it sends to
+	 * process nodes that run on its own JVM.<BR>
+	 * The main node calls such process nodes directly, so they receive the same requisition
+	 * objects that have been given to the main node. Set this property to "true" if
+	 * requisitions change their own state (or state shared with other requisitions) while
+	 * they are processed, so each one is processed on a serialized copy, as it happens on
+	 * remote process nodes.<BR>
+	 * The default value is "false".
+	 * @value "openrds.local.copy"
+	 * @since OpenRDS 1.3
+	 */
+	String LOCAL_COPY = "openrds.local.copy";
+	
+	/**
+	 * This property can be used to set how many results of cacheable requisitions (see
+	 * IndivisibleRequisition.getCacheKey()) are kept by the main node.<BR>
+	 * When the limit is reached, the result used less recently is discarded. Set it to zero
+	 * to disable the result cache.<BR>
+	 * The default size is 1000.
+	 * @value "openrds.resultcache.size"
+	 * @since OpenRDS 1.3
+	 */
+	String RESULT_CACHE_SIZE = "openrds.resultcache.size";
+	/**
+	 * This property can be used to set for how long (in milliseconds) the main node keeps
+	 * the results of cacheable requisitions (see IndivisibleRequisition.getCacheKey()).<BR>
+	 * Set it to zero to keep results until they are discarded by RESULT_CACHE_SIZE.<BR>
+	 * The default time-to-live is 600000 (10 minutes).
+	 * @value "openrds.resultcache.ttl"
+	 * @since OpenRDS 1.3
+	 */
+	String RESULT_CACHE_TTL = "openrds.resultcache.ttl";
+	/**
+	 * This property can be used to set how long (in milliseconds) each sub-requisition of
+	 * an adaptive requisition (see AdaptiveRequisition) should take to be processed. The main
+	 * node sizes the sub-requisitions of each wave by the work rate measured so far.<BR>
+	 * The default time is 100 milliseconds.
+	 * @value "openrds.split.chunktime"
+	 * @since OpenRDS 1.3
+	 */
+	String SPLIT_CHUNK_TIME = "openrds.split.chunktime";
+	
+	/**
+	 * This property can be used to enable the speculative execution of sub-requisitions.<BR>
+	 * When a sub-requisition of a divisible requisition takes much longer than its siblings
+	 * (see SPECULATION_PERCENTILE and SPECULATION_MULTIPLIER) and there is an idle node, the
+	 * main node sends a backup of it (a serialized copy) to that node and uses the first
+	 * result. Requisitions that are not idempotent must return false on
+	 * IndivisibleRequisition.isSpeculative().<BR>
+	 * Set it to "true" to send backups. By default, speculative execution is disabled, since
+	 * it may process each sub-requisition twice.
+	 * @value "openrds.speculation"
+	 * @since OpenRDS 1.3
+	 */
+	String SPECULATION = "openrds.speculation";
+	/**
+	 * This property can be used to set the percentile (from 1 to 100) of the completion time
+	 * of the sibling sub-requisitions that is used to detect stragglers (see SPECULATION).<BR>
+	 * The default percentile is 75.
+	 * @value "openrds.speculation.percentile"
+	 * @since OpenRDS 1.3
+	 */
+	String SPECULATION_PERCENTILE = "openrds.speculation.percentile";
+	/**
+	 * This property can be used to set how many times the percentile given by
+	 * SPECULATION_PERCENTILE a sub-requisition may take before a backup of it is sent
+	 * (see SPECULATION). Decimal values are accepted.<BR>
+	 * The default multiplier is 2.
+	 * @value "openrds.speculation.multiplier"
+	 * @since OpenRDS 1.3
+	 */
+	String SPECULATION_MULTIPLIER = "openrds.speculation.multiplier";
+	
+	/**
+	 * This property can be used to set how many result chunks of a streaming requisition
+	 * (see StreamingRequisition) may be held by each node before the requisition is blocked.<BR>
+	 * The main node holds up to this number of chunks per requisition until the client
+	 * fetches them, and the process node sends them in groups of half this number.<BR>
+	 * The default window is 64.
+	 * @value "openrds.stream.window"
+	 * @since OpenRDS 1.3
+	 */
+	String STREAM_WINDOW = "openrds.stream.window";
+	
+	/**
+	 * This property can be used to set how long (in millis) the main node waits for the
+	 * client to fetch the chunks of a streaming requisition (see StreamingRequisition)
+	 * while it holds a full window of them.<BR>
+	 * When no chunk is fetched in this time, the stream is abandoned: its chunks are
+	 * discarded and the requisition fails, releasing the process node. Zero means that
+	 * the main node waits forever.<BR>
+	 * The default timeout is 60000 (one minute).
+	 * @value "openrds.stream.timeout"
+	 * @since OpenRDS 1.3
+	 */
+	String STREAM_TIMEOUT = "openrds.stream.timeout";
+	
+	/**
+	 * This property can be used to set the maximum size (in bytes) of the shared data kept
+	 * in cache by each process node (see SharedData).<BR>
+	 * When the limit is reached, the data that has been used less recently is discarded, and
+	 * fetched again from the main node if it is needed later.<BR>
+	 * The limit applies to the serialized data. The deserialized objects are kept while the
+	 * JVM has memory for them, and deserialized again from the cached data otherwise. Data
+	 * larger than the limit is only kept deserialized, the same way.<BR>
+	 * The default limit is 67108864 (64 MB).
+	 * @value "openrds.shareddata.cache"
+	 * @since OpenRDS 1.3
+	 */
+	String SHARED_DATA_CACHE = "openrds.shareddata.cache";
+	
+	/**
+	 * This property can be used to set the maximum size (in bytes) of the shared data
+	 * published on the main node (see SharedData).<BR>
+	 * When the limit is reached, the data that has been used less recently is discarded,
+	 * so process nodes that have not fetched it yet can't get it anymore, until it is
+	 * published again. Data larger than the limit is never accepted. Client applications
+	 * should unpublish the data that is not needed anymore.<BR>
+	 * The default limit is 268435456 (256 MB).
+	 * @value "openrds.shareddata.limit"
+	 * @since OpenRDS 1.3
+	 */
+	String SHARED_DATA_LIMIT = "openrds.shareddata.limit";
+	
+	/**
+	 * This property can be used to choose the transport used for all communication between
+	 * nodes.<BR>
+	 * Set it to "nio" to use non-blocking sockets, where concurrent calls to the same node
+	 * share a few connections instead of holding one connection and one thread each. It may
+	 * also be set to the full name of a class implementing ITransport.<BR>
+	 * All nodes of the system must use the same transport.<BR>
+	 * The default transport is "rmi".
+	 * @value "openrds.transport"
+	 * @since OpenRDS 1.3
+	 */
+	String TRANSPORT = "openrds.transport";
+	/**
+	 * This property can be used to set the port where the "nio" transport accepts calls on
+	 * JVMs that do not start the registry (see TRANSPORT).<BR>
+	 * The JVM that starts the registry accepts calls on the registry port.<BR>
+	 * By default, any free port is used.
+	 * @value "openrds.transport.port"
+	 * @since OpenRDS 1.3
+	 */
+	String TRANSPORT_PORT = "openrds.transport.port";
+	/**
+	 * This property can be used to set how many connections the "nio" transport opens to
+	 * each other JVM (see TRANSPORT). Calls are spread among them.<BR>
+	 * The default is 1.
+	 * @value "openrds.transport.connections"
+	 * @since OpenRDS 1.3
+	 */
+	String TRANSPORT_CONNECTIONS = "openrds.transport.connections";
+	/**
+	 * This property can be used to limit how many threads the "nio" transport uses to
+	 * execute the calls received by each JVM (see TRANSPORT). Calls beyond the limit wait
+	 * for a free thread.<BR>
+	 * Be careful when setting it on the main node: calls like IMainNode.waitIdle() hold
+	 * their thread until other calls are completed, so a low limit may block all nodes.<BR>
+	 * By default, there is no limit.
+	 * @value "openrds.transport.threads"
+	 * @since OpenRDS 1.3
+	 */
+	String TRANSPORT_THREADS = "openrds.transport.threads";
+	
+	/**
+	 * This property can be used to set the size (in bytes) above which the "nio" transport
+	 * compresses requisitions and results (see TRANSPORT).<BR>
+	 * Compression only happens when both sides of a connection have it enabled, and when it
+	 * really reduces the size. CompressionCounters shows how much it has saved and how much
+	 * processor time it has cost. Set it to zero to disable compression.<BR>
+	 * The default threshold is 65536 (64 KB).
+	 * @value "openrds.compression.threshold"
+	 * @since OpenRDS 1.3
+	 */
+	String COMPRESSION_THRESHOLD = "openrds.compression.threshold";
+	
+	/**
+	 * This property can be used to set the size (in bytes) above which the "nio" transport
+	 * passes requisitions and results thru memory-mapped files, instead of sockets, when
+	 * both sides of a connection are on the same machine (see TRANSPORT).<BR>
+	 * A machine is recognized by the address used by OpenRDS on it (see BASE_IP), or by
+	 * the loopback address. The body is serialized directly into a temporary file of the
+	 * "openrds-map-" + user.name directory of java.io.tmpdir, which only its owner may
+	 * access. The file is mapped and deserialized by the other side, so only the name of
+	 * the file is sent thru the socket. Both sides must run as the same user and use the
+	 * same temporary directory, otherwise the sockets are used. Set it to zero to disable
+	 * memory-mapped files.<BR>
+	 * The default threshold is 1048576 (1 MB).
+	 * @value "openrds.mapped.threshold"
+	 * @since OpenRDS 1.3
+	 */
+	String MAPPED_THRESHOLD = "openrds.mapped.threshold";
 }
@@ -0,0 +1,47 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ITransport.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.rmi.registry.Registry;
+
+/**
+ * Service provider interface for the transport used between nodes.<BR>
+ * A transport is responsible for creating the registry where nodes are published and looked
+ * up, and for carrying every remote call made on the references obtained from it.<BR>
+ * The transport is chosen by the system property ISystemProperties.TRANSPORT, which may be
+ * "rmi" (the default), "nio" or the full name of a class implementing this interface. Such
+ * classes must have a public constructor without arguments. All nodes of a system must use
+ * the same transport.
+ * @since OpenRDS 1.3
+ */
+public interface ITransport {
+	/**
+	 * Starts a registry on this JVM, on the given port
+	 * @param port port number
+	 * @return registry
+	 * @throws IOException on any error starting the registry
+	 */
+	Registry createLocalRegistry(int port) throws IOException;
+	/**
+	 * Creates a reference to a registry started on another JVM
+	 * @param host host-name or ip of the remote registry
+	 * @param port port number of the remote registry
+	 * @return registry
+	 * @throws IOException on any error
+	 */
+	Registry createRemoteRegistry(String host, int port) throws IOException;
+}
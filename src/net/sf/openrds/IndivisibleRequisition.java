@@ -27,6 +27,21 @@ package net.sf.openrds;
  * @author Rodrigo
  */
 public abstract class IndivisibleRequisition extends Requisition {
+	/**
+	 * Lowest priority. Use it for batch work that may wait for other requisitions.
+	 * @since OpenRDS 1.3
+	 */
+	public static final int PRIORITY_LOW		= 0;
+	/**
+	 * Default priority of every requisition.
+	 * @since OpenRDS 1.3
+	 */
+	public static final int PRIORITY_NORMAL		= 1;
+	/**
+	 * Highest priority. Use it for interactive requisitions that must not wait for batch work.
+	 * @since OpenRDS 1.3
+	 */
+	public static final int PRIORITY_HIGH		= 2;
 
 	/** {@inheritDoc} */
 	public abstract Object process() throws ProcessingException;
@@ -53,4 +68,49 @@ public abstract class IndivisibleRequisition extends Requisition {
 	public int getMemoryFactor() {
 		return -1;
 	}
+	/**
+	 * This method should return the priority of this requisition, which must be one of
+	 * PRIORITY_LOW, PRIORITY_NORMAL (default behaviour) or PRIORITY_HIGH.<BR>
+	 * The main node always dispatches requisitions with higher priority first, but a
+	 * requisition that has been waiting for too long will be dispatched before newer
+	 * requisitions of higher priority (see ISystemProperties.PRIORITY_AGING_INTERVAL),
+	 * so low-priority requisitions are never starved.<BR>
+	 * Values out of the valid range are treated as the nearest valid priority.
+	 * @return priority of this requisition
+	 * @since OpenRDS 1.3
+	 */
+	public int getPriority() {
+		return PRIORITY_NORMAL;
+	}
+	/**
+	 * This method may return a key that identifies the result of this requisition, so the
+	 * main node can reuse it for other requisitions with the same key instead of processing
+	 * them again. Requisitions with the same key that are submitted while the first one is
+	 * beeing processed wait for its result.<BR>
+	 * Only deterministic requisitions should return a key, which must be serializable and
+	 * implement equals() and hashCode() by value, and must identify all parameters of the
+	 * requisition (including its class). Results are shared by all requisitions with the
+	 * same key, so they must never be changed. Errors are never cached.<BR>
+	 * The default behaviour is to return null (not cacheable). See also
+	 * ISystemProperties.RESULT_CACHE_SIZE and ISystemProperties.RESULT_CACHE_TTL.
+	 * @return cache key, or null if the result of this requisition must not be cached
+	 * @since OpenRDS 1.3
+	 */
+	public Object getCacheKey() {
+		return null;
+	}
+	/**
+	 * This method tells if a backup of this requisition may be processed by another node,
+	 * when it is a sub-requisition that takes much longer than its siblings and speculative
+	 * execution is enabled (see ISystemProperties.SPECULATION). The backup is a serialized
+	 * copy of this requisition. The first result is used and the other is discarded, but both
+	 * may be processed to the end.<BR>
+	 * Requisitions that are not idempotent (that have side effects) must return false.<BR>
+	 * The default behaviour is to return true.
+	 * @return false if this requisition must never be processed more than once
+	 * @since OpenRDS 1.3
+	 */
+	public boolean isSpeculative() {
+		return true;
+	}
 }
@@ -0,0 +1,54 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * JobHandle.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+
+/**
+ * Identifies a job: a group of requisitions sent to a main node, that can be waited
+ * for independently of any other requisition beeing processed by the same main node.<BR>
+ * Jobs are created by IMainNode.createJob() and are only valid on the main node that
+ * created them. They must be closed by IMainNode.closeJob() when they are not needed anymore.
+ * @since OpenRDS 1.3
+ */
+public final class JobHandle implements Serializable {
+	private static final long serialVersionUID = 3127450937613458113L;
+	private final long id;
+
+	/**
+	 * Creates a new job handle
+	 * @param id job id
+	 */
+	JobHandle(long id) {
+		this.id = id;
+	}
+	/** @return job id */
+	public long getId() {
+		return id;
+	}
+	/** {@inheritDoc} */
+	public boolean equals(Object obj) {
+		return (obj instanceof JobHandle) && ((JobHandle) obj).id == this.id;
+	}
+	/** {@inheritDoc} */
+	public int hashCode() {
+		return (int) (id ^ (id >>> 32));
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "Job #" + id;
+	}
+}
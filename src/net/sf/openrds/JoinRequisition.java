@@ -0,0 +1,62 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * JoinRequisition.java
+ */
+
+package net.sf.openrds;
+
+
+/**
+ * Requisition dispatched by the main node when all children of a fork are done, which
+ * calls ForkJoinRequisition.join() on a process node.
+ */
+final class JoinRequisition extends IndivisibleRequisition {
+	/** serialVersionUID */
+	private static final long serialVersionUID = -5523090148701264458L;
+	private final ForkJoinRequisition parent;
+	private final Object[] childResults;
+
+	/**
+	 * Default Constructor.
+	 * @param parent requisition that joins the results
+	 * @param childResults results of the children
+	 */
+	JoinRequisition(ForkJoinRequisition parent, Object[] childResults) {
+		this.parent = parent;
+		this.childResults = childResults;
+	}
+	/** {@inheritDoc} */
+	public void onBeforeProcess(IProcessNode node) throws Exception {
+		parent.onBeforeProcessImpl(node);
+	}
+	/** {@inheritDoc} */
+	public Object process() throws ProcessingException {
+		return parent.join(childResults);
+	}
+	/** {@inheritDoc} */
+	public int getProcessingFactor() {
+		return parent.getProcessingFactor();
+	}
+	/** {@inheritDoc} */
+	public int getMemoryFactor() {
+		return parent.getMemoryFactor();
+	}
+	/** {@inheritDoc} */
+	public int getPriority() {
+		return parent.getPriority();
+	}
+	/** {@inheritDoc} */
+	public boolean isSpeculative() {
+		return parent.isSpeculative();
+	}
+}
@@ -21,12 +21,26 @@
 
 package net.sf.openrds;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -34,20 +48,91 @@ import java.util.Map;
  * @author Rodrigo
  */
 class MainNode extends Node implements IMainNode {
+	/** Time (in millis) that an idle dispatcher waits before trying to steal work */
+	private static final int STEAL_INTERVAL			= 20;
+	/** Time (in millis) without contact after which a node in pull mode is checked */
+	private static final long LEASE_CHECK_INTERVAL	= 5000;
+	/** Number of sub-requisitions per node on each wave of an adaptive requisition */
+	private static final int WAVE_CHUNKS			= 4;
+	/** Requisitions given by clients, which block while the channel is full */
+	private static final int PUT_BOUNDED			= 0;
+	/** Requisitions created by the main node itself, which never block */
+	private static final int PUT_UNBOUNDED			= 1;
+	/** Requisitions that never block and go before the older ones of the same priority */
+	private static final int PUT_ON_TOP				= 2;
+	/** Default time (in millis) that each sub-requisition of an adaptive requisition should take */
+	private static final long DEFAULT_CHUNK_TIME	= 100;
+	/** Default size limit (in bytes) of the published shared data */
+	private static final long DEFAULT_SHARED_DATA_LIMIT	= 256 * 1024 * 1024;
+	/** Time (in millis) between two checks for straggling sub-requisitions */
+	private static final long SPECULATION_INTERVAL	= 50;
+	/** Minimum time (in millis) that a sub-requisition must take to get a backup */
+	private static final long SPECULATION_MIN_TIME	= 100;
+	/** Time (in millis) without any worker released after which an extra worker is started */
+	private static final long WORKER_STALL_TIME		= 2000;
+	/** Methods of process nodes called without blocking (see Delivery) */
+	private static final Method PROCESS_REQUISITION	= getMethod(IProcessNode.class, "processRequisition", Requisition.class);
+	private static final Method PROCESS_REQUISITIONS	= getMethod(IBatchProcessNode.class, "processRequisitions", Requisition[].class);
 	/** Registers if threads are running */
-	private boolean running							= true;
+	private volatile boolean running				= true;
 	/** Registers if the main node has been finished */
 	private boolean finished						= false;
 	/** Holds controlled nodes */
 	private final Map controlledNodes				= new HashMap();
-	/** Requisition channel */
-	private final RequisitionChannel channel		= new RequisitionChannel();
 	/** Pool of workers */
 	private final LinkedList workersPool			= new LinkedList();
 	/** Complete list of started workers. */
 	private final LinkedList workersList			= new LinkedList();
-	/** Thread that consume requisitions */
-	private final RequisitionsDispatcher dispatcher	= new RequisitionsDispatcher();
+	/** Counts all requisitions that have not been processed yet */
+	private final CompletionLatch pending			= new CompletionLatch();
+	/** Open jobs, by job handle (they are only removed by closeJob()) */
+	private final Map jobs							= new HashMap();
+	/** Results of submitted requisitions without a job */
+	private final ResultCollector results			= new ResultCollector();
+	/** Id of the last ticket created */
+	private final AtomicLong lastTicketId			= new AtomicLong();
+	/** Result streams of submitted streaming requisitions, by ticket */
+	private final Map streams						= new HashMap();
+	/** Published shared data, by key, in access order */
+	private final Map sharedData					= new LinkedHashMap(16, 0.75f, true);
+	/** Size (in bytes) of the published shared data, guarded by sharedData */
+	private long sharedDataSize						= 0;
+	/** Requisitions taken by nodes in pull mode, by ticket */
+	private final Map leases						= new HashMap();
+	/** Number of controlled nodes in pull mode */
+	private final AtomicInteger pullNodes			= new AtomicInteger();
+	/** Thread that checks nodes in pull mode that hold requisitions */
+	private final LeaseMonitor leaseMonitor			= new LeaseMonitor();
+	/** Throughput measured on divisible requisitions, by class */
+	private final SplitHistory splitHistory			= new SplitHistory();
+	/** Thread that sends backups of straggling sub-requisitions */
+	private final SpeculationMonitor speculationMonitor	= new SpeculationMonitor();
+	/** Id of the last job created */
+	private long lastJobId							= 0;
+	/** Maximum number of workers (threads waiting for nodes that are called with blocking) */
+	private final int maxWorkers;
+	/** Last time a worker has been released (guarded by workersPool) */
+	private long lastWorkerRelease					= 0;
+	/** Counts the requisitions sent to nodes without blocking, until they are answered */
+	private final CompletionLatch asyncDeliveries	= new CompletionLatch();
+	/** Maximum number of requisitions sent to a process node in a single call */
+	private final int maxDeliveryBatch;
+	/** Registers if requisitions sent to process nodes of this JVM must be copied */
+	private final boolean copyLocal;
+	/** Maximum size (in bytes) of the published shared data */
+	private final long sharedDataLimit;
+	/** Results of cacheable requisitions, null if the cache is disabled */
+	private final ResultCache resultCache;
+	/** Time (in millis) that each sub-requisition of an adaptive requisition should take */
+	private final long chunkTime;
+	/** Registers if backups of straggling sub-requisitions may be sent */
+	private final boolean speculation;
+	/** Percentile of the completion time of sibling sub-requisitions used to detect stragglers */
+	private final int speculationPercentile;
+	/** How many times the percentile a sub-requisition may take before it gets a backup */
+	private final double speculationMultiplier;
+	/** Threads that consume requisitions, each one owning part of the controlled nodes */
+	private final RequisitionsDispatcher[] dispatchers;
 	
 	/**
 	 * Default constructor
@@ -56,46 +141,365 @@ class MainNode extends Node implements IMainNode {
 	MainNode() throws RemoteException {
 		// A main node has hard-coded name and no clock/memory since it never process a requisition
 		super("MainNode", -1, -1);
+		final String prop = System.getProperty(ISystemProperties.DISPATCHER_SHARDS);
+		this.dispatchers = new RequisitionsDispatcher[(prop != null) ? Math.max(1, Integer.parseInt(prop)) : 1];
+		for (int i = 0; i < this.dispatchers.length; i++) {
+			this.dispatchers[i] = new RequisitionsDispatcher(i);
+		}
+		final String max = System.getProperty(ISystemProperties.MAX_WORKERS);
+		this.maxWorkers = (max != null) ? Math.max(1, Integer.parseInt(max)) : Integer.MAX_VALUE;
+		final String batch = System.getProperty(ISystemProperties.DELIVERY_BATCH);
+		this.maxDeliveryBatch = (batch != null) ? Math.max(1, Integer.parseInt(batch)) : 1;
+		this.copyLocal = "true".equals(System.getProperty(ISystemProperties.LOCAL_COPY));
+		final String shared = System.getProperty(ISystemProperties.SHARED_DATA_LIMIT);
+		this.sharedDataLimit = (shared != null) ? Long.parseLong(shared) : DEFAULT_SHARED_DATA_LIMIT;
+		final ResultCache cache = new ResultCache();
+		this.resultCache = cache.isEnabled() ? cache : null;
+		final String chunk = System.getProperty(ISystemProperties.SPLIT_CHUNK_TIME);
+		this.chunkTime = (chunk != null) ? Math.max(1, Long.parseLong(chunk)) : DEFAULT_CHUNK_TIME;
+		this.speculation = "true".equals(System.getProperty(ISystemProperties.SPECULATION));
+		final String percentile = System.getProperty(ISystemProperties.SPECULATION_PERCENTILE);
+		this.speculationPercentile = (percentile != null) ? Integer.parseInt(percentile) : 75;
+		final String multiplier = System.getProperty(ISystemProperties.SPECULATION_MULTIPLIER);
+		this.speculationMultiplier = (multiplier != null) ? Double.parseDouble(multiplier) : 2;
 	}
 	/**
 	 * This method should be called to start the operation of this main node.
 	 */
 	void start() {
-		dispatcher.start();
+		for (int i = 0; i < dispatchers.length; i++) {
+			dispatchers[i].start();
+		}
+		// The lease and speculation monitors are only started when they have something to check
 	}
 	/** {@inheritDoc} */
 	public void processAsyncRequisition(Requisition requisition) throws RemoteException {
+		processAsyncRequisition(requisition, null);
+	}
+	/** {@inheritDoc} */
+	public void processAsyncRequisition(Requisition requisition, JobHandle job) throws RemoteException {
 		if (finished) {
 			throw new RemoteException("Main node is not running");
 		}
+		final Job state = getJob(job);
+		final CompletionLatch jobPending = (state != null) ? state.pending : null;
 		if (requisition instanceof IndivisibleRequisition) {
-			final RequisitionWrapper wrap = new RequisitionWrapper((IndivisibleRequisition) requisition);
-			channel.put(wrap);
+			final RequisitionWrapper wrap = new RequisitionWrapper((IndivisibleRequisition) requisition, pending, jobPending);
+			dispatch(wrap);
 		} else {
 			final DivisibleRequisition divisible = (DivisibleRequisition) requisition;
+			holdLatches(jobPending);
+			try {
+				if (divisible instanceof AdaptiveRequisition) {
+					new AdaptiveSplit((AdaptiveRequisition) divisible, new Reduction((ReducibleRequisition) divisible), jobPending).start();
+					return;
+				}
+				final SubRequisition[] subRequisitions = divisible.getSubRequisitions(createSplitContext(divisible));
+				final StragglerDetector detector = newStragglerDetector();
+				for (int i = 0; i < subRequisitions.length; i++) {
+					dispatchSub(new RequisitionWrapper(subRequisitions[i], pending, jobPending), detector);
+				}
+			} finally {
+				releaseLatches(jobPending);
+			}
+		}
+	}
+	/**
+	 * Registers the splitting of a divisible requisition as pending, so waitIdle() does not
+	 * return when the first sub-requisitions are done before the others have been created.
+	 * Must be followed by releaseLatches().
+	 * @param jobPending latch of the job (may be null)
+	 */
+	private void holdLatches(CompletionLatch jobPending) {
+		this.pending.register();
+		if (jobPending != null) {
+			jobPending.register();
+		}
+	}
+	/**
+	 * Registers that a divisible requisition has been splitted (see holdLatches())
+	 * @param jobPending latch of the job (may be null)
+	 */
+	private void releaseLatches(CompletionLatch jobPending) {
+		if (jobPending != null) {
+			jobPending.arrive();
+		}
+		this.pending.arrive();
+	}
+	/** {@inheritDoc} */
+	public JobHandle createJob() throws RemoteException {
+		synchronized (this.jobs) {
+			final JobHandle job = new JobHandle(++this.lastJobId);
+			this.jobs.put(job, new Job());
+			return job;
+		}
+	}
+	/** {@inheritDoc} */
+	public void closeJob(JobHandle job) throws RemoteException {
+		synchronized (this.jobs) {
+			if (this.jobs.remove(job) == null) {
+				throw new RemoteException("Unknown job: " + job);
+			}
+		}
+		// Nobody will fetch the chunks of the streaming requisitions of this job anymore
+		synchronized (this.streams) {
+			for (final Iterator it = this.streams.entrySet().iterator(); it.hasNext();) {
+				final Map.Entry entry = (Map.Entry) it.next();
+				if (job.equals(((RequisitionTicket) entry.getKey()).getJob())) {
+					((ResultStream) entry.getValue()).discard();
+					it.remove();
+				}
+			}
+		}
+	}
+	/**
+	 * Retrieves the state of an open job
+	 * @param job job handle (may be null)
+	 * @return job state, or null if no job has been given
+	 * @throws RemoteException if the job is unknown (or has been closed)
+	 */
+	private Job getJob(JobHandle job) throws RemoteException {
+		if (job == null) {
+			return null;
+		}
+		synchronized (this.jobs) {
+			final Job state = (Job) this.jobs.get(job);
+			if (state == null) {
+				throw new RemoteException("Unknown job: " + job);
+			}
+			return state;
+		}
+	}
+	/** {@inheritDoc} */
+	public RequisitionTicket submitRequisition(final Requisition requisition, JobHandle job) throws RemoteException {
+		if (finished) {
+			throw new RemoteException("Main node is not running");
+		}
+		final Job state = getJob(job);
+		final CompletionLatch jobPending = (state != null) ? state.pending : null;
+		final ResultCollector collector = (state != null) ? state.results : this.results;
+		final RequisitionTicket ticket = new RequisitionTicket(lastTicketId.incrementAndGet(), job);
+		collector.register(ticket);
+		if (requisition instanceof IndivisibleRequisition) {
+			final ResultStream stream;
+			if (requisition instanceof StreamingRequisition) {
+				stream = new ResultStream();
+				synchronized (this.streams) {
+					this.streams.put(ticket, stream);
+				}
+				((StreamingRequisition) requisition).setTicket(ticket);
+			} else {
+				stream = null;
+			}
+			final RequisitionWrapper wrap = new RequisitionWrapper((IndivisibleRequisition) requisition, pending, jobPending);
+			wrap.setListener(new RequisitionWrapper.CompletionListener() {
+				public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+					completeTicket(collector, ticket, requisition, result, error);
+					if (stream != null) {
+						// Ended after the result is stored, so it is there when the client sees the end
+						stream.end();
+					}
+				}
+			});
+			dispatch(wrap);
+		} else {
 			final int nodes = this.controlledNodes.size();
-			final SubRequisition[] subRequisitions = divisible.getSubRequisitions(nodes);
-			for (int i = 0; i < subRequisitions.length; i++) {
-				channel.put(new RequisitionWrapper(subRequisitions[i]));
+			if (nodes > 0) {
+				holdLatches(jobPending);
+				try {
+					new DivisibleSubmission((DivisibleRequisition) requisition, collector, ticket).start(jobPending);
+				} finally {
+					releaseLatches(jobPending);
+				}
+			} else {
+				completeTicket(collector, ticket, requisition, null, new NoNodesAvailableException("Could not find any node to process the given requisition."));
+			}
+		}
+		return ticket;
+	}
+	/** {@inheritDoc} */
+	public RequisitionTicket[] submitRequisitions(final Requisition[] requisitions, JobHandle job) throws RemoteException {
+		getJob(job); // Fails before submitting anything if the job is unknown
+		final RequisitionTicket[] tickets = new RequisitionTicket[requisitions.length];
+		for (int i = 0; i < requisitions.length; i++) {
+			tickets[i] = submitRequisition(requisitions[i], job);
+		}
+		return tickets;
+	}
+	/** {@inheritDoc} */
+	public RequisitionResult[] pollResults(RequisitionTicket[] tickets) throws RemoteException {
+		final RequisitionResult[] results = new RequisitionResult[tickets.length];
+		for (int i = 0; i < tickets.length; i++) {
+			results[i] = pollResult(tickets[i]);
+		}
+		return results;
+	}
+	/** {@inheritDoc} */
+	public RequisitionResult pollResult(RequisitionTicket ticket) throws RemoteException {
+		final Job state = getJob(ticket.getJob());
+		final RequisitionResult result;
+		try {
+			result = ((state != null) ? state.results : this.results).poll(ticket);
+		} catch (IllegalArgumentException e) {
+			throw new RemoteException(e.getMessage());
+		}
+		if (result != null) {
+			discardStream(ticket);
+		}
+		return result;
+	}
+	/** {@inheritDoc} */
+	public RequisitionResult[] fetchResults(JobHandle job, int maxResults, long timeout) throws RemoteException {
+		if (maxResults < 1) {
+			throw new RemoteException("Invalid maximum number of results: " + maxResults);
+		}
+		final Job state = getJob(job);
+		final RequisitionResult[] results;
+		try {
+			results = ((state != null) ? state.results : this.results).fetch(maxResults, timeout);
+		} catch (InterruptedException e) {
+			throw new RemoteException("Thread has been interrupted!", e);
+		}
+		for (int i = 0; i < results.length; i++) {
+			discardStream(results[i].getTicket());
+		}
+		return results;
+	}
+	/** {@inheritDoc} */
+	public Object[] fetchChunks(RequisitionTicket ticket, int maxChunks, long timeout) throws RemoteException {
+		if (maxChunks < 1) {
+			throw new RemoteException("Invalid maximum number of chunks: " + maxChunks);
+		}
+		final ResultStream stream = getStream(ticket);
+		try {
+			final Object[] chunks = stream.fetch(maxChunks, timeout);
+			if (chunks == null) {
+				synchronized (this.streams) {
+					this.streams.remove(ticket); // The stream has ended
+				}
+			}
+			return chunks;
+		} catch (InterruptedException e) {
+			throw new RemoteException("Thread has been interrupted!", e);
+		}
+	}
+	/** {@inheritDoc} */
+	public void pushChunks(RequisitionTicket ticket, long first, Object[] chunks) throws RemoteException {
+		final ResultStream stream = getStream(ticket);
+		try {
+			if (!stream.push(first, chunks)) {
+				discardStream(ticket);
+				throw new RemoteException("Result stream abandoned, its chunks have not been fetched: " + ticket);
+			}
+		} catch (InterruptedException e) {
+			throw new RemoteException("Thread has been interrupted!", e);
+		}
+	}
+	/**
+	 * Forgets the result stream of a requisition (if any), discarding the chunks it holds.
+	 * Called when the result of the requisition has been retrieved, since its chunks
+	 * are not fetched after it.
+	 * @param ticket ticket of the requisition
+	 */
+	private void discardStream(RequisitionTicket ticket) {
+		final ResultStream stream;
+		synchronized (this.streams) {
+			stream = (ResultStream) this.streams.remove(ticket);
+		}
+		if (stream != null) {
+			stream.discard();
+		}
+	}
+	/**
+	 * Retrieves the result stream of a streaming requisition
+	 * @param ticket ticket of the requisition
+	 * @return stream
+	 * @throws RemoteException if the stream is unknown (or has already ended)
+	 */
+	private ResultStream getStream(RequisitionTicket ticket) throws RemoteException {
+		synchronized (this.streams) {
+			final ResultStream stream = (ResultStream) this.streams.get(ticket);
+			if (stream == null) {
+				throw new RemoteException("Unknown stream: " + ticket);
+			}
+			return stream;
+		}
+	}
+	/** {@inheritDoc} */
+	public boolean hasData(String key) throws RemoteException {
+		synchronized (this.sharedData) {
+			return this.sharedData.get(key) != null; // Also marks it as used
+		}
+	}
+	/** {@inheritDoc} */
+	public void publishData(String key, byte[] data) throws RemoteException {
+		if (!SharedData.hash(data).equals(key)) {
+			throw new RemoteException("Invalid key for shared data: " + key);
+		}
+		if (data.length > sharedDataLimit) {
+			throw new RemoteException("Shared data larger than the limit (" + sharedDataLimit + " bytes): " + key);
+		}
+		synchronized (this.sharedData) {
+			final byte[] old = (byte[]) this.sharedData.put(key, data);
+			sharedDataSize += data.length - ((old != null) ? old.length : 0);
+			// Discards the data used less recently (never the one just published)
+			for (final Iterator it = this.sharedData.values().iterator(); sharedDataSize > sharedDataLimit && it.hasNext();) {
+				sharedDataSize -= ((byte[]) it.next()).length;
+				it.remove();
+			}
+		}
+	}
+	/** {@inheritDoc} */
+	public void unpublishData(String key) throws RemoteException {
+		synchronized (this.sharedData) {
+			final byte[] old = (byte[]) this.sharedData.remove(key);
+			if (old != null) {
+				sharedDataSize -= old.length;
 			}
 		}
 	}
 	/** {@inheritDoc} */
+	public byte[] fetchData(String key) throws RemoteException {
+		synchronized (this.sharedData) {
+			final byte[] data = (byte[]) this.sharedData.get(key);
+			if (data == null) {
+				throw new RemoteException("Unknown shared data: " + key);
+			}
+			return data;
+		}
+	}
+	/**
+	 * Stores the result of a submitted requisition, to be collected by the client
+	 * @param collector result collector
+	 * @param ticket ticket of the requisition
+	 * @param requisition requisition
+	 * @param result requisition result
+	 * @param error processing error (null on success)
+	 */
+	private void completeTicket(ResultCollector collector, RequisitionTicket ticket, Requisition requisition, Object result, Throwable error) {
+		if (error == null) {
+			getEventDispacher().nodeRequisitionProcessed(this, requisition, result); // Event
+		} else {
+			getEventDispacher().nodeRequisitionFailed(this, requisition, error); // Event
+		}
+		collector.complete(new RequisitionResult(ticket, result, error));
+	}
+	/** {@inheritDoc} */
 	public Object processRequisition(Requisition requisition) throws RemoteException {
 		if (finished) {
 			throw new RemoteException("Main node is not running");
 		}
 		try {
 			if (requisition instanceof IndivisibleRequisition) {
-				final RequisitionWrapper wrap = new RequisitionWrapper((IndivisibleRequisition) requisition);
-				channel.put(wrap);
+				final RequisitionWrapper wrap = new RequisitionWrapper((IndivisibleRequisition) requisition, pending, null);
+				dispatch(wrap);
 				final Object result = wrap.waitProcessing();
 				getEventDispacher().nodeRequisitionProcessed(this, requisition, result); // Event
 				return result;
 			} else {
 				final int nodes = this.controlledNodes.size();
 				if (nodes > 0) {
-					return processDivisibleReq(requisition, nodes);
+					return processDivisibleReq(requisition);
 				}
 			}
 			throw new NoNodesAvailableException("Could not find any node to process the given requisition.");
@@ -107,43 +511,355 @@ class MainNode extends Node implements IMainNode {
 	/**
 	 * Process a divisible requisition
 	 * @param requisition requisition
-	 * @param nodes number of nodes available
 	 * @return processing result
 	 * @throws ProcessingException on any processing error
 	 * @throws NoNodesAvailableException if we find out that we don't have any node to process anymore
 	 */
-	private Object processDivisibleReq(Requisition requisition, final int nodes) throws ProcessingException, NoNodesAvailableException {
+	private Object processDivisibleReq(Requisition requisition) throws ProcessingException, NoNodesAvailableException {
 		final DivisibleRequisition divisible = (DivisibleRequisition) requisition;
-		final SubRequisition[] subRequisitions = divisible.getSubRequisitions(nodes);
+		if (divisible instanceof AdaptiveRequisition) {
+			final Reduction reduction = new Reduction((ReducibleRequisition) divisible);
+			new AdaptiveSplit((AdaptiveRequisition) divisible, reduction, null).start();
+			final Object result = reduction.waitResult();
+			getEventDispacher().nodeRequisitionProcessed(this, requisition, result); // Event
+			return result;
+		}
+		final long start = System.nanoTime();
+		final SubRequisition[] subRequisitions = divisible.getSubRequisitions(createSplitContext(divisible));
+		final StragglerDetector detector = newStragglerDetector();
+		if (divisible instanceof ReducibleRequisition) {
+			final Reduction reduction = new Reduction((ReducibleRequisition) divisible, subRequisitions.length);
+			for (int i = 0; i < subRequisitions.length; i++) {
+				final RequisitionWrapper wrap = new RequisitionWrapper(subRequisitions[i], pending, null);
+				wrap.setListener(reduction);
+				dispatchSub(wrap, detector);
+			}
+			final Object result = reduction.waitResult();
+			splitHistory.recordRun(divisible, subRequisitions.length, System.nanoTime() - start);
+			getEventDispacher().nodeRequisitionProcessed(this, requisition, result); // Event
+			return result;
+		}
+		if (isTreeReduced(divisible, subRequisitions)) {
+			final TreeReduction tree = new TreeReduction(divisible, null);
+			tree.start(subRequisitions);
+			final Object result = tree.waitResult();
+			splitHistory.recordRun(divisible, subRequisitions.length, System.nanoTime() - start);
+			getEventDispacher().nodeRequisitionProcessed(this, requisition, result); // Event
+			return result;
+		}
 		final RequisitionWrapper[] wrappers = new RequisitionWrapper[subRequisitions.length];
 		final Object[] results = new Object[subRequisitions.length];
 		for (int i = 0; i < wrappers.length; i++) {
-			wrappers[i] = new RequisitionWrapper(subRequisitions[i]);
-			channel.put(wrappers[i]);
+			wrappers[i] = new RequisitionWrapper(subRequisitions[i], pending, null);
+			dispatchSub(wrappers[i], detector);
 		}
 		for (int i = 0; i < results.length; i++) {
 			results[i] = wrappers[i].waitProcessing();
 		}
+		splitHistory.recordRun(divisible, subRequisitions.length, System.nanoTime() - start);
 		final Object result = divisible.getResponse(results);
 		getEventDispacher().nodeRequisitionProcessed(this, requisition, result); // Event
 		return result;
 	}
+	/**
+	 * Checks if the sub-results of a divisible requisition must be reduced as a tree
+	 * (see DivisibleRequisition.getReduceFanIn())
+	 * @param divisible requisition
+	 * @param subRequisitions its sub-requisitions
+	 * @return boolean
+	 */
+	private static boolean isTreeReduced(DivisibleRequisition divisible, SubRequisition[] subRequisitions) {
+		if (divisible instanceof ReducibleRequisition) {
+			return false; // Sub-results are folded by accumulate() instead
+		}
+		final int fanIn = divisible.getReduceFanIn();
+		return fanIn >= 2 && subRequisitions.length > fanIn;
+	}
 	/** {@inheritDoc} */
 	public void addToControl(IProcessNode processNode) throws RemoteException {
+		if (!(processNode instanceof ProcessNode)) {
+			// A stub of a node that lives on this JVM is replaced by the node itself, so it
+			// is called directly, without serialization
+			final ProcessNode local = ProcessNode.getLocalNode(processNode.getNodeName());
+			if (local != null && isStubOf(processNode, local)) {
+				processNode = local;
+			}
+		}
 		final RemoteNodeRef ref = new RemoteNodeRef(processNode);
 		synchronized (this.controlledNodes) {
-			this.controlledNodes.put(ref.name, ref);
+			final RemoteNodeRef old = (RemoteNodeRef) this.controlledNodes.put(ref.name, ref);
+			if (old != null) {
+				forgetNode(old);
+			}
+			// The new node goes to the dispatcher that owns less nodes
+			RequisitionsDispatcher target = dispatchers[0];
+			for (int i = 1; i < dispatchers.length; i++) {
+				if (dispatchers[i].nodeIndex.size() < target.nodeIndex.size()) {
+					target = dispatchers[i];
+				}
+			}
+			ref.index = target.nodeIndex;
+			ref.index.add(ref);
 			getEventDispacher().nodeRegistered(this, processNode); // Event
 		}
 	}
+	/**
+	 * Checks if a stub references a process node of this JVM (and not another node
+	 * with the same name)
+	 * @param stub stub received by addToControl()
+	 * @param node process node of this JVM
+	 * @return boolean
+	 */
+	private static boolean isStubOf(IProcessNode stub, ProcessNode node) {
+		if (NioEndpoint.getRemoteRef(stub) != null) {
+			return NioEndpoint.isProxyOf(stub, node);
+		}
+		try {
+			return RemoteObject.toStub(node).equals(stub);
+		} catch (NoSuchObjectException e) {
+			return false; // Not exported thru RMI
+		}
+	}
 	/** {@inheritDoc} */
 	public void removeFromControl(IProcessNode processNode) throws RemoteException {
 		synchronized (this.controlledNodes) {
-			if (this.controlledNodes.remove(processNode.getNodeName()) != null) {
+			final RemoteNodeRef ref = (RemoteNodeRef) this.controlledNodes.remove(processNode.getNodeName());
+			if (ref != null) {
+				forgetNode(ref);
 				getEventDispacher().nodeUnregistered(this, processNode); // Event
 			}
 		}
 	}
+	/**
+	 * Forgets a node that is not controlled anymore, putting back the requisitions that
+	 * it has taken in pull mode.
+	 * Must be called with the lock of "controlledNodes"
+	 * @param ref node reference
+	 */
+	private void forgetNode(RemoteNodeRef ref) {
+		ref.index.remove(ref);
+		balanceNodes();
+		if (ref.pulling) {
+			ref.pulling = false;
+			pullNodes.decrementAndGet();
+			synchronized (this.leases) {
+				for (final Iterator it = this.leases.values().iterator(); it.hasNext();) {
+					final Lease lease = (Lease) it.next();
+					if (lease.ref == ref) {
+						it.remove();
+						chooseDispatcher().channel.putOnTop(lease.wrapper);
+					}
+				}
+			}
+		}
+	}
+	/**
+	 * Moves nodes from the dispatchers that own more nodes to the ones that own less,
+	 * until no dispatcher owns more than one node above any other.
+	 * Must be called with the lock of "controlledNodes"
+	 */
+	private void balanceNodes() {
+		if (dispatchers.length == 1) {
+			return;
+		}
+		while (true) {
+			RequisitionsDispatcher fullest = dispatchers[0];
+			RequisitionsDispatcher emptiest = dispatchers[0];
+			for (int i = 1; i < dispatchers.length; i++) {
+				if (dispatchers[i].nodeIndex.size() > fullest.nodeIndex.size()) {
+					fullest = dispatchers[i];
+				}
+				if (dispatchers[i].nodeIndex.size() < emptiest.nodeIndex.size()) {
+					emptiest = dispatchers[i];
+				}
+			}
+			if (fullest.nodeIndex.size() - emptiest.nodeIndex.size() <= 1) {
+				return;
+			}
+			RemoteNodeRef moved = null;
+			for (final Iterator it = this.controlledNodes.values().iterator(); it.hasNext() && moved == null;) {
+				final RemoteNodeRef ref = (RemoteNodeRef) it.next();
+				if (ref.index == fullest.nodeIndex && !ref.pulling) {
+					moved = ref;
+				}
+			}
+			if (moved == null) {
+				return; // Should never happen
+			}
+			fullest.nodeIndex.remove(moved);
+			moved.index = emptiest.nodeIndex;
+			moved.index.add(moved);
+		}
+	}
+	/**
+	 * Handles a communication error with a process node, removing it from control
+	 * @param ref node reference
+	 */
+	private void dropNode(RemoteNodeRef ref) {
+		try {
+			RegistryHandler.getInstance().unregisterNode(ref.node);
+		} catch (Exception e) {
+			// Ignores
+		}
+		synchronized (controlledNodes) {
+			if (controlledNodes.get(ref.name) == ref) {
+				controlledNodes.remove(ref.name);
+				forgetNode(ref);
+			} else {
+				ref.index.remove(ref);
+			}
+		}
+	}
+	/** {@inheritDoc} */
+	public PulledRequisition[] pullRequisitions(String nodeName, int maxRequisitions, long timeout) throws RemoteException {
+		final RemoteNodeRef ref;
+		synchronized (this.controlledNodes) {
+			ref = (RemoteNodeRef) this.controlledNodes.get(nodeName);
+			if (ref == null) {
+				throw new RemoteException("Node is not controlled by this main node: " + nodeName);
+			}
+			if (!ref.pulling) {
+				// From now on, this node takes requisitions by itself
+				ref.pulling = true;
+				ref.index.remove(ref);
+				balanceNodes();
+				pullNodes.incrementAndGet();
+			}
+		}
+		ref.lastContact = System.currentTimeMillis();
+		final RequisitionWrapper[] taken;
+		try {
+			taken = takeRequisitions(Math.max(1, maxRequisitions), timeout);
+		} catch (InterruptedException e) {
+			throw new RemoteException("Thread has been interrupted!", e);
+		}
+		final Requisition[] prepared = new Requisition[taken.length];
+		int count = 0;
+		for (int i = 0; i < taken.length; i++) {
+			try {
+				prepared[i] = prepare(ref, taken[i].getRequition());
+				count++;
+			} catch (ProcessingException e) {
+				taken[i].setError(e);
+			}
+		}
+		final PulledRequisition[] pulled = new PulledRequisition[count];
+		if (count > 0) {
+			leaseMonitor.startOnce();
+		}
+		synchronized (this.leases) {
+			for (int i = 0, j = 0; i < taken.length; i++) {
+				if (prepared[i] != null) {
+					final RequisitionTicket ticket = new RequisitionTicket(lastTicketId.incrementAndGet(), null);
+					taken[i].setStartTime(System.currentTimeMillis());
+					this.leases.put(ticket, new Lease(taken[i], ref));
+					pulled[j++] = new PulledRequisition(ticket, prepared[i]);
+				}
+			}
+		}
+		if (!ref.pulling) {
+			// The node has been lost while we were taking requisitions
+			forgetLeases(pulled);
+			throw new RemoteException("Node is not controlled by this main node: " + nodeName);
+		}
+		return pulled;
+	}
+	/**
+	 * Prepares a requisition to be sent to a node. If the node lives on this JVM and
+	 * ISystemProperties.LOCAL_COPY is set, the requisition is copied, otherwise it is sent as is.
+	 * @param ref node reference
+	 * @param req requisition
+	 * @return requisition to be sent
+	 * @throws ProcessingException if the requisition could not be copied
+	 */
+	private Requisition prepare(RemoteNodeRef ref, Requisition req) throws ProcessingException {
+		return (copyLocal && ref.local) ? copy(req) : req;
+	}
+	/**
+	 * Copies a requisition by serializing it
+	 * @param req requisition
+	 * @return copy
+	 * @throws ProcessingException if the requisition could not be copied
+	 */
+	private static Requisition copy(Requisition req) throws ProcessingException {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final ObjectOutputStream out = new AnnotatedOutputStream(bytes);
+			out.writeObject(req);
+			out.close();
+			// Classes of the requisition may have been downloaded from a client
+			final ClassLoader loader = req.getClass().getClassLoader();
+			return (Requisition) new AnnotatedInputStream(new ByteArrayInputStream(bytes.toByteArray()), loader).readObject();
+		} catch (Exception e) {
+			throw new ProcessingException("Could not copy the requisition", e);
+		}
+	}
+	/**
+	 * Puts back requisitions that could not be delivered to a node in pull mode
+	 * @param pulled requisitions
+	 */
+	private void forgetLeases(PulledRequisition[] pulled) {
+		synchronized (this.leases) {
+			for (int i = 0; i < pulled.length; i++) {
+				final Lease lease = (Lease) this.leases.remove(pulled[i].getTicket());
+				if (lease != null) {
+					chooseDispatcher().channel.putOnTop(lease.wrapper);
+				}
+			}
+		}
+	}
+	/**
+	 * Takes requisitions from the channels of all dispatchers. If there is none, waits
+	 * for one until the timeout is reached.
+	 * @param max maximum number of requisitions to take
+	 * @param timeout maximum time to wait (in millis)
+	 * @return requisitions
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	private RequisitionWrapper[] takeRequisitions(int max, long timeout) throws InterruptedException {
+		final LinkedList taken = new LinkedList();
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (running) {
+			for (int i = 0; i < dispatchers.length && taken.size() < max; i++) {
+				RequisitionWrapper req;
+				while (taken.size() < max && (req = dispatchers[i].channel.poll()) != null) {
+					taken.add(req);
+				}
+			}
+			final long remaining = deadline - System.currentTimeMillis();
+			if (!taken.isEmpty() || remaining <= 0) {
+				break;
+			}
+			// With no push nodes, requisitions always go to the first dispatcher
+			final RequisitionWrapper req = dispatchers[0].channel.getNext((int) Math.min(remaining, STEAL_INTERVAL));
+			if (req != null) {
+				taken.add(req);
+			}
+		}
+		return (RequisitionWrapper[]) taken.toArray(new RequisitionWrapper[taken.size()]);
+	}
+	/** {@inheritDoc} */
+	public void pushResults(String nodeName, RequisitionResult[] results) throws RemoteException {
+		for (int i = 0; i < results.length; i++) {
+			final Lease lease;
+			synchronized (this.leases) {
+				lease = (Lease) this.leases.remove(results[i].getTicket());
+			}
+			if (lease == null) {
+				continue; // It has already been put back to be processed by another node
+			}
+			lease.ref.lastContact = System.currentTimeMillis();
+			final Throwable error = results[i].getError();
+			if (error == null) {
+				lease.wrapper.setResult(results[i].getResult());
+			} else if (error instanceof ProcessingException) {
+				lease.wrapper.setError(error);
+			} else {
+				// The node could not process it (it is probably finishing), let another one do it
+				chooseDispatcher().channel.putOnTop(lease.wrapper);
+			}
+		}
+	}
 	/** {@inheritDoc} */
 	public boolean controlsNode(String nodeName) throws RemoteException {
 		// Not synchronous
@@ -154,13 +870,18 @@ class MainNode extends Node implements IMainNode {
 		if (!this.finished) {
 			this.finished = true;
 			waitIdle(); // Waits all pending requisitions to finish
-			this.running = false; // This cause workers and dispatcher to stop
-			this.dispatcher.interrupt(); // Stops dispatcher
+			this.running = false; // This cause workers and dispatchers to stop
+			for (int i = 0; i < dispatchers.length; i++) {
+				this.dispatchers[i].interrupt(); // Stops dispatcher
+			}
+			this.leaseMonitor.interrupt();
+			this.speculationMonitor.interrupt();
 			try {
 				RegistryHandler.getInstance().unregisterNode(this);
 			} catch (Exception ignored) {
 				// We have to stop...
 			}
+			NioEndpoint.unexportObject(this);
 			// Stops all workers
 			waitAllWorkers();
 			getEventDispacher().nodeFinished(this); // Event
@@ -168,13 +889,25 @@ class MainNode extends Node implements IMainNode {
 	}
 	/** {@inheritDoc} */
 	public void waitIdle() throws RemoteException {
-		final Object mutex = RequisitionWrapper.getMutex();
-		synchronized (mutex) {
-			while (RequisitionWrapper.getQtyRemaining() > 0) {
-				try {
-					mutex.wait();
-				} catch (InterruptedException ignored) {
-				}
+		waitLatch(this.pending);
+	}
+	/** {@inheritDoc} */
+	public void waitIdle(JobHandle job) throws RemoteException {
+		if (job == null) {
+			throw new RemoteException("A job must be given");
+		}
+		waitLatch(getJob(job).pending);
+	}
+	/**
+	 * Waits until a latch has no pending requisitions
+	 * @param latch latch
+	 */
+	private static void waitLatch(CompletionLatch latch) {
+		while (true) {
+			try {
+				latch.await();
+				return;
+			} catch (InterruptedException ignored) {
 			}
 		}
 	}
@@ -189,8 +922,66 @@ class MainNode extends Node implements IMainNode {
 			return nodes;
 		}
 	}
+	/** {@inheritDoc} */
+	public int getQueueDepth(int priority) throws RemoteException {
+		try {
+			int depth = 0;
+			for (int i = 0; i < dispatchers.length; i++) {
+				depth += dispatchers[i].channel.size(priority);
+			}
+			return depth;
+		} catch (IllegalArgumentException e) {
+			throw new RemoteException(e.getMessage());
+		}
+	}
+	/** {@inheritDoc} */
+	public ResultCacheStatistics getResultCacheStatistics() throws RemoteException {
+		if (resultCache == null) {
+			return new ResultCacheStatistics(0, 0, 0, 0, 0);
+		}
+		return resultCache.getStatistics();
+	}
+	/**
+	 * Creates the information given to a divisible requisition when it is splitted
+	 * @param divisible requisition
+	 * @return split context
+	 */
+	private SplitContext createSplitContext(DivisibleRequisition divisible) {
+		final int[] clocks;
+		final int[] memories;
+		synchronized (this.controlledNodes) {
+			clocks = new int[this.controlledNodes.size()];
+			memories = new int[clocks.length];
+			final Iterator it = this.controlledNodes.values().iterator();
+			for (int i = 0; it.hasNext(); i++) {
+				final RemoteNodeRef ref = (RemoteNodeRef) it.next();
+				clocks[i] = ref.clock;
+				memories[i] = ref.mem;
+			}
+		}
+		int depth = 0;
+		for (int i = 0; i < dispatchers.length; i++) {
+			depth += dispatchers[i].channel.size();
+		}
+		return new SplitContext(clocks, memories, depth, splitHistory.getThroughput(divisible), splitHistory.getWorkRate(divisible));
+	}
+	/**
+	 * Retrieves a method of an interface
+	 * @param itf interface
+	 * @param name method name
+	 * @param param type of the only parameter
+	 * @return method
+	 */
+	private static Method getMethod(Class itf, String name, Class param) {
+		try {
+			return itf.getMethod(name, new Class[] {param});
+		} catch (NoSuchMethodException e) {
+			throw new Error("BUG: Assertion error", e);
+		}
+	}
 	/**
-	 * Waits for all workers to die.
+	 * Waits for all workers to die, and for the answer of the requisitions sent without
+	 * blocking.
 	 */
 	private void waitAllWorkers() {
 		Iterator it;
@@ -219,13 +1010,31 @@ class MainNode extends Node implements IMainNode {
 			}
 		} while (it != null);
 		workersList.clear();
+		try {
+			asyncDeliveries.await();
+		} catch (InterruptedException e) {
+			// Ignores
+		}
 	}
 	/**
-	 * Gets the next available RequisitionWorker or allocates a new one if necessary
+	 * Gets the next available RequisitionWorker or allocates a new one if necessary.
+	 * If the maximum number of workers has been reached, waits until one is released.<BR>
+	 * If no worker is released for WORKER_STALL_TIME, they may all be waiting for nested
+	 * requisitions that also need a worker, so an extra worker is started. Extra workers
+	 * stop as soon as they are released.
 	 * @return RequisitionWorker
+	 * @throws InterruptedException if the current thread is interrupted while waiting
 	 */
-	private RequisitionWorker getWorker() {
+	private RequisitionWorker getWorker() throws InterruptedException {
 		synchronized (this.workersPool) {
+			final long since = System.currentTimeMillis();
+			while (this.workersPool.size() == 0 && getWorkersCount() >= this.maxWorkers) {
+				this.workersPool.wait(WORKER_STALL_TIME);
+				if (this.workersPool.size() == 0
+						&& System.currentTimeMillis() - Math.max(since, this.lastWorkerRelease) >= WORKER_STALL_TIME) {
+					break; // Stalled
+				}
+			}
 			if (this.workersPool.size() == 0) {
 				return new RequisitionWorker();
 			} else {
@@ -234,229 +1043,206 @@ class MainNode extends Node implements IMainNode {
 		}
 	}
 	/**
-	 * Chooses the best node to process a requisition
-	 * @param req requisition
-	 * @return best node to process it, or null if none is available
-	 * @throws NoNodesAvailableException if there are no nodes available
-	 */
-	private RemoteNodeRef chooseBestNodeFor(RequisitionWrapper req) throws NoNodesAvailableException {
-		final boolean considerClock		= (req.getRequition().getProcessingFactor() > 0);
-		final boolean considerMem		= (req.getRequition().getMemoryFactor() > 0);
-		RemoteNodeRef best				= null;
-		RemoteNodeRef lowestQtyReq		= null;
-		RemoteNodeRef lowestClockUse	= null;
-		RemoteNodeRef lowestMemUse		= null;
-		boolean isAnyValid				= false;
-		synchronized (this.controlledNodes) {
-			if (this.controlledNodes.isEmpty()) {
-				throw new NoNodesAvailableException("No nodes available to process the requisition");
+	 * Puts a worker back on the pool, to be reused. Workers above the maximum number (see
+	 * getWorker()) are not reused.
+	 * @param worker worker
+	 * @return false if the worker must stop
+	 */
+	private boolean releaseWorker(RequisitionWorker worker) {
+		synchronized (this.workersPool) {
+			this.lastWorkerRelease = System.currentTimeMillis();
+			synchronized (this.workersList) {
+				if (this.workersList.size() > this.maxWorkers) {
+					this.workersList.remove(worker);
+					this.workersPool.notify();
+					return false;
+				}
 			}
-			final Iterator it = this.controlledNodes.values().iterator();
-			while (it.hasNext()) {
-				final RemoteNodeRef ref = (RemoteNodeRef) it.next();
-				if (isValidCandidate(ref, considerClock, considerMem)) {
-					isAnyValid = true;
-					if (lowestQtyReq == null || isBetterQtyOption(ref, lowestQtyReq)) {
-						lowestQtyReq = ref; // This node is processing less requisitions
-					}
-					if (lowestClockUse == null || isBetterOption(ref.usedClockFactor, lowestClockUse.usedClockFactor, ref.clock, lowestClockUse.clock)) {
-						lowestClockUse = ref; // This node is a better option
-					}
-					if (lowestMemUse == null || isBetterOption(ref.usedMemFactor, lowestMemUse.usedMemFactor, ref.mem, lowestMemUse.mem)) {
-						lowestMemUse = ref; // This node is a better option
-					}
-				}
-			}
-		}
-		if (!isAnyValid) {
-			return null; // Not a single node is valid, we don't need to go further
-		}
-		if (considerClock && considerMem) {
-			best = (lowestClockUse.qtyReqs <= lowestMemUse.qtyReqs) ? lowestClockUse : lowestMemUse;
-		} else if (considerClock) {
-			best = lowestClockUse;
-			if ((lowestQtyReq != lowestClockUse) && isSmallDifference(lowestQtyReq.usedClockFactor, lowestClockUse.usedClockFactor, req.getRequition().getProcessingFactor())) {
-				best = lowestQtyReq; // If there is just a small factor difference, use lowestQtyReq instead
-			}
-		} else if (considerMem) {
-			best = lowestMemUse;
-			if ((lowestQtyReq != lowestMemUse) && isSmallDifference(lowestQtyReq.usedMemFactor, lowestMemUse.usedMemFactor, req.getRequition().getMemoryFactor())) {
-				best = lowestQtyReq; // If there is just a small factor difference, use lowestQtyReq instead
-			}
-		} else { // No factors
-			best = lowestQtyReq;
+			this.workersPool.addLast(worker);
+			this.workersPool.notify();
+			return true;
 		}
-		return best;
 	}
 	/**
-	 * Checks if a candidate node is a better option than last-known best
-	 * option, based on the number of requisitions being processed.
-	 * If the number of requistions is the same, it will then take the decision
-	 * looking for the given factors in order: clock, memory, usedClock, usedMemory.
-	 * @param candidate candidate node
-	 * @param bestNode last-known best option
-	 * @return <code>true</code> if this candidate is a better option
+	 * Checks how many workers have been started
+	 * @return integer
 	 */
-	private boolean isBetterQtyOption(RemoteNodeRef candidate, RemoteNodeRef bestNode) {
-		if (candidate.qtyReqs < bestNode.qtyReqs) {
-			return true;
-		} else if (candidate.qtyReqs == bestNode.qtyReqs) {
-			// Matched! Let's look clock factor
-			if (candidate.clock > bestNode.clock) {
-				return true;
-			} else if (candidate.clock == bestNode.clock) {
-				// Matched again! Let's look memory factor
-				if (candidate.mem > bestNode.mem) {
-					return true;
-				} else if (candidate.mem == bestNode.mem) {
-					// Matched again!! Let's look used clock
-					if (candidate.usedClockFactor < bestNode.usedClockFactor) {
-						return true;
-					} else if (candidate.usedClockFactor == bestNode.usedClockFactor) {
-						// Matched again!!! Let's look used memory
-						if (candidate.usedMemFactor < bestNode.usedMemFactor) {
-							return true;
-						}
-					}
-				}
-			}
+	private int getWorkersCount() {
+		synchronized (this.workersList) {
+			return this.workersList.size();
 		}
-		return false;
 	}
 	/**
-	 * Checks if a candidate node is a better option than last-known best option
-	 * @param candidateUsedFactor candidate's used factor
-	 * @param bestUsedFactor best node's used factor
-	 * @param candidateFactor candidate's total declared factor
-	 * @param bestFactor best node's total declared factor
-	 * @return <code>true</code> if this candidate is a better option
+	 * Puts a requisition to be dispatched
+	 * @param req requisition
 	 */
-	private boolean isBetterOption(final int candidateUsedFactor, final int bestUsedFactor, final int candidateFactor, final int bestFactor) {
-		return (candidateUsedFactor < bestUsedFactor || (candidateUsedFactor == bestUsedFactor && candidateFactor > bestFactor));
+	private void dispatch(RequisitionWrapper req) {
+		dispatch(req, PUT_BOUNDED);
 	}
 	/**
-	 * Checks if the factor difference beeing considered is small between the node with lowest
-	 * quantity of requisitions and the best candidate 
-	 * @param lowestQtyFactor lowestQtyFactor
-	 * @param bestCandidateFactor bestCandidateFactor
-	 * @param requisitionFactor requisitionFactor
-	 * @return boolean
+	 * Puts a requisition to be dispatched
+	 * @param req requisition
+	 * @param how PUT_BOUNDED, PUT_UNBOUNDED or PUT_ON_TOP (for requisitions forked by a
+	 * fork/join requisition)
 	 */
-	private boolean isSmallDifference(int lowestQtyFactor, int bestCandidateFactor, int requisitionFactor) {
-		return (lowestQtyFactor - bestCandidateFactor) < (requisitionFactor / 10D);
+	private void dispatch(RequisitionWrapper req, int how) {
+		// Streaming requisitions are never cached, since their chunks go to their own ticket
+		if (resultCache != null && !(req.getRequition() instanceof StreamingRequisition)) {
+			final Object key = req.getRequition().getCacheKey();
+			if (key != null) {
+				req = resultCache.join(key, req);
+				if (req == null) {
+					return; // Already done, or waiting for an identical requisition
+				}
+			}
+		}
+		if (req.getRequition() instanceof ForkJoinRequisition) {
+			new ForkJoinTask(req, how).submit(req.getRequition());
+		} else {
+			put(chooseDispatcher().channel, req, how);
+		}
 	}
 	/**
-	 * Checks if a node is a valid candidate to process a requisition.
-	 * A node is not considered as a valid node if any factor that we should
-	 * consider has exceeded it's maximum value.
-	 * @param candidate candidate node
-	 * @param considerClock true if we should consider clock factor
-	 * @param considerMem true if we should consider memory factor
-	 * @return true if this is a valid candidate
+	 * Puts a requisition on a channel
+	 * @param channel channel
+	 * @param req requisition
+	 * @param how PUT_BOUNDED, PUT_UNBOUNDED or PUT_ON_TOP
 	 */
-	private boolean isValidCandidate(final RemoteNodeRef candidate, final boolean considerClock, final boolean considerMem) {
-		if (candidate.qtyReqs == 0) {
-			// This node is not processing anything, so we can surely use it
-			return true;
+	private static void put(RequisitionChannel channel, RequisitionWrapper req, int how) {
+		if (how == PUT_ON_TOP) {
+			channel.putOnTop(req);
+		} else if (how == PUT_UNBOUNDED) {
+			channel.putUnbounded(req);
 		} else {
-			final boolean clockOk	= !considerClock || candidate.usedClockFactor < candidate.clock;
-			final boolean memOk		= !considerMem || candidate.usedMemFactor < candidate.mem;
-			// Will return true if both factors are ok
-			return (clockOk && memOk);
+			channel.put(req);
 		}
 	}
 	/**
-	 * This class used like a cache for common node properties, avoiding
-	 * an excess of network communication for calling getName, etc...
-	 * @author Rodrigo
+	 * Puts a sub-requisition of a divisible requisition (or a reduction group) to be
+	 * dispatched. It never blocks, since this may be called by the threads that complete
+	 * the previous sub-requisitions.
+	 * @param req sub-requisition
+	 * @param detector detector of straggling sub-requisitions of the same job (may be null)
 	 */
-	private static final class RemoteNodeRef {
-		private final String name;
-		private final int clock;
-		private final int mem;
-		private final int hash;
-		private final IProcessNode node;
-		// Quantity of requisitions beeing processed by this node
-		private int qtyReqs = 0;
-		// Total quantity of clock factors beeing processed at this node
-		private int usedClockFactor = 0;
-		// Total quantity of memory factors beeing processed at this node
-		private int usedMemFactor = 0;
-		
-		/**
-		 * Creates a new remote node reference
-		 * @param node node
-		 * @throws RemoteException on any error
-		 */
-		private RemoteNodeRef(final IProcessNode node) throws RemoteException {
-			this.name	= node.getNodeName();
-			this.clock	= node.getClockAmount();
-			this.mem	= node.getMemoryAmount();
-			this.hash	= this.name.hashCode();
-			this.node	= node;
+	private void dispatchSub(RequisitionWrapper req, StragglerDetector detector) {
+		if (detector != null && req.getRequition().isSpeculative()) {
+			detector.track(req);
+			speculationMonitor.watch(detector);
 		}
-		/** @return clock frequency */
-		public int getClock() {
-			return clock;
-		}
-		/** @return memory amount */
-		public int getMem() {
-			return mem;
-		}
-		/** {@inheritDoc} */
-		public boolean equals(Object obj) {
-			if (obj instanceof RemoteNodeRef) {
-				return this.name.equals(((RemoteNodeRef) obj).name);
+		dispatch(req, PUT_UNBOUNDED);
+	}
+	/**
+	 * Creates a detector of straggling sub-requisitions for a new job
+	 * @return detector, or null if speculative execution is disabled
+	 */
+	private StragglerDetector newStragglerDetector() {
+		return speculation ? new StragglerDetector(speculationPercentile, speculationMultiplier, SPECULATION_MIN_TIME) : null;
+	}
+	/**
+	 * Chooses the dispatcher with less pending requisitions, among the ones that own
+	 * at least one node.
+	 * @return dispatcher (the first one if no dispatcher owns nodes)
+	 */
+	private RequisitionsDispatcher chooseDispatcher() {
+		RequisitionsDispatcher best = null;
+		for (int i = 0; i < dispatchers.length; i++) {
+			final RequisitionsDispatcher candidate = dispatchers[i];
+			if (!candidate.nodeIndex.isEmpty() && (best == null || candidate.channel.size() < best.channel.size())) {
+				best = candidate;
 			}
-			return obj.equals(this.name);
-		}
-		/** {@inheritDoc} */
-		public int hashCode() {
-			return this.hash;
-		}
-		/** {@inheritDoc} */
-		public String toString() {
-			return this.name;
 		}
+		return (best != null) ? best : dispatchers[0];
 	}
 	
 	/**
 	 * This thread is responsible for consuming requisitions to be processed and
-	 * dispatching then to their respective targets
+	 * dispatching then to their respective targets.<BR>
+	 * Each dispatcher owns part of the controlled nodes and has its own channel. When
+	 * its channel is empty, a dispatcher steals requisitions from the channels of
+	 * dispatchers whose nodes are all busy.
 	 * @author Rodrigo
 	 */
 	private final class RequisitionsDispatcher extends Thread {
-		/** Default Constructor. */
-		private RequisitionsDispatcher() {
-			super("Requisitions dispatcher");
+		/** Requisitions to be dispatched by this dispatcher */
+		private final RequisitionChannel channel	= new RequisitionChannel();
+		/** Nodes owned by this dispatcher, sorted by load */
+		private final NodeLoadIndex nodeIndex		= new NodeLoadIndex();
+		/** Registers if all nodes of this dispatcher are busy */
+		private volatile boolean saturated			= false;
+		
+		/**
+		 * Default Constructor.
+		 * @param shard number of this dispatcher
+		 */
+		private RequisitionsDispatcher(int shard) {
+			super(dispatchers.length == 1 ? "Requisitions dispatcher" : "Requisitions dispatcher #" + shard);
 		}
 		/** {@inheritDoc} */
 		public void run() {
 			while (running) {
 				try {
+					if (nodeIndex.isEmpty() && pullNodes.get() > 0) {
+						// Nodes in pull mode take requisitions by themselves
+						nodeIndex.waitNodes(STEAL_INTERVAL);
+						continue;
+					}
 					// Gets the next requistion to dispatch
-					final RequisitionWrapper req = channel.getNext();
+					RequisitionWrapper req;
+					if (dispatchers.length == 1) {
+						req = channel.getNext();
+					} else {
+						req = channel.getNext(STEAL_INTERVAL);
+						if (req == null) {
+							req = steal();
+						}
+					}
 					if (req != null) {
 						try {
+							if (nodeIndex.isEmpty() && chooseDispatcher() != this) {
+								// Our nodes are gone, let a dispatcher that still has nodes do it
+								chooseDispatcher().channel.putOnTop(req);
+								continue;
+							}
 							// Finds the best node to process the requisition
-							RemoteNodeRef node = chooseBestNodeFor(req);
-							while (node == null) { // All nodes are busy
-								synchronized (workersPool) {
-									// Let's execute the synchronous check to be sure
-									node = chooseBestNodeFor(req);
-									if (node == null) {
-										// This means that the nodes are really busy and we have to wait
-										// until one is available to process this requisition
-										workersPool.wait();
+							RemoteNodeRef node = nodeIndex.chooseBestNodeFor(req.getRequition());
+							if (node == null) { // All nodes are busy
+								saturated = true;
+								try {
+									while (node == null) {
+										// Waits until one is available to process this requisition
+										node = nodeIndex.waitBestNodeFor(req.getRequition(), 0);
 									}
+								} finally {
+									saturated = false;
+								}
+							}
+							final Delivery delivery = new Delivery(batchFor(req, node), node);
+							if (!delivery.sendAsync()) {
+								// Gets a worker thread, that will wait the requisitions to be processed
+								final RequisitionWorker worker;
+								try {
+									worker = getWorker();
+								} catch (InterruptedException e) {
+									delivery.abort(new NoNodesAvailableException("Main node is not running"));
+									continue;
 								}
+								worker.workOn(delivery);
 							}
-							// Sends this requisition to a worker thread, that will wait it to be processed
-							final RequisitionWorker worker = getWorker();
-							worker.workOn(req, node);
 						} catch (NoNodesAvailableException e) {
-							// No nodes available... error
-							req.setError(e);
+							final RequisitionsDispatcher other = chooseDispatcher();
+							if (other != this && !other.nodeIndex.isEmpty()) {
+								// Our last node is gone while we were waiting, but others still have nodes
+								other.channel.putOnTop(req);
+							} else if (pullNodes.get() > 0) {
+								// Nodes in pull mode will take it
+								channel.putOnTop(req);
+							} else {
+								// No nodes available... error
+								req.setError(e);
+							}
+						} catch (InterruptedException e) {
+							// We are finishing... let the requisition fail
+							req.setError(new NoNodesAvailableException("Main node is not running"));
 						} catch (Throwable t) {
 							// Unexpected error (out of memory, etc)
 							req.setError(t);
@@ -471,107 +1257,1071 @@ class MainNode extends Node implements IMainNode {
 				}
 			}
 		}
+		/**
+		 * Groups a requisition with other requisitions waiting on the channel, to be sent
+		 * to the same node in a single call. The batch size depends on how long requisitions
+		 * take on that node, and requisitions are only added while the node is still a
+		 * valid candidate for them.
+		 * @param req requisition
+		 * @param node node chosen for the requisition
+		 * @return requisitions to be sent to the node
+		 */
+		private RequisitionWrapper[] batchFor(RequisitionWrapper req, RemoteNodeRef node) {
+			final int size = node.getBatchSize(maxDeliveryBatch);
+			if (size <= 1) {
+				return new RequisitionWrapper[] {req};
+			}
+			final LinkedList batch = new LinkedList();
+			batch.add(req);
+			NodeLoad projected = node.getLoad().add(Math.max(0, req.getRequition().getProcessingFactor()), Math.max(0, req.getRequition().getMemoryFactor()));
+			RequisitionWrapper next;
+			while (batch.size() < size && (next = channel.poll()) != null) {
+				final IndivisibleRequisition candidate = next.getRequition();
+				if (!NodeLoadIndex.isValidFor(node, projected, candidate)) {
+					channel.putOnTop(next);
+					break;
+				}
+				projected = projected.add(Math.max(0, candidate.getProcessingFactor()), Math.max(0, candidate.getMemoryFactor()));
+				batch.add(next);
+			}
+			return (RequisitionWrapper[]) batch.toArray(new RequisitionWrapper[batch.size()]);
+		}
+		/**
+		 * Steals a requisition from a dispatcher whose nodes are all busy
+		 * @return requisition or null if there is nothing to steal
+		 */
+		private RequisitionWrapper steal() {
+			if (nodeIndex.isEmpty()) {
+				return null; // We can't help
+			}
+			for (int i = 0; i < dispatchers.length; i++) {
+				final RequisitionsDispatcher victim = dispatchers[i];
+				if (victim != this && victim.saturated) {
+					final RequisitionWrapper req = victim.channel.poll();
+					if (req != null) {
+						return req;
+					}
+				}
+			}
+			return null;
+		}
 	}
 	/**
-	 * This worker is called by the RequisitionsDispatcher to send the requisition
-	 * to a remote node and wait it to be processed.
-	 * @author Rodrigo
+	 * State of an open job
 	 */
-	private final class RequisitionWorker extends Thread {
-		private RequisitionWrapper req;
-		private RemoteNodeRef nodeRef;
-		/* Those vars are used to update information at node reference...  */
-		private long reqClock	= 0;
-		private long reqMem		= 0;
-		private int reqQty		= 0;
+	private static final class Job {
+		/** Counts the requisitions of the job that have not been processed yet */
+		private final CompletionLatch pending		= new CompletionLatch();
+		/** Results of submitted requisitions of the job */
+		private final ResultCollector results		= new ResultCollector();
+	}
+	/**
+	 * Joins the results of the sub-requisitions of a submitted divisible requisition, as
+	 * they are completed. The response is built by the thread that completes the last
+	 * sub-requisition, so no thread is held while they are beeing processed.
+	 */
+	private final class DivisibleSubmission {
+		private final DivisibleRequisition divisible;
+		private final ResultCollector collector;
+		private final RequisitionTicket ticket;
+		/** Time (in nanos) when the requisition has been splitted */
+		private long start;
+		/** Detects straggling sub-requisitions (null if speculation is disabled) */
+		private final StragglerDetector detector = newStragglerDetector();
+		private Object[] subResults;
+		private int remaining;
+		private boolean failed = false;
+		
+		/**
+		 * Default Constructor.
+		 * @param divisible divisible requisition
+		 * @param collector result collector
+		 * @param ticket ticket of the requisition
+		 */
+		private DivisibleSubmission(DivisibleRequisition divisible, ResultCollector collector, RequisitionTicket ticket) {
+			this.divisible = divisible;
+			this.collector = collector;
+			this.ticket = ticket;
+		}
+		/**
+		 * Splits the requisition and dispatches all sub-requisitions
+		 * @param jobPending latch of the job (may be null)
+		 */
+		private void start(CompletionLatch jobPending) {
+			if (divisible instanceof AdaptiveRequisition) {
+				final Reduction reduction = new Reduction((ReducibleRequisition) divisible) {
+					protected void done(Object result, Throwable error) {
+						completeTicket(collector, ticket, divisible, result, error);
+					}
+				};
+				new AdaptiveSplit((AdaptiveRequisition) divisible, reduction, jobPending).start();
+				return;
+			}
+			this.start = System.nanoTime();
+			final SubRequisition[] subRequisitions = divisible.getSubRequisitions(createSplitContext(divisible));
+			if (divisible instanceof ReducibleRequisition) {
+				reduceAll(subRequisitions, jobPending);
+				return;
+			}
+			if (isTreeReduced(divisible, subRequisitions)) {
+				final TreeReduction tree = new TreeReduction(divisible, jobPending) {
+					protected void done(Object result, Throwable error) {
+						if (error == null) {
+							splitHistory.recordRun(divisible, subRequisitions.length, System.nanoTime() - start);
+						}
+						completeTicket(collector, ticket, divisible, result, error);
+					}
+				};
+				tree.start(subRequisitions);
+				return;
+			}
+			synchronized (this) {
+				this.subResults = new Object[subRequisitions.length];
+				this.remaining = subRequisitions.length;
+			}
+			if (subRequisitions.length == 0) {
+				respond();
+				return;
+			}
+			for (int i = 0; i < subRequisitions.length; i++) {
+				final int index = i;
+				final RequisitionWrapper wrap = new RequisitionWrapper(subRequisitions[i], pending, jobPending);
+				wrap.setListener(new RequisitionWrapper.CompletionListener() {
+					public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+						subCompleted(index, result, error);
+					}
+				});
+				dispatchSub(wrap, detector);
+			}
+		}
+		/**
+		 * Dispatches all sub-requisitions of a reducible requisition, folding each sub-result
+		 * as soon as it is available
+		 * @param subRequisitions sub-requisitions
+		 * @param jobPending latch of the job (may be null)
+		 */
+		private void reduceAll(final SubRequisition[] subRequisitions, CompletionLatch jobPending) {
+			final Reduction reduction = new Reduction((ReducibleRequisition) divisible, subRequisitions.length) {
+				protected void done(Object result, Throwable error) {
+					if (error == null) {
+						splitHistory.recordRun(divisible, subRequisitions.length, System.nanoTime() - start);
+					}
+					completeTicket(collector, ticket, divisible, result, error);
+				}
+			};
+			for (int i = 0; i < subRequisitions.length; i++) {
+				final RequisitionWrapper wrap = new RequisitionWrapper(subRequisitions[i], pending, jobPending);
+				wrap.setListener(reduction);
+				dispatchSub(wrap, detector);
+			}
+		}
+		/**
+		 * Called when a sub-requisition is completed
+		 * @param index index of the sub-requisition
+		 * @param result sub-requisition result
+		 * @param error processing error (null on success)
+		 */
+		private void subCompleted(int index, Object result, Throwable error) {
+			synchronized (this) {
+				if (failed) {
+					return; // The first error has already been reported
+				}
+				if (error != null) {
+					failed = true;
+				} else {
+					subResults[index] = result;
+					if (--remaining > 0) {
+						return;
+					}
+				}
+			}
+			if (error != null) {
+				completeTicket(collector, ticket, divisible, null, error);
+			} else {
+				respond();
+			}
+		}
+		/**
+		 * Joins all sub-results and completes the ticket
+		 */
+		private void respond() {
+			Object response = null;
+			Throwable error = null;
+			try {
+				synchronized (this) {
+					splitHistory.recordRun(divisible, subResults.length, System.nanoTime() - start);
+					response = divisible.getResponse(subResults);
+				}
+			} catch (Throwable t) {
+				error = t;
+			}
+			completeTicket(collector, ticket, divisible, response, error);
+		}
+	}
+	
+	/**
+	 * Response of a divisible requisition that is built while its sub-requisitions complete.
+	 * It ends once, with the consolidated result or with the first error.
+	 */
+	private abstract static class PendingResponse {
+		private boolean finished = false;
+		private Object result;
+		private Throwable error;
+		
+		/**
+		 * Registers the end of this response. Only the first call has any effect.
+		 * @param response consolidated result
+		 * @param failure processing error (null on success)
+		 */
+		void finish(Object response, Throwable failure) {
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				this.finished = true;
+				this.result = response;
+				this.error = failure;
+				this.notifyAll();
+			}
+			done(response, failure);
+		}
+		/**
+		 * Called once when this response ends, with the consolidated result or the first error.
+		 * The default behavior is to do nothing.
+		 * @param response consolidated result
+		 * @param failure processing error (null on success)
+		 */
+		protected void done(Object response, Throwable failure) {
+		}
+		/** @return true if this response has ended (with success or error) */
+		synchronized boolean isFinished() {
+			return finished;
+		}
+		/**
+		 * Blocks until this response ends
+		 * @return consolidated result
+		 * @throws ProcessingException if any sub-requisition or the reduction fails
+		 * @throws NoNodesAvailableException if a sub-requisition could not be processed
+		 * because there weren't nodes available to process it.
+		 */
+		synchronized Object waitResult() throws ProcessingException, NoNodesAvailableException {
+			while (!finished) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					throw new ProcessingException("Thread has been interrupted!", e);
+				}
+			}
+			if (error instanceof ProcessingException) {
+				throw (ProcessingException) error;
+			} else if (error instanceof NoNodesAvailableException) {
+				throw (NoNodesAvailableException) error;
+			} else if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			} else if (error instanceof Error) {
+				throw (Error) error;
+			} else if (error != null) {
+				throw new ProcessingException(error.getMessage(), error);
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Incremental reduction of a reducible requisition. Each sub-result is folded into the
+	 * accumulator by the thread that completes its sub-requisition, one at a time, and
+	 * then discarded.
+	 */
+	private static class Reduction extends PendingResponse implements RequisitionWrapper.CompletionListener {
+		private final ReducibleRequisition reducible;
+		private Object accumulator;
+		private int remaining = 0;
+		/** Registers that no more sub-requisitions will be expected */
+		private boolean sealed = false;
+		
+		/**
+		 * Creates a reduction of a known number of sub-requisitions
+		 * @param reducible requisition beeing reduced
+		 * @param count number of sub-requisitions
+		 */
+		private Reduction(ReducibleRequisition reducible, int count) {
+			this(reducible);
+			expect(count);
+			seal();
+		}
+		/**
+		 * Creates a reduction whose sub-requisitions are registered by expect(), until seal()
+		 * @param reducible requisition beeing reduced
+		 */
+		private Reduction(ReducibleRequisition reducible) {
+			this.reducible = reducible;
+			try {
+				this.accumulator = reducible.createAccumulator();
+			} catch (Throwable t) {
+				finish(null, t);
+			}
+		}
+		/**
+		 * Registers more sub-requisitions to be folded. Must be called before they are dispatched.
+		 * @param count number of sub-requisitions
+		 */
+		private synchronized void expect(int count) {
+			remaining += count;
+		}
+		/**
+		 * Registers that no more sub-requisitions will be expected, so the reduction ends
+		 * when the ones already expected are folded
+		 */
+		private void seal() {
+			Object response = null;
+			Throwable failure = null;
+			synchronized (this) {
+				sealed = true;
+				if (isFinished() || remaining > 0) {
+					return;
+				}
+				try {
+					response = reducible.finish(accumulator);
+				} catch (Throwable t) {
+					failure = t;
+				}
+				accumulator = null;
+			}
+			finish(response, failure);
+		}
+		/** {@inheritDoc} */
+		public void completed(RequisitionWrapper wrapper, Object subResult, Throwable subError) {
+			Object response = null;
+			Throwable failure = subError;
+			synchronized (this) {
+				if (isFinished()) {
+					return; // The first error has already been reported
+				}
+				if (failure == null) {
+					try {
+						accumulator = reducible.accumulate(accumulator, subResult);
+						if (--remaining > 0 || !sealed) {
+							return;
+						}
+						response = reducible.finish(accumulator);
+					} catch (Throwable t) {
+						failure = t;
+					}
+				}
+				accumulator = null;
+			}
+			finish(response, failure);
+		}
+	}
+	
+	/**
+	 * Tree reduction of a divisible requisition (see DivisibleRequisition.getReduceFanIn()).
+	 * Level zero has the results of the sub-requisitions, that are dispatched one by one, and
+	 * each following level has one partial result per fan-in consecutive results of the
+	 * previous level. A group that joins them is dispatched as soon as all of its members are
+	 * available, and the last level (with no more than fan-in partial results) is joined by
+	 * the main node.
+	 */
+	private class TreeReduction extends PendingResponse {
+		private final DivisibleRequisition divisible;
+		private final CompletionLatch jobPending;
+		private final int fanIn;
+		/** Results of each level that have not been joined yet */
+		private Object[][] levels;
+		/** Number of results available for each group of the next level */
+		private int[][] filled;
+		/** Priority of the groups that join partial results */
+		private int priority;
+		/** Detects straggling requisitions (null if speculation is disabled) */
+		private final StragglerDetector detector = newStragglerDetector();
+		
+		/**
+		 * Default Constructor.
+		 * @param divisible requisition
+		 * @param jobPending latch of the job (may be null)
+		 */
+		private TreeReduction(DivisibleRequisition divisible, CompletionLatch jobPending) {
+			this.divisible = divisible;
+			this.jobPending = jobPending;
+			this.fanIn = divisible.getReduceFanIn();
+		}
+		/**
+		 * Dispatches the sub-requisitions
+		 * @param subRequisitions sub-requisitions (more than fan-in)
+		 */
+		private void start(SubRequisition[] subRequisitions) {
+			final List sizes = new ArrayList();
+			int size = subRequisitions.length;
+			sizes.add(new Integer(size));
+			do {
+				size = (size + fanIn - 1) / fanIn;
+				sizes.add(new Integer(size));
+			} while (size > fanIn);
+			final RequisitionWrapper[] wrappers = new RequisitionWrapper[subRequisitions.length];
+			synchronized (this) {
+				levels = new Object[sizes.size()][];
+				filled = new int[sizes.size()][];
+				for (int i = 0; i < levels.length; i++) {
+					levels[i] = new Object[((Integer) sizes.get(i)).intValue()];
+					filled[i] = new int[(levels[i].length + fanIn - 1) / fanIn];
+				}
+				priority = IndivisibleRequisition.PRIORITY_LOW;
+				for (int i = 0; i < wrappers.length; i++) {
+					priority = Math.max(priority, subRequisitions[i].getPriority());
+					wrappers[i] = newWrapper(subRequisitions[i], 0, i);
+				}
+			}
+			for (int i = 0; i < wrappers.length; i++) {
+				dispatchSub(wrappers[i], detector);
+			}
+		}
+		/**
+		 * Called when a sub-requisition or a group is completed
+		 * @param level level of its result
+		 * @param index index of its result on its level
+		 * @param result result
+		 * @param error processing error (null on success)
+		 */
+		private void completed(int level, int index, Object result, Throwable error) {
+			final int parent = index / fanIn;
+			final Object[] members;
+			synchronized (this) {
+				if (isFinished()) {
+					return; // The first error has already been reported
+				}
+				if (error != null) {
+					members = null;
+				} else {
+					final Object[] partials = levels[level];
+					partials[index] = result;
+					final int first = parent * fanIn;
+					final int count = Math.min(fanIn, partials.length - first);
+					if (++filled[level][parent] < count) {
+						return;
+					}
+					members = new Object[count];
+					System.arraycopy(partials, first, members, 0, members.length);
+					Arrays.fill(partials, first, first + members.length, null);
+				}
+			}
+			if (error != null) {
+				finish(null, error);
+			} else if (level == levels.length - 1) {
+				Object response = null;
+				Throwable failure = null;
+				try {
+					response = divisible.getResponse(members);
+				} catch (Throwable t) {
+					failure = t;
+				}
+				finish(response, failure);
+			} else {
+				dispatchSub(newWrapper(new ReductionGroup(divisible, members, priority), level + 1, parent), detector);
+			}
+		}
+		/**
+		 * Creates the wrapper of a sub-requisition or a group
+		 * @param sub sub-requisition or group
+		 * @param level level of its result
+		 * @param index index of its result on its level
+		 * @return wrapper
+		 */
+		private RequisitionWrapper newWrapper(SubRequisition sub, final int level, final int index) {
+			final RequisitionWrapper wrap = new RequisitionWrapper(sub, pending, jobPending);
+			wrap.setListener(new RequisitionWrapper.CompletionListener() {
+				public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+					TreeReduction.this.completed(level, index, result, error);
+				}
+			});
+			return wrap;
+		}
+	}
+	
+	/**
+	 * Processes a fork/join requisition. Each step (the requisition itself, then each join)
+	 * is dispatched in a wrapper of its own. When a step forks, its children are dispatched
+	 * and the next step is dispatched by the thread that completes the last child, so no
+	 * thread waits for them. The result of the last step goes to the target wrapper.
+	 */
+	private final class ForkJoinTask implements RequisitionWrapper.CompletionListener {
+		/** Wrapper that receives the final result */
+		private final RequisitionWrapper target;
+		/** How steps are put on their channel (see dispatch()) */
+		private int how;
+		/** Results of the children of the current fork */
+		private Object[] childResults;
+		/** Number of children of the current fork not done yet */
+		private int remaining;
+		
+		/**
+		 * Default Constructor.
+		 * @param target wrapper that receives the final result
+		 * @param how how the requisition has been dispatched (PUT_ON_TOP if it has been
+		 * forked by another one)
+		 */
+		private ForkJoinTask(RequisitionWrapper target, int how) {
+			this.target = target;
+			this.how = how;
+		}
+		/**
+		 * Dispatches a step
+		 * @param step requisition to be processed
+		 */
+		private void submit(IndivisibleRequisition step) {
+			final RequisitionWrapper wrap = new RequisitionWrapper(step);
+			wrap.setListener(this);
+			final int current;
+			synchronized (this) {
+				current = how;
+			}
+			put(chooseDispatcher().channel, wrap, current);
+		}
+		/** {@inheritDoc} */
+		public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+			if (error != null) {
+				target.setError(error);
+			} else if (result instanceof Fork) {
+				forkChildren((Fork) result);
+			} else {
+				target.setResult(result);
+			}
+		}
+		/**
+		 * Dispatches the children of a fork
+		 * @param fork fork
+		 */
+		private void forkChildren(final Fork fork) {
+			final IndivisibleRequisition[] children = fork.children;
+			synchronized (this) {
+				this.childResults = new Object[children.length];
+				this.remaining = children.length;
+				this.how = PUT_ON_TOP; // Joins also go on the top, since older work is waiting for them
+			}
+			if (children.length == 0) {
+				submit(new JoinRequisition(fork.parent, new Object[0]));
+				return;
+			}
+			for (int i = 0; i < children.length; i++) {
+				final int index = i;
+				final RequisitionWrapper child = new RequisitionWrapper(children[i]);
+				child.setListener(new RequisitionWrapper.CompletionListener() {
+					public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+						childCompleted(fork, index, result, error);
+					}
+				});
+				dispatch(child, PUT_ON_TOP);
+			}
+		}
+		/**
+		 * Called when a child is done
+		 * @param fork fork of the child
+		 * @param index index of the child
+		 * @param result child result
+		 * @param error processing error (null on success)
+		 */
+		private void childCompleted(Fork fork, int index, Object result, Throwable error) {
+			final Object[] results;
+			synchronized (this) {
+				if (childResults == null) {
+					return; // The first error has already been reported
+				}
+				if (error == null) {
+					childResults[index] = result;
+					if (--remaining > 0) {
+						return;
+					}
+				}
+				results = childResults;
+				childResults = null;
+			}
+			if (error != null) {
+				target.setError(error);
+			} else {
+				submit(new JoinRequisition(fork.parent, results));
+			}
+		}
+	}
+	
+	/**
+	 * Splits an adaptive requisition in waves. The first wave has one sub-requisition per
+	 * node, sized by the work rate of previous runs or by AdaptiveRequisition.getProbeSize().
+	 * The work rate is measured again when a wave is done (the first one) or when only one
+	 * sub-requisition per node is left (the others, so nodes are kept busy), and the next
+	 * wave is sized by it, so each sub-requisition takes about chunkTime.<BR>
+	 * The next wave is created by the thread that completes a sub-requisition, before the
+	 * latches count it as done, so waitIdle() never returns between two waves.
+	 */
+	private final class AdaptiveSplit {
+		private final AdaptiveRequisition adaptive;
+		private final Reduction reduction;
+		private final CompletionLatch jobPending;
+		private final long work;
+		/** First work unit not dispatched yet */
+		private long offset = 0;
+		/** Work units of each sub-requisition */
+		private long chunk;
+		/** Number of nodes when the last wave has been created */
+		private int nodes;
+		/** Number of sub-requisitions dispatched and not completed yet */
+		private int outstanding = 0;
+		/** Registers if the first wave is beeing used to measure the work rate */
+		private boolean probing;
+		/** Time (in nanos) when the last measure has started */
+		private long measureStart;
+		/** Work units completed since the last measure has started */
+		private long measuredUnits = 0;
+		/** Detects straggling sub-requisitions (null if speculation is disabled) */
+		private final StragglerDetector detector = newStragglerDetector();
 		
+		/**
+		 * Default Constructor.
+		 * @param adaptive requisition
+		 * @param reduction reduction that folds the sub-results
+		 * @param jobPending latch of the job (may be null)
+		 */
+		private AdaptiveSplit(AdaptiveRequisition adaptive, Reduction reduction, CompletionLatch jobPending) {
+			this.adaptive = adaptive;
+			this.reduction = reduction;
+			this.jobPending = jobPending;
+			this.work = adaptive.getWorkSize();
+		}
+		/**
+		 * Dispatches the first wave
+		 */
+		private void start() {
+			final RequisitionWrapper[] wave;
+			synchronized (this) {
+				final SplitContext context = createSplitContext(adaptive);
+				final double rate = context.getMeasuredWorkRate();
+				this.probing = (rate <= 0);
+				this.chunk = probing ? Math.max(1, adaptive.getProbeSize(context)) : chunkFor(rate);
+				this.nodes = Math.max(1, context.getAvailableNodes());
+				this.measureStart = System.nanoTime();
+				wave = nextWave(probing ? nodes : nodes * WAVE_CHUNKS);
+			}
+			dispatchAll(wave);
+		}
+		/**
+		 * Called when a sub-requisition is completed
+		 * @param length work units of the sub-requisition
+		 * @param wrapper wrapper of the sub-requisition
+		 * @param result sub-requisition result
+		 * @param error processing error (null on success)
+		 */
+		private void completed(long length, RequisitionWrapper wrapper, Object result, Throwable error) {
+			reduction.completed(wrapper, result, error);
+			final RequisitionWrapper[] wave;
+			synchronized (this) {
+				outstanding--;
+				measuredUnits += length;
+				if (reduction.isFinished() || offset >= work || outstanding > (probing ? 0 : nodes)) {
+					return;
+				}
+				final long now = System.nanoTime();
+				final double millis = Math.max(0.001, (now - measureStart) / 1e6);
+				final double rate = measuredUnits / millis / nodes;
+				splitHistory.recordWorkRate(adaptive, rate);
+				this.chunk = chunkFor(rate);
+				this.probing = false;
+				this.measureStart = now;
+				this.measuredUnits = 0;
+				this.nodes = Math.max(1, controlledNodes.size());
+				wave = nextWave(nodes * WAVE_CHUNKS);
+			}
+			dispatchAll(wave);
+		}
+		/**
+		 * Creates the sub-requisitions of the next wave, and seals the reduction if the
+		 * wave reaches the end of the work. Must be called with the lock of this object.
+		 * @param count maximum number of sub-requisitions
+		 * @return wrappers to be dispatched
+		 */
+		private RequisitionWrapper[] nextWave(int count) {
+			final List wave = new ArrayList(count);
+			try {
+				while (wave.size() < count && offset < work) {
+					final long length = Math.min(chunk, work - offset);
+					final SubRequisition sub = adaptive.createSubRequisition(offset, length);
+					final RequisitionWrapper wrap = new RequisitionWrapper(sub, pending, jobPending);
+					wrap.setListener(new RequisitionWrapper.CompletionListener() {
+						public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+							AdaptiveSplit.this.completed(length, wrapper, result, error);
+						}
+					});
+					wave.add(wrap);
+					offset += length;
+				}
+			} catch (Throwable t) {
+				// Sub-requisitions already created are dispatched anyway, so the latches are released
+				reduction.finish(null, t);
+			}
+			outstanding += wave.size();
+			reduction.expect(wave.size());
+			if (offset >= work) {
+				reduction.seal();
+			}
+			return (RequisitionWrapper[]) wave.toArray(new RequisitionWrapper[wave.size()]);
+		}
+		/**
+		 * Calculates the number of work units that should take about chunkTime
+		 * @param rate work units per millisecond per node
+		 * @return number of work units (at least one)
+		 */
+		private long chunkFor(double rate) {
+			return (long) Math.max(1, Math.min(work, rate * chunkTime));
+		}
+		/**
+		 * Dispatches the sub-requisitions of a wave
+		 * @param wave wrappers
+		 */
+		private void dispatchAll(RequisitionWrapper[] wave) {
+			for (int i = 0; i < wave.length; i++) {
+				dispatchSub(wave[i], detector);
+			}
+		}
+	}
+	
+	/**
+	 * Requisition taken by a node in pull mode
+	 */
+	private static final class Lease {
+		private final RequisitionWrapper wrapper;
+		private final RemoteNodeRef ref;
+		/**
+		 * Default Constructor.
+		 * @param wrapper requisition
+		 * @param ref node that has taken it
+		 */
+		private Lease(RequisitionWrapper wrapper, RemoteNodeRef ref) {
+			this.wrapper = wrapper;
+			this.ref = ref;
+		}
+	}
+	/**
+	 * This thread checks if nodes in pull mode that hold requisitions are still reachable,
+	 * when they have not contacted the main node for a while. Unreachable nodes are removed
+	 * from control and their requisitions are put back to be processed by other nodes.
+	 */
+	private final class LeaseMonitor extends Thread {
 		/** Default Constructor. */
-		private RequisitionWorker() {
-			super("Requisition worker");
-			synchronized (workersList) {
-				workersList.addLast(this);
+		private LeaseMonitor() {
+			super("Pull lease monitor");
+			this.setDaemon(true);
+		}
+		/**
+		 * Starts this monitor, if it has not been started yet
+		 */
+		private synchronized void startOnce() {
+			if (getState() == Thread.State.NEW) {
+				start();
 			}
-			this.start();
+		}
+		/** {@inheritDoc} */
+		public void run() {
+			while (running) {
+				try {
+					Thread.sleep(LEASE_CHECK_INTERVAL);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if (pullNodes.get() == 0) {
+					continue;
+				}
+				final HashMap holders = new HashMap();
+				synchronized (leases) {
+					for (final Iterator it = leases.values().iterator(); it.hasNext();) {
+						final RemoteNodeRef ref = ((Lease) it.next()).ref;
+						holders.put(ref.name, ref);
+					}
+				}
+				final long limit = System.currentTimeMillis() - LEASE_CHECK_INTERVAL;
+				for (final Iterator it = holders.values().iterator(); it.hasNext();) {
+					final RemoteNodeRef ref = (RemoteNodeRef) it.next();
+					if (ref.lastContact < limit) {
+						try {
+							ref.node.getNodeName(); // Pings the node
+							ref.lastContact = System.currentTimeMillis();
+						} catch (RemoteException e) {
+							dropNode(ref);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This thread checks the jobs with sub-requisitions beeing processed, and sends a backup
+	 * of their stragglers (see StragglerDetector) to idle nodes. The first result of a
+	 * straggler and its backup is used, and the other is cancelled: if it is still waiting
+	 * to be dispatched, it is skipped, otherwise its node just processes it to the end.
+	 */
+	private final class SpeculationMonitor extends Thread {
+		/** Detectors of jobs with sub-requisitions not done yet */
+		private final Set detectors = new HashSet();
+		
+		/** Default Constructor. */
+		private SpeculationMonitor() {
+			super("Speculation monitor");
+			this.setDaemon(true);
 		}
 		/**
-		 * Works on the given requisition and node
-		 * @param req requisiton
-		 * @param node node
+		 * Starts checking the sub-requisitions of a job
+		 * @param detector detector of the job
 		 */
-		private void workOn(RequisitionWrapper req, RemoteNodeRef node) {
+		private void watch(StragglerDetector detector) {
+			synchronized (detectors) {
+				detectors.add(detector);
+			}
 			synchronized (this) {
-				this.req = req;
-				this.nodeRef = node;
-				updateInfo(req);
-				this.notify();
+				if (getState() == Thread.State.NEW) {
+					start(); // Started by the first job with speculative sub-requisitions
+				}
 			}
-			Thread.yield();
 		}
 		/** {@inheritDoc} */
 		public void run() {
 			while (running) {
 				try {
-					synchronized (this) {
-						if (req == null) {
-							reqClock = 0;
-							reqMem = 0;
-							reqQty = 0;
-							// Waits for a requisition to work on...
-							this.wait();
+					Thread.sleep(SPECULATION_INTERVAL);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				final StragglerDetector[] watched;
+				synchronized (detectors) {
+					watched = (StragglerDetector[]) detectors.toArray(new StragglerDetector[detectors.size()]);
+				}
+				if (watched.length == 0) {
+					continue;
+				}
+				final long now = System.currentTimeMillis();
+				int idle = countIdleNodes();
+				for (int i = 0; i < watched.length; i++) {
+					final RequisitionWrapper[] stragglers = watched[i].check(now, idle);
+					for (int j = 0; j < stragglers.length; j++) {
+						sendBackup(stragglers[j]);
+					}
+					idle -= stragglers.length;
+					synchronized (detectors) {
+						if (watched[i].isEmpty()) {
+							detectors.remove(watched[i]);
 						}
 					}
-					if (nodeRef != null) {
-						// Sends the requisition to be processed at the process node
-						final Object result = nodeRef.node.processRequisition(req.getRequition());
-						// The requisition has been processed with success, sets the result
-						req.setResult(result);
+				}
+			}
+		}
+		/**
+		 * Sends a backup of a straggler. It goes on the top of the queue and, since there is
+		 * an idle node, it is processed by that node.
+		 * @param straggler straggler
+		 */
+		private void sendBackup(final RequisitionWrapper straggler) {
+			// Nodes on this JVM may be processing the straggler itself, so the backup is a copy
+			final IndivisibleRequisition copy;
+			try {
+				copy = (IndivisibleRequisition) copy(straggler.getRequition());
+			} catch (ProcessingException e) {
+				return; // The straggler will still be done
+			}
+			final RequisitionWrapper backup = new RequisitionWrapper(copy);
+			backup.setListener(new RequisitionWrapper.CompletionListener() {
+				public void completed(RequisitionWrapper wrapper, Object result, Throwable error) {
+					// Errors are left to the straggler, that may still succeed
+					if (error == null) {
+						straggler.setResult(result);
 					}
-				} catch (InterruptedException ignored) {
-					// Ignore... we are finishing main node...
-				} catch (Throwable t) {
-					// Handles any error
-					handleError(t);
-				} finally {
-					removeReqData();
-					synchronized (workersPool) {
-						// Adds this worker to be reused in the pool
-						workersPool.addLast(this);
-						workersPool.notify();
+				}
+			});
+			// The backup is cancelled (and skipped by the channel) if the straggler is done first
+			if (straggler.setBackup(backup)) {
+				chooseDispatcher().channel.putOnTop(backup);
+			}
+		}
+		/**
+		 * Counts the controlled nodes that are not processing any requisition
+		 * @return number of idle nodes
+		 */
+		private int countIdleNodes() {
+			int idle = 0;
+			synchronized (controlledNodes) {
+				for (final Iterator it = controlledNodes.values().iterator(); it.hasNext();) {
+					final RemoteNodeRef ref = (RemoteNodeRef) it.next();
+					if (!ref.pulling && ref.getLoad().qtyReqs == 0) {
+						idle++;
 					}
 				}
 			}
+			return idle;
+		}
+	}
+	
+	/**
+	 * Requisitions sent to a process node in a single call. The load of the requisitions
+	 * is reserved on the node until the call is answered, and the answer completes them.<BR>
+	 * Nodes reached thru the "nio" transport are called without blocking (see sendAsync()),
+	 * so no thread waits for their answer. Other nodes are called by a RequisitionWorker.
+	 */
+	private final class Delivery implements NioEndpoint.CallListener {
+		private final RequisitionWrapper[] reqs;
+		private final RemoteNodeRef nodeRef;
+		/* Those vars are used to update information at node reference...  */
+		private final int[] reqClock;
+		private final int[] reqMem;
+		/** Time (System.nanoTime()) when the call has started */
+		private long start;
+		
+		/**
+		 * Default Constructor. Reserves the load of the requisitions on the node.
+		 * @param reqs requisitions
+		 * @param node node
+		 */
+		private Delivery(RequisitionWrapper[] reqs, RemoteNodeRef node) {
+			this.reqs = reqs;
+			this.nodeRef = node;
+			this.reqClock = new int[reqs.length];
+			this.reqMem = new int[reqs.length];
+			final long now = System.currentTimeMillis();
+			for (int i = 0; i < reqs.length; i++) {
+				reqs[i].setStartTime(now);
+				reqClock[i]	= Math.max(0, reqs[i].getRequition().getProcessingFactor());
+				reqMem[i]	= Math.max(0, reqs[i].getRequition().getMemoryFactor());
+				node.index.reserve(node, reqClock[i], reqMem[i]);
+			}
+		}
+		/**
+		 * Sends the requisitions without blocking, if the node is reached thru the "nio"
+		 * transport. They are completed by a transport thread when the answer arrives.
+		 * @return false if the node must be called by a worker, that waits for the answer
+		 */
+		private boolean sendAsync() {
+			final NioRemoteRef ref = nodeRef.local ? null : NioEndpoint.getRemoteRef(nodeRef.node);
+			if (ref == null || (reqs.length > 1 && !(nodeRef.node instanceof IBatchProcessNode))) {
+				return false;
+			}
+			asyncDeliveries.register();
+			try {
+				final Requisition[] prepared = prepareAll();
+				start = System.nanoTime();
+				if (reqs.length == 1) {
+					NioEndpoint.getInstance().invokeAsync(ref, PROCESS_REQUISITION, new Object[] {prepared[0]}, this);
+				} else {
+					NioEndpoint.getInstance().invokeAsync(ref, PROCESS_REQUISITIONS, new Object[] {prepared}, this);
+				}
+			} catch (Throwable t) {
+				completed(null, t);
+			}
+			return true;
+		}
+		/** {@inheritDoc} */
+		public void completed(Object result, Throwable error) {
+			try {
+				if (error == null) {
+					deliver(result);
+				} else {
+					handleError(error);
+				}
+			} catch (Throwable t) {
+				handleError(t);
+			} finally {
+				release();
+				asyncDeliveries.arrive();
+			}
 		}
 		/**
-		 * Removes data about the requisition from the node reference
+		 * Sends the requisitions and waits for the answer (called by a worker)
 		 */
-		private void removeReqData() {
-			if (nodeRef != null) {
-				if (nodeRef.qtyReqs == 1 && reqQty == 1) {
-					nodeRef.usedClockFactor	= 0;
-					nodeRef.usedMemFactor	= 0;
-					nodeRef.qtyReqs			= 0;
+		private void send() {
+			try {
+				final Requisition[] prepared = prepareAll();
+				start = System.nanoTime();
+				if (reqs.length == 1) {
+					// Sends the requisition to be processed at the process node
+					deliver(nodeRef.node.processRequisition(prepared[0]));
+				} else if (nodeRef.node instanceof IBatchProcessNode) {
+					// Sends all requisitions to be processed at the process node in a single call
+					deliver(((IBatchProcessNode) nodeRef.node).processRequisitions(prepared));
 				} else {
-					nodeRef.usedClockFactor	-= reqClock;
-					nodeRef.usedMemFactor	-= reqMem;
-					nodeRef.qtyReqs			-= reqQty;
+					processEach(prepared);
 				}
+			} catch (Throwable t) {
+				// Handles any error
+				handleError(t);
+			} finally {
+				release();
+			}
+		}
+		/**
+		 * Fails the requisitions without sending them
+		 * @param t error
+		 */
+		private void abort(Throwable t) {
+			setError(t);
+			release();
+		}
+		/**
+		 * Prepares the requisitions to be sent to the node
+		 * @return prepared requisitions
+		 * @throws ProcessingException if any requisition could not be prepared
+		 */
+		private Requisition[] prepareAll() throws ProcessingException {
+			final Requisition[] prepared = new Requisition[reqs.length];
+			for (int i = 0; i < prepared.length; i++) {
+				prepared[i] = prepare(nodeRef, reqs[i].getRequition());
 			}
-			req = null;
-			nodeRef = null;
+			return prepared;
 		}
 		/**
-		 * Updates node information
-		 * @param req requistion
+		 * Completes the requisitions with the answer of the node
+		 * @param answer result of the requisition, or the results of all requisitions if
+		 * there is more than one
+		 * @throws RemoteException never, since errors of individual requisitions are
+		 * only taken from results that have them
 		 */
-		private void updateInfo(RequisitionWrapper req) {
-			reqClock	= req.getRequition().getProcessingFactor();
-			reqClock	= reqClock < 0 ? 0 : reqClock;
-			reqMem		= req.getRequition().getMemoryFactor();
-			reqMem		= reqMem < 0 ? 0 : reqMem;
-			reqQty		= 1;
-			nodeRef.usedClockFactor	+= reqClock;
-			nodeRef.usedMemFactor	+= reqMem;
-			nodeRef.qtyReqs			+= reqQty;
+		private void deliver(Object answer) throws RemoteException {
+			nodeRef.updateItemLatency(System.nanoTime() - start, reqs.length);
+			if (reqs.length == 1) {
+				// The requisition has been processed with success, sets the result
+				reqs[0].setResult(answer);
+				return;
+			}
+			final RequisitionResult[] results = (RequisitionResult[]) answer;
+			for (int i = 0; i < results.length; i++) {
+				if (results[i].isError()) {
+					// Errors of individual requisitions are always processing errors
+					reqs[i].setError(results[i].getError());
+				} else {
+					reqs[i].setResult(results[i].getResult());
+				}
+			}
+		}
+		/**
+		 * Sends the requisitions to be processed at the process node, one call for each
+		 * @param prepared prepared requisitions
+		 * @throws RemoteException on any communication error
+		 */
+		private void processEach(Requisition[] prepared) throws RemoteException {
+			for (int i = 0; i < prepared.length; i++) {
+				try {
+					reqs[i].setResult(nodeRef.node.processRequisition(prepared[i]));
+				} catch (ProcessingException e) {
+					// The process node is on the same JVM
+					reqs[i].setError(e);
+				} catch (RemoteException e) {
+					if (!(e.getCause() instanceof ProcessingException)) {
+						throw e; // Communication error
+					}
+					reqs[i].setError(e.getCause());
+				}
+			}
+			nodeRef.updateItemLatency(System.nanoTime() - start, prepared.length);
+		}
+		/**
+		 * Removes data about the requisitions from the node reference
+		 */
+		private void release() {
+			for (int i = 0; i < reqs.length; i++) {
+				nodeRef.index.release(nodeRef, reqClock[i], reqMem[i]);
+			}
 		}
 		/**
 		 * Handles an error in the processing
@@ -582,27 +2332,88 @@ class MainNode extends Node implements IMainNode {
 				if (t instanceof ProcessingException) {
 					// A processing error ocurred and the process node is on the same JVM
 					// Set that error to be thrown
-					req.setError(t);
+					setError(t);
 				} else if (t.getCause() instanceof ProcessingException) {
 					// A processing error ocurred and the process node is on a remote JVM
 					// Set that error to be thrown
-					req.setError(t.getCause());
+					setError(t.getCause());
 				} else {
 					// This means a sort of communication error... let's remove that node from the list...
-					try {
-						RegistryHandler.getInstance().unregisterNode(nodeRef.node);
-					} catch (Exception e) {
-						// Ignores
-					}
-					synchronized (controlledNodes) {
-						controlledNodes.remove(nodeRef.name);
+					dropNode(nodeRef);
+					// ... and put the requisitons back to be processed.
+					for (int i = reqs.length - 1; i >= 0; i--) {
+						if (!reqs[i].isDone()) { // Unless a backup has already been done
+							chooseDispatcher().channel.putOnTop(reqs[i]);
+						}
 					}
-					// ... and put the requisiton back to be processed.
-					channel.putOnTop(req);
 				}
 			} else {
 				// Unexpected error
-				req.setError(t);
+				setError(t);
+			}
+		}
+		/**
+		 * Sets an error on all requisitions
+		 * @param t error
+		 */
+		private void setError(Throwable t) {
+			for (int i = 0; i < reqs.length; i++) {
+				reqs[i].setError(t);
+			}
+		}
+	}
+	
+	/**
+	 * This worker is called by the RequisitionsDispatcher to send requisitions to a node
+	 * that can not be called without blocking, and wait them to be processed.
+	 * @author Rodrigo
+	 */
+	private final class RequisitionWorker extends Thread {
+		private Delivery delivery;
+		
+		/** Default Constructor. */
+		private RequisitionWorker() {
+			super("Requisition worker");
+			synchronized (workersList) {
+				workersList.addLast(this);
+			}
+			this.start();
+		}
+		/**
+		 * Works on the given requisitions
+		 * @param delivery requisitions and the node they are sent to
+		 */
+		private void workOn(Delivery delivery) {
+			synchronized (this) {
+				this.delivery = delivery;
+				this.notify();
+			}
+			Thread.yield();
+		}
+		/** {@inheritDoc} */
+		public void run() {
+			while (running) {
+				final Delivery work;
+				try {
+					synchronized (this) {
+						if (delivery == null) {
+							// Waits for a requisition to work on...
+							this.wait();
+						}
+						work = delivery;
+						delivery = null;
+					}
+				} catch (InterruptedException ignored) {
+					// Ignore... we are finishing main node...
+					continue;
+				}
+				if (work != null) {
+					work.send();
+					// Adds this worker to be reused in the pool, unless it is an extra one
+					if (!releaseWorker(this)) {
+						return;
+					}
+				}
 			}
 		}
 	}
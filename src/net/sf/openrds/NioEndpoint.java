@@ -0,0 +1,1525 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * NioEndpoint.java
+ */
+
+package net.sf.openrds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.MarshalException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.UnexpectedException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * End-point of the NIO transport on this JVM.<BR>
+ * A single selector thread accepts connections, reads incoming frames and writes the frames
+ * that could not be written at once by the calling threads. Each frame is made of its length
+ * (4 bytes), its type (1 byte), the id of the call it belongs to (8 bytes), the codec class
+ * ids that it defines (see CodecTypes) and a serialized body. Since every response carries
+ * the id of its call, any number of calls may be in progress on the same connection.<BR>
+ * The first frame on each connection tells the other side if it accepts compressed and
+ * memory-mapped frames.
+ * Frames whose body is larger than the compression threshold of the connection (see
+ * ISystemProperties.COMPRESSION_THRESHOLD) have their body compressed, if the other side
+ * accepts it and if it really saves space.<BR>
+ * When both sides are on the same machine, frames whose body is larger than the mapped
+ * threshold (see ISystemProperties.MAPPED_THRESHOLD) have their body serialized directly
+ * into a temporary memory-mapped file, and only the name of the file is sent. The other side
+ * deserializes the body directly from the mapped file and deletes it. Memory-mapped frames
+ * are only accepted on connections where this side has announced them, and only for files
+ * of the directory returned by getMappedDirectory(), which only its owner may access. Both
+ * sides announce that directory, so they only use memory-mapped frames if it is the same.<BR>
+ * Objects implementing java.rmi.Remote are never serialized by value: they are exported on
+ * this end-point and replaced by a NioRemoteRef, which becomes a dynamic proxy on the other
+ * side. Classes are annotated and loaded thru RMIClassLoader, so dynamic class download works
+ * the same way it does with RMI. As with UnicastRemoteObject, exported objects stay reachable
+ * until they are unexported: nodes are unexported when they finish (see unexportObject()).<BR>
+ * Incoming calls are executed by a pool of threads, which is unbounded unless
+ * ISystemProperties.TRANSPORT_THREADS is set, since many calls (like IMainNode.waitIdle())
+ * block until other calls are completed.
+ */
+final class NioEndpoint implements Runnable {
+	/** Frame types */
+	private static final byte REQUEST	= 1;
+	private static final byte RESULT	= 2;
+	private static final byte EXCEPTION	= 3;
+	private static final byte HELLO		= 4;
+	/** Bits of the frame type byte that hold the type */
+	private static final int TYPE_MASK	= 0x0F;
+	/** Flag set on the frame type byte when the body is compressed */
+	private static final int COMPRESSED	= 0x40;
+	/** Flag set on the frame type byte when the body is in a memory-mapped file */
+	private static final int MAPPED		= 0x20;
+	/** Flag set on the "id" of HELLO frames when the sender accepts compressed frames */
+	private static final long ACCEPTS_DEFLATE = 1;
+	/** Flag set on the "id" of HELLO frames when the sender accepts memory-mapped frames */
+	private static final long ACCEPTS_MAPPED = 2;
+	/** Default compression threshold (in bytes) */
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 64 * 1024;
+	/** Default mapped threshold (in bytes) */
+	private static final int DEFAULT_MAPPED_THRESHOLD = 1024 * 1024;
+	/** Prefix and suffix of the files of memory-mapped frames */
+	private static final String MAPPED_PREFIX = "openrds";
+	private static final String MAPPED_SUFFIX = ".map";
+	/** Size of the type, call id and number of class ids that follow the length of each frame */
+	private static final int FRAME_HEADER = 13;
+	/** Frames larger than this are considered a protocol error */
+	private static final int MAX_FRAME = 256 * 1024 * 1024;
+	/** Size of the buffer used to read from each connection */
+	private static final int READ_BUFFER = 64 * 1024;
+	/** Singleton instance */
+	private static NioEndpoint instance;
+	private final Selector selector;
+	/** Operations that must be run by the selector thread (registrations and interest changes) */
+	private final ConcurrentLinkedQueue tasks = new ConcurrentLinkedQueue();
+	/** Threads that execute incoming calls */
+	private final ExecutorService executor;
+	/** Exported objects, by key */
+	private final Map exports = new ConcurrentHashMap();
+	/** Keys of exported objects, by object identity */
+	private final Map keys = new IdentityHashMap();
+	/** Remote methods of exported classes, by class and then by signature */
+	private final Map methods = new ConcurrentHashMap();
+	/** Outgoing connections, by "host:port" of the remote end-point */
+	private final Map peers = new HashMap();
+	/** All open connections */
+	private final Set connections = Collections.synchronizedSet(new HashSet());
+	private final AtomicLong lastCallId = new AtomicLong();
+	/** Number of frames sent thru memory-mapped files */
+	private final AtomicLong mappedFrames = new AtomicLong();
+	private final int connectionsPerPeer;
+	private final int connectTimeout;
+	private long lastKey = 0;
+	private String host;
+	private int port;
+
+	/**
+	 * Default constructor
+	 * @throws IOException on any error opening the selector
+	 */
+	private NioEndpoint() throws IOException {
+		this.selector = Selector.open();
+		this.connectionsPerPeer = Math.max(1, Integer.getInteger(ISystemProperties.TRANSPORT_CONNECTIONS, 1).intValue());
+		this.connectTimeout = Integer.getInteger(ISystemProperties.CONNECT_TIMEOUT, 10000).intValue();
+		final ThreadFactory factory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "NIO Call Handler");
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		final int threads = Integer.getInteger(ISystemProperties.TRANSPORT_THREADS, 0).intValue();
+		if (threads > 0) {
+			// Calls beyond the limit wait for a free thread
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue(), factory);
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+		} else {
+			this.executor = Executors.newCachedThreadPool(factory);
+		}
+		final Thread t = new Thread(this, "NIO Selector");
+		t.setDaemon(true);
+		t.start();
+	}
+	/**
+	 * Retrieves the end-point of this JVM, starting it if necessary
+	 * @return NioEndpoint
+	 * @throws IOException on any error starting the end-point
+	 */
+	static synchronized NioEndpoint getInstance() throws IOException {
+		if (instance == null) {
+			instance = new NioEndpoint();
+		}
+		return instance;
+	}
+	/**
+	 * Starts accepting connections on the given port.<BR>
+	 * Objects exported by this end-point are referenced by the address of the first port
+	 * that it listens to.
+	 * @param listenPort port number, or zero for any free port
+	 * @throws IOException on any error
+	 */
+	synchronized void listen(int listenPort) throws IOException {
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.socket().setReuseAddress(true);
+			server.socket().bind(new InetSocketAddress(listenPort));
+			server.configureBlocking(false);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		if (this.host == null) {
+			this.host = RegistryHandler.getInstance().getInetAddress().getHostAddress();
+			this.port = server.socket().getLocalPort();
+		}
+		runOnSelector(new Runnable() {
+			public void run() {
+				try {
+					server.register(selector, SelectionKey.OP_ACCEPT);
+				} catch (ClosedChannelException ignored) {
+				}
+			}
+		});
+	}
+	/**
+	 * Exports an object with the given key
+	 * @param key key
+	 * @param obj object to export
+	 * @return reference to the exported object
+	 * @throws IOException on any error
+	 */
+	synchronized NioRemoteRef export(String key, Object obj) throws IOException {
+		if (this.host == null) {
+			listen(Integer.getInteger(ISystemProperties.TRANSPORT_PORT, 0).intValue());
+		}
+		exports.put(key, obj);
+		keys.put(obj, key);
+		return new NioRemoteRef(host, port, key, getRemoteInterfaces(obj.getClass()));
+	}
+	/**
+	 * Exports an object, if it has not been exported yet
+	 * @param obj object to export
+	 * @return reference to the exported object
+	 * @throws IOException on any error
+	 */
+	synchronized NioRemoteRef export(Object obj) throws IOException {
+		final String key = (String) keys.get(obj);
+		return export((key != null) ? key : "#" + (++lastKey), obj);
+	}
+	/**
+	 * Stops accepting calls for an exported object, and forgets it
+	 * @param obj exported object
+	 * @return true if the object had been exported, false otherwise
+	 */
+	synchronized boolean unexport(Object obj) {
+		final String key = (String) keys.remove(obj);
+		if (key == null) {
+			return false;
+		}
+		exports.remove(key);
+		return true;
+	}
+	/**
+	 * Unexports an object from the end-point of this JVM, if it has been started
+	 * @param obj exported object
+	 * @return true if the object had been exported, false otherwise
+	 */
+	static boolean unexportObject(Object obj) {
+		final NioEndpoint endpoint;
+		synchronized (NioEndpoint.class) {
+			endpoint = instance;
+		}
+		return (endpoint != null) && endpoint.unexport(obj);
+	}
+	/**
+	 * Creates a proxy for a remote object
+	 * @param ref reference to the remote object
+	 * @return proxy
+	 */
+	Object newProxy(NioRemoteRef ref) {
+		ClassLoader loader = null;
+		for (int i = 0; i < ref.interfaces.length && loader == null; i++) {
+			loader = ref.interfaces[i].getClassLoader();
+		}
+		return Proxy.newProxyInstance(loader != null ? loader : getClass().getClassLoader(), ref.interfaces, ref);
+	}
+	/**
+	 * Retrieves the number of connections currently open by this end-point, including
+	 * both the connections that it has opened and the ones that it has accepted
+	 * @return integer
+	 */
+	int getConnectionCount() {
+		return connections.size();
+	}
+	/**
+	 * Retrieves the directory where the files of memory-mapped frames are created
+	 * @return directory (it may not exist yet)
+	 */
+	static File getMappedDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"), "openrds-map-" + System.getProperty("user.name"));
+	}
+	/**
+	 * Creates the directory of the memory-mapped frames, if needed, and makes sure that
+	 * only its owner may access it
+	 * @return false if that is not possible (memory-mapped frames must not be used)
+	 */
+	private static synchronized boolean prepareMappedDirectory() {
+		final File dir = getMappedDirectory();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			return false;
+		}
+		// Fails if the directory belongs to another user
+		return dir.setReadable(false, false) && dir.setReadable(true, true)
+			&& dir.setWritable(false, false) && dir.setWritable(true, true)
+			&& dir.setExecutable(false, false) && dir.setExecutable(true, true);
+	}
+	/**
+	 * Retrieves the number of frames sent by this end-point thru memory-mapped files
+	 * @return long
+	 */
+	long getMappedFrames() {
+		return mappedFrames.get();
+	}
+	/**
+	 * Closes all connections, failing the calls in progress. New connections are opened
+	 * when needed, reading again the system properties used on the connection negotiation.
+	 */
+	void closeConnections() {
+		final Object[] all = connections.toArray();
+		for (int i = 0; i < all.length; i++) {
+			((Connection) all[i]).close(new IOException("Connection closed by this end-point"));
+		}
+	}
+	/**
+	 * Calls a method of a remote object, blocking until its result arrives
+	 * @param ref remote object
+	 * @param method method to call
+	 * @param args arguments
+	 * @return method result
+	 * @throws Throwable the exception thrown by the remote method, or a RemoteException on
+	 * any communication error
+	 */
+	Object invoke(NioRemoteRef ref, Method method, Object[] args) throws Throwable {
+		final Connection conn = getConnection(ref);
+		final PendingCall call = new PendingCall(null);
+		send(conn, ref, method, args, call);
+		return receive(conn, method, call);
+	}
+	/**
+	 * Calls a method of a remote object without blocking. The listener is notified by a
+	 * call handler thread when the result arrives, so no thread waits for it meanwhile.<BR>
+	 * If the call could not even be sent, the listener is notified by the calling thread.
+	 * @param ref remote object
+	 * @param method method to call
+	 * @param args arguments
+	 * @param listener listener of the result
+	 */
+	void invokeAsync(NioRemoteRef ref, final Method method, Object[] args, final CallListener listener) {
+		final Connection conn;
+		final PendingCall call = new PendingCall(listener);
+		try {
+			conn = getConnection(ref);
+			call.onDone = new Runnable() {
+				public void run() {
+					Object result = null;
+					Throwable error = null;
+					try {
+						result = receive(conn, method, call);
+					} catch (Throwable t) {
+						error = t;
+					}
+					listener.completed(result, error);
+				}
+			};
+			send(conn, ref, method, args, call);
+		} catch (Throwable t) {
+			listener.completed(null, t);
+		}
+	}
+	/**
+	 * Retrieves the reference of a proxy created by this end-point
+	 * @param obj object
+	 * @return reference, or null if the object is not such a proxy
+	 */
+	static NioRemoteRef getRemoteRef(Object obj) {
+		if (obj != null && Proxy.isProxyClass(obj.getClass())) {
+			final Object handler = Proxy.getInvocationHandler(obj);
+			if (handler instanceof NioRemoteRef) {
+				return (NioRemoteRef) handler;
+			}
+		}
+		return null;
+	}
+	/**
+	 * Checks if a proxy references an object exported by the end-point of this JVM
+	 * @param proxy proxy
+	 * @param obj object
+	 * @return true if the proxy has been created for the exported object
+	 */
+	static boolean isProxyOf(Object proxy, Object obj) {
+		final NioRemoteRef ref = getRemoteRef(proxy);
+		final NioEndpoint endpoint;
+		synchronized (NioEndpoint.class) {
+			endpoint = instance;
+		}
+		if (ref == null || endpoint == null) {
+			return false;
+		}
+		synchronized (endpoint) {
+			final String key = (String) endpoint.keys.get(obj);
+			return key != null && ref.port == endpoint.port && ref.host.equals(endpoint.host) && ref.key.equals(key);
+		}
+	}
+	/**
+	 * Sends a call
+	 * @param conn connection to the remote end-point
+	 * @param ref remote object
+	 * @param method method to call
+	 * @param args arguments
+	 * @param call pending call that receives the response
+	 * @throws IOException if the call could not be sent
+	 */
+	private void send(Connection conn, NioRemoteRef ref, Method method, Object[] args, PendingCall call) throws IOException {
+		final long id = lastCallId.incrementAndGet();
+		final List defined = new ArrayList();
+		final FrameOutputStream frame;
+		try {
+			frame = encode(conn, REQUEST, id, new Object[] {ref.key, getSignature(method), args}, defined);
+		} catch (IOException e) {
+			throw new MarshalException("Error marshalling arguments", e);
+		}
+		final Long callId = new Long(id);
+		conn.calls.put(callId, call);
+		try {
+			conn.send(frame.toBuffer(), defined);
+		} catch (IOException e) {
+			conn.calls.remove(callId);
+			conn.close(e);
+			throw new ConnectIOException("Error sending call to " + conn, e);
+		}
+	}
+	/**
+	 * Waits for the response of a call and returns its result
+	 * @param conn connection to the remote end-point
+	 * @param method method called
+	 * @param call pending call
+	 * @return method result
+	 * @throws Throwable the exception thrown by the remote method, or a RemoteException on
+	 * any communication error
+	 */
+	private Object receive(Connection conn, Method method, PendingCall call) throws Throwable {
+		final byte[] response;
+		try {
+			response = call.await();
+		} catch (IOException e) {
+			throw new ConnectIOException("Connection to " + conn + " has been lost", e);
+		}
+		final Object body;
+		try {
+			body = decode(response, conn);
+		} catch (IOException e) {
+			throw new UnmarshalException("Error unmarshalling return", e);
+		} catch (ClassNotFoundException e) {
+			throw new UnmarshalException("Error unmarshalling return", e);
+		}
+		if ((response[0] & TYPE_MASK) == EXCEPTION) {
+			final Throwable error = (Throwable) body;
+			if (error instanceof RuntimeException || error instanceof Error) {
+				throw error;
+			}
+			final Class[] declared = method.getExceptionTypes();
+			for (int i = 0; i < declared.length; i++) {
+				if (declared[i].isInstance(error)) {
+					throw error;
+				}
+			}
+			throw new UnexpectedException("Undeclared exception thrown by " + method.getName(), (Exception) error);
+		}
+		return body;
+	}
+	/**
+	 * Selector loop
+	 */
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+				Runnable task;
+				while ((task = (Runnable) tasks.poll()) != null) {
+					task.run();
+				}
+				for (final Iterator it = selector.selectedKeys().iterator(); it.hasNext();) {
+					final SelectionKey key = (SelectionKey) it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept((ServerSocketChannel) key.channel());
+						continue;
+					}
+					final Connection conn = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							conn.onReadable();
+						}
+						if (key.isValid() && key.isWritable()) {
+							conn.onWritable();
+						}
+					} catch (IOException e) {
+						conn.close(e);
+					}
+				}
+			} catch (Exception e) {
+				// The selector must survive any error, or every connection would stop
+			}
+		}
+	}
+	/**
+	 * Accepts a new connection
+	 * @param server server channel
+	 * @throws IOException on any error
+	 */
+	private void accept(ServerSocketChannel server) throws IOException {
+		final SocketChannel channel = server.accept();
+		if (channel != null) {
+			try {
+				channel.socket().setTcpNoDelay(true);
+				channel.configureBlocking(false);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			final Connection conn = new Connection(channel, channel.socket().getRemoteSocketAddress().toString(), true);
+			conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+		}
+	}
+	/**
+	 * Gets a connection to the end-point that has exported the given object.
+	 * Calls are spread among the connections to the same end-point.
+	 * @param ref remote object
+	 * @return Connection
+	 * @throws RemoteException if it is not possible to connect
+	 */
+	private Connection getConnection(NioRemoteRef ref) throws RemoteException {
+		final String peer = ref.host + ":" + ref.port;
+		final Connection[] conns;
+		synchronized (peers) {
+			Connection[] current = (Connection[]) peers.get(peer);
+			if (current == null) {
+				current = new Connection[connectionsPerPeer];
+				peers.put(peer, current);
+			}
+			conns = current;
+		}
+		final int slot = (int) ((lastCallId.get() & Long.MAX_VALUE) % conns.length);
+		synchronized (conns) {
+			if (conns[slot] == null || conns[slot].closed) {
+				conns[slot] = connect(ref.host, ref.port, peer);
+			}
+			return conns[slot];
+		}
+	}
+	/**
+	 * Opens a new connection
+	 * @param remoteHost remote host
+	 * @param remotePort remote port
+	 * @param peer name of the remote end-point
+	 * @return Connection
+	 * @throws RemoteException if it is not possible to connect
+	 */
+	private Connection connect(String remoteHost, int remotePort, String peer) throws RemoteException {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().connect(new InetSocketAddress(remoteHost, remotePort), connectTimeout);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+			throw new ConnectException("Connection refused to end-point: " + peer, e);
+		}
+		final Connection conn = new Connection(channel, peer, false);
+		final SocketChannel registered = channel;
+		runOnSelector(new Runnable() {
+			public void run() {
+				try {
+					conn.key = registered.register(selector, SelectionKey.OP_READ, conn);
+				} catch (ClosedChannelException e) {
+					conn.close(e);
+				}
+			}
+		});
+		try {
+			conn.sendHello();
+		} catch (IOException e) {
+			conn.close(e);
+			throw new ConnectException("Connection refused to end-point: " + peer, e);
+		}
+		return conn;
+	}
+	/**
+	 * Runs an operation on the selector thread
+	 * @param task operation
+	 */
+	private void runOnSelector(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+	/**
+	 * Serializes a frame
+	 * @param conn connection where the frame will be sent
+	 * @param type frame type
+	 * @param id call id
+	 * @param body frame body
+	 * @param defined list where the codec class ids defined by the frame are added
+	 * @return serialized frame
+	 * @throws IOException on any error
+	 */
+	private FrameOutputStream encode(Connection conn, byte type, long id, Object body, List defined) throws IOException {
+		final BodyOutputStream bodyOut = new BodyOutputStream(conn);
+		final String mapped;
+		boolean done = false;
+		try {
+			final ObjectOutputStream oos = new MarshalStream(bodyOut, conn.types, defined);
+			oos.writeObject(body);
+			oos.flush();
+			mapped = bodyOut.finish();
+			done = true;
+		} finally {
+			if (!done) {
+				bodyOut.abort();
+			}
+		}
+		final int size = bodyOut.size;
+		final byte[] compressed = (mapped == null && conn.shouldCompress(size)) ? compress(bodyOut.heap) : null;
+		final FrameOutputStream out;
+		if (mapped != null) {
+			out = new FrameOutputStream(mapped.length() * 3 + 6 + FRAME_HEADER + 4);
+			out.writeHeader((byte) (type | MAPPED), id);
+		} else {
+			out = new FrameOutputStream((compressed != null ? compressed.length + 4 : size) + FRAME_HEADER + 4);
+			out.writeHeader(compressed != null ? (byte) (type | COMPRESSED) : type, id);
+		}
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(defined.size());
+		for (int i = 0; i < defined.size(); i++) {
+			final Object[] def = (Object[]) defined.get(i);
+			data.writeInt(((Integer) def[0]).intValue());
+			data.writeUTF((String) def[1]);
+		}
+		if (mapped != null) {
+			data.writeInt(size);
+			data.writeUTF(mapped);
+			data.flush();
+		} else if (compressed != null) {
+			data.writeInt(size);
+			data.write(compressed);
+			data.flush();
+		} else {
+			data.flush();
+			bodyOut.heap.writeTo(out);
+		}
+		return out;
+	}
+	/**
+	 * Maps the body of a frame written by a BodyOutputStream and deletes its file, which is
+	 * kept by the operating system until the body is not used anymore.<BR>
+	 * The frame is rejected if this side has not announced memory-mapped frames on the
+	 * connection, or if the file is not one of the files of getMappedDirectory(), so the
+	 * other side can never make this side read or delete any other file.
+	 * @param frame frame, without its length
+	 * @param conn connection where the frame has been received
+	 * @return stream that reads the body directly from the mapped file
+	 * @throws IOException on any error
+	 */
+	private static InputStream readMapped(byte[] frame, Connection conn) throws IOException {
+		if (conn.mapThreshold == 0) {
+			throw new StreamCorruptedException("Unexpected memory-mapped frame from " + conn);
+		}
+		final int start = readTypes(frame, null);
+		final DataInputStream data = new DataInputStream(new ByteArrayInputStream(frame, start, frame.length - start));
+		final int size = data.readInt();
+		final String path = data.readUTF();
+		if (size < 0) {
+			throw new StreamCorruptedException("Invalid mapped body size: " + size);
+		}
+		final File file = new File(path).getCanonicalFile();
+		final File dir = file.getParentFile();
+		if (dir == null || !dir.equals(getMappedDirectory().getCanonicalFile())
+				|| !file.getName().startsWith(MAPPED_PREFIX) || !file.getName().endsWith(MAPPED_SUFFIX)) {
+			throw new StreamCorruptedException("Invalid memory-mapped file: " + path);
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final ByteBuffer buf;
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			raf.close();
+			if (!file.delete()) {
+				file.deleteOnExit(); // Systems that do not delete mapped files
+			}
+		}
+		return new InputStream() {
+			public int read() {
+				return buf.hasRemaining() ? (buf.get() & 0xFF) : -1;
+			}
+			public int read(byte[] b, int off, int len) {
+				if (!buf.hasRemaining()) {
+					return -1;
+				}
+				len = Math.min(len, buf.remaining());
+				buf.get(b, off, len);
+				return len;
+			}
+			public int available() {
+				return buf.remaining();
+			}
+		};
+	}
+	/**
+	 * Compresses the body of a frame
+	 * @param body frame body
+	 * @return compressed body, or null if compression does not reduce its size
+	 * @throws IOException on any error
+	 */
+	private static byte[] compress(ByteArrayOutputStream body) throws IOException {
+		final long start = System.nanoTime();
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() / 2);
+			final DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, READ_BUFFER);
+			body.writeTo(out);
+			out.finish();
+			final long time = System.nanoTime() - start;
+			// The original size is sent with the compressed body
+			if (bytes.size() + 4 < body.size()) {
+				CompressionCounters.getInstance().compressed(body.size(), bytes.size() + 4, time);
+				return bytes.toByteArray();
+			}
+			CompressionCounters.getInstance().rejected(time);
+			return null;
+		} finally {
+			deflater.end();
+		}
+	}
+	/**
+	 * Decompresses the body of a frame
+	 * @param frame frame
+	 * @param offset position where the compressed body starts
+	 * @param size original size of the body
+	 * @return decompressed body
+	 * @throws IOException if the body is corrupted
+	 */
+	private static byte[] decompress(byte[] frame, int offset, int size) throws IOException {
+		if (size < 0 || size > MAX_FRAME) {
+			throw new StreamCorruptedException("Invalid compressed body size: " + size);
+		}
+		final long start = System.nanoTime();
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(frame, offset, frame.length - offset);
+			final byte[] body = new byte[size];
+			int pos = 0;
+			while (pos < size) {
+				final int count = inflater.inflate(body, pos, size - pos);
+				if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new StreamCorruptedException("Truncated compressed body");
+				}
+				pos += count;
+			}
+			CompressionCounters.getInstance().decompressed(System.nanoTime() - start);
+			return body;
+		} catch (DataFormatException e) {
+			final StreamCorruptedException error = new StreamCorruptedException("Invalid compressed body");
+			error.initCause(e);
+			throw error;
+		} finally {
+			inflater.end();
+		}
+	}
+	/**
+	 * Deserializes the body of a frame
+	 * @param frame frame, without its length
+	 * @param conn connection where the frame has been received
+	 * @return frame body
+	 * @throws IOException on any error
+	 * @throws ClassNotFoundException if the class of any object is not found
+	 */
+	private Object decode(byte[] frame, Connection conn) throws IOException, ClassNotFoundException {
+		final int start = readTypes(frame, null);
+		final InputStream in;
+		if ((frame[0] & MAPPED) != 0) {
+			in = readMapped(frame, conn);
+		} else if ((frame[0] & COMPRESSED) != 0) {
+			final int size = ByteBuffer.wrap(frame, start, 4).getInt();
+			in = new ByteArrayInputStream(decompress(frame, start + 4, size));
+		} else {
+			in = new ByteArrayInputStream(frame, start, frame.length - start);
+		}
+		final ObjectInputStream ois = new UnmarshalStream(in, conn.types);
+		return ois.readObject();
+	}
+	/**
+	 * Reads the codec class ids defined by a frame
+	 * @param frame frame, without its length
+	 * @param types where to register the ids, or null to just skip them
+	 * @return position where the frame body starts
+	 * @throws IOException if the frame is corrupted
+	 */
+	private static int readTypes(byte[] frame, CodecTypes types) throws IOException {
+		final ByteArrayInputStream in = new ByteArrayInputStream(frame, FRAME_HEADER - 4, frame.length - FRAME_HEADER + 4);
+		final DataInputStream data = new DataInputStream(in);
+		final int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			final int id = data.readInt();
+			final String name = data.readUTF();
+			if (types != null) {
+				types.define(id, name);
+			}
+		}
+		return frame.length - in.available();
+	}
+	/**
+	 * Finds a remote method of an exported object
+	 * @param cl object class
+	 * @param signature method signature
+	 * @return Method
+	 * @throws UnmarshalException if the method is not found
+	 */
+	private Method findMethod(Class cl, String signature) throws UnmarshalException {
+		Map byClass = (Map) methods.get(cl);
+		if (byClass == null) {
+			byClass = new HashMap();
+			final Class[] itfs = getRemoteInterfaces(cl);
+			for (int i = 0; i < itfs.length; i++) {
+				final Method[] all = itfs[i].getMethods();
+				for (int j = 0; j < all.length; j++) {
+					try {
+						all[j].setAccessible(true);
+					} catch (SecurityException ignored) {
+					}
+					byClass.put(getSignature(all[j]), all[j]);
+				}
+			}
+			methods.put(cl, byClass);
+		}
+		final Method method = (Method) byClass.get(signature);
+		if (method == null) {
+			throw new UnmarshalException("Unrecognized method: " + signature);
+		}
+		return method;
+	}
+	/**
+	 * Builds a string that identifies a method among the methods of an object
+	 * @param method method
+	 * @return signature
+	 */
+	private static String getSignature(Method method) {
+		final StringBuffer buf = new StringBuffer(method.getName()).append('(');
+		final Class[] params = method.getParameterTypes();
+		for (int i = 0; i < params.length; i++) {
+			if (i > 0) {
+				buf.append(',');
+			}
+			buf.append(params[i].getName());
+		}
+		return buf.append(')').toString();
+	}
+	/**
+	 * Retrieves the interfaces of a class that extend java.rmi.Remote
+	 * @param cl class
+	 * @return interfaces, most specific first
+	 */
+	private static Class[] getRemoteInterfaces(Class cl) {
+		final List list = new ArrayList();
+		for (Class c = cl; c != null; c = c.getSuperclass()) {
+			final Class[] itfs = c.getInterfaces();
+			for (int i = 0; i < itfs.length; i++) {
+				if (Remote.class.isAssignableFrom(itfs[i]) && !list.contains(itfs[i])) {
+					list.add(itfs[i]);
+				}
+			}
+		}
+		return (Class[]) list.toArray(new Class[list.size()]);
+	}
+
+	/**
+	 * A connection between two end-points
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final String name;
+		/** Calls waiting for a response on this connection, by call id */
+		private final Map calls = new ConcurrentHashMap();
+		/** Codec class ids of this connection */
+		private final CodecTypes types = new CodecTypes();
+		/** Buffers that could not be written yet, guarded by itself */
+		private final LinkedList writeQueue = new LinkedList();
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+		/** Frame being read, and how much of it has been read */
+		private byte[] frame;
+		private int framePos;
+		private SelectionKey key;
+		private volatile boolean closed = false;
+		/** Registers if this connection has been accepted (instead of opened) by this end-point */
+		private final boolean accepted;
+		/** Frames with a larger body are compressed, zero if this side does not compress */
+		private final int threshold;
+		/** Registers if the other side accepts compressed frames */
+		private volatile boolean peerInflates = false;
+		/**
+		 * Frames with a larger body are memory-mapped, zero if the other side is on another
+		 * machine or if the mapped directory is not available
+		 */
+		private final int mapThreshold;
+		/** Registers if the other side accepts memory-mapped frames */
+		private volatile boolean peerMaps = false;
+		/** Files of the memory-mapped frames sent on this connection, guarded by writeQueue */
+		private final List mappedFiles = new LinkedList();
+
+		/**
+		 * Default constructor
+		 * @param channel socket channel
+		 * @param name name used on messages
+		 * @param accepted true if the connection has been accepted by this end-point
+		 */
+		private Connection(SocketChannel channel, String name, boolean accepted) {
+			this.channel = channel;
+			this.name = name;
+			this.accepted = accepted;
+			this.threshold = Math.max(0, Integer.getInteger(ISystemProperties.COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD).intValue());
+			final int mapping = Math.max(0, Integer.getInteger(ISystemProperties.MAPPED_THRESHOLD, DEFAULT_MAPPED_THRESHOLD).intValue());
+			this.mapThreshold = (mapping > 0 && isLocal(channel.socket().getInetAddress()) && prepareMappedDirectory()) ? mapping : 0;
+			connections.add(this);
+		}
+		/**
+		 * Checks if the other side of a connection is on this machine
+		 * @param address address of the other side
+		 * @return boolean
+		 */
+		private boolean isLocal(InetAddress address) {
+			try {
+				return address.isLoopbackAddress() || address.equals(RegistryHandler.getInstance().getInetAddress());
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		/**
+		 * Checks if a frame body must be written into a memory-mapped file
+		 * @param size body size
+		 * @return boolean
+		 */
+		private boolean shouldMap(int size) {
+			return mapThreshold > 0 && size >= mapThreshold && peerMaps;
+		}
+		/**
+		 * Checks if a frame body must be compressed
+		 * @param size body size
+		 * @return boolean
+		 */
+		private boolean shouldCompress(int size) {
+			return threshold > 0 && size >= threshold && peerInflates;
+		}
+		/**
+		 * Registers the file of a memory-mapped frame that will be sent on this connection,
+		 * so it is deleted if this connection is closed before the other side reads it.
+		 * Files that have already been deleted by the other side are forgotten.
+		 * @param file file
+		 * @throws IOException if this connection is closed
+		 */
+		private void track(File file) throws IOException {
+			synchronized (writeQueue) {
+				if (closed) {
+					file.delete();
+					throw new ClosedChannelException();
+				}
+				for (final Iterator it = mappedFiles.iterator(); it.hasNext();) {
+					if (!((File) it.next()).exists()) {
+						it.remove();
+					}
+				}
+				mappedFiles.add(file);
+			}
+		}
+		/**
+		 * Tells the other side if this side accepts compressed and memory-mapped frames
+		 * @throws IOException on any error
+		 */
+		private void sendHello() throws IOException {
+			final FrameOutputStream out = new FrameOutputStream(FRAME_HEADER + 4);
+			out.writeHeader(HELLO, ((threshold > 0) ? ACCEPTS_DEFLATE : 0) | ((mapThreshold > 0) ? ACCEPTS_MAPPED : 0));
+			final DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(0); // No class ids
+			if (mapThreshold > 0) {
+				data.writeUTF(getMappedDirectory().getPath());
+			}
+			data.flush();
+			send(out.toBuffer(), Collections.EMPTY_LIST);
+		}
+		/**
+		 * Sends a frame. The caller writes it directly if nothing is waiting to be written,
+		 * otherwise the selector thread writes it when the socket is ready.
+		 * @param buf frame
+		 * @param defined codec class ids defined by the frame
+		 * @throws IOException on any error
+		 */
+		private void send(ByteBuffer buf, List defined) throws IOException {
+			synchronized (writeQueue) {
+				if (closed) {
+					throw new ClosedChannelException();
+				}
+				// From now on, any frame is sent after this one
+				types.confirm(defined);
+				if (writeQueue.isEmpty()) {
+					channel.write(buf);
+					if (!buf.hasRemaining()) {
+						return;
+					}
+				}
+				writeQueue.addLast(buf);
+				if (writeQueue.size() == 1) {
+					runOnSelector(new Runnable() {
+						public void run() {
+							if (key != null && key.isValid()) {
+								key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+							}
+						}
+					});
+				}
+			}
+		}
+		/**
+		 * Writes pending frames (called by the selector thread)
+		 * @throws IOException on any error
+		 */
+		private void onWritable() throws IOException {
+			synchronized (writeQueue) {
+				while (!writeQueue.isEmpty()) {
+					final ByteBuffer buf = (ByteBuffer) writeQueue.getFirst();
+					channel.write(buf);
+					if (buf.hasRemaining()) {
+						return;
+					}
+					writeQueue.removeFirst();
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		/**
+		 * Reads all the available data and handles complete frames (called by the selector thread)
+		 * @throws IOException on any error
+		 */
+		private void onReadable() throws IOException {
+			int read;
+			while ((read = channel.read(readBuffer)) > 0) {
+				readBuffer.flip();
+				while (true) {
+					if (frame == null) {
+						if (readBuffer.remaining() < 4) {
+							break;
+						}
+						final int length = readBuffer.getInt();
+						if (length < FRAME_HEADER || length > MAX_FRAME) {
+							throw new IOException("Invalid frame length: " + length);
+						}
+						frame = new byte[length];
+						framePos = 0;
+					}
+					final int count = Math.min(readBuffer.remaining(), frame.length - framePos);
+					readBuffer.get(frame, framePos, count);
+					framePos += count;
+					if (framePos < frame.length) {
+						break;
+					}
+					onFrame(frame);
+					frame = null;
+				}
+				readBuffer.compact();
+			}
+			if (read < 0) {
+				throw new EOFException("Connection closed by " + name);
+			}
+		}
+		/**
+		 * Handles a complete frame. Requests are executed by the call handler threads, and
+		 * responses are handed to the waiting callers, which deserialize them.
+		 * @param received frame, without its length
+		 * @throws IOException if the frame is corrupted
+		 */
+		private void onFrame(final byte[] received) throws IOException {
+			final int type = received[0] & TYPE_MASK;
+			final long id = ByteBuffer.wrap(received, 1, 8).getLong();
+			if (type == HELLO) {
+				peerInflates = (id & ACCEPTS_DEFLATE) != 0;
+				if ((id & ACCEPTS_MAPPED) != 0) {
+					// Files are only readable by the owner of the directory
+					final int start = readTypes(received, null);
+					final DataInputStream data = new DataInputStream(new ByteArrayInputStream(received, start, received.length - start));
+					peerMaps = getMappedDirectory().getPath().equals(data.readUTF());
+				}
+				if (accepted) {
+					sendHello();
+				}
+				return;
+			}
+			// Class ids must be known before any later frame is deserialized
+			readTypes(received, types);
+			if (type == REQUEST) {
+				executor.execute(new Runnable() {
+					public void run() {
+						handleCall(id, received);
+					}
+				});
+			} else {
+				final PendingCall call = (PendingCall) calls.remove(new Long(id));
+				if (call != null) {
+					call.complete(received);
+				} else if ((received[0] & MAPPED) != 0) {
+					// Nobody will read it
+					try {
+						readMapped(received, this);
+					} catch (IOException ignored) {
+					}
+				}
+			}
+		}
+		/**
+		 * Executes an incoming call and sends its response
+		 * @param id call id
+		 * @param request request frame
+		 */
+		private void handleCall(long id, byte[] request) {
+			byte type = RESULT;
+			Object result;
+			try {
+				final Object[] parts = (Object[]) decode(request, this);
+				final Object target = exports.get(parts[0]);
+				if (target == null) {
+					throw new NoSuchObjectException("No such object: " + parts[0]);
+				}
+				result = findMethod(target.getClass(), (String) parts[1]).invoke(target, (Object[]) parts[2]);
+			} catch (InvocationTargetException e) {
+				type = EXCEPTION;
+				result = e.getTargetException();
+			} catch (IOException e) {
+				type = EXCEPTION;
+				result = (e instanceof RemoteException) ? e : new UnmarshalException("Error unmarshalling arguments", e);
+			} catch (ClassNotFoundException e) {
+				type = EXCEPTION;
+				result = new UnmarshalException("Error unmarshalling arguments", e);
+			} catch (Throwable t) {
+				type = EXCEPTION;
+				result = t;
+			}
+			try {
+				List defined = new ArrayList();
+				FrameOutputStream response;
+				try {
+					response = encode(this, type, id, result, defined);
+				} catch (IOException e) {
+					defined = new ArrayList();
+					response = encode(this, EXCEPTION, id, new MarshalException("Error marshalling return", e), defined);
+				}
+				send(response.toBuffer(), defined);
+			} catch (IOException e) {
+				close(e);
+			}
+		}
+		/**
+		 * Closes this connection, failing the calls waiting for a response
+		 * @param cause cause
+		 */
+		private void close(IOException cause) {
+			synchronized (writeQueue) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				writeQueue.clear();
+				// Frames that the other side has not read yet
+				for (final Iterator it = mappedFiles.iterator(); it.hasNext();) {
+					final File file = (File) it.next();
+					if (file.exists() && !file.delete()) {
+						file.deleteOnExit();
+					}
+				}
+				mappedFiles.clear();
+			}
+			connections.remove(this);
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			for (final Iterator it = calls.values().iterator(); it.hasNext();) {
+				((PendingCall) it.next()).fail(cause);
+				it.remove();
+			}
+		}
+		/** {@inheritDoc} */
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Listener of the result of an asynchronous call (see invokeAsync())
+	 */
+	interface CallListener {
+		/**
+		 * Called when the call is completed
+		 * @param result method result (null on error)
+		 * @param error the exception thrown by the remote method, or a RemoteException on
+		 * any communication error (null on success)
+		 */
+		void completed(Object result, Throwable error);
+	}
+
+	/**
+	 * A call waiting for its response
+	 */
+	private final class PendingCall {
+		/** Listener of an asynchronous call, null if a thread waits for the response */
+		private final CallListener listener;
+		/** Task that reads the response of an asynchronous call (set before it is sent) */
+		private Runnable onDone;
+		private byte[] response;
+		private IOException failure;
+		private boolean done = false;
+		/**
+		 * Default constructor
+		 * @param listener listener of an asynchronous call (may be null)
+		 */
+		private PendingCall(CallListener listener) {
+			this.listener = listener;
+		}
+		/**
+		 * Delivers the response
+		 * @param frame response frame
+		 */
+		private void complete(byte[] frame) {
+			synchronized (this) {
+				this.response = frame;
+				this.done = true;
+				this.notifyAll();
+			}
+			finished();
+		}
+		/**
+		 * Fails the call
+		 * @param cause cause
+		 */
+		private void fail(IOException cause) {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				this.failure = cause;
+				this.done = true;
+				this.notifyAll();
+			}
+			finished();
+		}
+		/**
+		 * Hands the response of an asynchronous call to a call handler thread, since it
+		 * must not be deserialized by the selector thread
+		 */
+		private void finished() {
+			if (listener != null) {
+				executor.execute(onDone);
+			}
+		}
+		/**
+		 * Waits for the response. Like RMI calls, this can not be interrupted.
+		 * @return response frame
+		 * @throws IOException if the connection has been lost
+		 */
+		private synchronized byte[] await() throws IOException {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * Output stream that builds a frame in memory
+	 */
+	private static final class FrameOutputStream extends ByteArrayOutputStream {
+		/**
+		 * Default constructor
+		 * @param size initial buffer size
+		 */
+		private FrameOutputStream(int size) {
+			super(size);
+		}
+		/**
+		 * Writes the frame header, leaving room for the frame length
+		 * @param type frame type
+		 * @param id call id
+		 */
+		private void writeHeader(byte type, long id) {
+			count = 4;
+			write(type);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				write((int) (id >>> shift));
+			}
+		}
+		/** @return the frame, with its length, ready to be written */
+		private ByteBuffer toBuffer() {
+			final ByteBuffer buf = ByteBuffer.wrap(this.buf, 0, this.count);
+			buf.putInt(0, this.count - 4);
+			return buf;
+		}
+	}
+
+	/**
+	 * Output stream that receives the body of a frame. The body is kept in memory until it
+	 * reaches the mapped threshold of the connection, then it is written directly into a new
+	 * memory-mapped file, whose mapping grows as needed. The file is deleted by the other side
+	 * when it reads the frame, or by the connection if it is closed first.
+	 */
+	private final class BodyOutputStream extends OutputStream {
+		/** Minimum size (in bytes) of each mapping */
+		private static final int MIN_MAPPING = 1024 * 1024;
+		private final Connection conn;
+		/** Body, while it is not memory-mapped */
+		private final ByteArrayOutputStream heap = new ByteArrayOutputStream(256);
+		/** Size of the body */
+		private int size = 0;
+		/** File where the body is written, null while it is not memory-mapped */
+		private File file;
+		private RandomAccessFile raf;
+		/** Current mapping of the file, and the file position where it starts */
+		private MappedByteBuffer buf;
+		private long base;
+
+		/**
+		 * Default constructor
+		 * @param conn connection where the frame will be sent
+		 */
+		private BodyOutputStream(Connection conn) {
+			this.conn = conn;
+		}
+		/** {@inheritDoc} */
+		public void write(int b) throws IOException {
+			if (file == null) {
+				heap.write(b);
+				size++;
+				if (conn.shouldMap(size)) {
+					map();
+				}
+			} else {
+				ensure(1);
+				buf.put((byte) b);
+				size++;
+			}
+		}
+		/** {@inheritDoc} */
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (file == null) {
+				heap.write(b, off, len);
+				size += len;
+				if (conn.shouldMap(size)) {
+					map();
+				}
+			} else {
+				ensure(len);
+				buf.put(b, off, len);
+				size += len;
+			}
+		}
+		/**
+		 * Moves the body written so far into a new memory-mapped file
+		 * @throws IOException on any error
+		 */
+		private void map() throws IOException {
+			final File dir = getMappedDirectory();
+			if (!prepareMappedDirectory()) {
+				throw new IOException("Unable to create directory: " + dir);
+			}
+			file = File.createTempFile(MAPPED_PREFIX, MAPPED_SUFFIX, dir);
+			raf = new RandomAccessFile(file, "rw");
+			base = 0;
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_MAPPING, 2L * size));
+			buf.put(heap.toByteArray());
+			heap.reset();
+		}
+		/**
+		 * Maps more of the file if the current mapping has no room for some bytes
+		 * @param len number of bytes
+		 * @throws IOException on any error
+		 */
+		private void ensure(int len) throws IOException {
+			if (buf.remaining() < len) {
+				base += buf.position();
+				// Doubles the size of the file
+				final long length = Math.min(Integer.MAX_VALUE, Math.max(Math.max(MIN_MAPPING, len), base));
+				buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, base, length);
+			}
+		}
+		/**
+		 * Finishes the body
+		 * @return path of the memory-mapped file, or null if the body is in memory
+		 * @throws IOException on any error
+		 */
+		private String finish() throws IOException {
+			if (file == null) {
+				return null;
+			}
+			try {
+				raf.getChannel().truncate(size);
+			} catch (IOException e) {
+				// Systems that can not truncate a mapped file keep it bigger
+			}
+			raf.close();
+			raf = null;
+			conn.track(file);
+			mappedFrames.incrementAndGet();
+			return file.getPath();
+		}
+		/**
+		 * Deletes the memory-mapped file of a body that will not be sent
+		 */
+		private void abort() {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException ignored) {
+				}
+			}
+			if (file != null && file.exists() && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Object output stream that replaces remote objects by references, replaces objects
+	 * that have a codec by their encoding and annotates classes with their codebase
+	 */
+	private final class MarshalStream extends AnnotatedOutputStream implements CodecTypes.Output {
+		private final CodecTypes types;
+		private final List defined;
+		/**
+		 * Default constructor
+		 * @param out underlying stream
+		 * @param types codec class ids of the connection
+		 * @param defined list where the class ids defined by this stream are added
+		 * @throws IOException on any error
+		 */
+		private MarshalStream(OutputStream out, CodecTypes types, List defined) throws IOException {
+			super(out);
+			this.types = types;
+			this.defined = defined;
+			enableReplaceObject(true);
+		}
+		/** {@inheritDoc} */
+		public int getTypeId(String name) {
+			return types.getId(name, defined);
+		}
+		/** {@inheritDoc} */
+		protected Object replaceObject(Object obj) throws IOException {
+			if (obj instanceof Remote) {
+				if (Proxy.isProxyClass(obj.getClass()) && Proxy.getInvocationHandler(obj) instanceof NioRemoteRef) {
+					return Proxy.getInvocationHandler(obj);
+				}
+				return export(obj);
+			}
+			return CodecRegistry.getInstance().replace(obj);
+		}
+	}
+
+	/**
+	 * Object input stream that creates proxies for remote references and loads classes
+	 * from their codebase
+	 */
+	private final class UnmarshalStream extends AnnotatedInputStream implements CodecTypes.Input {
+		private final CodecTypes types;
+		/**
+		 * Default constructor
+		 * @param in underlying stream
+		 * @param types codec class ids of the connection
+		 * @throws IOException on any error
+		 */
+		private UnmarshalStream(InputStream in, CodecTypes types) throws IOException {
+			super(in);
+			this.types = types;
+			enableResolveObject(true);
+		}
+		/** {@inheritDoc} */
+		public String getTypeName(int id) throws IOException {
+			return types.getName(id);
+		}
+		/** {@inheritDoc} */
+		protected Object resolveObject(Object obj) throws IOException {
+			if (obj instanceof NioRemoteRef) {
+				return newProxy((NioRemoteRef) obj);
+			}
+			return obj;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * NioRemoteRef.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Reference to an object exported by a NioEndpoint.<BR>
+ * This is what travels on the wire in place of remote objects, and it is also the invocation
+ * handler of the proxies that represent them on other JVMs.
+ */
+final class NioRemoteRef implements InvocationHandler, Serializable {
+	private static final long serialVersionUID = 5262119468236154531L;
+	final String host;
+	final int port;
+	final String key;
+	final Class[] interfaces;
+
+	/**
+	 * Creates a new reference
+	 * @param host host of the endpoint that has exported the object
+	 * @param port port of the endpoint that has exported the object
+	 * @param key key of the object on its endpoint
+	 * @param interfaces remote interfaces implemented by the object
+	 */
+	NioRemoteRef(String host, int port, String key, Class[] interfaces) {
+		this.host = host;
+		this.port = port;
+		this.key = key;
+		this.interfaces = interfaces;
+	}
+	/** {@inheritDoc} */
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(args[0] != null && Proxy.isProxyClass(args[0].getClass())
+						&& this.equals(Proxy.getInvocationHandler(args[0])));
+			} else if ("hashCode".equals(name)) {
+				return new Integer(this.hashCode());
+			} else {
+				return "Proxy[" + this + "]";
+			}
+		}
+		return NioEndpoint.getInstance().invoke(this, method, args);
+	}
+	/** {@inheritDoc} */
+	public boolean equals(Object obj) {
+		if (obj instanceof NioRemoteRef) {
+			final NioRemoteRef other = (NioRemoteRef) obj;
+			return this.port == other.port && this.host.equals(other.host) && this.key.equals(other.key);
+		}
+		return false;
+	}
+	/** {@inheritDoc} */
+	public int hashCode() {
+		return this.host.hashCode() ^ this.key.hashCode() ^ this.port;
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return this.host + ":" + this.port + "/" + this.key;
+	}
+}
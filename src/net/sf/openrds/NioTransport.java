@@ -0,0 +1,91 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * NioTransport.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.rmi.AccessException;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.Hashtable;
+
+/**
+ * Transport that carries remote calls as frames over non-blocking sockets.<BR>
+ * Calls from many threads to the same JVM share a few connections (see
+ * ISystemProperties.TRANSPORT_CONNECTIONS), instead of using one connection and one thread
+ * for each call in progress.
+ * @see NioEndpoint
+ */
+final class NioTransport implements ITransport {
+	/** Key of the registry object on the endpoint that has started it */
+	static final String REGISTRY_KEY = "Registry";
+
+	/** {@inheritDoc} */
+	public Registry createLocalRegistry(int port) throws IOException {
+		final NioEndpoint endpoint = NioEndpoint.getInstance();
+		endpoint.listen(port);
+		final Registry registry = new LocalRegistry();
+		endpoint.export(REGISTRY_KEY, registry);
+		return registry;
+	}
+	/** {@inheritDoc} */
+	public Registry createRemoteRegistry(String host, int port) throws IOException {
+		return (Registry) NioEndpoint.getInstance().newProxy(new NioRemoteRef(host, port, REGISTRY_KEY, new Class[] {Registry.class}));
+	}
+
+	/**
+	 * Registry kept on the JVM that has started it.
+	 * Remote JVMs access it thru a proxy, so they receive proxies for the objects bound here.
+	 */
+	private static final class LocalRegistry implements Registry {
+		private final Hashtable binds = new Hashtable();
+		/** {@inheritDoc} */
+		public String[] list() throws RemoteException, AccessException {
+			synchronized (this.binds) {
+				return (String[]) this.binds.keySet().toArray(new String [this.binds.size()]);
+			}
+		}
+		/** {@inheritDoc} */
+		public void unbind(String name) throws RemoteException, NotBoundException, AccessException {
+			if (this.binds.remove(name) == null) {
+				throw new NotBoundException(name + " not bound");
+			}
+		}
+		/** {@inheritDoc} */
+		public Remote lookup(String name) throws RemoteException, NotBoundException, AccessException {
+			final Remote obj = (Remote) this.binds.get(name);
+			if (obj == null) {
+				throw new NotBoundException(name + " not bound");
+			}
+			return obj;
+		}
+		/** {@inheritDoc} */
+		public void bind(String name, Remote obj) throws RemoteException, AlreadyBoundException, AccessException {
+			synchronized (this.binds) {
+				if (this.binds.containsKey(name)) {
+					throw new AlreadyBoundException(name + " already bound");
+				}
+				this.binds.put(name, obj);
+			}
+		}
+		/** {@inheritDoc} */
+		public void rebind(String name, Remote obj) throws RemoteException, AccessException {
+			this.binds.put(name, obj);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * NodeLoad.java
+ */
+
+package net.sf.openrds;
+
+/**
+ * Immutable snapshot of the load that the main node has put on a process node.<BR>
+ * Load changes create a new snapshot, which is atomically swapped on the node reference
+ * (see RemoteNodeRef.reserve() and RemoteNodeRef.release()), so the three counters are
+ * always consistent with each other.
+ */
+final class NodeLoad {
+	/** Load of a node that is not processing anything */
+	static final NodeLoad IDLE = new NodeLoad(0, 0, 0);
+	/** Quantity of requisitions beeing processed */
+	final int qtyReqs;
+	/** Total quantity of clock factors beeing processed */
+	final int usedClockFactor;
+	/** Total quantity of memory factors beeing processed */
+	final int usedMemFactor;
+
+	/**
+	 * Default Constructor.
+	 * @param qtyReqs quantity of requisitions beeing processed
+	 * @param usedClockFactor total quantity of clock factors beeing processed
+	 * @param usedMemFactor total quantity of memory factors beeing processed
+	 */
+	private NodeLoad(int qtyReqs, int usedClockFactor, int usedMemFactor) {
+		this.qtyReqs = qtyReqs;
+		this.usedClockFactor = usedClockFactor;
+		this.usedMemFactor = usedMemFactor;
+	}
+	/**
+	 * Creates a new snapshot with the load of one more requisition
+	 * @param clock clock factor of the requisition
+	 * @param mem memory factor of the requisition
+	 * @return NodeLoad
+	 */
+	NodeLoad add(int clock, int mem) {
+		return new NodeLoad(qtyReqs + 1, usedClockFactor + clock, usedMemFactor + mem);
+	}
+	/**
+	 * Creates a new snapshot without the load of a requisition
+	 * @param clock clock factor of the requisition
+	 * @param mem memory factor of the requisition
+	 * @return NodeLoad
+	 */
+	NodeLoad subtract(int clock, int mem) {
+		if (qtyReqs == 1 && usedClockFactor == clock && usedMemFactor == mem) {
+			return IDLE;
+		}
+		return new NodeLoad(qtyReqs - 1, usedClockFactor - clock, usedMemFactor - mem);
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "[reqs=" + qtyReqs + ", clock=" + usedClockFactor + ", mem=" + usedMemFactor + "]";
+	}
+}
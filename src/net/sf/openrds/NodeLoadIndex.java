@@ -0,0 +1,351 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ *
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * NodeLoadIndex.java
+ */
+
+package net.sf.openrds;
+
+import java.util.Comparator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps process node references sorted by load, so the best node to process a
+ * requisition can be chosen in O(log n), no matter how many nodes are controlled.<BR>
+ * A node is a valid candidate for a requisition if it is not processing anything or if
+ * none of the factors considered by the requisition has exceeded its maximum value.
+ * Since that depends on which factors are considered, each ordering is kept separately
+ * for every set of valid candidates:
+ * <li>by quantity of requisitions: all nodes, clock candidates and memory candidates</li>
+ * <li>by used clock: clock candidates and clock-and-memory candidates</li>
+ * <li>by used memory: memory candidates and clock-and-memory candidates</li>
+ * Load changes must always be done thru this class. They are atomically applied to the node
+ * reference without locking the index, and the node is just marked as changed. Changed nodes
+ * are re-sorted by the next thread that needs the index, using a consistent snapshot of
+ * their load.<BR>
+ * Threads waiting for a node to be available (see waitBestNodeFor()) are notified whenever
+ * a node is added to or removed from this index, and whenever load is released.
+ */
+final class NodeLoadIndex {
+	/** Orders by quantity of requisitions, then clock, memory, used clock and used memory */
+	private static final Comparator QTY_ORDER	= new QtyComparator();
+	/** Orders by used clock, then declared clock */
+	private static final Comparator CLOCK_ORDER	= new ClockComparator();
+	/** Orders by used memory, then declared memory */
+	private static final Comparator MEM_ORDER	= new MemComparator();
+
+	private final SortedSet qtyAll		= new TreeSet(QTY_ORDER);
+	private final SortedSet qtyClock	= new TreeSet(QTY_ORDER);
+	private final SortedSet qtyMem		= new TreeSet(QTY_ORDER);
+	private final SortedSet clockClock	= new TreeSet(CLOCK_ORDER);
+	private final SortedSet clockBoth	= new TreeSet(CLOCK_ORDER);
+	private final SortedSet memMem		= new TreeSet(MEM_ORDER);
+	private final SortedSet memBoth		= new TreeSet(MEM_ORDER);
+	/** Nodes whose load has changed since they were indexed */
+	private final ConcurrentLinkedQueue changed	= new ConcurrentLinkedQueue();
+	/** Number of threads waiting on waitBestNodeFor() */
+	private final AtomicInteger waiters			= new AtomicInteger();
+
+	/**
+	 * Adds a node to this index
+	 * @param ref node reference
+	 */
+	public synchronized void add(RemoteNodeRef ref) {
+		unindex(ref);
+		// The node may be marked as changed on the index it was moved from
+		ref.dirty.set(false);
+		index(ref);
+		notifyAll();
+	}
+	/**
+	 * Removes a node from this index
+	 * @param ref node reference
+	 */
+	public synchronized void remove(RemoteNodeRef ref) {
+		unindex(ref);
+		notifyAll();
+	}
+	/**
+	 * Checks if this index has any node
+	 * @return true if there is no node in this index
+	 */
+	public synchronized boolean isEmpty() {
+		return qtyAll.isEmpty();
+	}
+	/**
+	 * Waits until there is a node in this index, or until the timeout is reached
+	 * @param timeout maximum time to wait (in millis)
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public synchronized void waitNodes(long timeout) throws InterruptedException {
+		if (qtyAll.isEmpty()) {
+			wait(timeout);
+		}
+	}
+	/**
+	 * Checks how many nodes are in this index
+	 * @return number of nodes
+	 */
+	public synchronized int size() {
+		return qtyAll.size();
+	}
+	/**
+	 * Adds the load of a requisition to a node
+	 * @param ref node reference
+	 * @param clock clock factor of the requisition
+	 * @param mem memory factor of the requisition
+	 */
+	public void reserve(RemoteNodeRef ref, int clock, int mem) {
+		ref.reserve(clock, mem);
+		markChanged(ref);
+	}
+	/**
+	 * Removes the load of a requisition from a node
+	 * @param ref node reference
+	 * @param clock clock factor of the requisition
+	 * @param mem memory factor of the requisition
+	 */
+	public void release(RemoteNodeRef ref, int clock, int mem) {
+		ref.release(clock, mem);
+		markChanged(ref);
+		if (waiters.get() > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+	/**
+	 * Chooses the best node to process a requisition
+	 * @param req requisition
+	 * @return best node to process it, or null if none is available
+	 * @throws NoNodesAvailableException if there are no nodes available
+	 */
+	public synchronized RemoteNodeRef chooseBestNodeFor(IndivisibleRequisition req) throws NoNodesAvailableException {
+		refresh();
+		if (qtyAll.isEmpty()) {
+			throw new NoNodesAvailableException("No nodes available to process the requisition");
+		}
+		final boolean considerClock	= (req.getProcessingFactor() > 0);
+		final boolean considerMem	= (req.getMemoryFactor() > 0);
+		if (considerClock && considerMem) {
+			final RemoteNodeRef lowestClockUse	= first(clockBoth);
+			final RemoteNodeRef lowestMemUse	= first(memBoth);
+			if (lowestClockUse == null) {
+				return null; // Not a single node is valid
+			}
+			return (lowestClockUse.indexed.qtyReqs <= lowestMemUse.indexed.qtyReqs) ? lowestClockUse : lowestMemUse;
+		} else if (considerClock) {
+			final RemoteNodeRef lowestClockUse	= first(clockClock);
+			final RemoteNodeRef lowestQtyReq	= first(qtyClock);
+			if (lowestClockUse == null) {
+				return null; // Not a single node is valid
+			}
+			if ((lowestQtyReq != lowestClockUse) && isSmallDifference(lowestQtyReq.indexed.usedClockFactor, lowestClockUse.indexed.usedClockFactor, req.getProcessingFactor())) {
+				return lowestQtyReq; // If there is just a small factor difference, use lowestQtyReq instead
+			}
+			return lowestClockUse;
+		} else if (considerMem) {
+			final RemoteNodeRef lowestMemUse	= first(memMem);
+			final RemoteNodeRef lowestQtyReq	= first(qtyMem);
+			if (lowestMemUse == null) {
+				return null; // Not a single node is valid
+			}
+			if ((lowestQtyReq != lowestMemUse) && isSmallDifference(lowestQtyReq.indexed.usedMemFactor, lowestMemUse.indexed.usedMemFactor, req.getMemoryFactor())) {
+				return lowestQtyReq; // If there is just a small factor difference, use lowestQtyReq instead
+			}
+			return lowestMemUse;
+		} else { // No factors, every node is valid
+			return (RemoteNodeRef) qtyAll.first();
+		}
+	}
+	/**
+	 * Chooses the best node to process a requisition. If all nodes are busy, waits until
+	 * load is released or the nodes in this index change, and then tries again.
+	 * @param req requisition
+	 * @param timeout maximum time to wait (in millis), or zero to wait forever
+	 * @return best node to process it, or null if none is available after waiting
+	 * @throws NoNodesAvailableException if there are no nodes available
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public synchronized RemoteNodeRef waitBestNodeFor(IndivisibleRequisition req, long timeout) throws NoNodesAvailableException, InterruptedException {
+		// We must be counted as a waiter before looking at the nodes, otherwise a release
+		// could happen between our choice and wait() without notifying us
+		waiters.incrementAndGet();
+		try {
+			RemoteNodeRef best = chooseBestNodeFor(req);
+			if (best == null) {
+				wait(timeout);
+				best = chooseBestNodeFor(req);
+			}
+			return best;
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+	/**
+	 * Checks if a node would be a valid candidate for a requisition, with the given load
+	 * @param ref node reference
+	 * @param load node load
+	 * @param req requisition
+	 * @return true if the node is not processing anything, or if none of the factors
+	 * considered by the requisition has exceeded its maximum value
+	 */
+	static boolean isValidFor(RemoteNodeRef ref, NodeLoad load, IndivisibleRequisition req) {
+		return (load.qtyReqs == 0)
+			|| ((req.getProcessingFactor() <= 0 || load.usedClockFactor < ref.clock)
+				&& (req.getMemoryFactor() <= 0 || load.usedMemFactor < ref.mem));
+	}
+	/**
+	 * Checks if the factor difference beeing considered is small between the node with lowest
+	 * quantity of requisitions and the best candidate
+	 * @param lowestQtyFactor lowestQtyFactor
+	 * @param bestCandidateFactor bestCandidateFactor
+	 * @param requisitionFactor requisitionFactor
+	 * @return boolean
+	 */
+	private static boolean isSmallDifference(int lowestQtyFactor, int bestCandidateFactor, int requisitionFactor) {
+		return (lowestQtyFactor - bestCandidateFactor) < (requisitionFactor / 10D);
+	}
+	/**
+	 * Retrieves the first element of a sorted set
+	 * @param set sorted set
+	 * @return first element or null if the set is empty
+	 */
+	private static RemoteNodeRef first(SortedSet set) {
+		return set.isEmpty() ? null : (RemoteNodeRef) set.first();
+	}
+	/**
+	 * Marks a node as changed, so it will be re-sorted by the next thread using the index
+	 * @param ref node reference
+	 */
+	private void markChanged(RemoteNodeRef ref) {
+		if (ref.dirty.compareAndSet(false, true)) {
+			changed.offer(ref);
+		}
+	}
+	/**
+	 * Re-sorts all nodes whose load has changed
+	 */
+	private void refresh() {
+		RemoteNodeRef ref;
+		while ((ref = (RemoteNodeRef) changed.poll()) != null) {
+			// Clears the flag before reading the load, so later changes are never missed
+			ref.dirty.set(false);
+			if (unindex(ref)) {
+				index(ref);
+			}
+		}
+	}
+	/**
+	 * Removes a node from all sorted sets
+	 * @param ref node reference
+	 * @return true if the node was indexed
+	 */
+	private boolean unindex(RemoteNodeRef ref) {
+		if (!qtyAll.remove(ref)) {
+			return false;
+		}
+		qtyClock.remove(ref);
+		qtyMem.remove(ref);
+		clockClock.remove(ref);
+		clockBoth.remove(ref);
+		memMem.remove(ref);
+		memBoth.remove(ref);
+		return true;
+	}
+	/**
+	 * Takes a snapshot of the current node load and puts it on the sorted sets it is a
+	 * valid candidate for.
+	 * @param ref node reference
+	 */
+	private void index(RemoteNodeRef ref) {
+		final NodeLoad load		= ref.getLoad();
+		ref.indexed				= load;
+		// A node that is not processing anything is always a valid candidate
+		final boolean idle		= (load.qtyReqs == 0);
+		final boolean clockOk	= idle || load.usedClockFactor < ref.clock;
+		final boolean memOk		= idle || load.usedMemFactor < ref.mem;
+		qtyAll.add(ref);
+		if (clockOk) {
+			qtyClock.add(ref);
+			clockClock.add(ref);
+		}
+		if (memOk) {
+			qtyMem.add(ref);
+			memMem.add(ref);
+		}
+		if (idle || (clockOk && memOk)) {
+			clockBoth.add(ref);
+			memBoth.add(ref);
+		}
+	}
+
+	/**
+	 * Orders nodes by the number of requisitions being processed. If the number of
+	 * requistions is the same, it will then take the decision looking for the given
+	 * factors in order: clock, memory, usedClock, usedMemory.
+	 */
+	private static final class QtyComparator implements Comparator {
+		/** {@inheritDoc} */
+		public int compare(Object o1, Object o2) {
+			final RemoteNodeRef n1 = (RemoteNodeRef) o1;
+			final RemoteNodeRef n2 = (RemoteNodeRef) o2;
+			if (n1.indexed.qtyReqs != n2.indexed.qtyReqs) {
+				return (n1.indexed.qtyReqs < n2.indexed.qtyReqs) ? -1 : 1;
+			} else if (n1.clock != n2.clock) {
+				return (n1.clock > n2.clock) ? -1 : 1;
+			} else if (n1.mem != n2.mem) {
+				return (n1.mem > n2.mem) ? -1 : 1;
+			} else if (n1.indexed.usedClockFactor != n2.indexed.usedClockFactor) {
+				return (n1.indexed.usedClockFactor < n2.indexed.usedClockFactor) ? -1 : 1;
+			} else if (n1.indexed.usedMemFactor != n2.indexed.usedMemFactor) {
+				return (n1.indexed.usedMemFactor < n2.indexed.usedMemFactor) ? -1 : 1;
+			}
+			return n1.name.compareTo(n2.name);
+		}
+	}
+	/**
+	 * Orders nodes by used clock factor, then by declared clock (higher first)
+	 */
+	private static final class ClockComparator implements Comparator {
+		/** {@inheritDoc} */
+		public int compare(Object o1, Object o2) {
+			final RemoteNodeRef n1 = (RemoteNodeRef) o1;
+			final RemoteNodeRef n2 = (RemoteNodeRef) o2;
+			if (n1.indexed.usedClockFactor != n2.indexed.usedClockFactor) {
+				return (n1.indexed.usedClockFactor < n2.indexed.usedClockFactor) ? -1 : 1;
+			} else if (n1.clock != n2.clock) {
+				return (n1.clock > n2.clock) ? -1 : 1;
+			}
+			return n1.name.compareTo(n2.name);
+		}
+	}
+	/**
+	 * Orders nodes by used memory factor, then by declared memory (higher first)
+	 */
+	private static final class MemComparator implements Comparator {
+		/** {@inheritDoc} */
+		public int compare(Object o1, Object o2) {
+			final RemoteNodeRef n1 = (RemoteNodeRef) o1;
+			final RemoteNodeRef n2 = (RemoteNodeRef) o2;
+			if (n1.indexed.usedMemFactor != n2.indexed.usedMemFactor) {
+				return (n1.indexed.usedMemFactor < n2.indexed.usedMemFactor) ? -1 : 1;
+			} else if (n1.mem != n2.mem) {
+				return (n1.mem > n2.mem) ? -1 : 1;
+			}
+			return n1.name.compareTo(n2.name);
+		}
+	}
+}
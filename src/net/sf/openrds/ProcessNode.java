@@ -21,14 +21,23 @@
 
 package net.sf.openrds;
 
+import java.lang.ref.WeakReference;
 import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 
 /**
  * Represents a node with the ability of processing a requisition on it's own process.
  * @author Rodrigo
  */
-public final class ProcessNode extends Node implements IProcessNode {
+public final class ProcessNode extends Node implements IBatchProcessNode {
+	/**
+	 * Process nodes of this JVM that have not been finished, by name. They are weakly
+	 * referenced, so nodes that are never finished can still be collected.
+	 */
+	private static final Map LOCAL_NODES = new HashMap();
 	/** Register if this node is active */
 	private boolean active = true;
 	/** Tells if this node has been registered at startup or not */
@@ -37,6 +46,8 @@ public final class ProcessNode extends Node implements IProcessNode {
 	private int lastIncommingRequest = 0;
 	/** Connection integrity handler for this node */
 	private ConnectionIntegrityHandler connectionHandler;
+	/** Threads that take requisitions from the main node, when in pull mode */
+	private RequisitionPuller[] pullers;
 	
 	/**
 	 * Default Constructor.
@@ -47,6 +58,25 @@ public final class ProcessNode extends Node implements IProcessNode {
 	 */
 	public ProcessNode(String name, int clock, int memory) throws RemoteException {
 		super(name, clock, memory);
+		synchronized (LOCAL_NODES) {
+			for (final Iterator it = LOCAL_NODES.values().iterator(); it.hasNext();) {
+				if (((WeakReference) it.next()).get() == null) {
+					it.remove();
+				}
+			}
+			LOCAL_NODES.put(name, new WeakReference(this));
+		}
+	}
+	/**
+	 * Retrieves a process node of this JVM that has not been finished
+	 * @param name node name
+	 * @return process node, or null if there is no such node on this JVM
+	 */
+	static ProcessNode getLocalNode(String name) {
+		synchronized (LOCAL_NODES) {
+			final WeakReference ref = (WeakReference) LOCAL_NODES.get(name);
+			return (ref != null) ? (ProcessNode) ref.get() : null;
+		}
 	}
 	/** {@inheritDoc} */
 	public Object processRequisition(final Requisition requisition) throws RemoteException {
@@ -70,14 +100,41 @@ public final class ProcessNode extends Node implements IProcessNode {
 		}
 	}
 	/** {@inheritDoc} */
+	public RequisitionResult[] processRequisitions(Requisition[] requisitions) throws RemoteException {
+		final RequisitionResult[] results = new RequisitionResult[requisitions.length];
+		for (int i = 0; i < requisitions.length; i++) {
+			try {
+				results[i] = new RequisitionResult(null, processRequisition(requisitions[i]), null);
+			} catch (ProcessingException e) {
+				results[i] = new RequisitionResult(null, null, e);
+			}
+		}
+		return results;
+	}
+	/** {@inheritDoc} */
 	public void finish() throws RemoteException {
 		if (active) {
 			active = false;
+			synchronized (LOCAL_NODES) {
+				if (getLocalNode(getNodeName()) == this) {
+					LOCAL_NODES.remove(getNodeName());
+				}
+			}
 			if (this.connectionHandler != null) {
 				this.connectionHandler.interrupt(); // Stops the integrity handler
 				this.connectionHandler = null;
 			}
-			RegistryHandler.getInstance().unregisterNode(this);
+			if (this.pullers != null) {
+				for (int i = 0; i < this.pullers.length; i++) {
+					this.pullers[i].interrupt(); // Stops the pullers
+				}
+				this.pullers = null;
+			}
+			try {
+				RegistryHandler.getInstance().unregisterNode(this);
+			} finally {
+				NioEndpoint.unexportObject(this);
+			}
 			getEventDispacher().nodeFinished(this); // Event
 		}
 	}
@@ -92,6 +149,15 @@ public final class ProcessNode extends Node implements IProcessNode {
 			// Starts the thread
 			this.connectionHandler.start();
 		}
+		if (this.pullers == null && "true".equals(System.getProperty(ISystemProperties.PULL_MODE))) {
+			final String threads = System.getProperty(ISystemProperties.PULL_THREADS);
+			final String batch = System.getProperty(ISystemProperties.PULL_BATCH);
+			this.pullers = new RequisitionPuller[(threads != null) ? Math.max(1, Integer.parseInt(threads)) : Runtime.getRuntime().availableProcessors()];
+			for (int i = 0; i < this.pullers.length; i++) {
+				this.pullers[i] = new RequisitionPuller(this, (batch != null) ? Math.max(1, Integer.parseInt(batch)) : 4);
+				this.pullers[i].start();
+			}
+		}
 	}
 	/**
 	 * Marks this node as already registered on main node (during startup)
@@ -225,4 +291,88 @@ public final class ProcessNode extends Node implements IProcessNode {
 			}
 		}
 	}
+	
+	/**
+	 * This thread takes requisitions from the main node when this node works in pull mode,
+	 * processes them and sends the results back (see ISystemProperties.PULL_MODE).
+	 * Each puller processes one requisition at a time, so it only takes more requisitions
+	 * when it is free.
+	 */
+	private static final class RequisitionPuller extends Thread {
+		/** Maximum time (in millis) to wait for requisitions on each call */
+		private static final long PULL_TIMEOUT = 1000;
+		/** Time to wait after a communication error */
+		private static final long RETRY_INTERVAL = 1000;
+		/** Node beeing handled */
+		private final ProcessNode node;
+		/** Maximum number of requisitions taken at once */
+		private final int batchSize;
+		
+		/**
+		 * Creates a new puller for the given node.
+		 * @param node process node
+		 * @param batchSize maximum number of requisitions taken at once
+		 */
+		RequisitionPuller(ProcessNode node, int batchSize) {
+			super("Requisition puller for " + node);
+			this.setDaemon(true);
+			this.node = node;
+			this.batchSize = batchSize;
+		}
+		/** {@inheritDoc} */
+		public void run() {
+			while (node.active) {
+				try {
+					final IMainNode mainNode = RegistryHandler.getInstance().getMainNode();
+					final PulledRequisition[] pulled = mainNode.pullRequisitions(node.getNodeName(), batchSize, PULL_TIMEOUT);
+					if (pulled.length > 0) {
+						final RequisitionResult[] results = new RequisitionResult[pulled.length];
+						for (int i = 0; i < pulled.length; i++) {
+							results[i] = process(pulled[i]);
+						}
+						pushResults(results);
+					}
+				} catch (Exception e) {
+					// Main node is unreachable, or this node is not controlled (yet)
+					pause();
+				}
+			}
+		}
+		/**
+		 * Processes a pulled requisition
+		 * @param pulled pulled requisition
+		 * @return result
+		 */
+		private RequisitionResult process(PulledRequisition pulled) {
+			try {
+				return new RequisitionResult(pulled.getTicket(), node.processRequisition(pulled.getRequisition()), null);
+			} catch (RemoteException e) {
+				return new RequisitionResult(pulled.getTicket(), null, e);
+			}
+		}
+		/**
+		 * Sends results to the main node, retrying on communication errors, since the
+		 * main node would not know about them otherwise
+		 * @param results results
+		 */
+		private void pushResults(RequisitionResult[] results) {
+			while (node.active) {
+				try {
+					RegistryHandler.getInstance().getMainNode().pushResults(node.getNodeName(), results);
+					return;
+				} catch (Exception e) {
+					pause();
+				}
+			}
+		}
+		/**
+		 * Waits a while after a communication error
+		 */
+		private void pause() {
+			try {
+				Thread.sleep(RETRY_INTERVAL);
+			} catch (InterruptedException ignored) {
+			}
+		}
+	}
 }
@@ -0,0 +1,48 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * PulledRequisition.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+
+/**
+ * A requisition taken from the main node by a process node that works in pull mode
+ * (see IMainNode.pullRequisitions()). The ticket identifies the requisition when its
+ * result is sent back to the main node.
+ * @since OpenRDS 1.3
+ */
+public final class PulledRequisition implements Serializable {
+	private static final long serialVersionUID = -2834719052256390417L;
+	private final RequisitionTicket ticket;
+	private final Requisition requisition;
+
+	/**
+	 * Creates a new pulled requisition
+	 * @param ticket ticket that identifies the requisition
+	 * @param requisition requisition to be processed
+	 */
+	PulledRequisition(RequisitionTicket ticket, Requisition requisition) {
+		this.ticket = ticket;
+		this.requisition = requisition;
+	}
+	/** @return ticket that identifies the requisition */
+	public RequisitionTicket getTicket() {
+		return ticket;
+	}
+	/** @return requisition to be processed */
+	public Requisition getRequisition() {
+		return requisition;
+	}
+}
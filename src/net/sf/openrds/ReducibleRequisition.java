@@ -0,0 +1,72 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ReducibleRequisition.java
+ */
+
+package net.sf.openrds;
+
+
+/**
+ * Represents a divisible requisition whose sub-results are folded into a single
+ * accumulator as soon as each sub-requisition completes, instead of being joined only
+ * after all of them have been processed.<BR>
+ * The main node never holds more than the accumulator and the sub-results that are beeing
+ * folded, and the reduction overlaps with the processing of the remaining sub-requisitions.<BR>
+ * Sub-results are accumulated in the order they complete, which is not the order of
+ * getSubRequisitions(), so accumulate() must give the same final result in any order.
+ * Calls to accumulate() never happen at the same time for the same requisition.
+ * @since OpenRDS 1.3
+ */
+public abstract class ReducibleRequisition extends DivisibleRequisition {
+	/**
+	 * Creates the initial (empty) accumulator of a reduction
+	 * @return accumulator
+	 */
+	public abstract Object createAccumulator();
+	/**
+	 * Folds a sub-result into the accumulator
+	 * @param accumulator current accumulator
+	 * @param subResult result of a sub-requisition
+	 * @return updated accumulator (may be the same object)
+	 * @throws ProcessingException if the sub-result can not be accumulated
+	 */
+	public abstract Object accumulate(Object accumulator, Object subResult) throws ProcessingException;
+	/**
+	 * Transforms the accumulator into the consolidated result.
+	 * The default behavior is to return the accumulator itself.
+	 * @param accumulator accumulator, after all sub-results have been folded
+	 * @return consolidated result (this will be the result returned by the MainNode)
+	 * @throws ProcessingException if the result can not be built
+	 */
+	public Object finish(Object accumulator) throws ProcessingException {
+		return accumulator;
+	}
+	/**
+	 * Folds all sub-results at once, in array order. This is only used when the requisition
+	 * is not processed by a main node that reduces it incrementally.
+	 * @param subResults results from all sub-requisitions
+	 * @return consolidated result
+	 * @throws IllegalStateException if accumulate() or finish() fail
+	 */
+	public Object getResponse(Object[] subResults) {
+		try {
+			Object accumulator = createAccumulator();
+			for (int i = 0; i < subResults.length; i++) {
+				accumulator = accumulate(accumulator, subResults[i]);
+			}
+			return finish(accumulator);
+		} catch (ProcessingException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+}
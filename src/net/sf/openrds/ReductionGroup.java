@@ -0,0 +1,52 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ReductionGroup.java
+ */
+
+package net.sf.openrds;
+
+
+/**
+ * Sub-requisition used by the tree reduction of a divisible requisition (see
+ * DivisibleRequisition.getReduceFanIn()).<BR>
+ * A group joins a number of consecutive partial results, calling
+ * DivisibleRequisition.getResponse() on the process node.
+ */
+final class ReductionGroup extends SubRequisition {
+	/** serialVersionUID */
+	private static final long serialVersionUID = -2937184450125360217L;
+	private final DivisibleRequisition divisible;
+	/** Partial results to be joined */
+	private final Object[] partials;
+	private final int priority;
+
+	/**
+	 * Creates a group that joins partial results
+	 * @param divisible requisition that joins the results
+	 * @param partials consecutive partial results
+	 * @param priority priority of the group
+	 */
+	ReductionGroup(DivisibleRequisition divisible, Object[] partials, int priority) {
+		this.divisible = divisible;
+		this.partials = partials;
+		this.priority = priority;
+	}
+	/** {@inheritDoc} */
+	public Object process() throws ProcessingException {
+		return divisible.getResponse(partials);
+	}
+	/** {@inheritDoc} */
+	public int getPriority() {
+		return priority;
+	}
+}
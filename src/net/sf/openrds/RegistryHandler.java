@@ -22,12 +22,7 @@ package net.sf.openrds;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.net.UnknownHostException;
 import java.rmi.AccessException;
 import java.rmi.AlreadyBoundException;
 import java.rmi.NotBoundException;
@@ -57,6 +52,8 @@ public final class RegistryHandler {
 	private boolean initialized;
 	/** IP Address end-point */
 	private InetAddress inetAddress;
+	/** Transport used to create the registry */
+	private ITransport transport;
 	
 	/** Private constructor to ensure singleton instance */
 	private RegistryHandler() {
@@ -84,7 +81,7 @@ public final class RegistryHandler {
 	 */
 	private synchronized void bindInetAddress() throws IOException {
 		if (inetAddress == null) {
-			setRmiTimeout();
+			setRmiSocketFactory();
 			final String baseIp = System.getProperty(ISystemProperties.BASE_IP);
 			final Enumeration itfs = NetworkInterface.getNetworkInterfaces();
 			InetAddress candidate = null;
@@ -122,14 +119,13 @@ public final class RegistryHandler {
 	
 	/**
 	 * Overrides default RMISocketFactory with a socket factory that implements
-	 * socket connect timeouts. This prevents RMI calls from taking a long time
-	 * to fail when a node crashes.
+	 * socket connect timeouts and the socket options given by the system properties.
+	 * This prevents RMI calls from taking a long time to fail when a node crashes.
+	 * @see TunedSocketFactory
 	 */
-	private void setRmiTimeout() {
+	private void setRmiSocketFactory() {
 		try {
-			final String prop = System.getProperty(ISystemProperties.CONNECT_TIMEOUT);
-			final int timeout = (prop != null) ? Integer.parseInt(prop) : 10000; // Default is 10000
-			RMISocketFactory.setSocketFactory(new TimeoutSocketFactory(timeout));
+			RMISocketFactory.setSocketFactory(new TunedSocketFactory());
 		} catch (Exception e) {
 		}
 	}
@@ -171,7 +167,7 @@ public final class RegistryHandler {
 		this.initialized = true;
 		this.getInetAddress(); // Ensures that InetAddress has been set
 		if (registry == null && registryPort != -1) {
-			registry = new LocalRegistryHandler(registryPort);
+			registry = getTransport().createLocalRegistry(registryPort);
 		}
 		if (httpServer == null && httpPort != -1) {
 			httpServer = new SimpleRmiHttpServer(httpPort);
@@ -198,7 +194,7 @@ public final class RegistryHandler {
 			System.setProperty("java.rmi.server.codebase", "http://" + remoteHost + ":" + httpPort + "/");
 		}
 		if (registry == null) {
-			registry = new RemoteRegistryHandler(remoteHost, registryPort);
+			registry = getTransport().createRemoteRegistry(remoteHost, registryPort);
 			if (System.getSecurityManager() == null) {
 				System.setSecurityManager(new NoSecurity());
 			}
@@ -333,6 +329,30 @@ public final class RegistryHandler {
 		}
 		return (IMainNode) this.registry.lookup("MainNode");
 	}
+	/**
+	 * Retrieves the transport selected by the system property ISystemProperties.TRANSPORT
+	 * @return ITransport
+	 * @throws IOException if the transport could not be created
+	 */
+	private ITransport getTransport() throws IOException {
+		if (transport == null) {
+			final String prop = System.getProperty(ISystemProperties.TRANSPORT, "rmi");
+			if ("rmi".equals(prop)) {
+				transport = new RmiTransport();
+			} else if ("nio".equals(prop)) {
+				transport = new NioTransport();
+			} else {
+				try {
+					transport = (ITransport) Class.forName(prop).newInstance();
+				} catch (Exception e) {
+					final IOException error = new IOException("Invalid transport: " + prop);
+					error.initCause(e);
+					throw error;
+				}
+			}
+		}
+		return transport;
+	}
 	/**
 	 * Retrieves the singleton instance of this class
 	 * @return RegistryHandler singleton
@@ -340,53 +360,4 @@ public final class RegistryHandler {
 	public static RegistryHandler getInstance() {
 		return INSTANCE;
 	}
-	/**
-	 * RMISocketFactory that implements connect timeouts
-	 * @author Rodrigo
-	 */
-	private static final class TimeoutSocketFactory extends RMISocketFactory {
-		private final int connectTimeout;
-		/**
-		 * Default Constructor.
-		 * @param connectTimeout connect timeout in millis
-		 */
-		private TimeoutSocketFactory(int connectTimeout) {
-			this.connectTimeout = connectTimeout;
-		}
-		/** {@inheritDoc} */
-		public ServerSocket createServerSocket(int port) throws IOException {
-			return new ServerSocket(port);
-		}
-		/** {@inheritDoc} */
-		public Socket createSocket(String host, int port) throws IOException {
-			return new TimeoutSocket(host, port);
-		}
-		/**
-		 * Socket that implements a connect timeout
-		 * @author Rodrigo
-		 */
-		private final class TimeoutSocket extends Socket {
-			/**
-			 * Default Constructor.
-			 * @param host host
-			 * @param port port 
-			 * @throws UnknownHostException on IO error
-			 * @throws IOException on IO error
-			 */
-			private TimeoutSocket(String host, int port) throws UnknownHostException, IOException {
-				super();
-				bind(new InetSocketAddress(0));
-				connect(host != null ? new InetSocketAddress(host, port) : new InetSocketAddress(InetAddress.getByName(null), port));
-			}
-			/** {@inheritDoc} */
-			public void connect(SocketAddress endpoint) throws IOException {
-				super.connect(endpoint, connectTimeout);
-			}
-			/** {@inheritDoc} */
-			public void connect(SocketAddress endpoint, int timeout) throws IOException {
-				timeout = (timeout == 0) ? connectTimeout : Math.min(timeout, connectTimeout);
-				super.connect(endpoint, Math.min(timeout, timeout));
-			}
-		}
-	}
 }
@@ -0,0 +1,152 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * RemoteNodeRef.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class used like a cache for common node properties, avoiding
+ * an excess of network communication for calling getName, etc...<BR>
+ * It also holds the load that the main node has put on the process node, which may be
+ * changed by any thread without locking.
+ */
+final class RemoteNodeRef {
+	/** Time (in micros) that a batched call to a node should take */
+	private static final long BATCH_TARGET_TIME = 10000;
+	final String name;
+	final int clock;
+	final int mem;
+	final IProcessNode node;
+	private final int hash;
+	/** Registers if the node lives on this JVM, so it is called directly */
+	final boolean local;
+	// Index (of a dispatcher) where this node is kept (it changes when nodes are balanced)
+	volatile NodeLoadIndex index;
+	// Registers if this node pulls requisitions instead of receiving them
+	volatile boolean pulling = false;
+	// Last time a node in pull mode has contacted the main node
+	volatile long lastContact = 0;
+	// Moving average of the time (in micros) each requisition takes, including communication
+	private volatile long itemLatency = 0;
+	// Current load of this node
+	private final AtomicReference load = new AtomicReference(NodeLoad.IDLE);
+	// Registers if the load has changed since this reference was last indexed
+	final AtomicBoolean dirty = new AtomicBoolean(false);
+	/*
+	 * Load at the time this reference has been put on the NodeLoadIndex. Sorted sets must
+	 * never see their keys changing, so this is the load used to sort this reference, and
+	 * it is only modified by the index.
+	 */
+	NodeLoad indexed = NodeLoad.IDLE;
+
+	/**
+	 * Creates a new remote node reference
+	 * @param node node
+	 * @throws RemoteException on any error
+	 */
+	RemoteNodeRef(final IProcessNode node) throws RemoteException {
+		this.name	= node.getNodeName();
+		this.clock	= node.getClockAmount();
+		this.mem	= node.getMemoryAmount();
+		this.hash	= this.name.hashCode();
+		this.node	= node;
+		this.local	= node instanceof ProcessNode;
+	}
+	/** @return clock frequency */
+	public int getClock() {
+		return clock;
+	}
+	/** @return memory amount */
+	public int getMem() {
+		return mem;
+	}
+	/**
+	 * Registers how long a call to the node has taken
+	 * @param nanos call duration (in nanos)
+	 * @param items number of requisitions sent in the call
+	 */
+	void updateItemLatency(long nanos, int items) {
+		final long sample = nanos / 1000 / items;
+		final long current = itemLatency;
+		// Exponential moving average, the new sample weights 1/4
+		itemLatency = (current == 0) ? Math.max(1, sample) : Math.max(1, (current * 3 + sample) / 4);
+	}
+	/**
+	 * Calculates how many requisitions should be sent to this node in a single call, so
+	 * each call takes about BATCH_TARGET_TIME.
+	 * Until the first call returns, requisitions are sent one by one.
+	 * @param max maximum batch size
+	 * @return batch size
+	 */
+	int getBatchSize(int max) {
+		final long latency = itemLatency;
+		if (max <= 1 || latency == 0) {
+			return 1;
+		}
+		return (int) Math.max(1, Math.min(max, BATCH_TARGET_TIME / latency));
+	}
+	/** @return a consistent snapshot of the current load of this node */
+	NodeLoad getLoad() {
+		return (NodeLoad) load.get();
+	}
+	/**
+	 * Atomically adds the load of a requisition to this node
+	 * @param clock clock factor of the requisition
+	 * @param mem memory factor of the requisition
+	 * @return the new load
+	 */
+	NodeLoad reserve(int clock, int mem) {
+		while (true) {
+			final NodeLoad current = (NodeLoad) load.get();
+			final NodeLoad updated = current.add(clock, mem);
+			if (load.compareAndSet(current, updated)) {
+				return updated;
+			}
+		}
+	}
+	/**
+	 * Atomically removes the load of a requisition from this node
+	 * @param clock clock factor of the requisition
+	 * @param mem memory factor of the requisition
+	 * @return the new load
+	 */
+	NodeLoad release(int clock, int mem) {
+		while (true) {
+			final NodeLoad current = (NodeLoad) load.get();
+			final NodeLoad updated = current.subtract(clock, mem);
+			if (load.compareAndSet(current, updated)) {
+				return updated;
+			}
+		}
+	}
+	/** {@inheritDoc} */
+	public boolean equals(Object obj) {
+		if (obj instanceof RemoteNodeRef) {
+			return this.name.equals(((RemoteNodeRef) obj).name);
+		}
+		return obj.equals(this.name);
+	}
+	/** {@inheritDoc} */
+	public int hashCode() {
+		return this.hash;
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return this.name;
+	}
+}
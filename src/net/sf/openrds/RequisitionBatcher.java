@@ -0,0 +1,221 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * RequisitionBatcher.java
+ */
+
+package net.sf.openrds;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client-side helper that groups requisitions to be submitted to a main node, so many
+ * small requisitions are sent in a single remote call (see IMainNode.submitRequisitions()).<BR>
+ * A group is sent when it reaches the maximum batch size, or when its oldest requisition
+ * has been waiting for the linger time, whatever happens first. Groups are always sent in
+ * the order requisitions have been added.<BR>
+ * Results must be collected by the job (see IMainNode.fetchResults()). Errors sending a
+ * group in background are reported on the next call to add(), flush() or close().<BR>
+ * Requisitions are removed from this batcher only after the main node has accepted them, so
+ * a group that could not be sent is kept (see getPending()) and sent again by the next
+ * flush(), or by the flusher thread after the linger time. If the error has happened after
+ * the main node received the group, its requisitions are submitted twice.<BR>
+ * Usage example:
+ * <pre>
+ * final JobHandle job = mainNode.createJob();
+ * final RequisitionBatcher batcher = new RequisitionBatcher(mainNode, job, 500, 20);
+ * for (int i = 0; i &lt; requisitions.length; i++) {
+ *     batcher.add(requisitions[i]);
+ * }
+ * batcher.close();
+ * mainNode.waitIdle(job);
+ * RequisitionResult[] results = mainNode.fetchResults(job, requisitions.length, 0);
+ * mainNode.closeJob(job);
+ * </pre>
+ * @since OpenRDS 1.3
+ */
+public final class RequisitionBatcher {
+	private final IMainNode mainNode;
+	private final JobHandle job;
+	private final int maxBatch;
+	private final long linger;
+	/** Requisitions waiting to be sent */
+	private final List buffer			= new ArrayList();
+	/** Lock held while a group is taken from the buffer and sent, to keep groups in order */
+	private final Object sendLock		= new Object();
+	/** Thread that sends groups whose linger time has elapsed */
+	private final Thread flusher;
+	/** Time when the oldest requisition in the buffer has been added */
+	private long oldestTime;
+	/** Number of requisitions sent */
+	private long submitted				= 0;
+	/** Error sending a group in background */
+	private RemoteException failure;
+	private boolean closed				= false;
+
+	/**
+	 * Creates a new batcher
+	 * @param mainNode main node
+	 * @param job job of the requisitions (may be null for no job)
+	 * @param maxBatch maximum number of requisitions sent in a single call
+	 * @param linger maximum time (in millis) a requisition waits to be sent
+	 */
+	public RequisitionBatcher(IMainNode mainNode, JobHandle job, int maxBatch, long linger) {
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+		}
+		this.mainNode = mainNode;
+		this.job = job;
+		this.maxBatch = maxBatch;
+		this.linger = Math.max(0, linger);
+		this.flusher = new Thread("Requisition batcher") {
+			public void run() {
+				runFlusher();
+			}
+		};
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+	/**
+	 * Adds a requisition to be submitted. If the batch is full, it is sent by the current thread.
+	 * @param requisition requisition
+	 * @throws RemoteException on any error sending requisitions (the requisition is kept
+	 * if the error has happened sending the batch, but not if it is a background error, which is
+	 * thrown before adding it)
+	 */
+	public void add(Requisition requisition) throws RemoteException {
+		boolean full;
+		synchronized (this) {
+			checkState();
+			if (buffer.isEmpty()) {
+				oldestTime = System.currentTimeMillis();
+				notifyAll(); // Starts counting the linger time
+			}
+			buffer.add(requisition);
+			full = (buffer.size() >= maxBatch);
+		}
+		if (full) {
+			send(false);
+		}
+	}
+	/**
+	 * Sends all requisitions that have been added
+	 * @throws RemoteException on any error sending requisitions
+	 */
+	public void flush() throws RemoteException {
+		synchronized (this) {
+			checkState();
+		}
+		send(true);
+	}
+	/**
+	 * Sends all requisitions that have been added and stops this batcher.
+	 * If any requisition could not be sent, this batcher is not stopped, so close() may be
+	 * called again.
+	 * @throws RemoteException on any error sending requisitions
+	 */
+	public void close() throws RemoteException {
+		flush();
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+	}
+	/**
+	 * Checks how many requisitions have been sent to the main node
+	 * @return number of requisitions
+	 */
+	public synchronized long getSubmitted() {
+		return submitted;
+	}
+	/**
+	 * Retrieves the requisitions that have not been sent yet, including the ones of a group
+	 * that could not be sent
+	 * @return requisitions, in the order they have been added
+	 */
+	public synchronized Requisition[] getPending() {
+		return (Requisition[]) buffer.toArray(new Requisition[buffer.size()]);
+	}
+	/**
+	 * Sends the requisitions of the buffer, removing each group only after it has been sent.
+	 * Since only one thread sends at a time and add() only appends, the head of the buffer
+	 * does not change while a group is beeing sent.
+	 * @param all true to send everything, false to send only full batches
+	 * @throws RemoteException on any error sending requisitions
+	 */
+	private void send(boolean all) throws RemoteException {
+		synchronized (sendLock) {
+			while (true) {
+				final Requisition[] batch;
+				synchronized (this) {
+					if (buffer.isEmpty() || (!all && buffer.size() < maxBatch)) {
+						return;
+					}
+					batch = (Requisition[]) buffer.subList(0, Math.min(maxBatch, buffer.size())).toArray(new Requisition[0]);
+				}
+				mainNode.submitRequisitions(batch, job);
+				synchronized (this) {
+					buffer.subList(0, batch.length).clear();
+					oldestTime = System.currentTimeMillis();
+					submitted += batch.length;
+				}
+			}
+		}
+	}
+	/**
+	 * Throws background errors, and checks if the batcher has been closed
+	 * @throws RemoteException if there has been an error or if the batcher is closed
+	 */
+	private void checkState() throws RemoteException {
+		if (failure != null) {
+			final RemoteException error = failure;
+			failure = null;
+			throw error;
+		}
+		if (closed) {
+			throw new RemoteException("Batcher has been closed");
+		}
+	}
+	/**
+	 * Main loop of the flusher thread
+	 */
+	private void runFlusher() {
+		while (true) {
+			try {
+				synchronized (this) {
+					while (!closed && (buffer.isEmpty() || System.currentTimeMillis() < oldestTime + linger)) {
+						if (buffer.isEmpty()) {
+							wait();
+						} else {
+							wait(Math.max(1, oldestTime + linger - System.currentTimeMillis()));
+						}
+					}
+					if (closed) {
+						return;
+					}
+				}
+				send(true);
+			} catch (InterruptedException e) {
+				return;
+			} catch (RemoteException e) {
+				synchronized (this) {
+					if (failure == null) {
+						failure = e; // Reports the first error
+					}
+					oldestTime = System.currentTimeMillis(); // Tries again after the linger time
+				}
+			}
+		}
+	}
+}
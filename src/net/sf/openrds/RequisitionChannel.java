@@ -21,31 +21,125 @@
 
 package net.sf.openrds;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Implements a FIFO channel (queue) of requisitions
+ * Implements a multi-level FIFO channel (queue) of requisitions.<BR>
+ * There is one FIFO queue for each requisition priority, and requisitions are always
+ * consumed from the highest priority queue that has elements, unless the oldest requisition
+ * of a lower priority queue has been waiting for too long. Each priority level is worth one
+ * "aging interval" of waiting time, so a low priority requisition will eventually be
+ * consumed before newer requisitions of higher priority.<BR>
+ * The channel may be used by any number of producers and consumers at the same time.
+ * Putting and getting requisitions never acquire a lock while the channel has elements
+ * (and free space, if it is bounded). Only threads that really have to wait are parked,
+ * and every put wakes at most one parked consumer.
  * @author Rodrigo
  */
 final class RequisitionChannel {
-	/** Internal queue */
-	private final LinkedList queue = new LinkedList();
-	
+	/** Number of times a consumer re-checks an empty channel before being parked */
+	private static final int SPIN_TRIES = 16;
+	/** Default aging interval (in millis) */
+	private static final long DEFAULT_AGING_INTERVAL = 2000;
+	/** Number of priority levels */
+	private static final int LEVELS = IndivisibleRequisition.PRIORITY_HIGH + 1;
+	/** Internal queues, indexed by priority */
+	private final ConcurrentLinkedDeque[] queues	= new ConcurrentLinkedDeque[LEVELS];
+	/** Number of requisitions on each queue (the deque size is not a constant-time operation) */
+	private final AtomicInteger[] depths		= new AtomicInteger[LEVELS];
+	/** Number of requisitions in all queues */
+	private final AtomicInteger count			= new AtomicInteger();
+	/** Number of consumers parked on "notEmpty" */
+	private final AtomicInteger getWaiters		= new AtomicInteger();
+	/** Number of producers parked on "notFull" */
+	private final AtomicInteger putWaiters		= new AtomicInteger();
+	/** Monitor used to park consumers */
+	private final Object notEmpty				= new Object();
+	/** Monitor used to park producers of a bounded channel */
+	private final Object notFull				= new Object();
 	/**
-	 * Puts a requisition in this channel
+	 * Maximum number of requisitions accepted by put() before it blocks. Concurrent
+	 * producers may overshoot it a little, since the check is not atomic with the insertion.
+	 */
+	private final int capacity;
+	/** Waiting time that is worth one priority level, or zero if aging is disabled */
+	private final long agingInterval;
+
+	/**
+	 * Creates a channel with the capacity and aging interval given by the system properties
+	 * ISystemProperties.CHANNEL_CAPACITY (unbounded if the property is not set) and
+	 * ISystemProperties.PRIORITY_AGING_INTERVAL.
+	 */
+	public RequisitionChannel() {
+		this(getDefaultCapacity(), getDefaultAgingInterval());
+	}
+	/**
+	 * Creates a channel with the given capacity and the default aging interval
+	 * @param capacity maximum number of requisitions accepted by put() before it blocks
+	 */
+	public RequisitionChannel(int capacity) {
+		this(capacity, getDefaultAgingInterval());
+	}
+	/**
+	 * Creates a channel with the given capacity and aging interval
+	 * @param capacity maximum number of requisitions accepted by put() before it blocks
+	 * @param agingInterval waiting time (in millis) that is worth one priority level, or
+	 * zero to always consume requisitions in strict priority order
+	 */
+	public RequisitionChannel(int capacity, long agingInterval) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid channel capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.agingInterval = Math.max(0, agingInterval);
+		for (int i = 0; i < LEVELS; i++) {
+			queues[i] = new ConcurrentLinkedDeque();
+			depths[i] = new AtomicInteger();
+		}
+	}
+	/**
+	 * Puts a requisition in this channel.
+	 * If the channel is bounded and full, this method blocks until there is free space.
+	 * @param req requisition
+	 */
+	public void put(RequisitionWrapper req) {
+		if (count.get() >= capacity) {
+			waitNotFull();
+		}
+		putUnbounded(req);
+	}
+	/**
+	 * Puts a requisition in this channel, like put(), but never blocks, even if the channel
+	 * is full. This is used for requisitions created by the main node itself, since they may
+	 * be created by the threads that consume the channel.
 	 * @param req requisition
 	 */
-	public synchronized void put(RequisitionWrapper req) {
-		queue.addLast(req);
-		notify();
+	public void putUnbounded(RequisitionWrapper req) {
+		final int level = req.getPriority();
+		req.setEnqueueTime(System.currentTimeMillis());
+		queues[level].offerLast(req);
+		depths[level].incrementAndGet();
+		count.incrementAndGet();
+		signalNotEmpty();
 	}
 	/**
-	 * Puts a requisition on the top of this channel
+	 * Puts a requisition on the top of the queue of its priority.
+	 * This method never blocks, even if the channel is full, since it is used to
+	 * put back requisitions that have already been consumed.
+	 * The time the requisition has already waited is kept, so it is still considered
+	 * for aging.
 	 * @param req requisition
 	 */
-	public synchronized void putOnTop(RequisitionWrapper req) {
-		queue.addFirst(req);
-		notify();
+	public void putOnTop(RequisitionWrapper req) {
+		final int level = req.getPriority();
+		if (req.getEnqueueTime() == 0) {
+			req.setEnqueueTime(System.currentTimeMillis());
+		}
+		queues[level].offerFirst(req);
+		depths[level].incrementAndGet();
+		count.incrementAndGet();
+		signalNotEmpty();
 	}
 	/**
 	 * Gets the next requisition in the channel, it the channel is empty, then
@@ -53,46 +147,188 @@ final class RequisitionChannel {
 	 * @return next requisition in the channel
 	 * @throws InterruptedException if the current thread is interrupted
 	 */
-	public synchronized RequisitionWrapper getNext() throws InterruptedException {
-		if (this.queue.isEmpty()) {
-			this.wait();
-		}
-		if (!this.queue.isEmpty()) {
-			return (RequisitionWrapper) queue.removeFirst();
-		}
-		return null;
+	public RequisitionWrapper getNext() throws InterruptedException {
+		return getNext(0);
 	}
 	/**
 	 * Gets the next requisition in the channel, it the channel is empty, then
 	 * this method will block until a requisition is available
-	 * @param timeOut wait time-out (in millis)
+	 * @param timeOut wait time-out (in millis), or zero to wait forever
 	 * @return next requisition in the channel or null if time-out has been reached
 	 * @throws InterruptedException if the current thread is interrupted
 	 */
-	public synchronized RequisitionWrapper getNext(int timeOut) throws InterruptedException {
-		RequisitionWrapper returnData = null;
-		if (this.queue.isEmpty()) {
-			this.wait(timeOut);
-			if (!this.queue.isEmpty()) {
-				returnData = (RequisitionWrapper) this.queue.removeFirst();
+	public RequisitionWrapper getNext(int timeOut) throws InterruptedException {
+		RequisitionWrapper req = poll();
+		for (int i = 0; req == null && i < SPIN_TRIES; i++) {
+			Thread.yield();
+			req = poll();
+		}
+		if (req != null) {
+			return req;
+		}
+		final long deadline = (timeOut > 0) ? System.currentTimeMillis() + timeOut : 0;
+		synchronized (notEmpty) {
+			getWaiters.incrementAndGet();
+			try {
+				// The waiter counter must be incremented before checking the queue again,
+				// otherwise a producer could miss us and we would sleep with data available
+				while ((req = poll()) == null) {
+					if (deadline == 0) {
+						notEmpty.wait();
+					} else {
+						final long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							break;
+						}
+						notEmpty.wait(remaining);
+					}
+				}
+			} finally {
+				getWaiters.decrementAndGet();
+			}
+		}
+		return req;
+	}
+	/**
+	 * Retrieves and removes the next requisition in the channel, without blocking.<BR>
+	 * Requisitions that are already done (because a backup of them has been done first)
+	 * are discarded.
+	 * @return next requisition, or null if the channel is empty
+	 */
+	public RequisitionWrapper poll() {
+		RequisitionWrapper req;
+		while ((req = pollNext()) != null && req.isDone()) {
+			// Discarded
+		}
+		return req;
+	}
+	/**
+	 * Retrieves and removes the next requisition in the channel, without blocking
+	 * @return next requisition, or null if the channel is empty
+	 */
+	private RequisitionWrapper pollNext() {
+		RequisitionWrapper req = null;
+		int level = chooseLevel();
+		while (level != -1 && req == null) {
+			req = (RequisitionWrapper) queues[level].pollFirst();
+			if (req == null) {
+				// Another consumer took it first, check the levels again
+				level = chooseLevel();
+			}
+		}
+		if (req != null) {
+			depths[level].decrementAndGet();
+			if (count.decrementAndGet() < capacity && putWaiters.get() > 0) {
+				synchronized (notFull) {
+					notFull.notify();
+				}
 			}
-		} else {
-			returnData = (RequisitionWrapper) this.queue.removeFirst();
 		}
-		return returnData;
+		return req;
 	}
 	/**
 	 * Checks how many requisitions are in the channel
 	 * @return integer
 	 */
-	public synchronized int size() {
-		return this.queue.size();
+	public int size() {
+		return count.get();
+	}
+	/**
+	 * Checks how many requisitions of the given priority are in the channel
+	 * @param priority requisition priority
+	 * @return integer
+	 */
+	public int size(int priority) {
+		if (priority < 0 || priority >= LEVELS) {
+			throw new IllegalArgumentException("Invalid priority: " + priority);
+		}
+		return depths[priority].get();
 	}
 	/**
 	 * Checks if the queue has any element to be consumed.
 	 * @return true if any element is readily available to be consumed.
 	 */
-	public synchronized boolean hasNext() {
-		return !this.queue.isEmpty();
+	public boolean hasNext() {
+		for (int i = 0; i < LEVELS; i++) {
+			if (!queues[i].isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Chooses the level to consume the next requisition from.
+	 * Each level is worth one aging interval of waiting time, and the level whose oldest
+	 * requisition has the highest sum of both is chosen. On ties, the highest level wins.
+	 * @return level, or -1 if all levels are empty
+	 */
+	private int chooseLevel() {
+		int best = -1;
+		long bestScore = Long.MIN_VALUE;
+		final long now = System.currentTimeMillis();
+		for (int i = LEVELS - 1; i >= 0; i--) {
+			final RequisitionWrapper head = (RequisitionWrapper) queues[i].peekFirst();
+			if (head != null) {
+				if (agingInterval == 0) {
+					return i; // Strict priority
+				}
+				final long score = (i * agingInterval) + (now - head.getEnqueueTime());
+				if (score > bestScore) {
+					best = i;
+					bestScore = score;
+				}
+			}
+		}
+		return best;
+	}
+	/**
+	 * Wakes up one parked consumer, if there is any
+	 */
+	private void signalNotEmpty() {
+		if (getWaiters.get() > 0) {
+			synchronized (notEmpty) {
+				notEmpty.notify();
+			}
+		}
+	}
+	/**
+	 * Parks the current producer until the channel has free space
+	 */
+	private void waitNotFull() {
+		boolean interrupted = false;
+		synchronized (notFull) {
+			putWaiters.incrementAndGet();
+			try {
+				while (count.get() >= capacity) {
+					try {
+						notFull.wait();
+					} catch (InterruptedException e) {
+						// Producers can't give up, or the requisition would be lost
+						interrupted = true;
+					}
+				}
+			} finally {
+				putWaiters.decrementAndGet();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * Reads the default channel capacity from system properties
+	 * @return capacity
+	 */
+	private static int getDefaultCapacity() {
+		final String prop = System.getProperty(ISystemProperties.CHANNEL_CAPACITY);
+		return (prop != null) ? Integer.parseInt(prop) : Integer.MAX_VALUE;
+	}
+	/**
+	 * Reads the default aging interval from system properties
+	 * @return aging interval
+	 */
+	private static long getDefaultAgingInterval() {
+		final String prop = System.getProperty(ISystemProperties.PRIORITY_AGING_INTERVAL);
+		return (prop != null) ? Long.parseLong(prop) : DEFAULT_AGING_INTERVAL;
 	}
 }
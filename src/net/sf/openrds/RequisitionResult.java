@@ -0,0 +1,80 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * RequisitionResult.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+
+/**
+ * Result of a requisition submitted thru IMainNode.submitRequisition(). It holds
+ * either the value returned by the requisition or the error that prevented it from
+ * beeing processed.
+ * @since OpenRDS 1.3
+ */
+public final class RequisitionResult implements Serializable {
+	private static final long serialVersionUID = 4410597325826003162L;
+	private final RequisitionTicket ticket;
+	private final Object result;
+	private final Throwable error;
+
+	/**
+	 * Creates a new result
+	 * @param ticket ticket of the requisition
+	 * @param result requisition result
+	 * @param error processing error (null on success)
+	 */
+	RequisitionResult(RequisitionTicket ticket, Object result, Throwable error) {
+		this.ticket = ticket;
+		this.result = result;
+		this.error = error;
+	}
+	/** @return ticket of the requisition */
+	public RequisitionTicket getTicket() {
+		return ticket;
+	}
+	/** @return true if the requisition has failed */
+	public boolean isError() {
+		return error != null;
+	}
+	/** @return error that prevented the requisition from beeing processed, or null */
+	public Throwable getError() {
+		return error;
+	}
+	/**
+	 * Retrieves the requisition result. If the requisition has failed, the error is thrown.
+	 * @return the requisition processing result
+	 * @throws ProcessingException if ProcessingException is thrown by the requisition
+	 * @throws NoNodesAvailableException if the requisition could not be processed because
+	 * there weren't nodes available to process it.
+	 */
+	public Object getResult() throws ProcessingException, NoNodesAvailableException {
+		if (error instanceof ProcessingException) {
+			throw (ProcessingException) error;
+		} else if (error instanceof NoNodesAvailableException) {
+			throw (NoNodesAvailableException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new ProcessingException("Error processing requisition", error);
+		}
+		return result;
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return ticket + ((error != null) ? " failed: " + error : ": " + result);
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * RequisitionTicket.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+
+/**
+ * Identifies a requisition submitted to a main node thru IMainNode.submitRequisition().
+ * It is used to collect the requisition result later.<BR>
+ * Tickets are only valid on the main node that created them.
+ * @since OpenRDS 1.3
+ */
+public final class RequisitionTicket implements Serializable {
+	private static final long serialVersionUID = -6391072545318092741L;
+	private final long id;
+	private final JobHandle job;
+
+	/**
+	 * Creates a new ticket
+	 * @param id ticket id
+	 * @param job job of the requisition (may be null)
+	 */
+	RequisitionTicket(long id, JobHandle job) {
+		this.id = id;
+		this.job = job;
+	}
+	/** @return ticket id */
+	public long getId() {
+		return id;
+	}
+	/** @return job of the requisition, or null if it is not part of a job */
+	public JobHandle getJob() {
+		return job;
+	}
+	/** {@inheritDoc} */
+	public boolean equals(Object obj) {
+		return (obj instanceof RequisitionTicket) && ((RequisitionTicket) obj).id == this.id;
+	}
+	/** {@inheritDoc} */
+	public int hashCode() {
+		return (int) (id ^ (id >>> 32));
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "Ticket #" + id;
+	}
+}
@@ -26,22 +26,45 @@ package net.sf.openrds;
  * @author Rodrigo
  */
 final class RequisitionWrapper {
-	// STATIC - This controls the number of wrappers that have not been processed yet.
-	private static int qtyRemaining = 0;
-	// STATIC - Mutex to notify when the number of requisitions is zero (used to finish the Main Node)
-	private static final Object MUTEX = new Object();
-	
 	private final IndivisibleRequisition req;
+	/* Latches that count this wrapper while it has not been processed yet (may be null) */
+	private final CompletionLatch pending;
+	private final CompletionLatch jobPending;
+	private final int priority;
+	private long enqueueTime;
+	/* Time (in millis) when this wrapper has been sent to a node, and when it has been done */
+	private volatile long startTime;
+	private volatile long doneTime;
 	private Throwable error;
 	private Object result;
 	private boolean done;
+	private CompletionListener listener;
+	/* Backup of this wrapper (see StragglerDetector), cancelled when this one is done first */
+	private RequisitionWrapper backup;
 	/**
-	 * Creates a new wrapper for the given requisition
+	 * Creates a new wrapper for the given requisition, that is not counted by any latch
 	 * @param req requisition
 	 */
 	protected RequisitionWrapper(IndivisibleRequisition req) {
+		this(req, null, null);
+	}
+	/**
+	 * Creates a new wrapper for the given requisition
+	 * @param req requisition
+	 * @param pending latch that counts all pending requisitions of the main node (may be null)
+	 * @param jobPending latch that counts the pending requisitions of a job (may be null)
+	 */
+	protected RequisitionWrapper(IndivisibleRequisition req, CompletionLatch pending, CompletionLatch jobPending) {
 		this.req = req;
-		RequisitionWrapper.qtyRemaining++;
+		this.priority = Math.max(IndivisibleRequisition.PRIORITY_LOW, Math.min(IndivisibleRequisition.PRIORITY_HIGH, req.getPriority()));
+		this.pending = pending;
+		this.jobPending = jobPending;
+		if (pending != null) {
+			pending.register();
+		}
+		if (jobPending != null) {
+			jobPending.register();
+		}
 	}
 	/**
 	 * Retrieves the wrapped requisition
@@ -50,6 +73,79 @@ final class RequisitionWrapper {
 	public IndivisibleRequisition getRequition() {
 		return req;
 	}
+	/**
+	 * Retrieves the priority of the wrapped requisition, already fitted in the valid range
+	 * @return priority
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	/**
+	 * Retrieves the time when this wrapper has been put on a requisition channel
+	 * @return time in millis
+	 */
+	long getEnqueueTime() {
+		return enqueueTime;
+	}
+	/**
+	 * Sets the time when this wrapper has been put on a requisition channel
+	 * @param enqueueTime time in millis
+	 */
+	void setEnqueueTime(long enqueueTime) {
+		this.enqueueTime = enqueueTime;
+	}
+	/**
+	 * Retrieves the time when this wrapper has been sent to a node for the last time
+	 * @return time in millis, or zero if it has not been sent yet
+	 */
+	long getStartTime() {
+		return startTime;
+	}
+	/**
+	 * Sets the time when this wrapper has been sent to a node
+	 * @param startTime time in millis
+	 */
+	void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+	/**
+	 * Retrieves the time when this wrapper has been done
+	 * @return time in millis, or zero if it is not done yet
+	 */
+	long getDoneTime() {
+		return doneTime;
+	}
+	/**
+	 * Checks if this wrapper is done (with success or error)
+	 * @return boolean
+	 */
+	boolean isDone() {
+		return doneTime != 0;
+	}
+	/**
+	 * Sets the listener to be notified when this wrapper is done.
+	 * This must be called before the wrapper is put on a channel.
+	 * @param listener listener
+	 */
+	void setListener(CompletionListener listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Sets the backup of this wrapper (see StragglerDetector). If this wrapper is done
+	 * before the backup, the backup is cancelled: it gets a ProcessingException, so it is
+	 * skipped if it is still waiting on a channel.
+	 * @param backup backup wrapper
+	 * @return false if this wrapper is already done (so the backup must not be dispatched)
+	 */
+	boolean setBackup(RequisitionWrapper backup) {
+		synchronized (this) {
+			if (!done) {
+				this.backup = backup;
+				return true;
+			}
+		}
+		return false;
+	}
 	/**
 	 * Blocks execution until the wrapped requisition has been processed and returns
 	 * it's result.
@@ -82,41 +178,86 @@ final class RequisitionWrapper {
 		return result;
 	}
 	/**
-	 * Sets an error that ocurred while processing the requisition
+	 * Sets an error that ocurred while processing the requisition.
+	 * Nothing is done if this wrapper is already done.
 	 * @param error ProcessingException
 	 */
-	public synchronized void setError(Throwable error) {
-		this.error = error;
-		done();
+	public void setError(Throwable error) {
+		synchronized (this) {
+			if (done) {
+				return; // A backup (see StragglerDetector) has already been done
+			}
+			this.error = error;
+			done();
+		}
+		completed();
 	}
 	/**
-	 * Sets the result of this requisition
+	 * Sets the result of this requisition.
+	 * Nothing is done if this wrapper is already done.
 	 * @param result requisition result
 	 */
-	public synchronized void setResult(Object result) {
-		this.result = result;
-		done();
+	public void setResult(Object result) {
+		synchronized (this) {
+			if (done) {
+				return; // A backup (see StragglerDetector) has already been done
+			}
+			this.result = result;
+			done();
+		}
+		completed();
 	}
 	/**
-	 * Set this wrapper as processed
+	 * Set this wrapper as processed (called while holding the lock of this wrapper)
 	 */
 	private void done() {
 		done = true;
+		doneTime = System.currentTimeMillis();
 		this.notify();
-		if (--RequisitionWrapper.qtyRemaining == 0) {
-			synchronized (MUTEX) {
-				MUTEX.notifyAll();
+	}
+	/**
+	 * Notifies the listener and the latches that this wrapper is done. This is called
+	 * without holding the lock of this wrapper, since the listener may take a long time
+	 * (or dispatch more requisitions) and anyone may check this wrapper meanwhile.
+	 */
+	private void completed() {
+		final RequisitionWrapper cancelled;
+		synchronized (this) {
+			cancelled = backup;
+			backup = null;
+		}
+		if (cancelled != null) {
+			cancelled.setError(new ProcessingException("Backup cancelled: the original requisition has been done first"));
+		}
+		// The listener is called before counting this wrapper as done, so anyone waiting
+		// for the latches will also see whatever the listener does with the result
+		if (listener != null) {
+			try {
+				listener.completed(this, result, error);
+			} catch (Throwable t) {
+				System.err.println("[OpenRDS] - Requisition completion listener exception trap.");
+				t.printStackTrace(System.err);
 			}
 		}
+		if (jobPending != null) {
+			jobPending.arrive();
+		}
+		if (pending != null) {
+			pending.arrive();
+		}
 	}
 	
-	/** @return number of wrappers that have not been processed yet. */
-	static int getQtyRemaining() {
-		return qtyRemaining;
-	}
-	
-	/** @return mutex that is notified when the number of pending requisitions is zero. */
-	static Object getMutex() {
-		return MUTEX;
+	/**
+	 * Listener notified when a wrapper is done, so the result can be used without
+	 * blocking a thread on waitProcessing()
+	 */
+	interface CompletionListener {
+		/**
+		 * Called when a wrapper is done
+		 * @param wrapper wrapper
+		 * @param result requisition result (null on error)
+		 * @param error processing error (null on success)
+		 */
+		void completed(RequisitionWrapper wrapper, Object result, Throwable error);
 	}
 }
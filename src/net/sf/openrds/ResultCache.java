@@ -0,0 +1,197 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ResultCache.java
+ */
+
+package net.sf.openrds;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the results of cacheable requisitions, kept by the main node (see
+ * IndivisibleRequisition.getCacheKey()).<BR>
+ * The first requisition with a given key is processed by a leader wrapper, created by this
+ * cache. Requisitions with the same key that arrive while the leader is beeing processed
+ * just wait for its result, and the ones that arrive later take the cached result. Results
+ * are discarded when the size limit is reached (the least recently used first) or when
+ * they get older than the time-to-live.
+ */
+final class ResultCache {
+	/** Default maximum number of results */
+	private static final int DEFAULT_SIZE = 1000;
+	/** Default time-to-live (in millis) */
+	private static final long DEFAULT_TTL = 600000;
+	/** Cached results by key, in access order (the least recently used first) */
+	private final Map entries = new LinkedHashMap(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		/** {@inheritDoc} */
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			if (size() > maxSize) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	};
+	/** Wrappers waiting for a leader, by key */
+	private final Map inFlight = new HashMap();
+	/** Maximum number of results */
+	private final int maxSize;
+	/** Time-to-live (in millis), zero to never expire */
+	private final long ttl;
+	private long hits = 0;
+	private long misses = 0;
+	private long coalesced = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache with the size and time-to-live given by the system properties
+	 * ISystemProperties.RESULT_CACHE_SIZE and ISystemProperties.RESULT_CACHE_TTL
+	 */
+	ResultCache() {
+		final String size = System.getProperty(ISystemProperties.RESULT_CACHE_SIZE);
+		final String ttl = System.getProperty(ISystemProperties.RESULT_CACHE_TTL);
+		this.maxSize = Math.max(0, (size != null) ? Integer.parseInt(size) : DEFAULT_SIZE);
+		this.ttl = Math.max(0, (ttl != null) ? Long.parseLong(ttl) : DEFAULT_TTL);
+	}
+	/**
+	 * Checks if this cache is enabled
+	 * @return false if the size limit is zero
+	 */
+	boolean isEnabled() {
+		return maxSize > 0;
+	}
+	/**
+	 * Looks for the result of a cacheable requisition.
+	 * If it is cached, it is set on the wrapper at once. If an identical requisition is beeing
+	 * processed, the wrapper waits for it. Otherwise, a leader wrapper is returned, which must
+	 * be dispatched instead of the given one.
+	 * @param key cache key of the requisition
+	 * @param wrapper wrapper of the requisition
+	 * @return leader wrapper to be dispatched, or null if there is nothing to dispatch
+	 */
+	RequisitionWrapper join(final Object key, RequisitionWrapper wrapper) {
+		final Object result;
+		synchronized (this) {
+			final Entry entry = (Entry) entries.get(key);
+			if (entry != null && !isExpired(entry, System.currentTimeMillis())) {
+				hits++;
+				result = entry.result;
+			} else {
+				if (entry != null) {
+					entries.remove(key);
+					evictions++;
+				}
+				final List waiting = (List) inFlight.get(key);
+				if (waiting != null) {
+					coalesced++;
+					waiting.add(wrapper);
+					return null;
+				}
+				misses++;
+				final List list = new LinkedList();
+				list.add(wrapper);
+				inFlight.put(key, list);
+				final RequisitionWrapper leader = new RequisitionWrapper(wrapper.getRequition());
+				leader.setListener(new RequisitionWrapper.CompletionListener() {
+					public void completed(RequisitionWrapper ignored, Object result, Throwable error) {
+						ResultCache.this.completed(key, result, error);
+					}
+				});
+				return leader;
+			}
+		}
+		wrapper.setResult(result);
+		return null;
+	}
+	/**
+	 * Called when a leader is completed. Successful results are cached, and all wrappers
+	 * waiting for the leader are completed.
+	 * @param key cache key
+	 * @param result requisition result
+	 * @param error processing error (null on success)
+	 */
+	private void completed(Object key, Object result, Throwable error) {
+		final List waiting;
+		synchronized (this) {
+			waiting = (List) inFlight.remove(key);
+			if (error == null) {
+				final long now = System.currentTimeMillis();
+				evictExpired(now);
+				entries.put(key, new Entry(result, now)); // Evicts the eldest above the size limit
+			}
+		}
+		for (final Iterator it = waiting.iterator(); it.hasNext();) {
+			final RequisitionWrapper wrapper = (RequisitionWrapper) it.next();
+			if (error == null) {
+				wrapper.setResult(result);
+			} else {
+				wrapper.setError(error);
+			}
+		}
+	}
+	/**
+	 * Discards expired results from the head of the map (the least recently used ones),
+	 * stopping at the first result that has not expired. Expired results that are not at
+	 * the head are discarded when they are looked for.<BR>
+	 * Must be called with the lock of this cache.
+	 * @param now current time
+	 */
+	private void evictExpired(long now) {
+		for (final Iterator it = entries.values().iterator(); it.hasNext();) {
+			if (!isExpired((Entry) it.next(), now)) {
+				break;
+			}
+			it.remove();
+			evictions++;
+		}
+	}
+	/**
+	 * Checks if a result has expired
+	 * @param entry cached result
+	 * @param now current time
+	 * @return boolean
+	 */
+	private boolean isExpired(Entry entry, long now) {
+		return ttl > 0 && now - entry.time >= ttl;
+	}
+	/**
+	 * Retrieves the statistics of this cache
+	 * @return statistics
+	 */
+	synchronized ResultCacheStatistics getStatistics() {
+		return new ResultCacheStatistics(hits, misses, coalesced, evictions, entries.size());
+	}
+
+	/**
+	 * Cached result
+	 */
+	private static final class Entry {
+		private final Object result;
+		private final long time;
+		/**
+		 * Default Constructor.
+		 * @param result requisition result
+		 * @param time time when the result has been cached
+		 */
+		private Entry(Object result, long time) {
+			this.result = result;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ResultCacheStatistics.java
+ */
+
+package net.sf.openrds;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of the result cache of a main node (see IndivisibleRequisition.getCacheKey()).
+ * @since OpenRDS 1.3
+ */
+public final class ResultCacheStatistics implements Serializable {
+	/** serialVersionUID */
+	private static final long serialVersionUID = 4216087702935112648L;
+	private final long hits;
+	private final long misses;
+	private final long coalesced;
+	private final long evictions;
+	private final int size;
+
+	/**
+	 * Default Constructor.
+	 * @param hits number of requisitions answered by a cached result
+	 * @param misses number of requisitions processed because their result was not cached
+	 * @param coalesced number of requisitions that waited for an identical one
+	 * @param evictions number of results discarded because of the size limit or time-to-live
+	 * @param size number of results in cache
+	 */
+	ResultCacheStatistics(long hits, long misses, long coalesced, long evictions, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.coalesced = coalesced;
+		this.evictions = evictions;
+		this.size = size;
+	}
+	/** @return number of requisitions answered by a cached result */
+	public long getHits() {
+		return hits;
+	}
+	/** @return number of cacheable requisitions that have been processed, because their result was not cached */
+	public long getMisses() {
+		return misses;
+	}
+	/** @return number of requisitions that have waited for an identical requisition beeing processed */
+	public long getCoalesced() {
+		return coalesced;
+	}
+	/** @return number of results discarded because of the size limit or the time-to-live */
+	public long getEvictions() {
+		return evictions;
+	}
+	/** @return number of results in cache */
+	public int getSize() {
+		return size;
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "Hits: " + hits + ", misses: " + misses + ", coalesced: " + coalesced
+			+ ", evictions: " + evictions + ", size: " + size;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ResultCollector.java
+ */
+
+package net.sf.openrds;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the results of submitted requisitions until the client fetches them.<BR>
+ * Results are kept in completion order.
+ */
+final class ResultCollector {
+	/** Tickets of requisitions that have not been completed yet */
+	private final Set pending		= new HashSet();
+	/** Results that have not been fetched yet, by ticket */
+	private final Map completed		= new LinkedHashMap();
+
+	/**
+	 * Registers a ticket whose result will be collected
+	 * @param ticket ticket
+	 */
+	synchronized void register(RequisitionTicket ticket) {
+		pending.add(ticket);
+	}
+	/**
+	 * Stores the result of a requisition, waking up threads waiting for results
+	 * @param result result
+	 */
+	synchronized void complete(RequisitionResult result) {
+		if (pending.remove(result.getTicket())) {
+			completed.put(result.getTicket(), result);
+			notifyAll();
+		}
+	}
+	/**
+	 * Retrieves (and forgets) the result of a requisition, without blocking
+	 * @param ticket ticket
+	 * @return result or null if the requisition has not been completed yet
+	 * @throws IllegalArgumentException if the ticket is unknown or its result has already
+	 * been retrieved
+	 */
+	synchronized RequisitionResult poll(RequisitionTicket ticket) {
+		final RequisitionResult result = (RequisitionResult) completed.remove(ticket);
+		if (result == null && !pending.contains(ticket)) {
+			throw new IllegalArgumentException("Unknown ticket: " + ticket);
+		}
+		return result;
+	}
+	/**
+	 * Retrieves (and forgets) the results available, in completion order. If there is none,
+	 * waits for one until the given timeout is reached.
+	 * @param maxResults maximum number of results to retrieve
+	 * @param timeout maximum time to wait (in millis), or zero to never wait
+	 * @return results (empty if there is none)
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	synchronized RequisitionResult[] fetch(int maxResults, long timeout) throws InterruptedException {
+		if (completed.isEmpty() && !pending.isEmpty() && timeout > 0) {
+			final long deadline = System.currentTimeMillis() + timeout;
+			long remaining = timeout;
+			while (completed.isEmpty() && !pending.isEmpty() && remaining > 0) {
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+		final RequisitionResult[] results = new RequisitionResult[Math.min(maxResults, completed.size())];
+		final Iterator it = completed.values().iterator();
+		for (int i = 0; i < results.length; i++) {
+			results[i] = (RequisitionResult) it.next();
+			it.remove();
+		}
+		return results;
+	}
+	/**
+	 * Checks how many requisitions have not been completed yet
+	 * @return integer
+	 */
+	synchronized int getPending() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * ResultStream.java
+ */
+
+package net.sf.openrds;
+
+import java.util.LinkedList;
+
+/**
+ * Holds the result chunks of a streaming requisition on the main node, until the client
+ * fetches them (see StreamingRequisition).<BR>
+ * Process nodes are blocked while the stream holds a full window of chunks, so the memory
+ * used by a stream does not depend on the size of the whole result. If the client stops
+ * fetching chunks for too long, the stream is abandoned and the requisition fails.
+ */
+final class ResultStream {
+	/** Default window (number of chunks held) */
+	static final int DEFAULT_WINDOW = 64;
+	/** Default time (in millis) a full stream waits for a fetch before beeing abandoned */
+	static final long DEFAULT_TIMEOUT = 60000;
+	/** Chunks that have not been fetched yet */
+	private final LinkedList chunks = new LinkedList();
+	/** Maximum number of chunks held */
+	private final int window;
+	/** Maximum time (in millis) to wait for a fetch while the window is full, or zero to wait forever */
+	private final long timeout;
+	/** Last time the client has fetched chunks (or the stream has been created) */
+	private long lastFetch = System.currentTimeMillis();
+	/** Number of chunks received since the stream has been created */
+	private long received = 0;
+	/** Registers if the requisition has been completed */
+	private boolean ended = false;
+	/** Registers if the stream has been abandoned, because chunks were not fetched */
+	private boolean abandoned = false;
+
+	/**
+	 * Creates a stream with the window given by ISystemProperties.STREAM_WINDOW and
+	 * the timeout given by ISystemProperties.STREAM_TIMEOUT
+	 */
+	ResultStream() {
+		final String prop = System.getProperty(ISystemProperties.STREAM_WINDOW);
+		this.window = Math.max(1, (prop != null) ? Integer.parseInt(prop) : DEFAULT_WINDOW);
+		final String time = System.getProperty(ISystemProperties.STREAM_TIMEOUT);
+		this.timeout = Math.max(0, (time != null) ? Long.parseLong(time) : DEFAULT_TIMEOUT);
+	}
+	/**
+	 * Adds chunks to this stream, waiting until there is room for them.
+	 * Chunks that have already been received (from a previous processing of the same
+	 * requisition, on a node that has been lost) are skipped, as well as chunks received
+	 * after the requisition has been completed.<BR>
+	 * If the window stays full and no chunk is fetched until the timeout is reached, the
+	 * stream is abandoned: the chunks held are discarded and no other chunk is accepted.
+	 * @param first sequence number of the first chunk
+	 * @param added chunks
+	 * @return false if the stream has been abandoned, true otherwise
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	synchronized boolean push(long first, Object[] added) throws InterruptedException {
+		final int skip = (int) Math.min(added.length, Math.max(0, received - first));
+		final int count = added.length - skip;
+		while (!ended && !chunks.isEmpty() && chunks.size() + count > window) {
+			if (timeout == 0) {
+				wait();
+				continue;
+			}
+			final long remaining = lastFetch + timeout - System.currentTimeMillis();
+			if (remaining <= 0) {
+				abandoned = true;
+				discard();
+				break;
+			}
+			wait(remaining);
+		}
+		if (abandoned) {
+			return false;
+		}
+		if (ended || count == 0) {
+			return true;
+		}
+		for (int i = skip; i < added.length; i++) {
+			chunks.addLast(added[i]);
+		}
+		received += count;
+		notifyAll();
+		return true;
+	}
+	/**
+	 * Retrieves (and forgets) the chunks available, in the order they have been emitted.
+	 * If there is none, waits for one until the given timeout is reached.
+	 * @param maxChunks maximum number of chunks to retrieve
+	 * @param timeout maximum time to wait (in millis), or zero to never wait
+	 * @return chunks (empty if there is none), or null if the requisition has been
+	 * completed and all chunks have been retrieved
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	synchronized Object[] fetch(int maxChunks, long timeout) throws InterruptedException {
+		lastFetch = System.currentTimeMillis();
+		if (chunks.isEmpty() && !ended && timeout > 0) {
+			final long deadline = System.currentTimeMillis() + timeout;
+			long remaining = timeout;
+			while (chunks.isEmpty() && !ended && remaining > 0) {
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+		if (chunks.isEmpty() && ended) {
+			return null;
+		}
+		final Object[] fetched = new Object[Math.min(maxChunks, chunks.size())];
+		for (int i = 0; i < fetched.length; i++) {
+			fetched[i] = chunks.removeFirst();
+		}
+		notifyAll();
+		return fetched;
+	}
+	/**
+	 * Marks the requisition as completed. Chunks already held can still be fetched, but
+	 * no other chunk is accepted.
+	 */
+	synchronized void end() {
+		ended = true;
+		notifyAll();
+	}
+	/**
+	 * Ends this stream and forgets the chunks it holds, releasing the process node if it
+	 * is blocked. Used when the client will not fetch the chunks anymore.
+	 */
+	synchronized void discard() {
+		chunks.clear();
+		end();
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * RmiTransport.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.rmi.registry.Registry;
+
+/**
+ * Default transport, which uses Java RMI for every remote call
+ */
+final class RmiTransport implements ITransport {
+	/** {@inheritDoc} */
+	public Registry createLocalRegistry(int port) throws IOException {
+		return new LocalRegistryHandler(port);
+	}
+	/** {@inheritDoc} */
+	public Registry createRemoteRegistry(String host, int port) throws IOException {
+		return new RemoteRegistryHandler(host, port);
+	}
+}
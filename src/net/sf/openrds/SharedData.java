@@ -0,0 +1,147 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * SharedData.java
+ */
+
+package net.sf.openrds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reference to large read-only data shared by many requisitions, like a lookup table used
+ * by all sub-requisitions of a divisible requisition.<BR>
+ * Only the key of the data (the hash of its content) is serialized with the requisitions.
+ * The data itself is published once on the main node, and each process node fetches it
+ * from there on the first use, keeping it in cache for the next requisitions and jobs
+ * (see ISystemProperties.SHARED_DATA_CACHE).<BR>
+ * Usage:<BR>
+ * <code>
+ * final SharedData table = new SharedData(myTable);<BR>
+ * table.publish(mainNode);<BR>
+ * // Creates requisitions that keep "table" and call table.getValue() on process()<BR>
+ * </code>
+ * The shared object must never be changed, since each process node keeps its own copy.<BR>
+ * Classes are annotated with their codebase, like RMI does, so process nodes may download
+ * the classes of the shared object from the client.
+ * @since OpenRDS 1.3
+ */
+public final class SharedData implements Serializable {
+	/** serialVersionUID */
+	private static final long serialVersionUID = 8144750214950365120L;
+	/** Hash of the serialized data */
+	private final String key;
+	/** Size of the serialized data */
+	private final int size;
+	/** Shared object, on the JVM that has created or fetched it */
+	private transient Object value;
+	/** Serialized data, on the JVM that has created it */
+	private transient byte[] data;
+
+	/**
+	 * Creates a new reference to the given data
+	 * @param value data to be shared (must be serializable)
+	 * @throws IOException if the data could not be serialized
+	 */
+	public SharedData(Serializable value) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new AnnotatedOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		this.value = value;
+		this.data = bytes.toByteArray();
+		this.key = hash(this.data);
+		this.size = this.data.length;
+	}
+	/**
+	 * Publishes the data on the given main node, so process nodes can fetch it.
+	 * Nothing is sent if the main node already has the same data.
+	 * @param mainNode main node
+	 * @throws RemoteException on any communication error
+	 * @throws IllegalStateException if this reference has not been created on this JVM
+	 */
+	public void publish(IMainNode mainNode) throws RemoteException {
+		if (data == null) {
+			throw new IllegalStateException("Shared data can only be published by the JVM that has created it");
+		}
+		if (!mainNode.hasData(key)) {
+			mainNode.publishData(key, data);
+		}
+	}
+	/**
+	 * Retrieves the shared object. On process nodes, it is taken from the cache, or fetched
+	 * from the main node if it is not there.
+	 * @return shared object
+	 * @throws ProcessingException if the data could not be fetched
+	 */
+	public Object getValue() throws ProcessingException {
+		if (value == null) {
+			value = SharedDataCache.getInstance().get(key);
+		}
+		return value;
+	}
+	/** @return key (hash) of the data */
+	public String getKey() {
+		return key;
+	}
+	/** @return size (in bytes) of the serialized data */
+	public int getSize() {
+		return size;
+	}
+	/** {@inheritDoc} */
+	public boolean equals(Object obj) {
+		return (obj instanceof SharedData) && ((SharedData) obj).key.equals(this.key);
+	}
+	/** {@inheritDoc} */
+	public int hashCode() {
+		return key.hashCode();
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "SharedData " + key + " (" + size + " bytes)";
+	}
+	/**
+	 * Calculates the key of serialized data
+	 * @param data serialized data
+	 * @return hexadecimal SHA-1 hash
+	 */
+	static String hash(byte[] data) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			final StringBuffer buf = new StringBuffer(digest.length * 2);
+			for (int i = 0; i < digest.length; i++) {
+				buf.append(Character.forDigit((digest[i] >> 4) & 0x0F, 16));
+				buf.append(Character.forDigit(digest[i] & 0x0F, 16));
+			}
+			return buf.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error("SHA-1 is not available", e);
+		}
+	}
+	/**
+	 * Deserializes shared data
+	 * @param data serialized data
+	 * @return shared object
+	 * @throws IOException on any error
+	 * @throws ClassNotFoundException if the class of the object is not found
+	 */
+	static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+		return new AnnotatedInputStream(new ByteArrayInputStream(data)).readObject();
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * SharedDataCache.java
+ */
+
+package net.sf.openrds;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of shared data on process nodes (see SharedData).<BR>
+ * Data is fetched from the main node on the first use and kept until the cache reaches
+ * its size limit, when the data used less recently is discarded. Threads that need the
+ * same data at the same time wait for a single fetch.<BR>
+ * The limit applies to the serialized data, which is what the cache keeps. The shared
+ * objects are only softly reachable from the cache, so they are kept while the JVM has
+ * memory for them, and deserialized again from the cached data otherwise. Data larger than
+ * the limit is never kept serialized, but its shared object is kept the same way, so it is
+ * only fetched again if the JVM needs that memory.
+ */
+final class SharedDataCache {
+	/** Default size limit (in bytes) */
+	private static final long DEFAULT_LIMIT = 64 * 1024 * 1024;
+	/** Singleton instance */
+	private static final SharedDataCache INSTANCE = new SharedDataCache();
+	/** Cached entries by key, in access order */
+	private final Map entries = new LinkedHashMap(16, 0.75f, true);
+	/** Soft references to the shared objects of data larger than the limit, by key */
+	private final Map oversized = new HashMap();
+	/** Keys beeing fetched */
+	private final Set loading = new HashSet();
+	/** Maximum size (in bytes) of the cached data */
+	private long limit;
+	/** Size (in bytes) of the cached data */
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/** Private constructor to ensure singleton instance */
+	private SharedDataCache() {
+		clear();
+	}
+	/**
+	 * Retrieves the singleton instance of this class
+	 * @return SharedDataCache singleton
+	 */
+	static SharedDataCache getInstance() {
+		return INSTANCE;
+	}
+	/**
+	 * Retrieves shared data, fetching it from the main node if it is not in cache
+	 * @param key key of the data
+	 * @return shared object
+	 * @throws ProcessingException if the data could not be fetched
+	 */
+	Object get(String key) throws ProcessingException {
+		Entry entry;
+		synchronized (this) {
+			while (true) {
+				entry = (Entry) entries.get(key);
+				if (entry == null) {
+					final SoftReference ref = (SoftReference) oversized.get(key);
+					final Object value = (ref != null) ? ref.get() : null;
+					if (value != null) {
+						hits++;
+						return value;
+					}
+				}
+				if (entry != null || !loading.contains(key)) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new ProcessingException("Thread has been interrupted!", e);
+				}
+			}
+			if (entry != null) {
+				hits++;
+				final Object value = entry.value.get();
+				if (value != null) {
+					return value;
+				}
+			} else {
+				misses++;
+				loading.add(key);
+			}
+		}
+		if (entry != null) {
+			// The shared object has been collected, but the data is still here
+			try {
+				final Object value = SharedData.deserialize(entry.data);
+				synchronized (this) {
+					entry.value = new SoftReference(value);
+				}
+				return value;
+			} catch (Exception e) {
+				throw new ProcessingException("Could not deserialize shared data " + key, e);
+			}
+		}
+		byte[] data = null;
+		Object value = null;
+		try {
+			data = RegistryHandler.getInstance().getMainNode().fetchData(key);
+			if (!SharedData.hash(data).equals(key)) {
+				throw new ProcessingException("Shared data does not match its key: " + key);
+			}
+			value = SharedData.deserialize(data);
+			return value;
+		} catch (ProcessingException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ProcessingException("Could not fetch shared data " + key, e);
+		} finally {
+			synchronized (this) {
+				loading.remove(key);
+				if (value != null) {
+					put(key, data, value);
+				}
+				notifyAll();
+			}
+		}
+	}
+	/**
+	 * Adds data, discarding the least recently used ones when the limit is exceeded.
+	 * Data larger than the limit only has its shared object softly kept.
+	 * Must be called with the lock of this cache.
+	 * @param key key
+	 * @param data serialized data
+	 * @param value shared object
+	 */
+	private void put(String key, byte[] data, Object value) {
+		if (data.length > limit) {
+			for (final Iterator it = oversized.values().iterator(); it.hasNext();) {
+				if (((SoftReference) it.next()).get() == null) {
+					it.remove();
+				}
+			}
+			oversized.put(key, new SoftReference(value));
+			return;
+		}
+		entries.put(key, new Entry(data, value));
+		size += data.length;
+		for (final Iterator it = entries.values().iterator(); size > limit && it.hasNext();) {
+			size -= ((Entry) it.next()).data.length;
+			it.remove();
+		}
+	}
+	/**
+	 * Checks if data is in cache, without changing its access order
+	 * @param key key of the data
+	 * @return boolean
+	 */
+	synchronized boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+	/** @return size (in bytes) of the cached data */
+	synchronized long getSize() {
+		return size;
+	}
+	/** @return number of times data has been found in cache */
+	synchronized long getHits() {
+		return hits;
+	}
+	/** @return number of times data has been fetched from the main node */
+	synchronized long getMisses() {
+		return misses;
+	}
+	/**
+	 * Discards all cached data and reads the size limit again (mostly used for junits)
+	 */
+	synchronized void clear() {
+		final String prop = System.getProperty(ISystemProperties.SHARED_DATA_CACHE);
+		limit = (prop != null) ? Long.parseLong(prop) : DEFAULT_LIMIT;
+		entries.clear();
+		oversized.clear();
+		size = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Cached data
+	 */
+	private static final class Entry {
+		private final byte[] data;
+		/** Shared object, guarded by the cache */
+		private SoftReference value;
+		/**
+		 * Default Constructor.
+		 * @param data serialized data
+		 * @param value shared object
+		 */
+		private Entry(byte[] data, Object value) {
+			this.data = data;
+			this.value = new SoftReference(value);
+		}
+	}
+}
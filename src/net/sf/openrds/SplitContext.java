@@ -0,0 +1,111 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * SplitContext.java
+ */
+
+package net.sf.openrds;
+
+
+/**
+ * Information given to a divisible requisition when it is splitted, so the number and size
+ * of its sub-requisitions may fit the capacity of the nodes (see
+ * DivisibleRequisition.getSubRequisitions(SplitContext)).<BR>
+ * It holds the clock and memory amount of each available node, the number of requisitions
+ * waiting on the main node and the throughput measured on previous runs of requisitions of
+ * the same class.
+ * @since OpenRDS 1.3
+ */
+public final class SplitContext {
+	private final int[] clocks;
+	private final int[] memories;
+	private final int queueDepth;
+	private final double throughput;
+	private final double workRate;
+
+	/**
+	 * Default Constructor.
+	 * @param clocks clock frequency of each available node
+	 * @param memories memory amount of each available node
+	 * @param queueDepth number of requisitions waiting to be dispatched
+	 * @param throughput sub-requisitions per second measured on previous runs (zero if unknown)
+	 * @param workRate work units per millisecond per node measured on previous runs of an
+	 * AdaptiveRequisition (zero if unknown)
+	 */
+	SplitContext(int[] clocks, int[] memories, int queueDepth, double throughput, double workRate) {
+		this.clocks = clocks;
+		this.memories = memories;
+		this.queueDepth = queueDepth;
+		this.throughput = throughput;
+		this.workRate = workRate;
+	}
+	/** @return number of nodes available for processing sub-requisitions */
+	public int getAvailableNodes() {
+		return clocks.length;
+	}
+	/**
+	 * @param node index of the node (from zero to getAvailableNodes() - 1)
+	 * @return clock frequency (in MHz) of the node, or zero if unknown
+	 */
+	public int getNodeClock(int node) {
+		return clocks[node];
+	}
+	/**
+	 * @param node index of the node (from zero to getAvailableNodes() - 1)
+	 * @return memory amount (in MB) of the node, or zero if unknown
+	 */
+	public int getNodeMemory(int node) {
+		return memories[node];
+	}
+	/** @return sum of the clock frequency of all available nodes */
+	public long getTotalClock() {
+		long total = 0;
+		for (int i = 0; i < clocks.length; i++) {
+			total += Math.max(0, clocks[i]);
+		}
+		return total;
+	}
+	/** @return sum of the memory amount of all available nodes */
+	public long getTotalMemory() {
+		long total = 0;
+		for (int i = 0; i < memories.length; i++) {
+			total += Math.max(0, memories[i]);
+		}
+		return total;
+	}
+	/** @return number of requisitions waiting on the main node to be dispatched */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+	/**
+	 * Retrieves how many sub-requisitions per second have been processed (by all nodes
+	 * together) on previous runs of requisitions of the same class.
+	 * @return throughput, or zero if no requisition of this class has been processed yet
+	 */
+	public double getMeasuredThroughput() {
+		return throughput;
+	}
+	/**
+	 * Retrieves how many work units per millisecond each node has processed on previous
+	 * runs of adaptive requisitions of the same class (see AdaptiveRequisition).
+	 * @return work rate, or zero if unknown
+	 */
+	public double getMeasuredWorkRate() {
+		return workRate;
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "SplitContext[nodes=" + clocks.length + ", clock=" + getTotalClock()
+			+ ", memory=" + getTotalMemory() + ", queue=" + queueDepth + ", throughput=" + throughput
+			+ ", workRate=" + workRate + "]";
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * SplitHistory.java
+ */
+
+package net.sf.openrds;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the throughput measured when divisible requisitions are processed, by requisition
+ * class, so the next requisitions of the same class may be splitted accordingly.<BR>
+ * Measures are smoothed by an exponential moving average, where the new sample weights 1/4.
+ */
+final class SplitHistory {
+	/** Measures, by requisition class name */
+	private final Map measures = new HashMap();
+
+	/**
+	 * Registers that a divisible requisition has been processed
+	 * @param req requisition
+	 * @param subRequisitions number of sub-requisitions
+	 * @param nanos time (in nanos) taken by the whole requisition
+	 */
+	synchronized void recordRun(DivisibleRequisition req, int subRequisitions, long nanos) {
+		if (subRequisitions > 0 && nanos > 0) {
+			final Measure measure = getMeasure(req);
+			measure.throughput = average(measure.throughput, subRequisitions * 1e9 / nanos);
+		}
+	}
+	/**
+	 * Registers the work rate measured while processing an adaptive requisition
+	 * @param req requisition
+	 * @param rate work units per millisecond per node
+	 * @return the smoothed work rate
+	 */
+	synchronized double recordWorkRate(DivisibleRequisition req, double rate) {
+		final Measure measure = getMeasure(req);
+		measure.workRate = average(measure.workRate, rate);
+		return measure.workRate;
+	}
+	/**
+	 * @param req requisition
+	 * @return sub-requisitions per second of the previous runs, or zero if unknown
+	 */
+	synchronized double getThroughput(DivisibleRequisition req) {
+		final Measure measure = (Measure) measures.get(req.getClass().getName());
+		return (measure != null) ? measure.throughput : 0;
+	}
+	/**
+	 * @param req requisition
+	 * @return work units per millisecond per node of the previous runs, or zero if unknown
+	 */
+	synchronized double getWorkRate(DivisibleRequisition req) {
+		final Measure measure = (Measure) measures.get(req.getClass().getName());
+		return (measure != null) ? measure.workRate : 0;
+	}
+	/**
+	 * Retrieves (or creates) the measures of a requisition class
+	 * @param req requisition
+	 * @return measures
+	 */
+	private Measure getMeasure(DivisibleRequisition req) {
+		final String name = req.getClass().getName();
+		Measure measure = (Measure) measures.get(name);
+		if (measure == null) {
+			measure = new Measure();
+			measures.put(name, measure);
+		}
+		return measure;
+	}
+	/**
+	 * Adds a sample to a moving average
+	 * @param current current average (zero if there is no sample yet)
+	 * @param sample new sample
+	 * @return new average
+	 */
+	private static double average(double current, double sample) {
+		return (current == 0) ? sample : (current * 3 + sample) / 4;
+	}
+
+	/**
+	 * Measures of a requisition class
+	 */
+	private static final class Measure {
+		private double throughput = 0;
+		private double workRate = 0;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * StragglerDetector.java
+ */
+
+package net.sf.openrds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Detects the sub-requisitions of a job (the sub-requisitions of a divisible requisition)
+ * that are taking much longer than their siblings, so a backup of them may be processed by
+ * another node (see ISystemProperties.SPECULATION).<BR>
+ * Once at least half of the tracked sub-requisitions are done, a pending one is a straggler
+ * if it has been sent to a node for longer than the given percentile of the time taken by
+ * the completed ones, multiplied by the given factor (and for longer than a minimum time).
+ * Each sub-requisition is reported only once.
+ */
+final class StragglerDetector {
+	/** Sub-requisitions not done yet */
+	private final List pending = new LinkedList();
+	/** Sub-requisitions that have already been reported */
+	private final Set reported = Collections.newSetFromMap(new IdentityHashMap());
+	/** Time (in millis) taken by each completed sub-requisition */
+	private long[] durations = new long[16];
+	private int completed = 0;
+	private int tracked = 0;
+	private final int percentile;
+	private final double multiplier;
+	private final long minTime;
+
+	/**
+	 * Default Constructor.
+	 * @param percentile percentile (from 1 to 100) of the completion time of the siblings
+	 * @param multiplier how many times the percentile a sub-requisition may take
+	 * @param minTime minimum time (in millis) of a straggler
+	 */
+	StragglerDetector(int percentile, double multiplier, long minTime) {
+		this.percentile = Math.max(1, Math.min(100, percentile));
+		this.multiplier = multiplier;
+		this.minTime = minTime;
+	}
+	/**
+	 * Starts tracking a sub-requisition
+	 * @param wrapper wrapper of the sub-requisition
+	 */
+	synchronized void track(RequisitionWrapper wrapper) {
+		pending.add(wrapper);
+		tracked++;
+	}
+	/**
+	 * Checks if all tracked sub-requisitions are done
+	 * @return boolean
+	 */
+	synchronized boolean isEmpty() {
+		return pending.isEmpty();
+	}
+	/**
+	 * Registers the sub-requisitions that are done, and finds the stragglers
+	 * @param now current time (in millis)
+	 * @param max maximum number of stragglers to report
+	 * @return stragglers that have not been reported yet (may be empty)
+	 */
+	synchronized RequisitionWrapper[] check(long now, int max) {
+		for (final Iterator it = pending.iterator(); it.hasNext();) {
+			final RequisitionWrapper wrapper = (RequisitionWrapper) it.next();
+			if (wrapper.isDone()) {
+				it.remove();
+				reported.remove(wrapper);
+				// Wrappers done without beeing sent to a node (cached, failed, etc) are not measured
+				if (wrapper.getStartTime() > 0) {
+					if (completed == durations.length) {
+						final long[] bigger = new long[completed * 2];
+						System.arraycopy(durations, 0, bigger, 0, completed);
+						durations = bigger;
+					}
+					durations[completed++] = Math.max(0, wrapper.getDoneTime() - wrapper.getStartTime());
+				}
+			}
+		}
+		if (completed == 0 || completed * 2 < tracked || pending.isEmpty()) {
+			return new RequisitionWrapper[0];
+		}
+		final long limit = Math.max(minTime, (long) (getPercentile() * multiplier));
+		final List stragglers = new ArrayList();
+		for (final Iterator it = pending.iterator(); it.hasNext() && stragglers.size() < max;) {
+			final RequisitionWrapper wrapper = (RequisitionWrapper) it.next();
+			final long start = wrapper.getStartTime();
+			if (start > 0 && now - start > limit && !reported.contains(wrapper)) {
+				reported.add(wrapper);
+				stragglers.add(wrapper);
+			}
+		}
+		return (RequisitionWrapper[]) stragglers.toArray(new RequisitionWrapper[stragglers.size()]);
+	}
+	/**
+	 * Calculates the percentile of the completion times
+	 * @return time in millis
+	 */
+	private long getPercentile() {
+		final long[] sorted = new long[completed];
+		System.arraycopy(durations, 0, sorted, 0, completed);
+		Arrays.sort(sorted);
+		final int index = (int) Math.ceil(percentile / 100.0 * completed) - 1;
+		return sorted[Math.max(0, index)];
+	}
+}
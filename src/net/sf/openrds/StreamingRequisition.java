@@ -0,0 +1,115 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * StreamingRequisition.java
+ */
+
+package net.sf.openrds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a requisition that emits its result in chunks while it is processed, instead
+ * of returning a single (and possibly huge) object.<BR>
+ * Chunks flow to the main node while the requisition runs, and the client fetches them
+ * with IMainNode.fetchChunks(), so no node has to hold the whole result. When chunks are
+ * not fetched, the requisition blocks until they are (see ISystemProperties.STREAM_WINDOW).<BR>
+ * Streaming requisitions must be submitted by IMainNode.submitRequisition(), and the
+ * object returned by process(IResultSink) is the result of the ticket.<BR>
+ * If a process node is lost, the requisition is processed again by another node and the
+ * chunks that have already been delivered are skipped, so the same chunks must be emitted
+ * in the same order every time the requisition is processed.
+ * @since OpenRDS 1.3
+ */
+public abstract class StreamingRequisition extends IndivisibleRequisition {
+	/** Ticket of the submitted requisition, which identifies its stream on the main node */
+	private RequisitionTicket ticket;
+
+	/**
+	 * Processes this requisition, emitting its result chunks to the given sink.
+	 * @param sink sink that receives the result chunks
+	 * @return final result, available by IMainNode.pollResult() after all chunks
+	 * (usually null or a summary)
+	 * @throws ProcessingException on any error processing the requisition
+	 */
+	public abstract Object process(IResultSink sink) throws ProcessingException;
+
+	/**
+	 * Processes this requisition, calling process(IResultSink) and delivering all
+	 * emitted chunks to the main node before returning.
+	 * @return final result
+	 * @throws ProcessingException on any error processing the requisition, or if this
+	 * requisition has not been submitted by IMainNode.submitRequisition()
+	 */
+	public final Object process() throws ProcessingException {
+		if (ticket == null) {
+			throw new ProcessingException("Streaming requisitions must be submitted by IMainNode.submitRequisition()");
+		}
+		final ChunkSender sender = new ChunkSender(ticket);
+		final Object result = process(sender);
+		sender.flush();
+		return result;
+	}
+	/**
+	 * Sets the ticket of the submitted requisition
+	 * @param ticket ticket
+	 */
+	final void setTicket(RequisitionTicket ticket) {
+		this.ticket = ticket;
+	}
+
+	/**
+	 * Sink that sends chunks to the main node in groups
+	 */
+	private static final class ChunkSender implements IResultSink {
+		private final RequisitionTicket ticket;
+		private final int groupSize;
+		private final List group = new ArrayList();
+		/** Sequence number of the first chunk of the group */
+		private long sent = 0;
+
+		/**
+		 * Default Constructor.
+		 * @param ticket ticket of the requisition
+		 */
+		private ChunkSender(RequisitionTicket ticket) {
+			this.ticket = ticket;
+			final String prop = System.getProperty(ISystemProperties.STREAM_WINDOW);
+			this.groupSize = Math.max(1, ((prop != null) ? Integer.parseInt(prop) : ResultStream.DEFAULT_WINDOW) / 2);
+		}
+		/** {@inheritDoc} */
+		public void emit(Object chunk) throws ProcessingException {
+			group.add(chunk);
+			if (group.size() >= groupSize) {
+				flush();
+			}
+		}
+		/**
+		 * Sends the chunks of the group to the main node, blocking until it takes them
+		 * @throws ProcessingException if the main node is unreachable, or if it does not
+		 * know the stream anymore
+		 */
+		private void flush() throws ProcessingException {
+			if (group.isEmpty()) {
+				return;
+			}
+			try {
+				RegistryHandler.getInstance().getMainNode().pushChunks(ticket, sent, group.toArray());
+			} catch (Exception e) {
+				throw new ProcessingException("Could not deliver result chunks to the main node", e);
+			}
+			sent += group.size();
+			group.clear();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * TunedSocketFactory.java
+ */
+
+package net.sf.openrds;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.rmi.server.RMISocketFactory;
+
+/**
+ * Socket factory used by remote method calls.<BR>
+ * It implements socket connect timeouts, which prevents RMI calls from taking a long time
+ * to fail when a node crashes, and applies the socket options given by the system properties
+ * (TCP_NODELAY, buffer sizes, SO_KEEPALIVE, SO_TIMEOUT and the server backlog) to both
+ * connected and accepted sockets.<BR>
+ * The options are read when the factory is created. Instances may also be given to
+ * UnicastRemoteObject.exportObject() as client and server socket factories.
+ * @see ISystemProperties#CONNECT_TIMEOUT
+ * @see ISystemProperties#SOCKET_NODELAY
+ * @since OpenRDS 1.3
+ */
+public final class TunedSocketFactory extends RMISocketFactory implements Serializable {
+	/** serialVersionUID */
+	private static final long serialVersionUID = -3624418270557937519L;
+	private final int connectTimeout;
+	private final boolean noDelay;
+	private final int sendBuffer;
+	private final int receiveBuffer;
+	private final boolean keepAlive;
+	private final int soTimeout;
+	private final int backlog;
+
+	/**
+	 * Creates a new factory using the options given by the system properties
+	 */
+	public TunedSocketFactory() {
+		this.connectTimeout	= getInt(ISystemProperties.CONNECT_TIMEOUT, 10000);
+		this.noDelay		= getBoolean(ISystemProperties.SOCKET_NODELAY, true);
+		this.sendBuffer		= getInt(ISystemProperties.SOCKET_SEND_BUFFER, 0);
+		this.receiveBuffer	= getInt(ISystemProperties.SOCKET_RECEIVE_BUFFER, 0);
+		this.keepAlive		= getBoolean(ISystemProperties.SOCKET_KEEPALIVE, false);
+		this.soTimeout		= getInt(ISystemProperties.SOCKET_TIMEOUT, 0);
+		this.backlog		= getInt(ISystemProperties.SOCKET_BACKLOG, 50);
+	}
+	/** {@inheritDoc} */
+	public ServerSocket createServerSocket(int port) throws IOException {
+		final ServerSocket server = new TunedServerSocket();
+		server.setReuseAddress(true);
+		if (receiveBuffer > 0) {
+			// Must be set before binding, so accepted sockets can use a large TCP window
+			server.setReceiveBufferSize(receiveBuffer);
+		}
+		server.bind(new InetSocketAddress(port), backlog);
+		return server;
+	}
+	/** {@inheritDoc} */
+	public Socket createSocket(String host, int port) throws IOException {
+		final Socket socket = new TimeoutSocket();
+		if (receiveBuffer > 0) {
+			socket.setReceiveBufferSize(receiveBuffer);
+		}
+		socket.bind(new InetSocketAddress(0));
+		socket.connect(host != null ? new InetSocketAddress(host, port) : new InetSocketAddress(InetAddress.getByName(null), port));
+		configure(socket);
+		return socket;
+	}
+	/**
+	 * Applies the socket options to a connected socket
+	 * @param socket socket
+	 * @throws IOException on any error
+	 */
+	void configure(Socket socket) throws IOException {
+		socket.setTcpNoDelay(noDelay);
+		socket.setKeepAlive(keepAlive);
+		socket.setSoTimeout(soTimeout);
+		if (sendBuffer > 0) {
+			socket.setSendBufferSize(sendBuffer);
+		}
+	}
+	/** {@inheritDoc} */
+	public boolean equals(Object obj) {
+		// RMI only shares connections among stubs whose factories are equal
+		if (!(obj instanceof TunedSocketFactory)) {
+			return false;
+		}
+		final TunedSocketFactory other = (TunedSocketFactory) obj;
+		return connectTimeout == other.connectTimeout && noDelay == other.noDelay
+				&& sendBuffer == other.sendBuffer && receiveBuffer == other.receiveBuffer
+				&& keepAlive == other.keepAlive && soTimeout == other.soTimeout
+				&& backlog == other.backlog;
+	}
+	/** {@inheritDoc} */
+	public int hashCode() {
+		return connectTimeout ^ (sendBuffer * 31) ^ (receiveBuffer * 17) ^ soTimeout
+				^ (noDelay ? 1 : 2) ^ (keepAlive ? 4 : 8);
+	}
+	/** {@inheritDoc} */
+	public String toString() {
+		return "TunedSocketFactory[connectTimeout=" + connectTimeout + ", noDelay=" + noDelay
+				+ ", sendBuffer=" + sendBuffer + ", receiveBuffer=" + receiveBuffer
+				+ ", keepAlive=" + keepAlive + ", soTimeout=" + soTimeout + ", backlog=" + backlog + "]";
+	}
+	/**
+	 * Reads an integer system property
+	 * @param name property name
+	 * @param def default value
+	 * @return value
+	 */
+	private static int getInt(String name, int def) {
+		final String prop = System.getProperty(name);
+		return (prop != null) ? Integer.parseInt(prop) : def;
+	}
+	/**
+	 * Reads a boolean system property
+	 * @param name property name
+	 * @param def default value
+	 * @return value
+	 */
+	private static boolean getBoolean(String name, boolean def) {
+		final String prop = System.getProperty(name);
+		return (prop != null) ? Boolean.valueOf(prop).booleanValue() : def;
+	}
+	/**
+	 * Server socket that applies the socket options to accepted sockets
+	 */
+	private final class TunedServerSocket extends ServerSocket {
+		/**
+		 * Default Constructor.
+		 * @throws IOException on IO error
+		 */
+		private TunedServerSocket() throws IOException {
+			super();
+		}
+		/** {@inheritDoc} */
+		public Socket accept() throws IOException {
+			final Socket socket = super.accept();
+			configure(socket);
+			return socket;
+		}
+	}
+	/**
+	 * Socket that implements a connect timeout
+	 */
+	private final class TimeoutSocket extends Socket {
+		/**
+		 * Default Constructor.
+		 */
+		private TimeoutSocket() {
+			super();
+		}
+		/** {@inheritDoc} */
+		public void connect(SocketAddress endpoint) throws IOException {
+			super.connect(endpoint, connectTimeout);
+		}
+		/** {@inheritDoc} */
+		public void connect(SocketAddress endpoint, int timeout) throws IOException {
+			timeout = (timeout == 0) ? connectTimeout : Math.min(timeout, connectTimeout);
+			super.connect(endpoint, timeout);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * BatchBenchmark.java
+ */
+
+package net.sf.openrds.examples;
+
+import net.sf.openrds.IMainNode;
+import net.sf.openrds.IndivisibleRequisition;
+import net.sf.openrds.JobHandle;
+import net.sf.openrds.RegistryHandler;
+import net.sf.openrds.RequisitionBatcher;
+import net.sf.openrds.RequisitionResult;
+
+/**
+ * Compares the throughput of submitting small requisitions one by one (see
+ * IMainNode.submitRequisition()) and in groups (see RequisitionBatcher).<BR>
+ * Note that this example requires an started main node and at least one process node, on
+ * other JVMs, so each submission goes through the whole remote call stack. Both the time
+ * spent submitting the requisitions and the time until all of them have been processed
+ * are shown.
+ */
+public class BatchBenchmark {
+	/** Number of requisitions submitted on each measure */
+	private static final int REQUISITIONS = 20000;
+
+	/**
+	 * Main
+	 * @param args pass the location of the main node (default localhost), the number of
+	 * requisitions in each group (default 500) and the number of requisitions
+	 * @throws Exception on any error
+	 */
+	public static void main(String[] args) throws Exception {
+		final String host = args.length > 0 ? args[0] : "localhost";
+		final int batch = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		final int count = args.length > 2 ? Integer.parseInt(args[2]) : REQUISITIONS;
+		RegistryHandler.getInstance().initialize(host);
+		final IMainNode stub = RegistryHandler.getInstance().getMainNode();
+		// Warm-up
+		measure(stub, 1, count / 10);
+		measure(stub, batch, count / 10);
+		System.out.println();
+		System.out.println(count + " requisitions");
+		System.out.println("Group size   Submit (ms)   Submitted/s   Total (ms)   Processed/s");
+		report(1, count, measure(stub, 1, count));
+		report(batch, count, measure(stub, batch, count));
+		System.exit(0);
+	}
+	/**
+	 * Submits requisitions and waits for all of them to be processed
+	 * @param stub main node
+	 * @param batch number of requisitions in each group, 1 to submit them one by one
+	 * @param count number of requisitions
+	 * @return submission time and total time (in nanos)
+	 * @throws Exception on any error
+	 */
+	private static long[] measure(IMainNode stub, int batch, int count) throws Exception {
+		final JobHandle job = stub.createJob();
+		final long start = System.nanoTime();
+		if (batch == 1) {
+			for (int i = 0; i < count; i++) {
+				stub.submitRequisition(new EmptyRequisition(), job);
+			}
+		} else {
+			final RequisitionBatcher batcher = new RequisitionBatcher(stub, job, batch, 20);
+			for (int i = 0; i < count; i++) {
+				batcher.add(new EmptyRequisition());
+			}
+			batcher.close();
+		}
+		final long submitted = System.nanoTime() - start;
+		stub.waitIdle(job);
+		final long total = System.nanoTime() - start;
+		RequisitionResult[] results;
+		do {
+			results = stub.fetchResults(job, 10000, 0);
+		} while (results.length > 0);
+		stub.closeJob(job);
+		return new long[] {submitted, total};
+	}
+	/**
+	 * Prints a measure
+	 * @param batch group size
+	 * @param count number of requisitions
+	 * @param nanos submission time and total time
+	 */
+	private static void report(int batch, int count, long[] nanos) {
+		System.out.println(pad(String.valueOf(batch), 13) + pad(String.valueOf(nanos[0] / 1000000), 14)
+				+ pad(String.valueOf((long) (count * 1e9 / nanos[0])), 14)
+				+ pad(String.valueOf(nanos[1] / 1000000), 13) + (long) (count * 1e9 / nanos[1]));
+	}
+	/**
+	 * Pads a string with spaces
+	 * @param str string
+	 * @param size final size
+	 * @return padded string
+	 */
+	private static String pad(String str, int size) {
+		final StringBuffer buf = new StringBuffer(str);
+		while (buf.length() < size) {
+			buf.append(' ');
+		}
+		return buf.toString();
+	}
+	/**
+	 * Requisition that does nothing
+	 */
+	private static final class EmptyRequisition extends IndivisibleRequisition {
+		private static final long serialVersionUID = 4481223406829553871L;
+		/** {@inheritDoc} */
+		public Object process() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * LatencyBenchmark.java
+ */
+
+package net.sf.openrds.examples;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+
+import net.sf.openrds.ISystemProperties;
+import net.sf.openrds.TunedSocketFactory;
+
+/**
+ * Measures the round trip time of small remote calls, like the ones used to send small
+ * requisitions to process nodes, with TCP_NODELAY disabled and enabled (see
+ * ISystemProperties.SOCKET_NODELAY).<BR>
+ * It does not need any node, just run it. The same object is exported twice on this JVM,
+ * once for each socket configuration, and called through its stubs, so the calls go through
+ * the whole RMI and TCP stack. Since it runs on a single machine, it shows the cost of the local TCP stack only.
+ */
+public class LatencyBenchmark {
+	/** Number of calls measured on each configuration */
+	private static final int ROUNDS = 5000;
+
+	/**
+	 * Main
+	 * @param args pass the size (in bytes) of the argument of each call (default 256) and,
+	 * optionally, the number of calls
+	 * @throws Exception on any error
+	 */
+	public static void main(String[] args) throws Exception {
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : ROUNDS;
+		System.out.println();
+		System.out.println("Argument size: " + size + " bytes, " + rounds + " calls");
+		System.out.println("TCP_NODELAY   Mean (us)   p50 (us)   p99 (us)   Max (us)");
+		measure("false", size, rounds);
+		measure("true", size, rounds);
+		System.exit(0);
+	}
+	/**
+	 * Measures the calls with the given TCP_NODELAY option
+	 * @param noDelay option value
+	 * @param size argument size
+	 * @param rounds number of calls
+	 * @throws Exception on any error
+	 */
+	private static void measure(String noDelay, int size, int rounds) throws Exception {
+		System.setProperty(ISystemProperties.SOCKET_NODELAY, noDelay);
+		final TunedSocketFactory factory = new TunedSocketFactory();
+		final Echo echo = new Echo();
+		final IEcho stub = (IEcho) UnicastRemoteObject.exportObject(echo, 0, factory, factory);
+		final byte[] arg = new byte[size];
+		// Warm-up
+		for (int i = 0; i < Math.min(rounds, 1000); i++) {
+			stub.echo(arg);
+		}
+		final long[] times = new long[rounds];
+		long total = 0;
+		for (int i = 0; i < rounds; i++) {
+			final long time = System.nanoTime();
+			stub.echo(arg);
+			times[i] = (System.nanoTime() - time) / 1000;
+			total += times[i];
+		}
+		UnicastRemoteObject.unexportObject(echo, true);
+		Arrays.sort(times);
+		System.out.println(pad(noDelay, 14) + pad(String.valueOf(total / rounds), 12)
+				+ pad(String.valueOf(times[rounds / 2]), 11)
+				+ pad(String.valueOf(times[rounds * 99 / 100]), 11) + times[rounds - 1]);
+	}
+	/**
+	 * Pads a string with spaces
+	 * @param str string
+	 * @param size final size
+	 * @return padded string
+	 */
+	private static String pad(String str, int size) {
+		final StringBuffer buf = new StringBuffer(str);
+		while (buf.length() < size) {
+			buf.append(' ');
+		}
+		return buf.toString();
+	}
+	/**
+	 * Remote interface called by the benchmark
+	 */
+	public static interface IEcho extends Remote {
+		/**
+		 * Returns the given argument
+		 * @param arg argument
+		 * @return arg
+		 * @throws RemoteException on any error
+		 */
+		Object echo(Object arg) throws RemoteException;
+	}
+	/**
+	 * Remote object called by the benchmark
+	 */
+	private static final class Echo implements IEcho {
+		/** {@inheritDoc} */
+		public Object echo(Object arg) {
+			return arg;
+		}
+	}
+}
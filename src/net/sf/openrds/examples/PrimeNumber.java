@@ -20,10 +20,20 @@
  */
 package net.sf.openrds.examples;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import net.sf.openrds.AdaptiveRequisition;
+import net.sf.openrds.CodecRegistry;
 import net.sf.openrds.DivisibleRequisition;
+import net.sf.openrds.ICodec;
 import net.sf.openrds.IMainNode;
 import net.sf.openrds.ProcessingException;
 import net.sf.openrds.RegistryHandler;
@@ -64,10 +74,12 @@ public class PrimeNumber {
 	}
 	
 	/**
-	 * Requisition used for tests
+	 * Requisition used for tests.<BR>
+	 * Numbers are checked in ranges sized by the main node, since bigger numbers take longer
+	 * to be checked and a fixed number of ranges per node would not fit every cluster.
 	 * @author Rodrigo
 	 */
-	private static class PrimeNumberRequisition extends DivisibleRequisition {
+	private static class PrimeNumberRequisition extends AdaptiveRequisition {
 	    private static final long serialVersionUID = 1263768786576710L;
 	    private final int qtyNumbers;
 	    /**
@@ -78,27 +90,31 @@ public class PrimeNumber {
 	    	this.qtyNumbers = qtyNumbers;
 	    }
 		/** {@inheritDoc} */
-		public SubRequisition[] getSubRequisitions(int availableNodes) {
-			final int qtyReqs = availableNodes * 50;
-			final int numbersPerReq = qtyNumbers / qtyReqs;
-			final int missing = qtyNumbers - (numbersPerReq * qtyReqs);
-			final SubRequisition reqs [] = new SubRequisition[qtyReqs];
-			for (int i = 0; i < reqs.length; i++) {
-				final int start = (i * numbersPerReq);
-				if (i == 0) {
-					// First requisition... has more if needed
-					reqs[i] = new PrimeSubRequisition(start, numbersPerReq + missing);
-				} else {
-					reqs[i] = new PrimeSubRequisition(start, numbersPerReq);
-				}
+		public long getWorkSize() {
+			return qtyNumbers;
+		}
+		/** {@inheritDoc} */
+		public SubRequisition createSubRequisition(long offset, long length) {
+			return new PrimeSubRequisition((int) offset, (int) length);
+		}
+		/** {@inheritDoc} */
+		public Object createAccumulator() {
+			// Ranges complete in any order, so lists are kept sorted by their first prime
+			return new TreeMap();
+		}
+		/** {@inheritDoc} */
+		public Object accumulate(Object accumulator, Object subResult) {
+			final LinkedList list = (LinkedList) subResult;
+			if (!list.isEmpty()) {
+				((Map) accumulator).put(list.getFirst(), list);
 			}
-			return reqs;
+			return accumulator;
 		}
 		/** {@inheritDoc} */
-		public Object getResponse(Object[] subResults) {
-			final LinkedList resp = new LinkedList();
-			for (int i = 0; i < subResults.length; i++) {
-				resp.addAll((List) subResults[i]);
+		public Object finish(Object accumulator) {
+			final LinkedList resp = new PrimeList();
+			for (final Iterator it = ((Map) accumulator).values().iterator(); it.hasNext();) {
+				resp.addAll((List) it.next());
 			}
 			return resp;
 		}
@@ -107,8 +123,20 @@ public class PrimeNumber {
 	 * Sub requisition
 	 * @author Rodrigo
 	 */
-	private static class PrimeSubRequisition extends SubRequisition {
+	static class PrimeSubRequisition extends SubRequisition {
 	    private static final long serialVersionUID = 1263156879651230L;
+	    static {
+	    	// Sent as two integers, instead of the descriptors of the whole class hierarchy
+	    	CodecRegistry.getInstance().register(PrimeSubRequisition.class, new ICodec() {
+	    		public void encode(Object obj, ObjectOutput out) throws IOException {
+	    			out.writeInt(((PrimeSubRequisition) obj).start);
+	    			out.writeInt(((PrimeSubRequisition) obj).qty);
+	    		}
+	    		public Object decode(ObjectInput in) throws IOException {
+	    			return new PrimeSubRequisition(in.readInt(), in.readInt());
+	    		}
+	    	});
+	    }
 	    private final int start;
 	    private final int qty;
 	    /**
@@ -116,14 +144,14 @@ public class PrimeNumber {
 	     * @param start start
 	     * @param qty end
 	     */
-	    private PrimeSubRequisition(int start, int qty) {
+	    PrimeSubRequisition(int start, int qty) {
 	    	this.start = start;
 	    	this.qty = qty;
 	    }
 		/** {@inheritDoc} */
 		public Object process() throws ProcessingException {
 			System.out.print('.');
-			final LinkedList list = new LinkedList();
+			final LinkedList list = new PrimeList();
 			for (int i = start, x = 0; x < qty; i++, x++) {
 				if (i > 0 && i != 2) {
 					boolean b = true;
@@ -146,5 +174,46 @@ public class PrimeNumber {
 			// at a time, on each process node.
 			return 100000;
 		}
+		/**
+		 * Uses the registered codec with any transport (not only with "nio")
+		 * @return object to be written
+		 * @throws ObjectStreamException never
+		 */
+		protected Object writeReplace() throws ObjectStreamException {
+			return CodecRegistry.getInstance().replace(this);
+		}
+	}
+	/**
+	 * List of prime numbers, which is sent as an array of integers instead of a list of
+	 * serialized Integer objects
+	 */
+	static class PrimeList extends LinkedList {
+	    private static final long serialVersionUID = 4403928721305562718L;
+	    static {
+	    	CodecRegistry.getInstance().register(PrimeList.class, new ICodec() {
+	    		public void encode(Object obj, ObjectOutput out) throws IOException {
+	    			final List list = (List) obj;
+	    			out.writeInt(list.size());
+	    			for (final Iterator it = list.iterator(); it.hasNext();) {
+	    				out.writeInt(((Integer) it.next()).intValue());
+	    			}
+	    		}
+	    		public Object decode(ObjectInput in) throws IOException {
+	    			final PrimeList list = new PrimeList();
+	    			for (int i = in.readInt(); i > 0; i--) {
+	    				list.add(new Integer(in.readInt()));
+	    			}
+	    			return list;
+	    		}
+	    	});
+	    }
+		/**
+		 * Uses the registered codec with any transport (not only with "nio")
+		 * @return object to be written
+		 * @throws ObjectStreamException never
+		 */
+		protected Object writeReplace() throws ObjectStreamException {
+			return CodecRegistry.getInstance().replace(this);
+		}
 	}
 }
@@ -0,0 +1,127 @@
+/**
+ * OpenRDS - Open Requisition Distribution System
+ * Copyright (c) 2006 Rodrigo Zechin Rosauro
+ * 
+ * This software program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software Foundation;
+ * either version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ * 
+ * SerializationBenchmark.java
+ */
+
+package net.sf.openrds.examples;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import net.sf.openrds.CodecRegistry;
+import net.sf.openrds.ICodec;
+
+/**
+ * Compares the size and the time spent serializing the requisitions and results of the
+ * PrimeNumber example, with and without their codecs (see CodecRegistry).<BR>
+ * It does not need any node, just run it. The sizes are the ones written by each object
+ * in its own stream, as it happens on each remote call.
+ */
+public class SerializationBenchmark {
+	/** Number of times each object is serialized */
+	private static final int ROUNDS = 20000;
+
+	/**
+	 * Main
+	 * @param args pass the quantity of numbers checked by each sub-requisition (default 1200,
+	 * as PrimeNumber does with 60000 numbers on one node)
+	 * @throws Exception on any error
+	 */
+	public static void main(String[] args) throws Exception {
+		final int qty = args.length > 0 ? Integer.parseInt(args[0]) : 1200;
+		final PrimeNumber.PrimeSubRequisition req = new PrimeNumber.PrimeSubRequisition(qty * 10, qty);
+		final Object result = req.process();
+		System.out.println();
+		System.out.println("Object                  Codec   Bytes   Encode (us)   Decode (us)");
+		measure("PrimeSubRequisition", req);
+		measure("PrimeList (" + ((PrimeNumber.PrimeList) result).size() + " primes)", result);
+	}
+	/**
+	 * Measures an object without and with its codec
+	 * @param name name to print
+	 * @param obj object
+	 * @throws Exception on any error
+	 */
+	private static void measure(String name, Object obj) throws Exception {
+		final ICodec codec = CodecRegistry.getInstance().getCodec(obj.getClass());
+		CodecRegistry.getInstance().unregister(obj.getClass());
+		print(name, "no ", obj);
+		CodecRegistry.getInstance().register(obj.getClass(), codec);
+		print(name, "yes", obj);
+	}
+	/**
+	 * Measures and prints the serialization of an object
+	 * @param name name to print
+	 * @param codec codec column
+	 * @param obj object
+	 * @throws Exception on any error
+	 */
+	private static void print(String name, String codec, Object obj) throws Exception {
+		byte[] data = null;
+		// Warm-up
+		for (int i = 0; i < ROUNDS; i++) {
+			data = encode(obj);
+			decode(data);
+		}
+		long time = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			data = encode(obj);
+		}
+		final long encode = (System.nanoTime() - time) / ROUNDS;
+		time = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			decode(data);
+		}
+		final long decode = (System.nanoTime() - time) / ROUNDS;
+		System.out.println(pad(name, 24) + pad(codec, 8) + pad(String.valueOf(data.length), 8)
+				+ pad(String.valueOf(encode / 1000.0), 14) + (decode / 1000.0));
+	}
+	/**
+	 * Serializes an object
+	 * @param obj object
+	 * @return serialized object
+	 * @throws IOException on any error
+	 */
+	private static byte[] encode(Object obj) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(obj);
+		out.close();
+		return bytes.toByteArray();
+	}
+	/**
+	 * Deserializes an object
+	 * @param data serialized object
+	 * @return object
+	 * @throws Exception on any error
+	 */
+	private static Object decode(byte[] data) throws Exception {
+		return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+	}
+	/**
+	 * Pads a string with spaces
+	 * @param str string
+	 * @param size final size
+	 * @return padded string
+	 */
+	private static String pad(String str, int size) {
+		final StringBuffer buf = new StringBuffer(str);
+		while (buf.length() < size) {
+			buf.append(' ');
+		}
+		return buf.toString();
+	}
+}